@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.io.Dx7TarReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A single input to a batch conversion: a file, an entry in a ZIP archive,
+ * or a member of a tar archive.
+ */
+
+final class Dx7BatchInput
+{
+  private final Path name;
+  private final URI uri;
+  private final URI source;
+  private final Optional<Path> base_directory;
+  private final OpenerType opener;
+
+  private Dx7BatchInput(
+    final Path in_name,
+    final URI in_uri,
+    final URI in_source,
+    final Optional<Path> in_base_directory,
+    final OpenerType in_opener)
+  {
+    this.name = Objects.requireNonNull(in_name, "Name");
+    this.uri = Objects.requireNonNull(in_uri, "URI");
+    this.source = Objects.requireNonNull(in_source, "Source");
+    this.base_directory =
+      Objects.requireNonNull(in_base_directory, "Base directory");
+    this.opener = Objects.requireNonNull(in_opener, "Opener");
+  }
+
+  /**
+   * Create an input for a file, which may be inside a ZIP archive.
+   *
+   * @param file The file
+   *
+   * @return An input
+   */
+
+  static Dx7BatchInput ofFile(
+    final Path file)
+  {
+    return new Dx7BatchInput(
+      file,
+      file.toUri(),
+      Dx7ZipArchives.sourceURI(file),
+      Optional.ofNullable(file.getParent()),
+      () -> Files.newInputStream(file));
+  }
+
+  /**
+   * Create an input for a member of a tar archive. Members are identified
+   * with URIs of the form {@code tar:file:///x.tar.gz!/member}.
+   *
+   * @param archive The archive
+   * @param member  The member
+   *
+   * @return An input
+   */
+
+  static Dx7BatchInput ofTarMember(
+    final Path archive,
+    final Dx7TarReader.Member member)
+  {
+    final URI source;
+    try {
+      source = new URI(
+        "tar",
+        archive.toAbsolutePath().toUri() + "!/" + member.name(),
+        null);
+    } catch (final URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+
+    return new Dx7BatchInput(
+      Paths.get(member.name()),
+      source,
+      source,
+      Optional.empty(),
+      () -> new ByteArrayInputStream(member.data()));
+  }
+
+  /**
+   * @return The name of the input, used to infer formats
+   */
+
+  Path name()
+  {
+    return this.name;
+  }
+
+  /**
+   * @return The URI used to identify the input to parsers
+   */
+
+  URI uri()
+  {
+    return this.uri;
+  }
+
+  /**
+   * @return The URI recorded as the source of voices in the input
+   */
+
+  URI source()
+  {
+    return this.source;
+  }
+
+  /**
+   * @return The directory against which relative references are resolved
+   */
+
+  Optional<Path> baseDirectory()
+  {
+    return this.base_directory;
+  }
+
+  /**
+   * @return A new stream for the input
+   *
+   * @throws IOException On I/O errors
+   */
+
+  InputStream open()
+    throws IOException
+  {
+    return this.opener.open();
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.source.toString();
+  }
+
+  @FunctionalInterface
+  private interface OpenerType
+  {
+    InputStream open()
+      throws IOException;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+@Parameters(
+  commandNames = "client",
+  commandDescription = "Send a command to a running server (example: client -- convert -file-input a.syx -file-output a.xml)")
+final class Dx7CommandClient extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandClient.class);
+
+  @Parameter(
+    names = "-address",
+    required = false,
+    description = "The address of the server")
+  private String address = "127.0.0.1";
+
+  @Parameter(
+    names = "-port",
+    required = false,
+    description = "The port of the server")
+  private int port = Dx7ServeProtocol.DEFAULT_PORT;
+
+  @Parameter(
+    names = "-token-file",
+    required = false,
+    description = "The file containing the server's access token (default: ~/.jdextrosa/serve-<port>.token)")
+  private Path token_file;
+
+  @Parameter(
+    description = "The command to send to the server")
+  private List<String> arguments = new ArrayList<>();
+
+  Dx7CommandClient()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    final Path token_path;
+    if (this.token_file != null) {
+      token_path = this.token_file.toAbsolutePath();
+    } else {
+      token_path = Dx7ServeProtocol.defaultTokenFile(this.port);
+    }
+    final String token;
+    try {
+      token = Dx7ServeProtocol.readToken(token_path);
+    } catch (final NoSuchFileException e) {
+      throw new IOException(
+        "No access token at " + token_path + " (is the server running?)", e);
+    }
+
+    try (Socket socket =
+           new Socket(InetAddress.getByName(this.address), this.port)) {
+      final DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      final DataInputStream input =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      Dx7ServeProtocol.writeRequest(
+        output, token, this.arguments.toArray(new String[0]));
+
+      final int exit_code = input.readInt();
+      final String message = input.readUTF();
+
+      /*
+       * The message holds the messages logged by the server while it
+       * executed the command, each prefixed with its level.
+       */
+
+      if (!message.isEmpty()) {
+        if (exit_code == 0) {
+          LOG.info("server:\n{}", message);
+        } else {
+          LOG.error("server:\n{}", message);
+        }
+      }
+      return exit_code == 0 ? Status.SUCCESS : Status.FAILURE;
+    }
+  }
+}
@@ -21,23 +21,21 @@ import com.beust.jcommander.Parameters;
 import com.io7m.jdextrosa.core.Dx7Operator;
 import com.io7m.jdextrosa.core.Dx7OperatorID;
 import com.io7m.jdextrosa.core.Dx7Voice;
-import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
 import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
 import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
 import com.io7m.jdextrosa.io.Dx7SysExIO;
-import com.io7m.jdextrosa.io.Dx7SysExReaderType;
-import com.io7m.jdextrosa.io.Dx7SysExWriterType;
+import com.io7m.jdextrosa.io.Dx7TarReader;
 import com.io7m.jdextrosa.io.xml.Dx7ParserConfigurationException;
 import com.io7m.jdextrosa.io.xml.Dx7WriterConfigurationException;
 import com.io7m.jdextrosa.io.xml.Dx7XMLParserType;
-import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
-import com.io7m.jdextrosa.io.xml.Dx7XMLWriters;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
 import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
 import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
-import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterRequest;
-import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterType;
+import com.io7m.jdextrosa.library.Dx7Deduplicator;
+import com.io7m.jdextrosa.library.Dx7DeduplicatorConfiguration;
 import com.io7m.junreachable.UnreachableCodeException;
-import com.io7m.mutable.numbers.core.MutableInteger;
 import io.vavr.collection.Seq;
 import io.vavr.collection.Vector;
 import io.vavr.control.Validation;
@@ -45,41 +43,77 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URLEncoder;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 @Parameters(
   commandNames = "parse-batch",
-  commandDescription = "Parse each SysEx file specified in the given batch file")
+  commandDescription = "Parse each file specified in the given batch file or found in the given directories")
 final class Dx7CommandConvertBatch extends Dx7CommandRoot
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(Dx7CommandConvertBatch.class);
 
-  private final Dx7XMLParsers xml_parsers;
-  private final Dx7XMLWriters xml_writers;
+  private static final int FILES_IN_FLIGHT_PER_THREAD = 4;
 
   @Parameter(
     names = "-file-batch",
-    required = true,
+    required = false,
     description = "The batch file")
   private Path path;
 
+  @Parameter(
+    names = "-input-dir",
+    required = false,
+    description = "A directory tree containing input files (may be repeated; files are parsed in name order, depth first)")
+  private List<Path> input_dirs = new ArrayList<>();
+
+  @Parameter(
+    names = "-input-zip",
+    required = false,
+    description = "A ZIP archive containing input files (may be repeated; files are parsed in name order, depth first)")
+  private List<Path> input_zips = new ArrayList<>();
+
+  @Parameter(
+    names = "-input-tar",
+    required = false,
+    description = "A tar or tar.gz archive containing input files (may be repeated; read sequentially after all other inputs)")
+  private List<Path> input_tars = new ArrayList<>();
+
+  @Parameter(
+    names = "-glob",
+    required = false,
+    description = "A glob pattern that files in input directories must match, relative to the directory or archive root (such as **/*.syx)")
+  private String glob;
+
   @Parameter(
     names = "-format-output",
     required = false,
@@ -93,11 +127,74 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
     description = "The output file")
   private Path file_output;
 
+  @Parameter(
+    names = "-store-output",
+    required = false,
+    description = "A voice store directory to which voices are appended (created if it does not exist)")
+  private Path store_output;
+
+  @Parameter(
+    names = "-xml-schema",
+    required = false,
+    description = "The schema used for XML output (schema:com.io7m.jdextrosa:2.0 produces packed voices)")
+  private URI xml_schema = URI.create("schema:com.io7m.jdextrosa:1.0");
+
+  @Parameter(
+    names = "-xml-max-errors",
+    required = false,
+    description = "The maximum number of errors reported for an XML file before parsing stops")
+  private int xml_max_errors = Dx7XMLErrorLog.DEFAULT_MAXIMUM_ERRORS;
+
+  @Parameter(
+    names = "-cache-dir",
+    required = false,
+    description = "A directory of parse results keyed by file content; files whose content has been parsed before are not parsed again")
+  private Path cache_dir;
+
+  @Parameter(
+    names = "-threads",
+    required = false,
+    description = "The number of files parsed concurrently")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
   @Parameter(
     names = "-pick-random-32",
     required = false,
     description = "Make a random selection of 32 non-default voices")
   private boolean pick_random_32;
+
+  @Parameter(
+    names = "-dedup",
+    required = false,
+    description = "Remove duplicate voices, keeping the first occurrence of each voice")
+  private boolean dedup;
+
+  @Parameter(
+    names = "-dedup-names",
+    required = false,
+    description = "When removing duplicates, consider voices with identical parameters but different names to be distinct")
+  private boolean dedup_names;
+
+  @Parameter(
+    names = "-dedup-canonical",
+    required = false,
+    description = "When removing duplicates, consider voices that differ only in ways that cannot be heard (silent operators, interchangeable operators) to be duplicates")
+  private boolean dedup_canonical;
+
+  @Parameter(
+    names = "-file-duplicates",
+    required = false,
+    description = "When removing duplicates, a file to which the provenance of each removed duplicate is written")
+  private Path file_duplicates;
+
+  @Parameter(
+    names = "-seed",
+    required = false,
+    description = "The seed used for random selections (a seed is chosen and logged if not specified)")
+  private Long seed;
+
+  private Dx7ParseCache cache;
+
   public static final Dx7Voice DEFAULT_VOICE = Dx7Voice.builder()
     .setOperator1(Dx7Operator.of(Dx7OperatorID.of(1)))
     .setOperator2(Dx7Operator.of(Dx7OperatorID.of(2)))
@@ -109,8 +206,7 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
 
   Dx7CommandConvertBatch()
   {
-    this.xml_parsers = new Dx7XMLParsers();
-    this.xml_writers = new Dx7XMLWriters();
+
   }
 
   private static Dx7Format inferFileFormat(
@@ -121,25 +217,9 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
       return format;
     }
 
-    final String path_upper = path.toString().toUpperCase();
-    if (path_upper.endsWith(".SYSX")) {
-      return Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE;
-    }
-    if (path_upper.endsWith(".SYX")) {
-      return Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE;
-    }
-    if (path_upper.endsWith(".DX7")) {
-      return Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE;
-    }
-    if (path_upper.endsWith(".XML")) {
-      return Dx7Format.DX7_FORMAT_XML;
-    }
-    if (path_upper.endsWith(".XML.GZ")) {
-      return Dx7Format.DX7_FORMAT_XML_GZ;
-    }
-
-    throw new IllegalArgumentException(
-      "Could not infer file format from file name: " + path);
+    return Dx7FormatDetector.inferFromName(path).orElseThrow(
+      () -> new IllegalArgumentException(
+        "Could not infer file format from file name: " + path));
   }
 
   @Override
@@ -150,26 +230,40 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
       return Status.FAILURE;
     }
 
+    if (this.path == null
+      && this.input_dirs.isEmpty()
+      && this.input_zips.isEmpty()
+      && this.input_tars.isEmpty()) {
+      LOG.error(
+        "At least one of -file-batch, -input-dir, -input-zip, or -input-tar must be specified");
+      return Status.FAILURE;
+    }
+
+    if (this.file_output != null && this.store_output != null) {
+      LOG.error("-file-output and -store-output cannot be used together");
+      return Status.FAILURE;
+    }
+
+    if (this.dedup && this.pick_random_32) {
+      LOG.error("-dedup and -pick-random-32 cannot be used together");
+      return Status.FAILURE;
+    }
+
     final Optional<Path> output =
       this.determineOutputPath();
 
-    final List<Path> files =
-      Files.lines(this.path)
-        .map(Paths::get)
-        .collect(Collectors.toList());
-
-    final MutableInteger errors = MutableInteger.create();
-    final MutableInteger warnings = MutableInteger.create();
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicInteger warnings = new AtomicInteger();
 
     final Dx7ParseErrorListenerType parse_errors = e -> {
       switch (e.severity()) {
         case WARNING: {
-          warnings.setValue(warnings.value() + 1);
+          warnings.incrementAndGet();
           LOG.warn("{}", e.show());
           break;
         }
         case ERROR: {
-          errors.setValue(errors.value() + 1);
+          errors.incrementAndGet();
           LOG.error("{}", e.show());
           break;
         }
@@ -179,45 +273,402 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
     final Consumer<? super Dx7XMLParseError> xml_errors = e -> {
       switch (e.severity()) {
         case WARNING: {
-          warnings.setValue(warnings.value() + 1);
+          warnings.incrementAndGet();
           LOG.warn("{}", e.show());
           break;
         }
         case ERROR: {
-          errors.setValue(errors.value() + 1);
+          errors.incrementAndGet();
           LOG.error("{}", e.show());
           break;
         }
       }
     };
 
-    Vector<Dx7VoiceNamed> voices_all = Vector.empty();
-    for (final Path patch_file : files) {
-      try {
-        LOG.info("parse: {}", patch_file);
-        final Dx7Format format =
-          inferFileFormat(patch_file, null);
-        voices_all =
-          voices_all.appendAll(updateMetadata(
-            patch_file,
-            this.parse(patch_file, format, parse_errors, xml_errors)));
-      } catch (final IllegalArgumentException e) {
-        LOG.error("parse: {}: illegal argument: ", patch_file, e);
-      } catch (final Dx7ParserConfigurationException e) {
-        LOG.error("parse: {}: parser configuration: ", patch_file, e);
+    if (this.cache_dir != null) {
+      this.cache = Dx7ParseCache.open(this.cache_dir);
+    }
+
+    final AtomicInteger parsed = new AtomicInteger();
+    try (Stream<Path> batch = this.batchFiles();
+         Dx7ZipArchives archives = Dx7ZipArchives.open(this.input_zips);
+         Dx7FileWalker walker = this.walkInputDirectories(archives);
+         Dx7VoiceSinkType sink = this.createSink(output)) {
+      final Iterator<Dx7BatchInput> files =
+        Stream.concat(batch, streamOf(walker))
+          .map(Dx7BatchInput::ofFile)
+          .iterator();
+
+      if (this.pick_random_32) {
+        this.sampleAll(files, parse_errors, xml_errors, parsed, sink);
+      } else {
+        this.parseAll(files, parse_errors, xml_errors, parsed, sink);
       }
+      sink.finish();
     }
 
     LOG.debug(
       "parsed {} voices ({} warnings, {} errors)",
-      Integer.valueOf(voices_all.size()),
-      Integer.valueOf(warnings.value()),
-      Integer.valueOf(errors.value()));
+      Integer.valueOf(parsed.get()),
+      Integer.valueOf(warnings.get()),
+      Integer.valueOf(errors.get()));
+
+    if (this.cache != null) {
+      LOG.debug(
+        "cache: {} hits, {} misses",
+        Long.valueOf(this.cache.hits()),
+        Long.valueOf(this.cache.misses()));
+    }
 
-    this.writeOutput(output, voices_all);
     return Status.SUCCESS;
   }
 
+  private static <T> Stream<T> streamOf(
+    final Iterator<T> iterator)
+  {
+    return StreamSupport.stream(
+      Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED),
+      false);
+  }
+
+  private Stream<Path> batchFiles()
+    throws IOException
+  {
+    if (this.path == null) {
+      return Stream.empty();
+    }
+    return Files.lines(this.path).map(Paths::get);
+  }
+
+  /**
+   * Start walking the input directories and archives. The walk proceeds in
+   * the background while earlier files are parsed, and returns files in the
+   * same order on every run.
+   */
+
+  private Dx7FileWalker walkInputDirectories(
+    final Dx7ZipArchives archives)
+  {
+    final List<Path> roots = new ArrayList<>(this.input_dirs.size());
+    for (final Path dir : this.input_dirs) {
+      roots.add(dir.toAbsolutePath());
+    }
+    roots.addAll(archives.roots());
+    return new Dx7FileWalker(roots, this.inputFilter(), this.threads);
+  }
+
+  /**
+   * @return A filter that accepts files with a recognized format that
+   * match the glob pattern, if any
+   */
+
+  private Dx7FileWalker.FilterType inputFilter()
+  {
+    final Optional<String> glob_pattern =
+      Optional.ofNullable(this.glob).map(g -> "glob:" + g);
+    final Map<FileSystem, PathMatcher> matchers = new ConcurrentHashMap<>();
+
+    return (root, file) -> {
+      if (!Dx7FormatDetector.inferFromName(file).isPresent()) {
+        return false;
+      }
+      return glob_pattern
+        .map(g -> {
+          final PathMatcher matcher =
+            matchers.computeIfAbsent(
+              root.getFileSystem(), fs -> fs.getPathMatcher(g));
+          return Boolean.valueOf(matcher.matches(root.relativize(file)));
+        })
+        .orElse(Boolean.TRUE)
+        .booleanValue();
+    };
+  }
+
+  private Predicate<String> tarMemberFilter()
+  {
+    final Dx7FileWalker.FilterType filter = this.inputFilter();
+    final Path root = Paths.get("");
+    return name -> {
+      try {
+        return filter.accept(root, Paths.get(name));
+      } catch (final InvalidPathException e) {
+        LOG.warn("tar: unusable member name: {}", name);
+        return false;
+      }
+    };
+  }
+
+  private void parseAll(
+    final Iterator<Dx7BatchInput> files,
+    final Dx7ParseErrorListenerType parse_errors,
+    final Consumer<? super Dx7XMLParseError> xml_errors,
+    final AtomicInteger parsed,
+    final Dx7VoiceSinkType sink)
+    throws IOException
+  {
+    final TaskType<Vector<Dx7VoiceNamed>> task = input -> {
+      final Vector<Dx7VoiceNamed> voices =
+        this.parseInput(input, parse_errors, xml_errors);
+      parsed.addAndGet(voices.size());
+      return voices;
+    };
+
+    if (!this.dedup) {
+      this.runInputs(files, task, sink::accept);
+      return;
+    }
+
+    /*
+     * Results are received in batch order on a single thread, so the first
+     * occurrence of each voice is the same regardless of the thread count.
+     */
+
+    final Dx7Deduplicator deduplicator =
+      Dx7Deduplicator.create(
+        Dx7DeduplicatorConfiguration.builder()
+          .setIncludeNames(this.dedup_names)
+          .setCanonicalize(this.dedup_canonical)
+          .build());
+
+    this.runInputs(
+      files, task, voices -> sink.accept(deduplicator.filter(voices)));
+
+    LOG.debug(
+      "{} distinct voices, {} duplicates removed",
+      Integer.valueOf(deduplicator.distinctCount()),
+      Long.valueOf(deduplicator.duplicateCount()));
+
+    if (this.file_duplicates != null) {
+      Dx7DuplicateReports.write(
+        this.file_duplicates.toAbsolutePath(),
+        deduplicator.duplicateGroups());
+    }
+  }
+
+  /**
+   * Sample each file into its own reservoir as the file is parsed, and
+   * merge the reservoirs.
+   */
+
+  private void sampleAll(
+    final Iterator<Dx7BatchInput> files,
+    final Dx7ParseErrorListenerType parse_errors,
+    final Consumer<? super Dx7XMLParseError> xml_errors,
+    final AtomicInteger parsed,
+    final Dx7VoiceSinkType sink)
+    throws IOException
+  {
+    final long seed_actual = this.determineSeed();
+    LOG.debug("picking 32 random patches (seed {})", Long.valueOf(seed_actual));
+
+    final Dx7VoiceReservoir reservoir = new Dx7VoiceReservoir(32);
+    this.runInputs(
+      files,
+      input -> {
+        final Vector<Dx7VoiceNamed> voices =
+          this.parseInput(input, parse_errors, xml_errors);
+        parsed.addAndGet(voices.size());
+        return sample(seed_actual, input.source(), voices);
+      },
+      reservoir::merge);
+
+    final Vector<Dx7VoiceNamed> voices = reservoir.voices();
+    LOG.debug(
+      "picked {} of {} eligible voices",
+      Integer.valueOf(voices.size()),
+      Long.valueOf(reservoir.offered()));
+
+    sink.accept(voices);
+  }
+
+  private static Dx7VoiceReservoir sample(
+    final long seed,
+    final URI source,
+    final Vector<Dx7VoiceNamed> voices)
+  {
+    final String file_name = source.toString();
+    final Dx7VoiceReservoir reservoir = new Dx7VoiceReservoir(32);
+    for (int index = 0; index < voices.size(); ++index) {
+      final Dx7VoiceNamed voice = voices.get(index);
+      if (shouldBeIncluded(voice)) {
+        reservoir.offer(
+          Dx7VoiceReservoir.key(seed, file_name, index), voice);
+      }
+    }
+    return reservoir;
+  }
+
+  private long determineSeed()
+  {
+    if (this.seed != null) {
+      return this.seed.longValue();
+    }
+
+    final long seed_random = new SecureRandom().nextLong();
+    LOG.info("random seed: {}", Long.valueOf(seed_random));
+    return seed_random;
+  }
+
+  /**
+   * Run a task for each of the given inputs, and then for each member of
+   * each tar archive.
+   */
+
+  private <T> void runInputs(
+    final Iterator<Dx7BatchInput> files,
+    final TaskType<T> task,
+    final ReceiverType<T> receiver)
+    throws IOException
+  {
+    final int thread_count = Math.max(1, this.threads);
+    this.runAll(
+      () -> files.hasNext() ? Optional.of(files.next()) : Optional.empty(),
+      thread_count * FILES_IN_FLIGHT_PER_THREAD,
+      task,
+      receiver);
+
+    /*
+     * Tar archives can only be read sequentially, and members are held in
+     * memory until they are decoded, so only one member is decoded at a
+     * time while the next member is read and decompressed.
+     */
+
+    final Predicate<String> filter = this.tarMemberFilter();
+    for (final Path tar : this.input_tars) {
+      final Path archive = tar.toAbsolutePath();
+      LOG.info("tar: {}", archive);
+      try (Dx7TarReader reader = Dx7TarReader.open(archive, filter)) {
+        this.runAll(
+          () -> reader.next()
+            .map(member -> Dx7BatchInput.ofTarMember(archive, member)),
+          1,
+          task,
+          receiver);
+      }
+    }
+  }
+
+  /**
+   * Run a task for each of the given inputs concurrently, delivering the
+   * results to the receiver in the order that the inputs were given. At
+   * most {@code in_flight_maximum} inputs are in flight at any one time, so
+   * inputs are only read as quickly as the receiver consumes results.
+   */
+
+  private <T> void runAll(
+    final InputSourceType files,
+    final int in_flight_maximum,
+    final TaskType<T> task,
+    final ReceiverType<T> receiver)
+    throws IOException
+  {
+    final int thread_count = Math.max(1, this.threads);
+    final ExecutorService executor =
+      Executors.newWorkStealingPool(thread_count);
+    final ArrayDeque<Future<T>> in_flight =
+      new ArrayDeque<>(in_flight_maximum);
+
+    try {
+      while (true) {
+        if (in_flight.size() >= in_flight_maximum) {
+          receiver.receive(waitFor(in_flight.remove()));
+        }
+
+        final Optional<Dx7BatchInput> input = files.next();
+        if (!input.isPresent()) {
+          break;
+        }
+
+        final Dx7BatchInput current = input.get();
+        in_flight.add(executor.submit(() -> task.run(current)));
+      }
+
+      while (!in_flight.isEmpty()) {
+        receiver.receive(waitFor(in_flight.remove()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @FunctionalInterface
+  private interface InputSourceType
+  {
+    Optional<Dx7BatchInput> next()
+      throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface TaskType<T>
+  {
+    T run(Dx7BatchInput input)
+      throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface ReceiverType<T>
+  {
+    void receive(T result)
+      throws IOException;
+  }
+
+  private static <T> T waitFor(
+    final Future<T> future)
+    throws IOException
+  {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private Vector<Dx7VoiceNamed> parseInput(
+    final Dx7BatchInput input,
+    final Dx7ParseErrorListenerType parse_errors,
+    final Consumer<? super Dx7XMLParseError> xml_errors)
+    throws IOException
+  {
+    LOG.info("parse: {}", input);
+
+    try (InputStream stream = new BufferedInputStream(input.open())) {
+      final Dx7Format format =
+        Dx7FormatDetector.infer(input.name(), stream);
+
+      if (this.cache != null) {
+        return updateMetadata(
+          input.source(),
+          this.cache.parse(
+            format,
+            true,
+            stream.readAllBytes(),
+            input.uri(),
+            parse_errors,
+            (data, errors) ->
+              this.parse(input, data, format, errors, xml_errors)));
+      }
+
+      return updateMetadata(
+        input.source(),
+        this.parse(input, stream, format, parse_errors, xml_errors));
+    } catch (final IllegalArgumentException e) {
+      LOG.error("parse: {}: illegal argument: ", input, e);
+    } catch (final Dx7ParserConfigurationException e) {
+      LOG.error("parse: {}: parser configuration: ", input, e);
+    }
+    return Vector.empty();
+  }
+
   private Optional<Path> determineOutputPath()
   {
     final Optional<Path> output;
@@ -233,29 +684,36 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
     return output;
   }
 
-  private void writeOutput(
-    final Optional<Path> output,
-    final Vector<Dx7VoiceNamed> voices_all)
+  private Dx7VoiceSinkType createSink(
+    final Optional<Path> output)
     throws IOException, Dx7WriterConfigurationException
   {
-    final Vector<Dx7VoiceNamed> voices;
-    if (output.isPresent()) {
-      final Path out = output.get();
+    if (this.store_output != null) {
+      final Path store = this.store_output.toAbsolutePath();
+      LOG.debug("write: store {}", store);
+      return Dx7VoiceSinks.store(store);
+    }
 
-      if (this.pick_random_32) {
-        LOG.debug("picking 32 random patches");
+    if (!output.isPresent()) {
+      return Dx7VoiceSinks.discard();
+    }
 
-        final Vector<Dx7VoiceNamed> voices_shuffled =
-          voices_all.filter(Dx7CommandConvertBatch::shouldBeIncluded)
-            .shuffle();
-        voices = voices_shuffled.take(Math.min(32, voices_shuffled.size()));
-      } else {
-        voices = voices_all;
-      }
+    final Path out = output.get();
+    LOG.debug("write: {} ({})", out, this.format_output);
 
-      LOG.debug("write: {} ({})", out, this.format_output);
-      this.write(voices, out, this.format_output);
+    switch (this.format_output) {
+      case DX7_FORMAT_XML:
+        return Dx7VoiceSinks.xml(
+          Dx7XMLMachinery.writers(), this.xml_schema, out, false);
+      case DX7_FORMAT_XML_GZ:
+        return Dx7VoiceSinks.xml(
+          Dx7XMLMachinery.writers(), this.xml_schema, out, true);
+      case DX7_FORMAT_BINARY_SYSEX_32_VOICE:
+        return Dx7VoiceSinks.sysEx32(out);
+      case DX7_FORMAT_ARCHIVE:
+        return Dx7VoiceSinks.archive(out);
     }
+    throw new UnreachableCodeException();
   }
 
   private static boolean shouldBeIncluded(
@@ -271,7 +729,8 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
   }
 
   private Vector<Dx7VoiceNamed> parse(
-    final Path file,
+    final Dx7BatchInput input,
+    final InputStream stream,
     final Dx7Format format,
     final Dx7ParseErrorListenerType parse_errors,
     final Consumer<? super Dx7XMLParseError> xml_errors)
@@ -279,68 +738,35 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
   {
     switch (format) {
       case DX7_FORMAT_XML: {
-        return this.parseXML(file, xml_errors);
+        return this.parseXMLStream(input, xml_errors, stream);
       }
       case DX7_FORMAT_XML_GZ: {
-        return this.parseXMLGZ(file, xml_errors);
+        return this.parseXMLStream(
+          input, xml_errors, new GZIPInputStream(stream));
       }
       case DX7_FORMAT_BINARY_SYSEX_32_VOICE: {
-        return parseSysEx32(file, parse_errors);
+        return Dx7SysExIO.createReader(parse_errors, input.uri(), stream)
+          .parse();
+      }
+      case DX7_FORMAT_ARCHIVE: {
+        return Dx7ArchiveIO.readAll(parse_errors, input.uri(), stream);
       }
     }
     throw new UnreachableCodeException();
   }
 
-  private Vector<Dx7VoiceNamed> parseXMLGZ(
-    final Path file,
-    final Consumer<? super Dx7XMLParseError> xml_errors)
-    throws IOException, Dx7ParserConfigurationException
-  {
-    try (InputStream stream =
-           new GZIPInputStream(
-             new BufferedInputStream(Files.newInputStream(file)))) {
-      return this.parseXMLStream(file, xml_errors, stream);
-    }
-  }
-
-  private static Vector<Dx7VoiceNamed> parseSysEx32(
-    final Path file,
-    final Dx7ParseErrorListenerType error_listener)
-    throws IOException
-  {
-    try (InputStream stream =
-           new BufferedInputStream(Files.newInputStream(file))) {
-      final Dx7SysExReaderType reader =
-        Dx7SysExIO.createReader(error_listener, file.toUri(), stream);
-
-      return reader.parse();
-    }
-  }
-
-  private Vector<Dx7VoiceNamed> parseXML(
-    final Path file,
-    final Consumer<? super Dx7XMLParseError> xml_errors)
-    throws IOException, Dx7ParserConfigurationException
-  {
-    try (InputStream stream =
-           new BufferedInputStream(Files.newInputStream(file))) {
-      return this.parseXMLStream(file, xml_errors, stream);
-    }
-  }
-
   private Vector<Dx7VoiceNamed> parseXMLStream(
-    final Path file,
+    final Dx7BatchInput input,
     final Consumer<? super Dx7XMLParseError> xml_errors,
     final InputStream stream)
     throws IOException, Dx7ParserConfigurationException
   {
-    final Path parent = file.getParent();
-
     final Dx7XMLParserType parser =
-      this.xml_parsers.create(Dx7XMLParserRequest.builder()
-                                .setBaseDirectory(parent)
-                                .setFile(file.toUri())
+      Dx7XMLMachinery.parsers().create(Dx7XMLParserRequest.builder()
+                                .setBaseDirectory(input.baseDirectory())
+                                .setFile(input.uri())
                                 .setStream(stream)
+                                .setMaximumErrors(this.xml_max_errors)
                                 .build());
 
     final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
@@ -354,86 +780,8 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
     throw new IOException("At least one parse error occurred.");
   }
 
-  private void write(
-    final Vector<Dx7VoiceNamed> voices,
-    final Path file,
-    final Dx7Format format)
-    throws IOException, Dx7WriterConfigurationException
-  {
-    switch (format) {
-      case DX7_FORMAT_XML:
-        this.writeXML(voices, file);
-        break;
-      case DX7_FORMAT_XML_GZ:
-        this.writeXMLGZ(voices, file);
-        break;
-      case DX7_FORMAT_BINARY_SYSEX_32_VOICE:
-        writeSysEx32(voices, file);
-        break;
-    }
-  }
-
-  private static void writeSysEx32(
-    final Vector<Dx7VoiceNamed> voices,
-    final Path file)
-    throws IOException
-  {
-    try (OutputStream stream = Files.newOutputStream(file)) {
-      try (Dx7SysExWriterType writer = Dx7SysExIO.createWriter(
-        file.toUri(),
-        stream)) {
-        writer.write(voices);
-      }
-    }
-  }
-
-  private void writeXMLGZ(
-    final Vector<Dx7VoiceNamed> voices,
-    final Path file)
-    throws IOException, Dx7WriterConfigurationException
-  {
-    try (OutputStream stream =
-           new GZIPOutputStream(
-             new BufferedOutputStream(Files.newOutputStream(file)))) {
-      this.writeXMLStream(voices, file, stream);
-      stream.flush();
-    }
-  }
-
-  private void writeXML(
-    final Vector<Dx7VoiceNamed> voices,
-    final Path file)
-    throws IOException, Dx7WriterConfigurationException
-  {
-    try (OutputStream stream =
-           new BufferedOutputStream(Files.newOutputStream(file))) {
-      this.writeXMLStream(voices, file, stream);
-      stream.flush();
-    }
-  }
-
-  private void writeXMLStream(
-    final Vector<Dx7VoiceNamed> voices,
-    final Path file,
-    final OutputStream stream)
-    throws IOException, Dx7WriterConfigurationException
-  {
-    final Dx7XMLWriterRequest request =
-      Dx7XMLWriterRequest.builder()
-        .setFile(file.toUri())
-        .setSchema(URI.create("schema:com.io7m.jdextrosa:1.0"))
-        .setStream(stream)
-        .build();
-
-    try (Dx7XMLWriterType writer = this.xml_writers.createWriter(request)) {
-      writer.start();
-      writer.write(voices);
-      writer.finish();
-    }
-  }
-
   private static Vector<Dx7VoiceNamed> updateMetadata(
-    final Path file,
+    final URI source,
     final Vector<Dx7VoiceNamed> voices)
   {
     return voices.map(
@@ -441,19 +789,6 @@ final class Dx7CommandConvertBatch extends Dx7CommandRoot
         voice.name(),
         voice.voice(),
         Optional.of(
-          Dx7VoiceMetadata.builder()
-            .setSource(file.toUri())
-            .setId(URI.create(file.toUri().toString() + "/" + makeNameSafe(voice)))
-            .build())));
-  }
-
-  private static String makeNameSafe(
-    final Dx7VoiceNamed voice)
-  {
-    try {
-      return URLEncoder.encode(voice.name(), "UTF-8");
-    } catch (final UnsupportedEncodingException e) {
-      throw new UnreachableCodeException(e);
-    }
+          Dx7VoiceSourceTable.derivedMetadata(source, voice.name()))));
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.library.Dx7Deduplicator;
+import com.io7m.jdextrosa.library.Dx7DeduplicatorConfiguration;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+@Parameters(
+  commandNames = "dedup",
+  commandDescription = "Remove duplicate voices from the given file, keeping the first occurrence of each voice")
+final class Dx7CommandDedup extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandDedup.class);
+
+  @ParametersDelegate
+  private final Dx7InputOptions input = new Dx7InputOptions();
+
+  @ParametersDelegate
+  private final Dx7OutputOptions output = new Dx7OutputOptions();
+
+  @Parameter(
+    names = "-dedup-names",
+    required = false,
+    description = "Consider voices with identical parameters but different names to be distinct")
+  private boolean dedup_names;
+
+  @Parameter(
+    names = "-dedup-canonical",
+    required = false,
+    description = "Consider voices that differ only in ways that cannot be heard (silent operators, interchangeable operators) to be duplicates")
+  private boolean dedup_canonical;
+
+  @Parameter(
+    names = "-file-report",
+    required = false,
+    description = "A file to which the provenance of each removed duplicate is written")
+  private Path file_report;
+
+  Dx7CommandDedup()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    final Vector<Dx7VoiceNamed> voices =
+      this.input.parsePreservingMetadata();
+
+    final Dx7Deduplicator deduplicator =
+      Dx7Deduplicator.create(
+        Dx7DeduplicatorConfiguration.builder()
+          .setIncludeNames(this.dedup_names)
+          .setCanonicalize(this.dedup_canonical)
+          .setExpectedSize(voices.size())
+          .build());
+
+    final Vector<Dx7VoiceNamed> distinct = deduplicator.filter(voices);
+    LOG.info(
+      "{} voices, {} distinct, {} duplicates",
+      Integer.valueOf(voices.size()),
+      Integer.valueOf(deduplicator.distinctCount()),
+      Long.valueOf(deduplicator.duplicateCount()));
+
+    this.output.write(distinct);
+    if (this.file_report != null) {
+      Dx7DuplicateReports.write(
+        this.file_report.toAbsolutePath(), deduplicator.duplicateGroups());
+    }
+    return Status.SUCCESS;
+  }
+}
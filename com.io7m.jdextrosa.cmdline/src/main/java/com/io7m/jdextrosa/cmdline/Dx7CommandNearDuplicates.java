@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateCluster;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateConfiguration;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateDetector;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+
+@Parameters(
+  commandNames = "near-duplicates",
+  commandDescription = "Find clusters of voices that are near-duplicates of each other in the given file")
+final class Dx7CommandNearDuplicates extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandNearDuplicates.class);
+
+  @ParametersDelegate
+  private final Dx7InputOptions input = new Dx7InputOptions();
+
+  @Parameter(
+    names = "-threshold",
+    required = false,
+    description = "The maximum weighted distance (in the range [0, 1]) between near-duplicate voices")
+  private double threshold = 0.05;
+
+  @Parameter(
+    names = "-lsh-bands",
+    required = false,
+    description = "The number of signature bands (more bands find more near-duplicates at a higher cost)")
+  private int lsh_bands = 16;
+
+  @Parameter(
+    names = "-lsh-rows",
+    required = false,
+    description = "The number of signature bits per band (more bits compare fewer unrelated voices)")
+  private int lsh_rows = 16;
+
+  @Parameter(
+    names = "-file-report",
+    required = true,
+    description = "The file to which the clusters are written")
+  private Path file_report;
+
+  Dx7CommandNearDuplicates()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    final Vector<Dx7VoiceNamed> voices =
+      this.input.parsePreservingMetadata();
+
+    final Vector<Dx7NearDuplicateCluster> clusters =
+      Dx7NearDuplicateDetector.clusters(
+        Dx7NearDuplicateConfiguration.builder()
+          .setThreshold(this.threshold)
+          .setBands(this.lsh_bands)
+          .setRows(this.lsh_rows)
+          .build(),
+        voices);
+
+    LOG.info(
+      "{} voices, {} clusters, {} voices in clusters",
+      Integer.valueOf(voices.size()),
+      Integer.valueOf(clusters.size()),
+      Integer.valueOf(clusters.map(c -> c.voices().size()).sum().intValue()));
+
+    Dx7DuplicateReports.writeNear(this.file_report.toAbsolutePath(), clusters);
+    return Status.SUCCESS;
+  }
+}
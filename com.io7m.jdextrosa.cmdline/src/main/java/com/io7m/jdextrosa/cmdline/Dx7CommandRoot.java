@@ -33,14 +33,25 @@ class Dx7CommandRoot implements Dx7CommandType
 
   }
 
-  @Override
-  public Dx7CommandType.Status execute()
-    throws Exception
+  /**
+   * Set the level of the root logger from the {@code -verbose} option. The
+   * level is global to the process, so this is only called for commands
+   * invoked directly from the command line, and never for commands run on
+   * behalf of a server request.
+   */
+
+  final void configureLogging()
   {
     final ch.qos.logback.classic.Logger root =
       (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
         Logger.ROOT_LOGGER_NAME);
     root.setLevel(this.verbose.toLevel());
+  }
+
+  @Override
+  public Dx7CommandType.Status execute()
+    throws Exception
+  {
     return Status.SUCCESS;
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.library.Dx7NameIndex;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Parameters(
+  commandNames = "search",
+  commandDescription = "Search for voices by name in the given file")
+final class Dx7CommandSearch extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandSearch.class);
+
+  @ParametersDelegate
+  private final Dx7InputOptions input = new Dx7InputOptions();
+
+  @Parameter(
+    names = "-prefix",
+    required = false,
+    description = "Find voices with names that start with the given text")
+  private String prefix;
+
+  @Parameter(
+    names = "-substring",
+    required = false,
+    description = "Find voices with names that contain the given text")
+  private String substring;
+
+  @Parameter(
+    names = "-fuzzy",
+    required = false,
+    description = "Find voices with names that are within -max-edits edits of the given text")
+  private String fuzzy;
+
+  @Parameter(
+    names = "-max-edits",
+    required = false,
+    description = "The maximum number of single character edits for -fuzzy searches")
+  private int max_edits = 1;
+
+  @Parameter(
+    names = "-count",
+    required = false,
+    description = "The maximum number of voices to find")
+  private int count = 20;
+
+  Dx7CommandSearch()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    int queries = 0;
+    queries += this.prefix != null ? 1 : 0;
+    queries += this.substring != null ? 1 : 0;
+    queries += this.fuzzy != null ? 1 : 0;
+    if (queries != 1) {
+      LOG.error("Exactly one of -prefix, -substring, or -fuzzy must be specified");
+      return Status.FAILURE;
+    }
+
+    final Vector<Dx7VoiceNamed> voices = this.input.parse();
+    final Dx7NameIndex index = Dx7NameIndex.create();
+    for (final Dx7VoiceNamed voice : voices) {
+      index.add(voice.name());
+    }
+
+    final Vector<Integer> results;
+    if (this.prefix != null) {
+      results = index.prefix(this.prefix, this.count);
+    } else if (this.substring != null) {
+      results = index.substring(this.substring, this.count);
+    } else {
+      results = index.fuzzy(this.fuzzy, this.max_edits, this.count);
+    }
+
+    for (final Integer result : results) {
+      final Dx7VoiceNamed voice = voices.get(result.intValue());
+      LOG.info(
+        "{} {} {}",
+        result,
+        voice.name(),
+        voice.metadata().map(m -> m.id().toString()).orElse("-"));
+    }
+    return Status.SUCCESS;
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Parameters(
+  commandNames = "serve",
+  commandDescription = "Accept convert, verify, transform, and dedup requests from local clients. Relative paths in requests are resolved against the working directory of the server.")
+final class Dx7CommandServe extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandServe.class);
+
+  private static final int READ_TIMEOUT_MILLISECONDS = 30_000;
+
+  @Parameter(
+    names = "-address",
+    required = false,
+    description = "The address on which to listen (requests may read and write arbitrary files, so this should be a loopback address)")
+  private String address = "127.0.0.1";
+
+  @Parameter(
+    names = "-port",
+    required = false,
+    description = "The port on which to listen")
+  private int port = Dx7ServeProtocol.DEFAULT_PORT;
+
+  @Parameter(
+    names = "-threads",
+    required = false,
+    description = "The number of requests that may be processed concurrently")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(
+    names = "-token-file",
+    required = false,
+    description = "The file to which the access token is written (default: ~/.jdextrosa/serve-<port>.token)")
+  private Path token_file;
+
+  private final Dx7ServeDiagnostics diagnostics;
+  private volatile ServerSocket server;
+  private String token;
+
+  Dx7CommandServe()
+  {
+    this.diagnostics = new Dx7ServeDiagnostics();
+  }
+
+  /**
+   * Stop the server, if it is running. Requests that are being processed
+   * are allowed to finish.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void stop()
+    throws IOException
+  {
+    final ServerSocket current = this.server;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    /*
+     * The shared parsers and writers are created before the first request
+     * arrives rather than on it; provider discovery and schema loading are
+     * then paid only once. The parsers keep a SAX parser per thread, and the
+     * request threads are long-lived, so those also stay warm.
+     */
+
+    Dx7XMLMachinery.parsers();
+    Dx7XMLMachinery.writers();
+
+    final InetAddress bind_address = InetAddress.getByName(this.address);
+    if (!bind_address.isLoopbackAddress()) {
+      LOG.warn(
+        "listening on non-loopback address {}: the access token is sent in cleartext, and any host that observes it can read and write files as this user",
+        bind_address);
+    }
+
+    /*
+     * A fresh token is created each time the server starts, and the file is
+     * removed when the server exits, so a token from a previous server
+     * cannot be replayed.
+     */
+
+    final Path token_path;
+    if (this.token_file != null) {
+      token_path = this.token_file.toAbsolutePath();
+    } else {
+      token_path = Dx7ServeProtocol.defaultTokenFile(this.port);
+    }
+    this.token = Dx7ServeProtocol.createToken(token_path);
+    token_path.toFile().deleteOnExit();
+    LOG.info("access token written to {}", token_path);
+
+    final ExecutorService executor =
+      Executors.newFixedThreadPool(Math.max(1, this.threads), runnable -> {
+        final Thread thread = new Thread(runnable);
+        thread.setName("com.io7m.jdextrosa.cmdline.serve-" + thread.getId());
+        thread.setDaemon(true);
+        return thread;
+      });
+
+    /*
+     * The messages logged while a request is executed are collected and
+     * returned to the client.
+     */
+
+    final ch.qos.logback.classic.Logger root =
+      (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
+        Logger.ROOT_LOGGER_NAME);
+    this.diagnostics.setContext(root.getLoggerContext());
+    this.diagnostics.start();
+    root.addAppender(this.diagnostics);
+
+    try (ServerSocket socket_server =
+           new ServerSocket(this.port, 50, bind_address)) {
+      this.server = socket_server;
+      LOG.info("listening on {}", socket_server.getLocalSocketAddress());
+      while (true) {
+        final Socket socket;
+        try {
+          socket = socket_server.accept();
+        } catch (final SocketException e) {
+          if (socket_server.isClosed()) {
+            LOG.info("server stopped");
+            return Status.SUCCESS;
+          }
+          throw e;
+        }
+        executor.execute(() -> this.handle(socket));
+      }
+    } finally {
+      executor.shutdown();
+      root.detachAppender(this.diagnostics);
+      this.diagnostics.stop();
+    }
+  }
+
+  private void handle(
+    final Socket socket)
+  {
+    try (Socket ignored = socket) {
+      socket.setSoTimeout(READ_TIMEOUT_MILLISECONDS);
+
+      final DataInputStream input =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      final String received = Dx7ServeProtocol.readRequestToken(input);
+      if (!Dx7ServeProtocol.tokenMatches(this.token, received)) {
+        LOG.warn(
+          "{}: rejected request with an incorrect token",
+          socket.getRemoteSocketAddress());
+        Dx7ServeProtocol.writeResponse(output, 1, "Incorrect access token.");
+        return;
+      }
+
+      final String[] arguments = Dx7ServeProtocol.readRequest(input);
+      LOG.debug("request: {}", String.join(" ", arguments));
+      this.run(arguments, output);
+    } catch (final IOException e) {
+      LOG.error("{}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+    }
+  }
+
+  private void run(
+    final String[] arguments,
+    final DataOutputStream output)
+    throws IOException
+  {
+    /*
+     * Command objects hold the parsed option values, so each request is
+     * parsed into a fresh set of commands. The commands are executed without
+     * configuring logging: the root logger level is global to the process,
+     * and is set once from the server's own -verbose option.
+     */
+
+    final Map<String, Dx7CommandType> commands = new HashMap<>(8);
+    commands.put(
+      "convert",
+      new Dx7CommandConvert());
+    commands.put(
+      "transform",
+      new Dx7CommandTransform());
+    commands.put(
+      "verify",
+      new Dx7CommandVerify());
+    commands.put(
+      "dedup",
+      new Dx7CommandDedup());
+
+    final Dx7StringConsole console = new Dx7StringConsole();
+    final JCommander commander = new JCommander(new Dx7CommandRoot());
+    commander.setProgramName("jdextrosa");
+    commander.setConsole(console);
+    commands.forEach(commander::addCommand);
+
+    try (Dx7ServeDiagnostics.Request request = this.diagnostics.begin()) {
+      try {
+        commander.parse(arguments);
+
+        final String cmd = commander.getParsedCommand();
+        if (cmd == null) {
+          commander.usage();
+          Dx7ServeProtocol.writeResponse(
+            output, 1, "Arguments required.\n" + console.text());
+          return;
+        }
+
+        final Dx7CommandType.Status status = commands.get(cmd).execute();
+        Dx7ServeProtocol.writeResponse(
+          output, status.exitCode(), request.text());
+      } catch (final ParameterException e) {
+        commander.usage();
+        Dx7ServeProtocol.writeResponse(
+          output, 1, e.getMessage() + "\n" + console.text());
+      } catch (final IOException e) {
+        LOG.error("{}", e.getMessage());
+        Dx7ServeProtocol.writeResponse(output, 1, request.text());
+      } catch (final Exception e) {
+        LOG.error("{}", e.getMessage(), e);
+        Dx7ServeProtocol.writeResponse(output, 1, request.text());
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.library.Dx7VoiceDistance;
+import com.io7m.jdextrosa.library.Dx7VoiceIndex;
+import com.io7m.jdextrosa.library.Dx7VoiceIndexResult;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.OptionalInt;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+@Parameters(
+  commandNames = "similar",
+  commandDescription = "Find the voices in the given file that are most similar to a given voice")
+final class Dx7CommandSimilar extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandSimilar.class);
+
+  @ParametersDelegate
+  private final Dx7InputOptions input = new Dx7InputOptions();
+
+  @Parameter(
+    names = "-query-name",
+    required = false,
+    description = "The name of the voice for which to find similar voices")
+  private String query_name;
+
+  @Parameter(
+    names = "-query-index",
+    required = false,
+    description = "The index (starting at 0) of the voice for which to find similar voices")
+  private Integer query_index;
+
+  @Parameter(
+    names = "-count",
+    required = false,
+    description = "The number of similar voices to find")
+  private int count = 20;
+
+  @Parameter(
+    names = "-carrier-weight",
+    required = false,
+    description = "The weight of the parameters of carrier operators")
+  private double carrier_weight = 1.5;
+
+  @Parameter(
+    names = "-modulator-weight",
+    required = false,
+    description = "The weight of the parameters of modulator operators")
+  private double modulator_weight = 1.0;
+
+  @Parameter(
+    names = "-algorithm-penalty",
+    required = false,
+    description = "The distance between voices that use different algorithms")
+  private double algorithm_penalty = 4.0;
+
+  @Parameter(
+    names = "-file-index",
+    required = false,
+    description = "A file in which the index is kept. The index is read from the file if the file is newer than the input file, and is otherwise built and written to the file.")
+  private Path file_index;
+
+  Dx7CommandSimilar()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    if ((this.query_name == null) == (this.query_index == null)) {
+      LOG.error("Exactly one of -query-name or -query-index must be specified");
+      return Status.FAILURE;
+    }
+
+    final Dx7VoiceIndex index = this.index();
+
+    final int query;
+    if (this.query_index != null) {
+      query = this.query_index.intValue();
+      if (query < 0 || query >= index.size()) {
+        LOG.error(
+          "Voice index {} is out of range (the file contains {} voices)",
+          this.query_index,
+          Integer.valueOf(index.size()));
+        return Status.FAILURE;
+      }
+    } else {
+      final OptionalInt found = index.indexOfName(this.query_name);
+      if (!found.isPresent()) {
+        LOG.error("No voice named '{}'", this.query_name);
+        return Status.FAILURE;
+      }
+      query = found.getAsInt();
+    }
+
+    for (final Dx7VoiceIndexResult result : index.nearest(query, this.count)) {
+      LOG.info(
+        "{} {} {}",
+        String.format(Locale.ROOT, "%.4f", Double.valueOf(result.distance())),
+        result.name(),
+        result.metadata().map(m -> m.id().toString()).orElse("-"));
+    }
+    return Status.SUCCESS;
+  }
+
+  private Dx7VoiceIndex index()
+    throws Exception
+  {
+    final Dx7VoiceDistance distance =
+      Dx7VoiceDistance.builder()
+        .setCarrierWeight(this.carrier_weight)
+        .setModulatorWeight(this.modulator_weight)
+        .setAlgorithmPenalty(this.algorithm_penalty)
+        .build();
+
+    if (this.file_index != null) {
+      final Path file = this.file_index.toAbsolutePath();
+      if (this.indexIsCurrent(file)) {
+        final Dx7VoiceIndex index;
+        try (InputStream stream = Files.newInputStream(file)) {
+          index = Dx7VoiceIndex.read(stream);
+        }
+        if (index.distance().equals(distance)) {
+          LOG.debug("read index {}", file);
+          return index;
+        }
+        LOG.debug("index {} uses a different distance", file);
+      }
+    }
+
+    final Vector<Dx7VoiceNamed> voices = this.input.parse();
+    final Dx7VoiceIndex index = Dx7VoiceIndex.build(distance, voices);
+    if (this.file_index != null) {
+      final Path file = this.file_index.toAbsolutePath();
+      final Path file_tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (OutputStream stream = Files.newOutputStream(file_tmp)) {
+        index.write(stream);
+      }
+      Files.move(file_tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      LOG.debug("wrote index {}", file);
+    }
+    return index;
+  }
+
+  private boolean indexIsCurrent(
+    final Path file)
+    throws IOException
+  {
+    if (!Files.isRegularFile(file)) {
+      return false;
+    }
+    return Files.getLastModifiedTime(file)
+      .compareTo(this.input.lastModified()) > 0;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.transforms.Dx7Staccato;
+import com.io7m.jdextrosa.transforms.Dx7StaccatoParameters;
+import io.vavr.collection.Vector;
+
+import static com.io7m.jdextrosa.transforms.Dx7StaccatoParametersType.AffectOperators;
+
+@Parameters(
+  commandNames = "transform",
+  commandDescription = "Apply a staccato transform to the voices in the given file")
+final class Dx7CommandTransform extends Dx7CommandRoot
+{
+  @ParametersDelegate
+  private final Dx7InputOptions input = new Dx7InputOptions();
+
+  @ParametersDelegate
+  private final Dx7OutputOptions output = new Dx7OutputOptions();
+
+  @Parameter(
+    names = "-affect",
+    required = false,
+    description = "The operators that will be affected")
+  private AffectOperators affect = AffectOperators.AFFECT_CARRIERS;
+
+  @Parameter(
+    names = "-modify-attack",
+    required = false,
+    arity = 1,
+    description = "Set the attack rate of affected operators to the maximum")
+  private boolean modify_attack = true;
+
+  @Parameter(
+    names = "-modify-release",
+    required = false,
+    arity = 1,
+    description = "Set the release rate of affected operators to the maximum")
+  private boolean modify_release = true;
+
+  Dx7CommandTransform()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    final Dx7StaccatoParameters parameters =
+      Dx7StaccatoParameters.of(
+        this.affect,
+        this.modify_attack,
+        this.modify_release);
+
+    final Vector<Dx7VoiceNamed> voices =
+      this.input.parse()
+        .map(voice -> Dx7VoiceNamed.of(
+          voice.name(),
+          Dx7Staccato.create(voice.voice(), parameters).apply(),
+          voice.metadata()));
+
+    this.output.write(voices);
+    return Status.SUCCESS;
+  }
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.xml.Dx7ParserConfigurationException;
+import com.io7m.jdextrosa.io.xml.Dx7WriterConfigurationException;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParserType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+@Parameters(
+  commandNames = "watch",
+  commandDescription = "Watch directories for changed files and keep an aggregated output library up to date")
+final class Dx7CommandWatch extends Dx7CommandRoot
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7CommandWatch.class);
+
+  @Parameter(
+    names = "-input-dir",
+    required = true,
+    description = "A directory tree containing input files (may be repeated)")
+  private List<Path> input_dirs = new ArrayList<>();
+
+  @Parameter(
+    names = "-glob",
+    required = false,
+    description = "A glob pattern that files in input directories must match, relative to the directory (such as **/*.syx)")
+  private String glob;
+
+  @Parameter(
+    names = "-file-state",
+    required = true,
+    description = "The file in which the state of seen input files is kept between runs")
+  private Path file_state;
+
+  @Parameter(
+    names = "-format-output",
+    required = false,
+    description = "The output file format",
+    converter = Dx7Format.Converter.class)
+  private Dx7Format format_output;
+
+  @Parameter(
+    names = "-file-output",
+    required = true,
+    description = "The output file")
+  private Path file_output;
+
+  @Parameter(
+    names = "-xml-schema",
+    required = false,
+    description = "The schema used for XML output (schema:com.io7m.jdextrosa:2.0 produces packed voices)")
+  private URI xml_schema = URI.create("schema:com.io7m.jdextrosa:1.0");
+
+  @Parameter(
+    names = "-xml-max-errors",
+    required = false,
+    description = "The maximum number of errors reported for an XML file before parsing stops")
+  private int xml_max_errors = Dx7XMLErrorLog.DEFAULT_MAXIMUM_ERRORS;
+
+  @Parameter(
+    names = "-threads",
+    required = false,
+    description = "The number of files parsed concurrently")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(
+    names = "-settle-milliseconds",
+    required = false,
+    description = "The time that must pass without further changes before changed files are parsed")
+  private long settle_milliseconds = 1000L;
+
+  @Parameter(
+    names = "-once",
+    required = false,
+    description = "Bring the output up to date and exit instead of watching for changes")
+  private boolean once;
+
+  private Map<WatchKey, Path> watched;
+  private List<Path> roots;
+  private Set<Path> excluded;
+  private Dx7Format format;
+
+  Dx7CommandWatch()
+  {
+
+  }
+
+  @Override
+  public Status execute()
+    throws Exception
+  {
+    if (super.execute() == Status.FAILURE) {
+      return Status.FAILURE;
+    }
+
+    final Path output = this.file_output.toAbsolutePath();
+    if (this.format_output != null) {
+      this.format = this.format_output;
+    } else {
+      this.format = Dx7FormatDetector.inferFromName(output).orElseThrow(
+        () -> new IllegalArgumentException(
+          "Could not infer file format from file name: " + output));
+    }
+
+    this.roots = new ArrayList<>(this.input_dirs.size());
+    for (final Path dir : this.input_dirs) {
+      this.roots.add(dir.toAbsolutePath().normalize());
+    }
+
+    final Path state_file = this.file_state.toAbsolutePath();
+
+    /*
+     * The output and state files, and the temporary files through which
+     * they are replaced, may lie inside a watched directory. They must never
+     * be taken as inputs, or each update would ingest its own output.
+     */
+
+    this.excluded = new HashSet<>(4);
+    for (final Path file : List.of(output, state_file)) {
+      final Path normal = file.normalize();
+      this.excluded.add(normal);
+      this.excluded.add(normal.resolveSibling(normal.getFileName() + ".tmp"));
+    }
+
+    final Dx7WatchState state = Dx7WatchState.load(state_file);
+    LOG.debug("state: {} files", Integer.valueOf(state.files().size()));
+
+    final ExecutorService executor =
+      Executors.newFixedThreadPool(Math.max(1, this.threads));
+
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      this.watched = new HashMap<>();
+
+      /*
+       * The directories are registered before the initial scan, so that
+       * files that change during the scan are not missed. Files that were
+       * removed while the command was not running are those that have state
+       * but were not seen by the scan.
+       */
+
+      final Set<Path> changed = new TreeSet<>(state.files());
+      if (!this.once) {
+        for (final Path root : this.roots) {
+          this.register(watcher, root, changed);
+        }
+      } else {
+        for (final Path root : this.roots) {
+          this.scan(root, changed);
+        }
+      }
+
+      this.update(executor, state, state_file, output, changed, true);
+      if (this.once) {
+        return Status.SUCCESS;
+      }
+
+      LOG.info("watching {} directories", Integer.valueOf(this.watched.size()));
+      while (true) {
+        changed.clear();
+        final boolean rescan = this.waitForChanges(watcher, changed);
+        if (rescan) {
+          LOG.warn("change events were lost; rescanning all directories");
+          changed.addAll(state.files());
+          for (final Path root : this.roots) {
+            this.scan(root, changed);
+          }
+        }
+        this.update(executor, state, state_file, output, changed, false);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Wait for at least one change, and then for changes to settle. Changed
+   * files are added to {@code changed}, and new directories are registered.
+   *
+   * @return {@code true} if events were lost and a rescan is required
+   */
+
+  private boolean waitForChanges(
+    final WatchService watcher,
+    final Set<Path> changed)
+    throws InterruptedException, IOException
+  {
+    boolean rescan = false;
+    WatchKey key = watcher.take();
+    while (key != null) {
+      final Path directory = this.watched.get(key);
+      for (final WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW) {
+          rescan = true;
+          continue;
+        }
+        if (directory == null) {
+          continue;
+        }
+
+        final Path file = directory.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE
+          && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+          this.register(watcher, file, changed);
+        } else {
+          changed.add(file);
+        }
+      }
+
+      if (!key.reset()) {
+        this.watched.remove(key);
+      }
+
+      /*
+       * Files being copied into a directory produce a stream of modification
+       * events; files are only parsed once no event has arrived for the
+       * settle time.
+       */
+
+      key = watcher.poll(this.settle_milliseconds, TimeUnit.MILLISECONDS);
+    }
+    return rescan;
+  }
+
+  /**
+   * Register a directory tree with the watcher, adding the files that
+   * currently exist within it to {@code changed}.
+   */
+
+  private void register(
+    final WatchService watcher,
+    final Path directory,
+    final Set<Path> changed)
+    throws IOException
+  {
+    Files.walkFileTree(directory, new SimpleFileVisitor<>()
+    {
+      @Override
+      public FileVisitResult preVisitDirectory(
+        final Path dir,
+        final BasicFileAttributes attrs)
+        throws IOException
+      {
+        Dx7CommandWatch.this.watched.put(
+          dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+          dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(
+        final Path file,
+        final BasicFileAttributes attrs)
+      {
+        changed.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(
+        final Path file,
+        final IOException e)
+      {
+        LOG.error("walk: {}: ", file, e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void scan(
+    final Path directory,
+    final Set<Path> changed)
+    throws IOException
+  {
+    Files.walkFileTree(directory, new SimpleFileVisitor<>()
+    {
+      @Override
+      public FileVisitResult visitFile(
+        final Path file,
+        final BasicFileAttributes attrs)
+      {
+        changed.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(
+        final Path file,
+        final IOException e)
+      {
+        LOG.error("walk: {}: ", file, e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Examine the given files, parse those whose content has changed, and
+   * rewrite the output and state if anything changed.
+   */
+
+  private void update(
+    final ExecutorService executor,
+    final Dx7WatchState state,
+    final Path state_file,
+    final Path output,
+    final Set<Path> files,
+    final boolean initial)
+    throws IOException, Dx7WriterConfigurationException, InterruptedException
+  {
+    final Optional<PathMatcher> matcher =
+      Optional.ofNullable(this.glob)
+        .map(g -> FileSystems.getDefault().getPathMatcher("glob:" + g));
+
+    /*
+     * A deleted directory may not produce events for each of the files that
+     * it contained.
+     */
+
+    final Set<Path> removed = new TreeSet<>();
+    for (final Path file : files) {
+      if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+        for (final Path known : state.files()) {
+          if (known.startsWith(file)) {
+            removed.add(known);
+          }
+        }
+      }
+    }
+    files.addAll(removed);
+
+    final List<Path> paths = new ArrayList<>(files.size());
+    final List<Future<Optional<Dx7WatchState.Entry>>> results =
+      new ArrayList<>(files.size());
+
+    for (final Path file : files) {
+      final Optional<Dx7WatchState.Entry> existing = state.get(file);
+      paths.add(file);
+      if (this.accept(matcher, file)) {
+        results.add(executor.submit(() -> this.examine(file, existing)));
+      } else {
+        results.add(null);
+      }
+    }
+
+    boolean voices_changed = false;
+    boolean state_changed = false;
+    for (int index = 0; index < paths.size(); ++index) {
+      final Path file = paths.get(index);
+      final Future<Optional<Dx7WatchState.Entry>> future = results.get(index);
+      final Optional<Dx7WatchState.Entry> existing = state.get(file);
+
+      final Optional<Dx7WatchState.Entry> result;
+      if (future == null) {
+        result = Optional.empty();
+      } else {
+        result = waitFor(future);
+      }
+
+      if (result.isPresent()) {
+        final Dx7WatchState.Entry entry = result.get();
+        if (existing.isPresent() && existing.get() == entry) {
+          continue;
+        }
+        state.put(file, entry);
+        state_changed = true;
+        if (!existing.isPresent() || !entry.sameVoices(existing.get())) {
+          voices_changed = true;
+        }
+      } else if (state.remove(file)) {
+        LOG.info("removed: {}", file);
+        state_changed = true;
+        voices_changed = true;
+      }
+    }
+
+    if (voices_changed || (initial && !Files.exists(output))) {
+      this.writeOutput(state, output);
+    }
+    if (state_changed) {
+      state.save(state_file);
+    }
+  }
+
+  private boolean accept(
+    final Optional<PathMatcher> matcher,
+    final Path file)
+  {
+    if (this.excluded.contains(file.toAbsolutePath().normalize())) {
+      return false;
+    }
+    if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+      return false;
+    }
+    if (!Dx7FormatDetector.inferFromName(file).isPresent()) {
+      return false;
+    }
+    if (!matcher.isPresent()) {
+      return true;
+    }
+    for (final Path root : this.roots) {
+      if (file.startsWith(root)
+        && matcher.get().matches(root.relativize(file))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Examine a file. The size and modification time are compared first; the
+   * content is hashed only if either differs, and parsed only if the hash
+   * differs.
+   *
+   * @return {@code existing} if the file is unchanged or cannot currently
+   * be read, a new entry if the file is new or changed, or nothing if the
+   * file no longer exists
+   */
+
+  private Optional<Dx7WatchState.Entry> examine(
+    final Path file,
+    final Optional<Dx7WatchState.Entry> existing)
+    throws IOException
+  {
+    final long size;
+    final long modified;
+    final byte[] data;
+    try {
+      final BasicFileAttributes attributes =
+        Files.readAttributes(
+          file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      size = attributes.size();
+      modified = attributes.lastModifiedTime().toMillis();
+
+      if (existing.isPresent()
+        && existing.get().sameAttributes(size, modified)) {
+        return existing;
+      }
+      data = Files.readAllBytes(file);
+    } catch (final NoSuchFileException e) {
+      return Optional.empty();
+    } catch (final IOException e) {
+
+      /*
+       * The file may still be being written, or may not be readable by this
+       * user. The existing entry (if any) is kept, and the file is examined
+       * again when it next changes.
+       */
+
+      LOG.error("examine: {}: {}", file, e.getMessage());
+      return existing;
+    }
+
+    final byte[] hash = hash(data);
+    if (existing.isPresent() && existing.get().sameContent(hash)) {
+      LOG.debug("touched: {}", file);
+      return Optional.of(existing.get().withAttributes(size, modified));
+    }
+
+    LOG.info("parse: {}", file);
+    return Optional.of(
+      Dx7WatchState.Entry.of(size, modified, hash, this.parse(file, data)));
+  }
+
+  private static byte[] hash(
+    final byte[] data)
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Parse a file. Files that cannot be parsed are recorded as having no
+   * voices, and are not parsed again until their content changes.
+   */
+
+  private Vector<Dx7VoiceNamed> parse(
+    final Path file,
+    final byte[] data)
+    throws IOException
+  {
+    final Dx7ParseErrorListenerType parse_errors = e -> {
+      switch (e.severity()) {
+        case WARNING: {
+          LOG.warn("{}", e.show());
+          break;
+        }
+        case ERROR: {
+          LOG.error("{}", e.show());
+          break;
+        }
+      }
+    };
+
+    try (InputStream stream = new ByteArrayInputStream(data)) {
+      switch (Dx7FormatDetector.infer(file, stream)) {
+        case DX7_FORMAT_XML: {
+          return this.parseXML(file, stream);
+        }
+        case DX7_FORMAT_XML_GZ: {
+          return this.parseXML(file, new GZIPInputStream(stream));
+        }
+        case DX7_FORMAT_BINARY_SYSEX_32_VOICE: {
+          return Dx7SysExIO.createReader(parse_errors, file.toUri(), stream)
+            .parse();
+        }
+        case DX7_FORMAT_ARCHIVE: {
+          return Dx7ArchiveIO.readAll(parse_errors, file.toUri(), stream);
+        }
+      }
+      throw new UnreachableCodeException();
+    } catch (final IOException e) {
+      LOG.error("parse: {}: {}", file, e.getMessage());
+    } catch (final IllegalArgumentException e) {
+      LOG.error("parse: {}: illegal argument: ", file, e);
+    } catch (final Dx7ParserConfigurationException e) {
+      LOG.error("parse: {}: parser configuration: ", file, e);
+    }
+    return Vector.empty();
+  }
+
+  private Vector<Dx7VoiceNamed> parseXML(
+    final Path file,
+    final InputStream stream)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    final Dx7XMLParserType parser =
+      Dx7XMLMachinery.parsers().create(
+        Dx7XMLParserRequest.builder()
+          .setBaseDirectory(file.getParent())
+          .setFile(file.toUri())
+          .setStream(stream)
+          .setMaximumErrors(this.xml_max_errors)
+          .build());
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+      parser.parse();
+
+    if (result.isValid()) {
+      return result.get();
+    }
+
+    result.getError().forEach(e -> {
+      switch (e.severity()) {
+        case WARNING: {
+          LOG.warn("{}", e.show());
+          break;
+        }
+        case ERROR: {
+          LOG.error("{}", e.show());
+          break;
+        }
+      }
+    });
+    throw new IOException("At least one parse error occurred.");
+  }
+
+  /**
+   * Write the voices of every file to the output, in path order. The output
+   * is written to a temporary file that then replaces the output, so readers
+   * never see a partially written library.
+   */
+
+  private void writeOutput(
+    final Dx7WatchState state,
+    final Path output)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    final Path output_tmp =
+      output.resolveSibling(output.getFileName() + ".tmp");
+
+    final Dx7ParseErrorListenerType errors =
+      e -> LOG.error("{}", e.show());
+
+    int count = 0;
+    try (Dx7VoiceSinkType sink = this.createSink(output_tmp)) {
+      for (final Map.Entry<Path, Dx7WatchState.Entry> pair
+        : state.entries().entrySet()) {
+        final Path file = pair.getKey();
+        final Vector<Dx7VoiceNamed> voices =
+          updateMetadata(file.toUri(), pair.getValue().voices(errors, file));
+        sink.accept(voices);
+        count += voices.size();
+      }
+      sink.finish();
+    }
+
+    Files.move(output_tmp, output, ATOMIC_MOVE, REPLACE_EXISTING);
+    LOG.info("write: {} ({} voices)", output, Integer.valueOf(count));
+  }
+
+  private Dx7VoiceSinkType createSink(
+    final Path output)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    switch (this.format) {
+      case DX7_FORMAT_XML:
+        return Dx7VoiceSinks.xml(
+          Dx7XMLMachinery.writers(), this.xml_schema, output, false);
+      case DX7_FORMAT_XML_GZ:
+        return Dx7VoiceSinks.xml(
+          Dx7XMLMachinery.writers(), this.xml_schema, output, true);
+      case DX7_FORMAT_BINARY_SYSEX_32_VOICE:
+        return Dx7VoiceSinks.sysEx32(output);
+      case DX7_FORMAT_ARCHIVE:
+        return Dx7VoiceSinks.archive(output);
+    }
+    throw new UnreachableCodeException();
+  }
+
+  private static <T> T waitFor(
+    final Future<T> future)
+    throws IOException, InterruptedException
+  {
+    try {
+      return future.get();
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static Vector<Dx7VoiceNamed> updateMetadata(
+    final URI source,
+    final Vector<Dx7VoiceNamed> voices)
+  {
+    return voices.map(
+      voice -> Dx7VoiceNamed.of(
+        voice.name(),
+        voice.voice(),
+        Optional.of(
+          Dx7VoiceSourceTable.derivedMetadata(source, voice.name()))));
+  }
+}
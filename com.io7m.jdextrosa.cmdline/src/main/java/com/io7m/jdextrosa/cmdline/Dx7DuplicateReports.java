@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.library.Dx7DuplicateGroup;
+import com.io7m.jdextrosa.library.Dx7NearDuplicate;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateCluster;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Functions to write duplicate reports.
+ */
+
+final class Dx7DuplicateReports
+{
+  private Dx7DuplicateReports()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Write a report of the given duplicate groups. Each group is written as
+   * a line giving the fingerprint, the number of duplicates, the name of
+   * the voice, and the ID of the first occurrence, followed by a line giving
+   * the ID of each duplicate indented by two spaces.
+   *
+   * @param file   The output file
+   * @param groups The duplicate groups
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void write(
+    final Path file,
+    final Iterable<Dx7DuplicateGroup> groups)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    Objects.requireNonNull(groups, "Groups");
+
+    try (BufferedWriter writer =
+           Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (final Dx7DuplicateGroup group : groups) {
+        writer.write(group.fingerprint().show());
+        writer.write(' ');
+        writer.write(Integer.toString(group.duplicateCount()));
+        writer.write(' ');
+        writer.write(group.name());
+        writer.write(' ');
+        writer.write(group.first().map(m -> m.id().toString()).orElse("-"));
+        writer.newLine();
+
+        for (final Dx7VoiceMetadata duplicate : group.duplicates()) {
+          writer.write("  ");
+          writer.write(duplicate.id().toString());
+          writer.newLine();
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a report of the given near-duplicate clusters. Each cluster is
+   * written as a line giving the number of voices in the cluster, followed
+   * by a line for each voice indented by two spaces giving the distance of
+   * the voice from the first voice of the cluster, the name of the voice,
+   * and the ID of the voice.
+   *
+   * @param file     The output file
+   * @param clusters The clusters
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void writeNear(
+    final Path file,
+    final Iterable<Dx7NearDuplicateCluster> clusters)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    Objects.requireNonNull(clusters, "Clusters");
+
+    try (BufferedWriter writer =
+           Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (final Dx7NearDuplicateCluster cluster : clusters) {
+        writer.write(Integer.toString(cluster.voices().size()));
+        writer.newLine();
+
+        for (final Dx7NearDuplicate voice : cluster.voices()) {
+          writer.write("  ");
+          writer.write(String.format(
+            Locale.ROOT, "%.4f", Double.valueOf(voice.distance())));
+          writer.write(' ');
+          writer.write(voice.name());
+          writer.write(' ');
+          writer.write(
+            voice.metadata().map(m -> m.id().toString()).orElse("-"));
+          writer.newLine();
+        }
+      }
+    }
+  }
+}
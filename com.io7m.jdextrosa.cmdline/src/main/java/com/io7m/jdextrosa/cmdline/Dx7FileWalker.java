@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A parallel walk over a set of directory trees. Files are returned in a
+ * deterministic order: the roots are walked in the order given, and each
+ * directory's entries are visited in order of their names, depth first.
+ * While the consumer works through a directory, the subdirectories of that
+ * directory are listed concurrently, so consumers can begin processing
+ * files before the walk is complete. Symbolic links to directories are not
+ * followed.
+ */
+
+final class Dx7FileWalker implements Iterator<Path>, Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7FileWalker.class);
+
+  private static final Comparator<Path> BY_NAME =
+    Comparator.comparing(path -> String.valueOf(path.getFileName()));
+
+  private final ForkJoinPool pool;
+  private final Deque<Iterator<Entry>> stack;
+  private Path next;
+
+  /**
+   * Start walking the given directories.
+   *
+   * @param roots   The directories
+   * @param filter  A filter that accepts a root directory and a file within
+   *                it, and returns {@code true} if the file should be
+   *                returned
+   * @param threads The number of threads used to list directories
+   */
+
+  Dx7FileWalker(
+    final List<Path> roots,
+    final FilterType filter,
+    final int threads)
+  {
+    Objects.requireNonNull(roots, "Roots");
+    Objects.requireNonNull(filter, "Filter");
+
+    this.pool = new ForkJoinPool(Math.max(1, threads));
+    this.stack = new ArrayDeque<>();
+
+    final List<Entry> entries = new ArrayList<>(roots.size());
+    for (final Path root : roots) {
+      entries.add(new Entry(root, new DirectoryTask(filter, root, root)));
+    }
+    this.push(entries);
+  }
+
+  /**
+   * Start listing the subdirectories in {@code entries}, and make the
+   * entries the next to be visited.
+   */
+
+  private void push(
+    final List<Entry> entries)
+  {
+    for (final Entry entry : entries) {
+      if (entry.directory != null) {
+        this.pool.execute(entry.directory);
+      }
+    }
+    this.stack.push(entries.iterator());
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    while (this.next == null && !this.stack.isEmpty()) {
+      final Iterator<Entry> entries = this.stack.peek();
+      if (!entries.hasNext()) {
+        this.stack.pop();
+        continue;
+      }
+
+      final Entry entry = entries.next();
+      if (entry.directory == null) {
+        this.next = entry.path;
+      } else {
+        this.push(entry.directory.join());
+      }
+    }
+    return this.next != null;
+  }
+
+  @Override
+  public Path next()
+  {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Path path = this.next;
+    this.next = null;
+    return path;
+  }
+
+  @Override
+  public void close()
+  {
+    this.pool.shutdownNow();
+    this.stack.clear();
+  }
+
+  /**
+   * A filter for files found during a walk.
+   */
+
+  @FunctionalInterface
+  interface FilterType
+  {
+    /**
+     * @param root The root directory of the walk
+     * @param file The file
+     *
+     * @return {@code true} if the file should be returned
+     */
+
+    boolean accept(
+      Path root,
+      Path file);
+  }
+
+  /**
+   * An accepted file, or a directory along with the task that lists it.
+   */
+
+  private static final class Entry
+  {
+    private final Path path;
+    private final DirectoryTask directory;
+
+    Entry(
+      final Path in_path,
+      final DirectoryTask in_directory)
+    {
+      this.path = in_path;
+      this.directory = in_directory;
+    }
+  }
+
+  private static final class DirectoryTask extends RecursiveTask<List<Entry>>
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient FilterType filter;
+    private final transient Path root;
+    private final transient Path directory;
+
+    DirectoryTask(
+      final FilterType in_filter,
+      final Path in_root,
+      final Path in_directory)
+    {
+      this.filter = Objects.requireNonNull(in_filter, "Filter");
+      this.root = Objects.requireNonNull(in_root, "Root");
+      this.directory = Objects.requireNonNull(in_directory, "Directory");
+    }
+
+    @Override
+    protected List<Entry> compute()
+    {
+      final List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> stream =
+             Files.newDirectoryStream(this.directory)) {
+        for (final Path file : stream) {
+          files.add(file);
+        }
+      } catch (final IOException e) {
+        LOG.error("walk: {}: ", this.directory, e);
+        return Collections.emptyList();
+      } catch (final DirectoryIteratorException e) {
+        LOG.error("walk: {}: ", this.directory, e.getCause());
+        return Collections.emptyList();
+      }
+
+      files.sort(BY_NAME);
+
+      final List<Entry> entries = new ArrayList<>(files.size());
+      for (final Path file : files) {
+        if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+          entries.add(new Entry(
+            file, new DirectoryTask(this.filter, this.root, file)));
+        } else if (this.filter.accept(this.root, file)) {
+          entries.add(new Entry(file, null));
+        }
+      }
+      return entries;
+    }
+  }
+}
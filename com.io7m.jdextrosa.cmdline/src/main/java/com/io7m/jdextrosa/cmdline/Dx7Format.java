@@ -42,7 +42,13 @@ public enum Dx7Format
    * A 32-voice binary SysEx format.
    */
 
-  DX7_FORMAT_BINARY_SYSEX_32_VOICE("sysex-32");
+  DX7_FORMAT_BINARY_SYSEX_32_VOICE("sysex-32"),
+
+  /**
+   * A compressed, column-wise binary archive format.
+   */
+
+  DX7_FORMAT_ARCHIVE("dx7lib");
 
   private final String type;
 
@@ -91,6 +97,8 @@ public enum Dx7Format
           return DX7_FORMAT_XML;
         case "sysex-32":
           return DX7_FORMAT_BINARY_SYSEX_32_VOICE;
+        case "dx7lib":
+          return DX7_FORMAT_ARCHIVE;
         default: {
           throw new IllegalArgumentException(
             "Unrecognized format name: " + name);
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Functions to determine the format of voice files. A file is identified by
+ * the first few octets of its content where possible, and by its name
+ * otherwise.
+ */
+
+final class Dx7FormatDetector
+{
+  /**
+   * The maximum number of octets examined at the start of a stream.
+   */
+
+  static final int PREFIX_SIZE = 1024;
+
+  private static final String XML_NAMESPACE_PREFIX =
+    "schema:com.io7m.jdextrosa:";
+
+  private Dx7FormatDetector()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Infer a format from the name of a file.
+   *
+   * @param path The file
+   *
+   * @return The format, if the file name has a recognized suffix
+   */
+
+  static Optional<Dx7Format> inferFromName(
+    final Path path)
+  {
+    Objects.requireNonNull(path, "Path");
+
+    final String path_upper = path.toString().toUpperCase(Locale.ROOT);
+    if (path_upper.endsWith(".SYSX")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE);
+    }
+    if (path_upper.endsWith(".SYX")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE);
+    }
+    if (path_upper.endsWith(".DX7")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE);
+    }
+    if (path_upper.endsWith(".XML")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_XML);
+    }
+    if (path_upper.endsWith(".XML.GZ")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_XML_GZ);
+    }
+    if (path_upper.endsWith(".DX7LIB")) {
+      return Optional.of(Dx7Format.DX7_FORMAT_ARCHIVE);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Infer a format from the first octets of a stream. The stream must
+   * support {@link InputStream#mark(int)}, and is reset to its original
+   * position before returning, so the same stream can then be passed to a
+   * parser.
+   *
+   * @param stream The stream
+   *
+   * @return The format, if the content is recognized
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Optional<Dx7Format> inferFromContent(
+    final InputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "Stream");
+
+    if (!stream.markSupported()) {
+      throw new IllegalArgumentException("Stream must support mark/reset");
+    }
+
+    final byte[] prefix = new byte[PREFIX_SIZE];
+    stream.mark(PREFIX_SIZE);
+    try {
+      final int size = stream.readNBytes(prefix, 0, PREFIX_SIZE);
+      return inferFromPrefix(prefix, size);
+    } finally {
+      stream.reset();
+    }
+  }
+
+  /**
+   * Infer a format from the given content prefix.
+   *
+   * @param prefix The prefix
+   * @param size   The number of octets of {@code prefix} that are valid
+   *
+   * @return The format, if the content is recognized
+   */
+
+  static Optional<Dx7Format> inferFromPrefix(
+    final byte[] prefix,
+    final int size)
+  {
+    Objects.requireNonNull(prefix, "Prefix");
+
+    if (Dx7ArchiveIO.isArchive(prefix, size)) {
+      return Optional.of(Dx7Format.DX7_FORMAT_ARCHIVE);
+    }
+
+    if (size >= 2) {
+      final int b0 = prefix[0] & 0xff;
+      final int b1 = prefix[1] & 0xff;
+      if (b0 == 0xf0 && b1 == 0x43) {
+        return Optional.of(Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE);
+      }
+      if (b0 == 0x1f && b1 == 0x8b) {
+        return Optional.of(Dx7Format.DX7_FORMAT_XML_GZ);
+      }
+    }
+
+    final String text =
+      new String(prefix, 0, size, StandardCharsets.UTF_8);
+    final String text_trimmed =
+      text.startsWith("\uFEFF") ? text.substring(1).trim() : text.trim();
+
+    if (text_trimmed.startsWith("<?xml")
+      && text_trimmed.contains(XML_NAMESPACE_PREFIX)) {
+      return Optional.of(Dx7Format.DX7_FORMAT_XML);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Determine the format of a file, preferring the content of the file over
+   * the name of the file.
+   *
+   * @param path   The file
+   * @param stream A stream open on the file, supporting
+   *               {@link InputStream#mark(int)}
+   *
+   * @return The format
+   *
+   * @throws IOException              On I/O errors
+   * @throws IllegalArgumentException If the format cannot be determined
+   */
+
+  static Dx7Format infer(
+    final Path path,
+    final InputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(path, "Path");
+
+    final Optional<Dx7Format> by_content = inferFromContent(stream);
+    if (by_content.isPresent()) {
+      return by_content.get();
+    }
+
+    return inferFromName(path).orElseThrow(
+      () -> new IllegalArgumentException(
+        "Could not determine the format of file: " + path));
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ParseError;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.xml.Dx7ParserConfigurationException;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParallelParserConfiguration;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParserType;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jdextrosa.store.Dx7Store;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Options for commands that read voices from a single input file.
+ */
+
+final class Dx7InputOptions
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7InputOptions.class);
+
+  @Parameter(
+    names = "-file-input",
+    required = true,
+    description = "The input file (or voice store directory)")
+  private Path file_input;
+
+  @Parameter(
+    names = "-format-input",
+    required = false,
+    description = "The input file format (inferred from the file content if not specified)",
+    converter = Dx7Format.Converter.class)
+  private Dx7Format format_input;
+
+  @Parameter(
+    names = "-cache-dir",
+    required = false,
+    description = "A directory of parse results keyed by file content; input whose content has been parsed before is not parsed again")
+  private Path cache_dir;
+
+  @Parameter(
+    names = "-xml-max-errors",
+    required = false,
+    description = "The maximum number of errors reported for an XML file before parsing stops")
+  private int xml_max_errors = Dx7XMLErrorLog.DEFAULT_MAXIMUM_ERRORS;
+
+  @Parameter(
+    names = "-xml-threads",
+    required = false,
+    description = "The number of threads used to parse a single XML input file")
+  private int xml_threads = 1;
+
+  @Parameter(
+    names = "-xml-trusted",
+    required = false,
+    description = "Do not validate XML input parsed on multiple threads (trusted files only)")
+  private boolean xml_trusted;
+
+  @Parameter(
+    names = "-xml-pipelined",
+    required = false,
+    description = "Validate XML input on a separate thread from voice construction")
+  private boolean xml_pipelined;
+
+  private ExecutorService xml_executor;
+
+  Dx7InputOptions()
+  {
+
+  }
+
+  private static Vector<Dx7VoiceNamed> updateMetadata(
+    final Path file,
+    final Vector<Dx7VoiceNamed> voices,
+    final boolean preserve)
+  {
+    final URI source = file.toUri();
+    return voices.map(voice -> {
+      if (preserve && voice.metadata().isPresent()) {
+        return voice;
+      }
+      return Dx7VoiceNamed.of(
+        voice.name(),
+        voice.voice(),
+        Optional.of(
+          Dx7VoiceSourceTable.derivedMetadata(source, voice.name())));
+    });
+  }
+
+  /**
+   * @return The absolute path of the input file
+   */
+
+  Path file()
+  {
+    return this.file_input.toAbsolutePath();
+  }
+
+  /**
+   * @return The time that the input was last modified; for a voice store,
+   * the latest modification time of any of its files
+   *
+   * @throws IOException On I/O errors
+   */
+
+  FileTime lastModified()
+    throws IOException
+  {
+    final Path file = this.file();
+    if (!Files.isDirectory(file)) {
+      return Files.getLastModifiedTime(file);
+    }
+
+    FileTime latest = Files.getLastModifiedTime(file);
+    try (Stream<Path> files = Files.list(file)) {
+      final Iterator<Path> children = files.iterator();
+      while (children.hasNext()) {
+        final FileTime time = Files.getLastModifiedTime(children.next());
+        if (time.compareTo(latest) > 0) {
+          latest = time;
+        }
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Parse the input file. The file is opened once; the format is taken from
+   * the command line if specified, and is otherwise inferred from the
+   * content of the file and then from its name. If the input is a
+   * directory, it is read as a voice store. The shared XML parsers are
+   * only created if the input is XML.
+   *
+   * @return The parsed voices, with metadata identifying the input file
+   *
+   * @throws IOException                     On I/O and parse errors
+   * @throws Dx7ParserConfigurationException If a parser cannot be created
+   */
+
+  Vector<Dx7VoiceNamed> parse()
+    throws IOException, Dx7ParserConfigurationException
+  {
+    return this.parse(false);
+  }
+
+  /**
+   * Parse the input file as with {@link #parse()}, but keep any metadata
+   * that voices already have (such as the provenance recorded in an
+   * aggregated library). Only voices without metadata are given metadata
+   * identifying the input file.
+   *
+   * @return The parsed voices
+   *
+   * @throws IOException                     On I/O and parse errors
+   * @throws Dx7ParserConfigurationException If a parser cannot be created
+   */
+
+  Vector<Dx7VoiceNamed> parsePreservingMetadata()
+    throws IOException, Dx7ParserConfigurationException
+  {
+    return this.parse(true);
+  }
+
+  private Vector<Dx7VoiceNamed> parse(
+    final boolean preserve)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    try {
+      return this.parseFile(preserve);
+    } finally {
+      this.shutdownXMLExecutor();
+    }
+  }
+
+  private Vector<Dx7VoiceNamed> parseFile(
+    final boolean preserve)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    final Path file = this.file();
+    if (Files.isDirectory(file)) {
+      return updateMetadata(file, readStore(file), preserve);
+    }
+
+    try (InputStream stream =
+           new BufferedInputStream(Files.newInputStream(file))) {
+      final Dx7Format format;
+      if (this.format_input != null) {
+        format = this.format_input;
+      } else {
+        format = Dx7FormatDetector.infer(file, stream);
+      }
+
+      if (this.cache_dir != null) {
+        final Dx7ParseCache cache = Dx7ParseCache.open(this.cache_dir);
+        return updateMetadata(
+          file,
+          cache.parse(
+            format,
+            this.validatesXML(),
+            stream.readAllBytes(),
+            file.toUri(),
+            Dx7InputOptions::logError,
+            (data, errors) -> this.parseFormat(file, data, format, errors)),
+          preserve);
+      }
+
+      return updateMetadata(
+        file,
+        this.parseFormat(file, stream, format, Dx7InputOptions::logError),
+        preserve);
+    }
+  }
+
+  private static void logError(
+    final Dx7ParseError e)
+  {
+    switch (e.severity()) {
+      case WARNING: {
+        LOG.warn("{}", e.show());
+        break;
+      }
+      case ERROR: {
+        LOG.error("{}", e.show());
+        break;
+      }
+    }
+  }
+
+  private Vector<Dx7VoiceNamed> parseFormat(
+    final Path file,
+    final InputStream stream,
+    final Dx7Format format,
+    final Dx7ParseErrorListenerType errors)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    switch (format) {
+      case DX7_FORMAT_XML: {
+        return this.parseXML(file, stream);
+      }
+      case DX7_FORMAT_XML_GZ: {
+        return this.parseXML(file, new GZIPInputStream(stream));
+      }
+      case DX7_FORMAT_BINARY_SYSEX_32_VOICE: {
+        return Dx7SysExIO.createReader(errors, file.toUri(), stream).parse();
+      }
+      case DX7_FORMAT_ARCHIVE: {
+        return Dx7ArchiveIO.readAll(errors, file.toUri(), stream);
+      }
+    }
+    throw new UnreachableCodeException();
+  }
+
+  private static Vector<Dx7VoiceNamed> readStore(
+    final Path directory)
+    throws IOException
+  {
+    if (!Dx7Store.exists(directory)) {
+      throw new IOException("Not a voice store: " + directory);
+    }
+    try (Dx7Store store = Dx7Store.open(directory)) {
+      return store.voices();
+    }
+  }
+
+  /**
+   * @return {@code true} unless XML input is parsed on multiple threads
+   * without validation
+   */
+
+  private boolean validatesXML()
+  {
+    return this.xml_threads <= 1 || !this.xml_trusted;
+  }
+
+  private Vector<Dx7VoiceNamed> parseXML(
+    final Path file,
+    final InputStream stream)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    final Dx7XMLParsers xml_parsers = Dx7XMLMachinery.parsers();
+    final Path parent = file.getParent();
+
+    final Dx7XMLParserRequest request =
+      Dx7XMLParserRequest.builder()
+        .setBaseDirectory(parent)
+        .setFile(file.toUri())
+        .setStream(stream)
+        .setMaximumErrors(this.xml_max_errors)
+        .build();
+
+    final Dx7XMLParserType parser;
+    if (this.xml_threads > 1) {
+      parser = xml_parsers.createParallel(
+        request,
+        Dx7XMLParallelParserConfiguration.builder()
+          .setValidation(this.validatesXML())
+          .build(),
+        this.xmlExecutor());
+    } else if (this.xml_pipelined) {
+      parser = xml_parsers.createPipelined(request, this.xmlExecutor());
+    } else {
+      parser = xml_parsers.create(request);
+    }
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+      parser.parse();
+
+    if (result.isValid()) {
+      return result.get();
+    }
+
+    result.getError().forEach(e -> {
+      switch (e.severity()) {
+        case WARNING: {
+          LOG.warn("{}", e.show());
+          break;
+        }
+        case ERROR: {
+          LOG.error("{}", e.show());
+          break;
+        }
+      }
+    });
+
+    throw new IOException("At least one parse error occurred.");
+  }
+
+  /**
+   * The executor used to parse XML input is created when first needed, and
+   * is shut down when the parse that needed it completes. Commands run by a
+   * server are created afresh for every request, so an executor that
+   * outlived the parse would leave idle threads behind for each request.
+   */
+
+  private synchronized ExecutorService xmlExecutor()
+  {
+    if (this.xml_executor == null) {
+      this.xml_executor =
+        Executors.newFixedThreadPool(Math.max(1, this.xml_threads), runnable -> {
+          final Thread thread = new Thread(runnable);
+          thread.setName("com.io7m.jdextrosa.cmdline.xml-" + thread.getId());
+          thread.setDaemon(true);
+          return thread;
+        });
+    }
+    return this.xml_executor;
+  }
+
+  private synchronized void shutdownXMLExecutor()
+  {
+    if (this.xml_executor != null) {
+      this.xml_executor.shutdown();
+      this.xml_executor = null;
+    }
+  }
+}
@@ -37,7 +37,7 @@ public final class Dx7Main implements Runnable
     LOG = LoggerFactory.getLogger(Dx7Main.class);
   }
 
-  private final Map<String, Dx7CommandType> commands;
+  private final Map<String, Dx7CommandRoot> commands;
   private final JCommander commander;
   private final String[] args;
   private int exit_code;
@@ -54,15 +54,51 @@ public final class Dx7Main implements Runnable
       new Dx7CommandConvertBatch();
     final Dx7CommandConvert cmd_convert =
       new Dx7CommandConvert();
-
-    this.commands = new HashMap<>(8);
+    final Dx7CommandVerify cmd_verify =
+      new Dx7CommandVerify();
+    final Dx7CommandTransform cmd_transform =
+      new Dx7CommandTransform();
+    final Dx7CommandServe cmd_serve =
+      new Dx7CommandServe();
+    final Dx7CommandClient cmd_client =
+      new Dx7CommandClient();
+    final Dx7CommandWatch cmd_watch =
+      new Dx7CommandWatch();
+    final Dx7CommandDedup cmd_dedup =
+      new Dx7CommandDedup();
+    final Dx7CommandNearDuplicates cmd_near_duplicates =
+      new Dx7CommandNearDuplicates();
+    final Dx7CommandSimilar cmd_similar =
+      new Dx7CommandSimilar();
+    final Dx7CommandSearch cmd_search =
+      new Dx7CommandSearch();
+
+    this.commands = new HashMap<>(16);
     this.commands.put("convert-batch", cmd_convert_batch);
     this.commands.put("convert", cmd_convert);
+    this.commands.put("verify", cmd_verify);
+    this.commands.put("transform", cmd_transform);
+    this.commands.put("serve", cmd_serve);
+    this.commands.put("client", cmd_client);
+    this.commands.put("watch", cmd_watch);
+    this.commands.put("dedup", cmd_dedup);
+    this.commands.put("near-duplicates", cmd_near_duplicates);
+    this.commands.put("similar", cmd_similar);
+    this.commands.put("search", cmd_search);
 
     this.commander = new JCommander(r);
     this.commander.setProgramName("jdextrosa");
     this.commander.addCommand("convert-batch", cmd_convert_batch);
     this.commander.addCommand("convert", cmd_convert);
+    this.commander.addCommand("verify", cmd_verify);
+    this.commander.addCommand("transform", cmd_transform);
+    this.commander.addCommand("serve", cmd_serve);
+    this.commander.addCommand("client", cmd_client);
+    this.commander.addCommand("watch", cmd_watch);
+    this.commander.addCommand("dedup", cmd_dedup);
+    this.commander.addCommand("near-duplicates", cmd_near_duplicates);
+    this.commander.addCommand("similar", cmd_similar);
+    this.commander.addCommand("search", cmd_search);
   }
 
   /**
@@ -104,7 +140,8 @@ public final class Dx7Main implements Runnable
         return;
       }
 
-      final Dx7CommandType command = this.commands.get(cmd);
+      final Dx7CommandRoot command = this.commands.get(cmd);
+      command.configureLogging();
       final Dx7CommandType.Status status = command.execute();
       this.exit_code = status.exitCode();
     } catch (final ParameterException e) {
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.Parameter;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ArchiveWriterType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.Dx7SysExWriterType;
+import com.io7m.jdextrosa.io.xml.Dx7WriterConfigurationException;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterRequest;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterType;
+import io.vavr.collection.Vector;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Options for commands that write voices to a single output file.
+ */
+
+final class Dx7OutputOptions
+{
+  @Parameter(
+    names = "-format-output",
+    required = false,
+    description = "The output file format",
+    converter = Dx7Format.Converter.class)
+  private Dx7Format format_output;
+
+  @Parameter(
+    names = "-file-output",
+    required = true,
+    description = "The output file")
+  private Path file_output;
+
+  @Parameter(
+    names = "-xml-schema",
+    required = false,
+    description = "The schema used for XML output (schema:com.io7m.jdextrosa:2.0 produces packed voices)")
+  private URI xml_schema = URI.create("schema:com.io7m.jdextrosa:1.0");
+
+  Dx7OutputOptions()
+  {
+
+  }
+
+  private static Dx7Format inferFileFormat(
+    final Path path,
+    final Dx7Format format)
+  {
+    if (format != null) {
+      return format;
+    }
+
+    return Dx7FormatDetector.inferFromName(path).orElseThrow(
+      () -> new IllegalArgumentException(
+        "Could not infer file format from file name: " + path));
+  }
+
+  /**
+   * Write voices to the output file. The shared XML writers are only created
+   * if the output is XML.
+   *
+   * @param voices The voices
+   *
+   * @throws IOException                     On I/O errors
+   * @throws Dx7WriterConfigurationException If a writer cannot be created
+   */
+
+  void write(
+    final Vector<Dx7VoiceNamed> voices)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    final Path file = this.file_output.toAbsolutePath();
+    switch (inferFileFormat(file, this.format_output)) {
+      case DX7_FORMAT_XML:
+        this.writeXML(voices, file);
+        break;
+      case DX7_FORMAT_XML_GZ:
+        this.writeXMLGZ(voices, file);
+        break;
+      case DX7_FORMAT_BINARY_SYSEX_32_VOICE:
+        writeSysEx32(voices, file);
+        break;
+      case DX7_FORMAT_ARCHIVE:
+        writeArchive(voices, file);
+        break;
+    }
+  }
+
+  private static void writeSysEx32(
+    final Vector<Dx7VoiceNamed> voices,
+    final Path file)
+    throws IOException
+  {
+    try (OutputStream stream = Files.newOutputStream(file)) {
+      try (Dx7SysExWriterType writer = Dx7SysExIO.createWriter(
+        file.toUri(),
+        stream)) {
+        writer.write(voices);
+      }
+    }
+  }
+
+  private static void writeArchive(
+    final Vector<Dx7VoiceNamed> voices,
+    final Path file)
+    throws IOException
+  {
+    try (Dx7ArchiveWriterType writer =
+           Dx7ArchiveIO.createWriter(file.toUri(), Files.newOutputStream(file))) {
+      writer.write(voices);
+      writer.finish();
+    }
+  }
+
+  private void writeXMLGZ(
+    final Vector<Dx7VoiceNamed> voices,
+    final Path file)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    try (OutputStream stream =
+           new GZIPOutputStream(
+             new BufferedOutputStream(Files.newOutputStream(file)))) {
+      this.writeXMLStream(voices, file, stream);
+    }
+  }
+
+  private void writeXML(
+    final Vector<Dx7VoiceNamed> voices,
+    final Path file)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    try (OutputStream stream =
+           new BufferedOutputStream(Files.newOutputStream(file))) {
+      this.writeXMLStream(voices, file, stream);
+    }
+  }
+
+  private void writeXMLStream(
+    final Vector<Dx7VoiceNamed> voices,
+    final Path file,
+    final OutputStream stream)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    final Dx7XMLWriterRequest request =
+      Dx7XMLWriterRequest.builder()
+        .setFile(file.toUri())
+        .setSchema(this.xml_schema)
+        .setStream(stream)
+        .build();
+
+    try (Dx7XMLWriterType writer =
+           Dx7XMLMachinery.writers().createWriter(request)) {
+      writer.start();
+      writer.write(voices);
+      writer.finish();
+    }
+    stream.flush();
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ArchiveWriterType;
+import com.io7m.jdextrosa.io.Dx7ParseError;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7ParseErrorType;
+import com.io7m.jdextrosa.io.xml.Dx7ParserConfigurationException;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A persistent cache of parse results, addressed by the SHA-256 hash of
+ * the parser version, format, validation mode, and content of each input
+ * file. An entry holds the voices
+ * parsed from a file as a {@code .dx7lib} archive, along with the errors
+ * that were reported while parsing it; the errors are delivered again, with
+ * the URI of the file being parsed, whenever the entry is used.
+ *
+ * Only successful parses are cached. XML documents that use XInclude are
+ * never cached, because their voices depend on files other than the
+ * document itself. A cache may be shared between any number of threads and
+ * processes: entries are written to temporary files that then replace the
+ * entry atomically, and an unreadable entry is treated as missing.
+ */
+
+final class Dx7ParseCache
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7ParseCache.class);
+
+  private static final int MAGIC = 0x44583743;
+  private static final int VERSION = 1;
+
+  /**
+   * The version of the parsers whose results are cached. This is part of
+   * the key of every entry, and must be incremented whenever a change to any
+   * of the parsers could produce different voices or errors for the same
+   * content, so that entries produced by older parsers are no longer used.
+   */
+
+  private static final int PARSER_VERSION = 1;
+
+  private static final byte[] XINCLUDE_NAMESPACE =
+    "http://www.w3.org/2001/XInclude".getBytes(StandardCharsets.US_ASCII);
+
+  private final Path directory;
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+
+  private Dx7ParseCache(
+    final Path in_directory)
+  {
+    this.directory = Objects.requireNonNull(in_directory, "Directory");
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  /**
+   * Open a cache, creating the cache directory if necessary.
+   *
+   * @param directory The cache directory
+   *
+   * @return A cache
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Dx7ParseCache open(
+    final Path directory)
+    throws IOException
+  {
+    final Path directory_abs = directory.toAbsolutePath();
+    Files.createDirectories(directory_abs);
+    return new Dx7ParseCache(directory_abs);
+  }
+
+  /**
+   * A function that parses voices.
+   */
+
+  @FunctionalInterface
+  interface ParserType
+  {
+    /**
+     * Parse voices from the given stream.
+     *
+     * @param stream The stream
+     * @param errors An error receiver
+     *
+     * @return The voices
+     *
+     * @throws IOException                     On I/O and parse errors
+     * @throws Dx7ParserConfigurationException If a parser cannot be created
+     */
+
+    Vector<Dx7VoiceNamed> parse(
+      InputStream stream,
+      Dx7ParseErrorListenerType errors)
+      throws IOException, Dx7ParserConfigurationException;
+  }
+
+  /**
+   * Parse the given file content, or return the voices parsed from the
+   * same content previously.
+   *
+   * @param format    The format of the content
+   * @param validated {@code true} iff the parser validates the content; the
+   *                  results of unvalidated parses are never returned to
+   *                  validating parses
+   * @param data      The content
+   * @param uri       The URI of the file
+   * @param errors    An error receiver
+   * @param parser    A parser for the content
+   *
+   * @return The voices
+   *
+   * @throws IOException                     On I/O and parse errors
+   * @throws Dx7ParserConfigurationException If a parser cannot be created
+   */
+
+  Vector<Dx7VoiceNamed> parse(
+    final Dx7Format format,
+    final boolean validated,
+    final byte[] data,
+    final URI uri,
+    final Dx7ParseErrorListenerType errors,
+    final ParserType parser)
+    throws IOException, Dx7ParserConfigurationException
+  {
+    Objects.requireNonNull(format, "Format");
+    Objects.requireNonNull(data, "Data");
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(errors, "Errors");
+    Objects.requireNonNull(parser, "Parser");
+
+    if (!isCacheable(format, data)) {
+      return parser.parse(new ByteArrayInputStream(data), errors);
+    }
+
+    final Path file = this.entryFile(key(format, validated, data));
+    final Optional<Vector<Dx7VoiceNamed>> cached =
+      this.read(file, uri, errors);
+    if (cached.isPresent()) {
+      LOG.debug("cache hit: {}", uri);
+      this.hits.incrementAndGet();
+      return cached.get();
+    }
+
+    this.misses.incrementAndGet();
+    final List<Dx7ParseError> recorded =
+      Collections.synchronizedList(new ArrayList<>());
+    final Vector<Dx7VoiceNamed> voices =
+      parser.parse(new ByteArrayInputStream(data), e -> {
+        recorded.add(e);
+        errors.receiveError(e);
+      });
+
+    try {
+      this.write(file, voices, recorded);
+    } catch (final IOException e) {
+      LOG.warn("cache: could not write {}: {}", file, e.getMessage());
+    }
+    return voices;
+  }
+
+  /**
+   * @return The number of parses satisfied from the cache
+   */
+
+  long hits()
+  {
+    return this.hits.get();
+  }
+
+  /**
+   * @return The number of parses not satisfied from the cache
+   */
+
+  long misses()
+  {
+    return this.misses.get();
+  }
+
+  private static boolean isCacheable(
+    final Dx7Format format,
+    final byte[] data)
+    throws IOException
+  {
+    switch (format) {
+      case DX7_FORMAT_XML:
+        return !contains(data, XINCLUDE_NAMESPACE);
+      case DX7_FORMAT_XML_GZ: {
+        try (InputStream stream =
+               new GZIPInputStream(new ByteArrayInputStream(data))) {
+          return !contains(stream.readAllBytes(), XINCLUDE_NAMESPACE);
+        }
+      }
+      case DX7_FORMAT_BINARY_SYSEX_32_VOICE:
+      case DX7_FORMAT_ARCHIVE:
+        return true;
+    }
+    throw new UnreachableCodeException();
+  }
+
+  private static boolean contains(
+    final byte[] data,
+    final byte[] pattern)
+  {
+    final int last = data.length - pattern.length;
+    for (int index = 0; index <= last; ++index) {
+      if (matchesAt(data, index, pattern)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesAt(
+    final byte[] data,
+    final int index,
+    final byte[] pattern)
+  {
+    for (int offset = 0; offset < pattern.length; ++offset) {
+      if (data[index + offset] != pattern[offset]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String key(
+    final Dx7Format format,
+    final boolean validated,
+    final byte[] data)
+  {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(
+        ByteBuffer.allocate(Integer.BYTES).putInt(PARSER_VERSION).array());
+      digest.update(format.toString().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update((byte) (validated ? 1 : 0));
+      digest.update(data);
+      final byte[] result = digest.digest();
+      final StringBuilder sb = new StringBuilder(result.length * 2);
+      for (final byte x : result) {
+        sb.append(String.format("%02x", Integer.valueOf(x & 0xff)));
+      }
+      return sb.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  private Path entryFile(
+    final String key)
+  {
+    return this.directory.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private Optional<Vector<Dx7VoiceNamed>> read(
+    final Path file,
+    final URI uri,
+    final Dx7ParseErrorListenerType errors)
+  {
+    final List<Dx7ParseError> replayed = new ArrayList<>();
+    final Vector<Dx7VoiceNamed> voices;
+
+    try (InputStream stream =
+           new BufferedInputStream(Files.newInputStream(file))) {
+      final DataInputStream input = new DataInputStream(stream);
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        LOG.warn("cache: ignoring unrecognized entry {}", file);
+        return Optional.empty();
+      }
+
+      final int error_count = input.readInt();
+      for (int index = 0; index < error_count; ++index) {
+        final Dx7ParseErrorType.Severity severity =
+          Dx7ParseErrorType.Severity.valueOf(input.readUTF());
+        final long offset = input.readLong();
+        final String message = input.readUTF();
+        replayed.add(
+          Dx7ParseError.of(uri, offset, severity, message, Optional.empty()));
+      }
+
+      final List<Dx7ParseError> corrupt = new ArrayList<>();
+      voices = Dx7ArchiveIO.readAll(corrupt::add, file.toUri(), stream);
+      if (!corrupt.isEmpty()) {
+        LOG.warn("cache: ignoring corrupt entry {}", file);
+        return Optional.empty();
+      }
+    } catch (final NoSuchFileException e) {
+      return Optional.empty();
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.warn("cache: ignoring unreadable entry {}: {}", file, e.getMessage());
+      return Optional.empty();
+    }
+
+    replayed.forEach(errors::receiveError);
+    return Optional.of(voices);
+  }
+
+  private void write(
+    final Path file,
+    final Vector<Dx7VoiceNamed> voices,
+    final List<Dx7ParseError> errors)
+    throws IOException
+  {
+    final Path parent = file.getParent();
+    Files.createDirectories(parent);
+
+    final Path file_tmp =
+      Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+    try {
+      try (OutputStream stream = Files.newOutputStream(file_tmp)) {
+        final DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        synchronized (errors) {
+          output.writeInt(errors.size());
+          for (final Dx7ParseError error : errors) {
+            output.writeUTF(error.severity().name());
+            output.writeLong(error.offset());
+            output.writeUTF(error.message());
+          }
+        }
+        output.flush();
+
+        try (Dx7ArchiveWriterType writer =
+               Dx7ArchiveIO.createWriter(file_tmp.toUri(), stream)) {
+          writer.write(voices);
+          writer.finish();
+        }
+      }
+      Files.move(file_tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (final UTFDataFormatException e) {
+      Files.deleteIfExists(file_tmp);
+      LOG.debug("cache: error message too long to cache for {}", file);
+    } catch (final IOException e) {
+      Files.deleteIfExists(file_tmp);
+      throw e;
+    }
+  }
+}
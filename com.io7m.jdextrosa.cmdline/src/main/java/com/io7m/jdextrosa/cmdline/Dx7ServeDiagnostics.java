@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.util.Objects;
+
+/**
+ * <p>An appender that collects the log messages produced while a server
+ * request is executed, so that they can be returned to the client. Parse
+ * errors (with their positions), the results of commands, and failures are
+ * all reported by logging, so the collected messages are what the command
+ * would have printed had it been run directly.</p>
+ *
+ * <p>Messages are collected for the thread that began the request, and for
+ * any threads that it starts. Messages logged by other threads, or after
+ * the request has been finished, are ignored.</p>
+ */
+
+final class Dx7ServeDiagnostics
+  extends UnsynchronizedAppenderBase<ILoggingEvent>
+{
+  private static final int MAXIMUM_TEXT = Dx7ServeProtocol.MAXIMUM_MESSAGE / 2;
+
+  private final InheritableThreadLocal<Request> current;
+
+  Dx7ServeDiagnostics()
+  {
+    this.current = new InheritableThreadLocal<>();
+  }
+
+  /**
+   * Begin collecting messages for a request on the current thread.
+   *
+   * @return The request
+   */
+
+  Request begin()
+  {
+    final Request request = new Request(this);
+    this.current.set(request);
+    return request;
+  }
+
+  @Override
+  protected void append(
+    final ILoggingEvent event)
+  {
+    final Request request = this.current.get();
+    if (request != null) {
+      request.add(event.getLevel() + " " + event.getFormattedMessage());
+    }
+  }
+
+  /**
+   * The messages collected for a single request.
+   */
+
+  static final class Request implements AutoCloseable
+  {
+    private final Dx7ServeDiagnostics owner;
+    private final StringBuilder text;
+    private boolean closed;
+    private int omitted;
+
+    private Request(
+      final Dx7ServeDiagnostics in_owner)
+    {
+      this.owner = Objects.requireNonNull(in_owner, "Owner");
+      this.text = new StringBuilder(256);
+      this.closed = false;
+      this.omitted = 0;
+    }
+
+    private synchronized void add(
+      final String message)
+    {
+      if (this.closed) {
+        return;
+      }
+      if (this.text.length() >= MAXIMUM_TEXT) {
+        ++this.omitted;
+        return;
+      }
+      this.text.append(message);
+      this.text.append('\n');
+    }
+
+    /**
+     * @return The messages collected so far, one per line
+     */
+
+    synchronized String text()
+    {
+      if (this.omitted > 0) {
+        return this.text + "(" + this.omitted + " further messages omitted)\n";
+      }
+      return this.text.toString();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+      this.closed = true;
+      this.owner.current.remove();
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>The wire protocol spoken between the {@code serve} and {@code client}
+ * commands. A request is a token followed by a count of arguments and then
+ * each argument, all as modified UTF-8; a response is an exit code followed
+ * by a message. The message holds the messages that the server logged while
+ * executing the command (such as parse errors and their positions), one per
+ * line and each prefixed with its level.</p>
+ *
+ * <p>The token is a random string created by the server when it starts, and
+ * written to a file readable only by the user running the server. Requests
+ * that do not begin with the token are rejected, so only clients that can
+ * read the file can have commands executed.</p>
+ */
+
+final class Dx7ServeProtocol
+{
+  /**
+   * The default port on which the server listens.
+   */
+
+  static final int DEFAULT_PORT = 47007;
+
+  /**
+   * The maximum number of arguments accepted in a single request.
+   */
+
+  static final int MAXIMUM_ARGUMENTS = 1024;
+
+  /**
+   * The maximum length of a response message.
+   */
+
+  static final int MAXIMUM_MESSAGE = 16384;
+
+  private static final int TOKEN_SIZE = 32;
+
+  private Dx7ServeProtocol()
+  {
+
+  }
+
+  /**
+   * @param port The port on which the server listens
+   *
+   * @return The default token file for a server listening on {@code port}
+   */
+
+  static Path defaultTokenFile(
+    final int port)
+  {
+    return Paths.get(
+      System.getProperty("user.home"),
+      ".jdextrosa",
+      "serve-" + port + ".token");
+  }
+
+  /**
+   * Create a new random token and write it to the given file, replacing any
+   * existing file. On filesystems that support POSIX permissions, the file
+   * is created readable and writable only by the current user.
+   *
+   * @param file The token file
+   *
+   * @return The token
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static String createToken(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+
+    final byte[] data = new byte[TOKEN_SIZE];
+    new SecureRandom().nextBytes(data);
+    final StringBuilder sb = new StringBuilder(data.length * 2);
+    for (final byte x : data) {
+      sb.append(String.format("%02x", Integer.valueOf(x & 0xff)));
+    }
+    final String token = sb.toString();
+
+    final Path file_abs = file.toAbsolutePath();
+    Files.createDirectories(file_abs.getParent());
+    Files.deleteIfExists(file_abs);
+
+    /*
+     * The file is created with its final permissions, rather than having
+     * them set afterwards, so that the token is never readable by others.
+     */
+
+    try (SeekableByteChannel channel = createPrivate(file_abs)) {
+      channel.write(ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8)));
+    }
+    return token;
+  }
+
+  private static SeekableByteChannel createPrivate(
+    final Path file)
+    throws IOException
+  {
+    final Set<StandardOpenOption> options =
+      Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+    if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      return Files.newByteChannel(
+        file,
+        options,
+        PosixFilePermissions.asFileAttribute(
+          PosixFilePermissions.fromString("rw-------")));
+    }
+    return Files.newByteChannel(file, options);
+  }
+
+  /**
+   * Read the token written by a running server.
+   *
+   * @param file The token file
+   *
+   * @return The token
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static String readToken(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    return Files.readString(file, StandardCharsets.UTF_8).trim();
+  }
+
+  /**
+   * Compare a token received from a client with the expected token in time
+   * independent of the position of the first difference.
+   *
+   * @param expected The expected token
+   * @param received The received token
+   *
+   * @return {@code true} iff the tokens are equal
+   */
+
+  static boolean tokenMatches(
+    final String expected,
+    final String received)
+  {
+    Objects.requireNonNull(expected, "Expected");
+    Objects.requireNonNull(received, "Received");
+    return MessageDigest.isEqual(
+      expected.getBytes(StandardCharsets.UTF_8),
+      received.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static void writeRequest(
+    final DataOutputStream output,
+    final String token,
+    final String[] arguments)
+    throws IOException
+  {
+    Objects.requireNonNull(output, "Output");
+    Objects.requireNonNull(token, "Token");
+    Objects.requireNonNull(arguments, "Arguments");
+
+    if (arguments.length > MAXIMUM_ARGUMENTS) {
+      throw new IOException(
+        "Too many arguments (maximum " + MAXIMUM_ARGUMENTS + ")");
+    }
+
+    output.writeUTF(token);
+    output.writeInt(arguments.length);
+    for (final String argument : arguments) {
+      output.writeUTF(argument);
+    }
+    output.flush();
+  }
+
+  static String readRequestToken(
+    final DataInputStream input)
+    throws IOException
+  {
+    Objects.requireNonNull(input, "Input");
+    return input.readUTF();
+  }
+
+  static String[] readRequest(
+    final DataInputStream input)
+    throws IOException
+  {
+    Objects.requireNonNull(input, "Input");
+
+    final int count = input.readInt();
+    if (count < 0 || count > MAXIMUM_ARGUMENTS) {
+      throw new IOException("Bad argument count: " + count);
+    }
+
+    final String[] arguments = new String[count];
+    for (int index = 0; index < count; ++index) {
+      arguments[index] = input.readUTF();
+    }
+    return arguments;
+  }
+
+  static void writeResponse(
+    final DataOutputStream output,
+    final int exit_code,
+    final String message)
+    throws IOException
+  {
+    Objects.requireNonNull(output, "Output");
+    Objects.requireNonNull(message, "Message");
+
+    output.writeInt(exit_code);
+    output.writeUTF(
+      message.length() > MAXIMUM_MESSAGE
+        ? message.substring(0, MAXIMUM_MESSAGE)
+        : message);
+    output.flush();
+  }
+}
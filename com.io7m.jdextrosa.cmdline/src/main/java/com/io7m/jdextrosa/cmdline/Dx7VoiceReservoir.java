@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveI;
+import io.vavr.collection.Vector;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * <p>A fixed-size uniform random sample of voices.</p>
+ *
+ * <p>Every offered voice is assigned a random key, and the reservoir retains
+ * the voices with the smallest keys. A sample therefore requires a single
+ * pass over the input and memory proportional to the size of the sample.
+ * Reservoirs filled independently (on separate threads, for example) can
+ * be merged, and the result is a uniform sample of the combined input.</p>
+ *
+ * <p>Keys are derived from a seed, the file containing each voice, and the
+ * position of the voice in the file, so a given seed produces the same
+ * sample regardless of the number of threads used or the order in which
+ * files are encountered.</p>
+ */
+
+final class Dx7VoiceReservoir
+{
+  private static final Comparator<Entry> LARGEST_KEY_FIRST =
+    Comparator.comparingDouble((Entry e) -> e.key).reversed();
+
+  private final int capacity;
+  private final PriorityQueue<Entry> entries;
+  private long offered;
+
+  Dx7VoiceReservoir(
+    final int in_capacity)
+  {
+    this.capacity =
+      RangeCheck.checkIncludedInInteger(
+        in_capacity,
+        "Capacity",
+        RangeInclusiveI.of(1, Integer.MAX_VALUE),
+        "Valid capacities");
+    this.entries = new PriorityQueue<>(this.capacity + 1, LARGEST_KEY_FIRST);
+  }
+
+  /**
+   * Derive the key of a voice.
+   *
+   * @param seed  The seed
+   * @param file  The name of the file containing the voice
+   * @param voice The index of the voice within the file
+   *
+   * @return A key in the range {@code [0, 1)}
+   */
+
+  static double key(
+    final long seed,
+    final String file,
+    final int voice)
+  {
+    long file_hash = 0xcbf29ce484222325L;
+    for (int index = 0; index < file.length(); ++index) {
+      file_hash = (file_hash ^ file.charAt(index)) * 0x100000001b3L;
+    }
+
+    final long hash = mix(seed ^ mix(file_hash ^ mix(voice)));
+    return (double) (hash >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * The SplitMix64 finalizer.
+   */
+
+  private static long mix(
+    final long x)
+  {
+    long z = x + 0x9e3779b97f4a7c15L;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Offer a voice to the reservoir.
+   *
+   * @param key   The key of the voice
+   * @param voice The voice
+   */
+
+  void offer(
+    final double key,
+    final Dx7VoiceNamed voice)
+  {
+    ++this.offered;
+    this.insert(new Entry(key, voice));
+  }
+
+  private void insert(
+    final Entry entry)
+  {
+    if (this.entries.size() < this.capacity) {
+      this.entries.add(entry);
+      return;
+    }
+    if (entry.key < this.entries.peek().key) {
+      this.entries.poll();
+      this.entries.add(entry);
+    }
+  }
+
+  /**
+   * Merge the contents of {@code other} into this reservoir.
+   *
+   * @param other The other reservoir
+   */
+
+  void merge(
+    final Dx7VoiceReservoir other)
+  {
+    this.offered += other.offered;
+    for (final Entry entry : other.entries) {
+      this.insert(entry);
+    }
+  }
+
+  /**
+   * @return The number of voices offered to this reservoir, including
+   * voices offered to merged reservoirs
+   */
+
+  long offered()
+  {
+    return this.offered;
+  }
+
+  /**
+   * @return The sampled voices in key order, which is a random order
+   */
+
+  Vector<Dx7VoiceNamed> voices()
+  {
+    return Vector.ofAll(this.entries)
+      .sortBy(e -> Double.valueOf(e.key))
+      .map(e -> e.voice);
+  }
+
+  private static final class Entry
+  {
+    private final double key;
+    private final Dx7VoiceNamed voice;
+
+    Entry(
+      final double in_key,
+      final Dx7VoiceNamed in_voice)
+    {
+      this.key = in_key;
+      this.voice = in_voice;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The final stage of a conversion pipeline: A consumer of voices that
+ * writes voices as they arrive.
+ */
+
+interface Dx7VoiceSinkType extends Closeable
+{
+  /**
+   * Accept a batch of voices. Batches are delivered in input order.
+   *
+   * @param voices The voices
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void accept(Vector<Dx7VoiceNamed> voices)
+    throws IOException;
+
+  /**
+   * Indicate that no further voices will be delivered.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void finish()
+    throws IOException;
+}
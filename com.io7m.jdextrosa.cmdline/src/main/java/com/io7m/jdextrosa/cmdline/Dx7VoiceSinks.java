@@ -0,0 +1,348 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ArchiveWriterType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.Dx7SysExStreamWriterType;
+import com.io7m.jdextrosa.io.xml.Dx7WriterConfigurationException;
+import com.io7m.jdextrosa.io.xml.Dx7XMLWriters;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterRequest;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterType;
+import com.io7m.jdextrosa.store.Dx7StoreWriter;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Vector;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Functions to create voice sinks.
+ */
+
+final class Dx7VoiceSinks
+{
+  private Dx7VoiceSinks()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @return A sink that discards all voices
+   */
+
+  static Dx7VoiceSinkType discard()
+  {
+    return new DiscardSink();
+  }
+
+  /**
+   * Create a sink that writes voices to an XML file.
+   *
+   * @param writers  The XML writers
+   * @param schema   The output schema
+   * @param file     The output file
+   * @param compress {@code true} if the output should be GZIP compressed
+   *
+   * @return A sink
+   *
+   * @throws IOException                     On I/O errors
+   * @throws Dx7WriterConfigurationException If the writer cannot be created
+   */
+
+  static Dx7VoiceSinkType xml(
+    final Dx7XMLWriters writers,
+    final URI schema,
+    final Path file,
+    final boolean compress)
+    throws IOException, Dx7WriterConfigurationException
+  {
+    Objects.requireNonNull(writers, "Writers");
+    Objects.requireNonNull(schema, "Schema");
+    Objects.requireNonNull(file, "File");
+
+    final OutputStream stream;
+    if (compress) {
+      stream = new GZIPOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file)));
+    } else {
+      stream = new BufferedOutputStream(Files.newOutputStream(file));
+    }
+
+    try {
+      final Dx7XMLWriterType writer =
+        writers.createWriter(
+          Dx7XMLWriterRequest.builder()
+            .setFile(file.toUri())
+            .setSchema(schema)
+            .setStream(stream)
+            .build());
+      writer.start();
+      return new XMLSink(writer, stream);
+    } catch (final IOException | Dx7WriterConfigurationException e) {
+      stream.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Create a sink that writes voices to a single 32-voice SysEx message.
+   *
+   * @param file The output file
+   *
+   * @return A sink
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Dx7VoiceSinkType sysEx32(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+
+    final FileChannel channel =
+      FileChannel.open(file, CREATE, TRUNCATE_EXISTING, WRITE);
+
+    try {
+      return new SysExSink(Dx7SysExIO.createStreamWriter(file.toUri(), channel));
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Create a sink that writes voices to a {@code .dx7lib} archive.
+   *
+   * @param file The output file
+   *
+   * @return A sink
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Dx7VoiceSinkType archive(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    return new ArchiveSink(
+      Dx7ArchiveIO.createWriter(file.toUri(), Files.newOutputStream(file)));
+  }
+
+  /**
+   * Create a sink that appends voices to a voice store, creating the store
+   * if it does not exist.
+   *
+   * @param directory The store directory
+   *
+   * @return A sink
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Dx7VoiceSinkType store(
+    final Path directory)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "Directory");
+    return new StoreSink(Dx7StoreWriter.open(directory));
+  }
+
+  private static final class DiscardSink implements Dx7VoiceSinkType
+  {
+    DiscardSink()
+    {
+
+    }
+
+    @Override
+    public void accept(
+      final Vector<Dx7VoiceNamed> voices)
+    {
+
+    }
+
+    @Override
+    public void finish()
+    {
+
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+  }
+
+  private static final class XMLSink implements Dx7VoiceSinkType
+  {
+    private final Dx7XMLWriterType writer;
+    private final OutputStream stream;
+
+    XMLSink(
+      final Dx7XMLWriterType in_writer,
+      final OutputStream in_stream)
+    {
+      this.writer = Objects.requireNonNull(in_writer, "Writer");
+      this.stream = Objects.requireNonNull(in_stream, "Stream");
+    }
+
+    @Override
+    public void accept(
+      final Vector<Dx7VoiceNamed> voices)
+      throws IOException
+    {
+      this.writer.write(voices);
+    }
+
+    @Override
+    public void finish()
+      throws IOException
+    {
+      this.writer.finish();
+      this.stream.flush();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      try {
+        this.writer.close();
+      } finally {
+        this.stream.close();
+      }
+    }
+  }
+
+  private static final class SysExSink implements Dx7VoiceSinkType
+  {
+    private final Dx7SysExStreamWriterType writer;
+
+    SysExSink(
+      final Dx7SysExStreamWriterType in_writer)
+    {
+      this.writer = Objects.requireNonNull(in_writer, "Writer");
+    }
+
+    @Override
+    public void accept(
+      final Vector<Dx7VoiceNamed> voices)
+      throws IOException
+    {
+      this.writer.write(voices);
+    }
+
+    @Override
+    public void finish()
+      throws IOException
+    {
+      this.writer.finish();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      this.writer.close();
+    }
+  }
+
+  private static final class ArchiveSink implements Dx7VoiceSinkType
+  {
+    private final Dx7ArchiveWriterType writer;
+
+    ArchiveSink(
+      final Dx7ArchiveWriterType in_writer)
+    {
+      this.writer = Objects.requireNonNull(in_writer, "Writer");
+    }
+
+    @Override
+    public void accept(
+      final Vector<Dx7VoiceNamed> voices)
+      throws IOException
+    {
+      this.writer.write(voices);
+    }
+
+    @Override
+    public void finish()
+      throws IOException
+    {
+      this.writer.finish();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      this.writer.close();
+    }
+  }
+
+  private static final class StoreSink implements Dx7VoiceSinkType
+  {
+    private final Dx7StoreWriter writer;
+
+    StoreSink(
+      final Dx7StoreWriter in_writer)
+    {
+      this.writer = Objects.requireNonNull(in_writer, "Writer");
+    }
+
+    @Override
+    public void accept(
+      final Vector<Dx7VoiceNamed> voices)
+      throws IOException
+    {
+      for (final Dx7VoiceNamed voice : voices) {
+        this.writer.append(voice);
+      }
+    }
+
+    @Override
+    public void finish()
+      throws IOException
+    {
+      this.writer.sync();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      this.writer.close();
+    }
+  }
+}
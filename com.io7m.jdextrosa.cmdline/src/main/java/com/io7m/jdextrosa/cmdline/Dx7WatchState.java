@@ -0,0 +1,374 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The persistent state of the {@code watch} command: the size, modification
+ * time, and content hash of every input file that has been seen, along with
+ * the voices that were parsed from it. Voices are held in the 128 octet
+ * packed form (plus a mask of enabled operators), so the aggregated output
+ * can be rewritten without parsing unchanged files again.
+ */
+
+final class Dx7WatchState
+{
+  private static final int MAGIC = 0x44583757;
+  private static final int VERSION = 1;
+
+  /**
+   * The size in octets of a single voice record.
+   */
+
+  static final int RECORD_SIZE = Dx7SysExIO.PACKED_VOICE_SIZE + 1;
+
+  private final SortedMap<Path, Entry> entries;
+
+  private Dx7WatchState(
+    final SortedMap<Path, Entry> in_entries)
+  {
+    this.entries = Objects.requireNonNull(in_entries, "Entries");
+  }
+
+  /**
+   * @return A new empty state
+   */
+
+  static Dx7WatchState create()
+  {
+    return new Dx7WatchState(new TreeMap<>());
+  }
+
+  /**
+   * Load state from the given file. If the file does not exist, the state
+   * is empty.
+   *
+   * @param file The state file
+   *
+   * @return The state
+   *
+   * @throws IOException On I/O errors, or if the file is not a state file
+   */
+
+  static Dx7WatchState load(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+
+    final SortedMap<Path, Entry> entries = new TreeMap<>();
+    try (DataInputStream input = new DataInputStream(
+      new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not a watch state file: " + file);
+      }
+      final int version = input.readInt();
+      if (version != VERSION) {
+        throw new IOException(
+          "Unsupported watch state version " + version + ": " + file);
+      }
+
+      final int count = input.readInt();
+      for (int index = 0; index < count; ++index) {
+        final Path path = Paths.get(input.readUTF());
+        final long size = input.readLong();
+        final long modified = input.readLong();
+        final byte[] hash = new byte[input.readUnsignedByte()];
+        input.readFully(hash);
+        final byte[] records = new byte[input.readInt() * RECORD_SIZE];
+        input.readFully(records);
+        entries.put(path, new Entry(size, modified, hash, records));
+      }
+    } catch (final NoSuchFileException e) {
+      return create();
+    }
+    return new Dx7WatchState(entries);
+  }
+
+  /**
+   * Save the state to the given file. The state is written to a temporary
+   * file that then replaces the given file, so an interrupted save leaves
+   * the previous state intact.
+   *
+   * @param file The state file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void save(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+
+    final Path file_tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+      new BufferedOutputStream(Files.newOutputStream(file_tmp)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(this.entries.size());
+      for (final Map.Entry<Path, Entry> pair : this.entries.entrySet()) {
+        final Entry entry = pair.getValue();
+        output.writeUTF(pair.getKey().toString());
+        output.writeLong(entry.size);
+        output.writeLong(entry.modified);
+        output.writeByte(entry.hash.length);
+        output.write(entry.hash);
+        output.writeInt(entry.voiceCount());
+        output.write(entry.records);
+      }
+    }
+    Files.move(file_tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  /**
+   * @param path The file
+   *
+   * @return The entry for the given file, if any
+   */
+
+  Optional<Entry> get(
+    final Path path)
+  {
+    return Optional.ofNullable(this.entries.get(path));
+  }
+
+  /**
+   * Set the entry for the given file.
+   *
+   * @param path  The file
+   * @param entry The entry
+   */
+
+  void put(
+    final Path path,
+    final Entry entry)
+  {
+    this.entries.put(
+      Objects.requireNonNull(path, "Path"),
+      Objects.requireNonNull(entry, "Entry"));
+  }
+
+  /**
+   * Remove the entry for the given file.
+   *
+   * @param path The file
+   *
+   * @return {@code true} if an entry was removed
+   */
+
+  boolean remove(
+    final Path path)
+  {
+    return this.entries.remove(path) != null;
+  }
+
+  /**
+   * @return The files with entries, in path order
+   */
+
+  Collection<Path> files()
+  {
+    return Collections.unmodifiableSet(this.entries.keySet());
+  }
+
+  /**
+   * @return The entries, in path order
+   */
+
+  SortedMap<Path, Entry> entries()
+  {
+    return Collections.unmodifiableSortedMap(this.entries);
+  }
+
+  /**
+   * The state of a single file.
+   */
+
+  static final class Entry
+  {
+    private final long size;
+    private final long modified;
+    private final byte[] hash;
+    private final byte[] records;
+
+    private Entry(
+      final long in_size,
+      final long in_modified,
+      final byte[] in_hash,
+      final byte[] in_records)
+    {
+      this.size = in_size;
+      this.modified = in_modified;
+      this.hash = Objects.requireNonNull(in_hash, "Hash");
+      this.records = Objects.requireNonNull(in_records, "Records");
+    }
+
+    /**
+     * Create an entry, packing the given voices.
+     *
+     * @param size     The size of the file
+     * @param modified The modification time of the file in milliseconds
+     * @param hash     The hash of the file content
+     * @param voices   The voices parsed from the file
+     *
+     * @return An entry
+     */
+
+    static Entry of(
+      final long size,
+      final long modified,
+      final byte[] hash,
+      final Vector<Dx7VoiceNamed> voices)
+    {
+      Objects.requireNonNull(voices, "Voices");
+
+      final byte[] records = new byte[voices.size() * RECORD_SIZE];
+      final byte[] packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+      for (int index = 0; index < voices.size(); ++index) {
+        final Dx7VoiceNamed voice = voices.get(index);
+        final int offset = index * RECORD_SIZE;
+        records[offset] = (byte) Dx7SysExIO.operatorsEnabled(voice.voice());
+        Dx7SysExIO.packVoice(voice, packed);
+        System.arraycopy(packed, 0, records, offset + 1, packed.length);
+      }
+      return new Entry(size, modified, hash.clone(), records);
+    }
+
+    /**
+     * @param in_size     The size of the file
+     * @param in_modified The modification time of the file in milliseconds
+     *
+     * @return {@code true} if the file appears unchanged
+     */
+
+    boolean sameAttributes(
+      final long in_size,
+      final long in_modified)
+    {
+      return this.size == in_size && this.modified == in_modified;
+    }
+
+    /**
+     * @param in_hash The hash of the file content
+     *
+     * @return {@code true} if the file content has the same hash
+     */
+
+    boolean sameContent(
+      final byte[] in_hash)
+    {
+      return Arrays.equals(this.hash, in_hash);
+    }
+
+    /**
+     * @param other Another entry
+     *
+     * @return {@code true} if both entries have the same voices
+     */
+
+    boolean sameVoices(
+      final Entry other)
+    {
+      return Arrays.equals(this.records, other.records);
+    }
+
+    /**
+     * @param in_size     The new size of the file
+     * @param in_modified The new modification time of the file
+     *
+     * @return This entry with the given attributes
+     */
+
+    Entry withAttributes(
+      final long in_size,
+      final long in_modified)
+    {
+      return new Entry(in_size, in_modified, this.hash, this.records);
+    }
+
+    /**
+     * @return The number of voices in the file
+     */
+
+    int voiceCount()
+    {
+      return this.records.length / RECORD_SIZE;
+    }
+
+    /**
+     * Unpack the voices of the file.
+     *
+     * @param errors An error receiver
+     * @param path   The file
+     *
+     * @return The voices, without metadata
+     */
+
+    Vector<Dx7VoiceNamed> voices(
+      final Dx7ParseErrorListenerType errors,
+      final Path path)
+    {
+      Objects.requireNonNull(errors, "Errors");
+      Objects.requireNonNull(path, "Path");
+
+      final int count = this.voiceCount();
+      final byte[] packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+      Vector<Dx7VoiceNamed> voices = Vector.empty();
+      for (int index = 0; index < count; ++index) {
+        final int offset = index * RECORD_SIZE;
+        final int mask = this.records[offset] & 0xff;
+        System.arraycopy(this.records, offset + 1, packed, 0, packed.length);
+        final Optional<Dx7VoiceNamed> voice_opt =
+          Dx7SysExIO.unpackVoice(errors, path.toUri(), packed);
+        if (voice_opt.isPresent()) {
+          final Dx7VoiceNamed voice = voice_opt.get();
+          voices = voices.append(Dx7VoiceNamed.of(
+            voice.name(),
+            Dx7SysExIO.withOperatorsEnabled(voice.voice(), mask),
+            voice.metadata()));
+        }
+      }
+      return voices;
+    }
+  }
+}
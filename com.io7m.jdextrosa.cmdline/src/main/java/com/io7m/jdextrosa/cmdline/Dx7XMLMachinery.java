@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.io.xml.Dx7XMLIncludeCache;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
+import com.io7m.jdextrosa.io.xml.Dx7XMLWriters;
+
+/**
+ * Process-wide XML parsers and writers. Constructing either one runs
+ * service discovery and loads the schema mappings (and with them the XSLT
+ * implementation), so each is created on first use and then shared by
+ * every command. Commands that never touch XML never pay for them.
+ *
+ * <p>The parsers resolve XInclude inclusions through a single include
+ * cache, so a fragment included by many documents (or parsed many times by
+ * a long-running command such as {@code serve} or {@code watch}) is read
+ * and validated once for as long as it is unchanged.</p>
+ */
+
+final class Dx7XMLMachinery
+{
+  private Dx7XMLMachinery()
+  {
+
+  }
+
+  /**
+   * @return The shared XML parsers, created on first use
+   */
+
+  static Dx7XMLParsers parsers()
+  {
+    return ParsersHolder.PARSERS;
+  }
+
+  /**
+   * @return The shared XML writers, created on first use
+   */
+
+  static Dx7XMLWriters writers()
+  {
+    return WritersHolder.WRITERS;
+  }
+
+  private static final class ParsersHolder
+  {
+    private static final Dx7XMLParsers PARSERS =
+      new Dx7XMLParsers(new Dx7XMLIncludeCache());
+
+    private ParsersHolder()
+    {
+
+    }
+  }
+
+  private static final class WritersHolder
+  {
+    private static final Dx7XMLWriters WRITERS = new Dx7XMLWriters();
+
+    private WritersHolder()
+    {
+
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A set of open ZIP archives. Each archive is opened as a read-only file
+ * system, so entries can be listed, filtered, and read concurrently
+ * straight from the archive without extraction.
+ */
+
+final class Dx7ZipArchives implements Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7ZipArchives.class);
+
+  private final List<FileSystem> archives;
+
+  private Dx7ZipArchives(
+    final List<FileSystem> in_archives)
+  {
+    this.archives = Objects.requireNonNull(in_archives, "Archives");
+  }
+
+  /**
+   * Open the given archives.
+   *
+   * @param files The archive files
+   *
+   * @return A set of open archives
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Dx7ZipArchives open(
+    final List<Path> files)
+    throws IOException
+  {
+    Objects.requireNonNull(files, "Files");
+
+    final List<FileSystem> archives = new ArrayList<>(files.size());
+    try {
+      for (final Path file : files) {
+        LOG.debug("open: {}", file);
+        archives.add(
+          FileSystems.newFileSystem(file.toAbsolutePath(), (ClassLoader) null));
+      }
+    } catch (final IOException e) {
+      closeAll(archives);
+      throw e;
+    }
+    return new Dx7ZipArchives(archives);
+  }
+
+  /**
+   * @return The root directories of the archives
+   */
+
+  List<Path> roots()
+  {
+    final List<Path> roots = new ArrayList<>(this.archives.size());
+    for (final FileSystem archive : this.archives) {
+      for (final Path root : archive.getRootDirectories()) {
+        roots.add(root);
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Determine the source URI of a file. Files inside ZIP archives are
+   * identified with URIs of the form {@code zip:file:///x.zip!/entry}; all
+   * other files are identified by their ordinary URIs.
+   *
+   * @param file The file
+   *
+   * @return The source URI of the file
+   */
+
+  static URI sourceURI(
+    final Path file)
+  {
+    final URI uri = file.toUri();
+    if (Objects.equals(uri.getScheme(), "jar")) {
+      return URI.create("zip:" + uri.getRawSchemeSpecificPart());
+    }
+    return uri;
+  }
+
+  private static void closeAll(
+    final List<FileSystem> archives)
+    throws IOException
+  {
+    IOException exception = null;
+    for (final FileSystem archive : archives) {
+      try {
+        archive.close();
+      } catch (final IOException e) {
+        if (exception == null) {
+          exception = e;
+        } else {
+          exception.addSuppressed(e);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    closeAll(this.archives);
+  }
+}
@@ -24,8 +24,11 @@ module com.io7m.jdextrosa.cmdline
   requires com.io7m.jdextrosa.io.xml.spi;
   requires com.io7m.jdextrosa.io.xml;
   requires com.io7m.jdextrosa.io;
+  requires com.io7m.jdextrosa.library;
+  requires com.io7m.jdextrosa.store;
+  requires com.io7m.jdextrosa.transforms;
+  requires com.io7m.jranges.core;
   requires com.io7m.junreachable.core;
-  requires com.io7m.mutable.numbers.core;
   requires io.vavr;
   requires jcommander;
   requires ch.qos.logback.classic;
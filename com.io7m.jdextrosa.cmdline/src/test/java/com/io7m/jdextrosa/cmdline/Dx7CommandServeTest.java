@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.JCommander;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public final class Dx7CommandServeTest
+{
+  private Path directory;
+  private Path token_file;
+  private int port;
+  private Dx7CommandServe server;
+  private Thread server_thread;
+
+  private static int freePort()
+    throws IOException
+  {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private Path copyTextures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/TEXTURES.SYX";
+    final Path file = this.directory.resolve("TEXTURES.SYX");
+    try (InputStream stream =
+           Dx7CommandServeTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      Files.copy(stream, file);
+    }
+    return file;
+  }
+
+  private Socket connect()
+    throws Exception
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+    while (true) {
+      if (Files.exists(this.token_file)) {
+        try {
+          return new Socket(InetAddress.getLoopbackAddress(), this.port);
+        } catch (final ConnectException e) {
+          if (System.nanoTime() > deadline) {
+            throw e;
+          }
+        }
+      }
+      Assertions.assertTrue(
+        System.nanoTime() < deadline, "Server did not start in time");
+      Thread.sleep(10L);
+    }
+  }
+
+  private Response send(
+    final String token,
+    final String... arguments)
+    throws Exception
+  {
+    try (Socket socket = this.connect()) {
+      final DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+      final DataInputStream input = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+
+      Dx7ServeProtocol.writeRequest(output, token, arguments);
+      final int exit_code = input.readInt();
+      final String message = input.readUTF();
+      return new Response(exit_code, message);
+    }
+  }
+
+  private Dx7CommandType.Status client(
+    final Path token,
+    final String... arguments)
+    throws Exception
+  {
+    final Dx7CommandClient command = new Dx7CommandClient();
+    final String[] client_arguments = new String[arguments.length + 5];
+    client_arguments[0] = "-port";
+    client_arguments[1] = Integer.toString(this.port);
+    client_arguments[2] = "-token-file";
+    client_arguments[3] = token.toString();
+    client_arguments[4] = "--";
+    System.arraycopy(arguments, 0, client_arguments, 5, arguments.length);
+
+    JCommander.newBuilder()
+      .addObject(command)
+      .build()
+      .parse(client_arguments);
+    return command.execute();
+  }
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory =
+      Files.createTempDirectory("dx7-serve-").toAbsolutePath().normalize();
+    this.token_file = this.directory.resolve("serve.token");
+    this.port = freePort();
+
+    this.server = new Dx7CommandServe();
+    JCommander.newBuilder()
+      .addObject(this.server)
+      .build()
+      .parse(
+        "-port", Integer.toString(this.port),
+        "-token-file", this.token_file.toString(),
+        "-threads", "2");
+
+    this.server_thread = new Thread(() -> {
+      try {
+        this.server.execute();
+      } catch (final Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    this.server_thread.setDaemon(true);
+    this.server_thread.start();
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws Exception
+  {
+    this.server.stop();
+    this.server_thread.join(TimeUnit.SECONDS.toMillis(30L));
+    Assertions.assertFalse(this.server_thread.isAlive());
+  }
+
+  @Test
+  public void testGoodToken()
+    throws Exception
+  {
+    final Path file = this.copyTextures();
+    final String token = Dx7ServeProtocol.readToken(this.token_file);
+
+    final Response response =
+      this.send(token, "verify", "-file-input", file.toString());
+    Assertions.assertEquals(0, response.exit_code);
+    Assertions.assertTrue(
+      response.message.contains(file + ": 32 voices"),
+      response.message);
+
+    Assertions.assertEquals(
+      Dx7CommandType.Status.SUCCESS,
+      this.client(this.token_file, "verify", "-file-input", file.toString()));
+  }
+
+  @Test
+  public void testBadToken()
+    throws Exception
+  {
+    final Path file = this.copyTextures();
+    final String token = Dx7ServeProtocol.readToken(this.token_file);
+
+    final Response response =
+      this.send(token + "x", "verify", "-file-input", file.toString());
+    Assertions.assertEquals(1, response.exit_code);
+    Assertions.assertEquals("Incorrect access token.", response.message);
+
+    final Path bad_token = this.directory.resolve("bad.token");
+    Files.writeString(bad_token, "0".repeat(token.length()));
+    Assertions.assertEquals(
+      Dx7CommandType.Status.FAILURE,
+      this.client(bad_token, "verify", "-file-input", file.toString()));
+  }
+
+  @Test
+  public void testParseErrorsReported()
+    throws Exception
+  {
+    final Path file = this.directory.resolve("bad.xml");
+    Files.write(
+      file,
+      "<?xml version=\"1.0\"?>\n<x>\n</y>\n"
+        .getBytes(StandardCharsets.UTF_8));
+    final String token = Dx7ServeProtocol.readToken(this.token_file);
+
+    final Response response =
+      this.send(token, "verify", "-file-input", file.toString());
+    Assertions.assertEquals(1, response.exit_code);
+    Assertions.assertTrue(
+      response.message.contains("ERROR"), response.message);
+    Assertions.assertTrue(
+      response.message.contains(":3:"), response.message);
+  }
+
+  @Test
+  public void testMissingCommand()
+    throws Exception
+  {
+    final String token = Dx7ServeProtocol.readToken(this.token_file);
+    final Response response = this.send(token);
+    Assertions.assertEquals(1, response.exit_code);
+    Assertions.assertTrue(
+      response.message.startsWith("Arguments required."), response.message);
+  }
+
+  private static final class Response
+  {
+    private final int exit_code;
+    private final String message;
+
+    Response(
+      final int in_exit_code,
+      final String in_message)
+    {
+      this.exit_code = in_exit_code;
+      this.message = in_message;
+    }
+  }
+}
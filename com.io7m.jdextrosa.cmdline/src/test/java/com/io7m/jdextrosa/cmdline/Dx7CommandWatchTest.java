@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.JCommander;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public final class Dx7CommandWatchTest
+{
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private Path directory;
+  private Path input;
+  private Path output;
+  private Path state;
+
+  private static void copyTextures(
+    final Path file)
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7CommandWatchTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      Files.createDirectories(file.getParent());
+      Files.copy(stream, file);
+    }
+  }
+
+  private static void deleteTree(
+    final Path path)
+    throws IOException
+  {
+    try (Stream<Path> files = Files.walk(path)) {
+      for (final Path file : files.sorted(Comparator.reverseOrder())
+        .collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private Dx7CommandType.Status watchOnce()
+    throws Exception
+  {
+    final Dx7CommandWatch command = new Dx7CommandWatch();
+    JCommander.newBuilder()
+      .addObject(command)
+      .build()
+      .parse(
+        "-input-dir", this.input.toString(),
+        "-file-output", this.output.toString(),
+        "-file-state", this.state.toString(),
+        "-threads", "2",
+        "-once");
+    return command.execute();
+  }
+
+  private Vector<Dx7VoiceNamed> outputVoices()
+    throws IOException
+  {
+    try (InputStream stream = Files.newInputStream(this.output)) {
+      return Dx7ArchiveIO.readAll(FAIL, this.output.toUri(), stream);
+    }
+  }
+
+  private List<Path> stateFiles()
+    throws IOException
+  {
+    return List.copyOf(Dx7WatchState.load(this.state).files());
+  }
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory =
+      Files.createTempDirectory("dx7-watch-").toAbsolutePath().normalize();
+    this.input = this.directory.resolve("input");
+    this.output = this.directory.resolve("output.dx7lib");
+    this.state = this.directory.resolve("watch.state");
+    Files.createDirectories(this.input);
+  }
+
+  @Test
+  public void testOnce()
+    throws Exception
+  {
+    final Path file_a = this.input.resolve("a.syx");
+    copyTextures(file_a);
+
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+    Assertions.assertEquals(32, this.outputVoices().size());
+    Assertions.assertEquals(List.of(file_a), this.stateFiles());
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("output.dx7lib.tmp")));
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("watch.state.tmp")));
+  }
+
+  @Test
+  public void testTouchedUnchanged()
+    throws Exception
+  {
+    final Path file_a = this.input.resolve("a.syx");
+    copyTextures(file_a);
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+
+    /*
+     * A file whose modification time changes but whose content does not
+     * updates the state, but does not cause the output to be rewritten.
+     */
+
+    final FileTime output_time = FileTime.fromMillis(1_000_000L);
+    Files.setLastModifiedTime(this.output, output_time);
+
+    final FileTime touched =
+      FileTime.fromMillis(
+        Files.getLastModifiedTime(file_a).toMillis() + 10_000L);
+    Files.setLastModifiedTime(file_a, touched);
+
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+    Assertions.assertEquals(
+      output_time, Files.getLastModifiedTime(this.output));
+
+    final Dx7WatchState.Entry entry =
+      Dx7WatchState.load(this.state).get(file_a).get();
+    Assertions.assertTrue(
+      entry.sameAttributes(Files.size(file_a), touched.toMillis()));
+    Assertions.assertEquals(32, entry.voiceCount());
+  }
+
+  @Test
+  public void testChanged()
+    throws Exception
+  {
+    final Path file_a = this.input.resolve("a.syx");
+    copyTextures(file_a);
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+
+    final Path file_b = this.input.resolve("b.syx");
+    copyTextures(file_b);
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+    Assertions.assertEquals(64, this.outputVoices().size());
+    Assertions.assertEquals(List.of(file_a, file_b), this.stateFiles());
+  }
+
+  @Test
+  public void testDirectoryDeleted()
+    throws Exception
+  {
+    final Path file_a = this.input.resolve("a.syx");
+    final Path file_b = this.input.resolve("sub").resolve("b.syx");
+    final Path file_c =
+      this.input.resolve("sub").resolve("deeper").resolve("c.syx");
+    copyTextures(file_a);
+    copyTextures(file_b);
+    copyTextures(file_c);
+
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+    Assertions.assertEquals(96, this.outputVoices().size());
+    Assertions.assertEquals(3, this.stateFiles().size());
+
+    deleteTree(this.input.resolve("sub"));
+
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+    Assertions.assertEquals(32, this.outputVoices().size());
+    Assertions.assertEquals(List.of(file_a), this.stateFiles());
+  }
+
+  @Test
+  public void testOutputAndStateExcluded()
+    throws Exception
+  {
+    /*
+     * The output and state files are placed inside the watched directory,
+     * with names that would otherwise be recognized as inputs.
+     */
+
+    this.output = this.input.resolve("output.dx7lib");
+    this.state = this.input.resolve("watch.syx");
+
+    final Path file_a = this.input.resolve("a.syx");
+    copyTextures(file_a);
+
+    for (int index = 0; index < 3; ++index) {
+      Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, this.watchOnce());
+      Assertions.assertEquals(32, this.outputVoices().size());
+      Assertions.assertEquals(List.of(file_a), this.stateFiles());
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class Dx7FileWalkerTest
+{
+  private static List<Path> walk(
+    final List<Path> roots,
+    final int threads)
+  {
+    final List<Path> files = new ArrayList<>();
+    try (Dx7FileWalker walker =
+           new Dx7FileWalker(roots, (root, file) -> true, threads)) {
+      walker.forEachRemaining(files::add);
+    }
+    return files;
+  }
+
+  private static Path create(
+    final Path directory,
+    final String name)
+    throws Exception
+  {
+    final Path file = directory.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[0]);
+    return file;
+  }
+
+  /**
+   * Files are returned depth first in name order, regardless of the order
+   * in which they were created or the number of threads.
+   */
+
+  @Test
+  public void testOrder()
+    throws Exception
+  {
+    final Path a = Files.createTempDirectory("dx7-walker-");
+    final Path b = Files.createTempDirectory("dx7-walker-");
+
+    final Path a_z = create(a, "z.syx");
+    final Path a_x_2 = create(a, "x/2.syx");
+    final Path a_x_1 = create(a, "x/1.syx");
+    final Path a_m = create(a, "m.syx");
+    final Path a_x_y_0 = create(a, "x/y/0.syx");
+    final Path a_c_0 = create(a, "c/0.syx");
+    final Path b_0 = create(b, "0.syx");
+    Files.createDirectories(a.resolve("empty"));
+
+    final List<Path> expected =
+      Arrays.asList(a_c_0, a_m, a_x_1, a_x_2, a_x_y_0, a_z, b_0);
+
+    for (final int threads : new int[]{1, 2, 8}) {
+      Assertions.assertEquals(expected, walk(Arrays.asList(a, b), threads));
+    }
+
+    Assertions.assertEquals(
+      Arrays.asList(b_0, a_c_0, a_m, a_x_1, a_x_2, a_x_y_0, a_z),
+      walk(Arrays.asList(b, a), 4));
+  }
+
+  @Test
+  public void testFilter()
+    throws Exception
+  {
+    final Path a = Files.createTempDirectory("dx7-walker-");
+    final Path a_0 = create(a, "0.syx");
+    create(a, "1.txt");
+    final Path a_x_2 = create(a, "x/2.syx");
+    create(a, "x/3.txt");
+
+    final List<Path> files = new ArrayList<>();
+    try (Dx7FileWalker walker =
+           new Dx7FileWalker(
+             Arrays.asList(a),
+             (root, file) -> file.toString().endsWith(".syx"),
+             2)) {
+      walker.forEachRemaining(files::add);
+    }
+    Assertions.assertEquals(Arrays.asList(a_0, a_x_2), files);
+  }
+
+  @Test
+  public void testMissingRoot()
+    throws Exception
+  {
+    final Path a = Files.createTempDirectory("dx7-walker-");
+    final Path a_0 = create(a, "0.syx");
+    Assertions.assertEquals(
+      Arrays.asList(a_0),
+      walk(Arrays.asList(a.resolve("nonexistent"), a), 2));
+  }
+}
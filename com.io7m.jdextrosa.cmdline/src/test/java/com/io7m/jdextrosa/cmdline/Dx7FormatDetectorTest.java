@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ArchiveWriterType;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+public final class Dx7FormatDetectorTest
+{
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private static byte[] resource(
+    final String file)
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/" + file;
+    try (InputStream stream =
+           Dx7FormatDetectorTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return stream.readAllBytes();
+    }
+  }
+
+  private static byte[] gzip(
+    final byte[] data)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+      output.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] archive()
+    throws IOException
+  {
+    final URI uri = URI.create("urn:textures");
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Dx7ArchiveWriterType writer = Dx7ArchiveIO.createWriter(uri, bytes)) {
+      writer.write(
+        Dx7SysExIO.createReader(
+          FAIL, uri, new ByteArrayInputStream(resource("TEXTURES.SYX")))
+          .parse());
+      writer.finish();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Infer the format of the given content using the given file name, and
+   * check that the stream is left at its original position.
+   */
+
+  private static Dx7Format infer(
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    try (InputStream stream =
+           new BufferedInputStream(new ByteArrayInputStream(data))) {
+      final Dx7Format format = Dx7FormatDetector.infer(Paths.get(name), stream);
+      Assertions.assertArrayEquals(data, stream.readAllBytes());
+      return format;
+    }
+  }
+
+  @Test
+  public void testSysEx()
+    throws Exception
+  {
+    final byte[] data = resource("TEXTURES.SYX");
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.syx", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.xml", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a", data));
+  }
+
+  @Test
+  public void testGzip()
+    throws Exception
+  {
+    final byte[] data = gzip(resource("textures.xml"));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML_GZ, infer("a.xml.gz", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML_GZ, infer("a.syx", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML_GZ, infer("a", data));
+  }
+
+  @Test
+  public void testXML()
+    throws Exception
+  {
+    final byte[] data = resource("textures.xml");
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a.xml", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a.dx7lib", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a", data));
+  }
+
+  @Test
+  public void testXMLByteOrderMark()
+    throws Exception
+  {
+    final String text =
+      "\uFEFF  \n"
+        + new String(resource("textures.xml"), StandardCharsets.UTF_8);
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML,
+      infer("a.syx", text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * XML in an unrecognized namespace is not identified by its content.
+   */
+
+  @Test
+  public void testXMLOtherNamespace()
+    throws Exception
+  {
+    final byte[] data =
+      "<?xml version=\"1.0\"?>\n<x xmlns=\"urn:other\"/>\n"
+        .getBytes(StandardCharsets.UTF_8);
+
+    Assertions.assertEquals(
+      Optional.empty(),
+      Dx7FormatDetector.inferFromPrefix(data, data.length));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.syx", data));
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> infer("a", data));
+  }
+
+  @Test
+  public void testArchive()
+    throws Exception
+  {
+    final byte[] data = archive();
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_ARCHIVE, infer("a.dx7lib", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_ARCHIVE, infer("a.xml", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_ARCHIVE, infer("a", data));
+  }
+
+  @Test
+  public void testUnrecognizedFallsBackToName()
+    throws Exception
+  {
+    final byte[] data = new byte[Dx7FormatDetector.PREFIX_SIZE * 3];
+    for (int index = 0; index < data.length; ++index) {
+      data[index] = (byte) (index % 7);
+    }
+
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.syx", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.SYSX", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE, infer("a.dx7", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a.xml", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML_GZ, infer("a.xml.gz", data));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_ARCHIVE, infer("a.dx7lib", data));
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> infer("a.txt", data));
+  }
+
+  @Test
+  public void testShort()
+    throws Exception
+  {
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a.xml", new byte[0]));
+    Assertions.assertEquals(
+      Dx7Format.DX7_FORMAT_XML, infer("a.xml", new byte[]{(byte) 0xf0}));
+  }
+
+  @Test
+  public void testMarkRequired()
+  {
+    final InputStream stream =
+      new FilterInputStream(new ByteArrayInputStream(new byte[4])) {
+        @Override
+        public boolean markSupported()
+        {
+          return false;
+        }
+      };
+
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> Dx7FormatDetector.inferFromContent(stream));
+  }
+
+  @Test
+  public void testInferFromName()
+  {
+    Assertions.assertEquals(
+      Optional.of(Dx7Format.DX7_FORMAT_XML_GZ),
+      Dx7FormatDetector.inferFromName(Paths.get("x/A.XML.GZ")));
+    Assertions.assertEquals(
+      Optional.empty(),
+      Dx7FormatDetector.inferFromName(Paths.get("x/a.gz")));
+  }
+}
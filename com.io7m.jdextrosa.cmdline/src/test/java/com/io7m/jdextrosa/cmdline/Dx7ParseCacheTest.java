@@ -0,0 +1,394 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ParseError;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7ParseErrorType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+public final class Dx7ParseCacheTest
+{
+  private static final URI URI_A = URI.create("urn:a");
+  private static final URI URI_B = URI.create("urn:b");
+
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private static final String XINCLUDE_DOCUMENT = String.join(
+    "\n",
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+    "<v:voices xmlns:v=\"urn:com.io7m.jdextrosa:2.0\"",
+    "          xmlns:xi=\"http://www.w3.org/2001/XInclude\">",
+    "  <xi:include href=\"other.xml\"/>",
+    "</v:voices>",
+    "");
+
+  private Path directory;
+  private Dx7ParseCache cache;
+  private AtomicInteger parses;
+  private byte[] textures;
+
+  private static byte[] resource(
+    final String name)
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/" + name;
+    try (InputStream stream =
+           Dx7ParseCacheTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return stream.readAllBytes();
+    }
+  }
+
+  private List<Path> entries()
+    throws IOException
+  {
+    try (Stream<Path> files = Files.walk(this.directory)) {
+      return files.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+  }
+
+  private Vector<Dx7VoiceNamed> parseSysEx(
+    final URI uri,
+    final Dx7ParseErrorListenerType errors)
+    throws Exception
+  {
+    return this.cache.parse(
+      Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE,
+      true,
+      this.textures,
+      uri,
+      errors,
+      (stream, parse_errors) -> {
+        this.parses.incrementAndGet();
+        return Dx7SysExIO.createReader(parse_errors, uri, stream).parse();
+      });
+  }
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory = Files.createTempDirectory("dx7-parse-cache-");
+    this.cache = Dx7ParseCache.open(this.directory);
+    this.parses = new AtomicInteger();
+    this.textures = resource("TEXTURES.SYX");
+  }
+
+  @Test
+  public void testMissThenHit()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> first = this.parseSysEx(URI_A, FAIL);
+    Assertions.assertEquals(32, first.size());
+    Assertions.assertEquals(1, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+    Assertions.assertEquals(1L, this.cache.misses());
+    Assertions.assertEquals(1, this.entries().size());
+
+    final Vector<Dx7VoiceNamed> second = this.parseSysEx(URI_A, FAIL);
+    Assertions.assertEquals(first, second);
+    Assertions.assertEquals(1, this.parses.get());
+    Assertions.assertEquals(1L, this.cache.hits());
+    Assertions.assertEquals(1L, this.cache.misses());
+  }
+
+  @Test
+  public void testHitAcrossInstances()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> first = this.parseSysEx(URI_A, FAIL);
+
+    this.cache = Dx7ParseCache.open(this.directory);
+    final Vector<Dx7VoiceNamed> second = this.parseSysEx(URI_A, FAIL);
+    Assertions.assertEquals(first, second);
+    Assertions.assertEquals(1, this.parses.get());
+    Assertions.assertEquals(1L, this.cache.hits());
+  }
+
+  @Test
+  public void testFormatIsPartOfKey()
+    throws Exception
+  {
+    this.parseSysEx(URI_A, FAIL);
+
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_ARCHIVE,
+      true,
+      this.textures,
+      URI_A,
+      FAIL,
+      (stream, errors) -> {
+        this.parses.incrementAndGet();
+        return Vector.empty();
+      });
+
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+    Assertions.assertEquals(2, this.entries().size());
+  }
+
+  @Test
+  public void testValidationIsPartOfKey()
+    throws Exception
+  {
+    final byte[] data = resource("textures.xml");
+    final Dx7ParseCache.ParserType parser = (stream, errors) -> {
+      this.parses.incrementAndGet();
+      return Vector.empty();
+    };
+
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, false, data, URI_A, FAIL, parser);
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(1L, this.cache.hits());
+    Assertions.assertEquals(2, this.entries().size());
+  }
+
+  @Test
+  public void testWarningsReplayed()
+    throws Exception
+  {
+    final Dx7ParseCache.ParserType parser = (stream, errors) -> {
+      this.parses.incrementAndGet();
+      errors.receiveError(
+        Dx7ParseError.of(
+          URI_A,
+          23L,
+          Dx7ParseErrorType.Severity.WARNING,
+          "Suspicious",
+          Optional.empty()));
+      return Dx7SysExIO.createReader(FAIL, URI_A, stream).parse();
+    };
+
+    final List<Dx7ParseError> errors_first = new ArrayList<>();
+    final Vector<Dx7VoiceNamed> first =
+      this.cache.parse(
+        Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE,
+        true,
+        this.textures,
+        URI_A,
+        errors_first::add,
+        parser);
+
+    Assertions.assertEquals(1, errors_first.size());
+    Assertions.assertEquals(URI_A, errors_first.get(0).file());
+
+    final List<Dx7ParseError> errors_second = new ArrayList<>();
+    final Vector<Dx7VoiceNamed> second =
+      this.cache.parse(
+        Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE,
+        true,
+        this.textures,
+        URI_B,
+        errors_second::add,
+        parser);
+
+    Assertions.assertEquals(first, second);
+    Assertions.assertEquals(1, this.parses.get());
+    Assertions.assertEquals(1L, this.cache.hits());
+    Assertions.assertEquals(1, errors_second.size());
+
+    final Dx7ParseError replayed = errors_second.get(0);
+    Assertions.assertEquals(URI_B, replayed.file());
+    Assertions.assertEquals(23L, replayed.offset());
+    Assertions.assertEquals(
+      Dx7ParseErrorType.Severity.WARNING, replayed.severity());
+    Assertions.assertEquals("Suspicious", replayed.message());
+  }
+
+  @Test
+  public void testXIncludeNotCached()
+    throws Exception
+  {
+    final byte[] data = XINCLUDE_DOCUMENT.getBytes(StandardCharsets.UTF_8);
+    final Dx7ParseCache.ParserType parser = (stream, errors) -> {
+      this.parses.incrementAndGet();
+      return Vector.empty();
+    };
+
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+    Assertions.assertEquals(0L, this.cache.misses());
+    Assertions.assertEquals(List.of(), this.entries());
+  }
+
+  @Test
+  public void testXIncludeCompressedNotCached()
+    throws Exception
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+      output.write(XINCLUDE_DOCUMENT.getBytes(StandardCharsets.UTF_8));
+    }
+    final byte[] data = bytes.toByteArray();
+
+    final Dx7ParseCache.ParserType parser = (stream, errors) -> {
+      this.parses.incrementAndGet();
+      return Vector.empty();
+    };
+
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML_GZ, true, data, URI_A, FAIL, parser);
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML_GZ, true, data, URI_A, FAIL, parser);
+
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(List.of(), this.entries());
+  }
+
+  @Test
+  public void testXMLWithoutXIncludeCached()
+    throws Exception
+  {
+    final byte[] data = resource("textures.xml");
+    final Dx7ParseCache.ParserType parser = (stream, errors) -> {
+      this.parses.incrementAndGet();
+      return Vector.empty();
+    };
+
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+    this.cache.parse(
+      Dx7Format.DX7_FORMAT_XML, true, data, URI_A, FAIL, parser);
+
+    Assertions.assertEquals(1, this.parses.get());
+    Assertions.assertEquals(1L, this.cache.hits());
+  }
+
+  @Test
+  public void testTruncatedEntryIsMiss()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> first = this.parseSysEx(URI_A, FAIL);
+
+    final Path entry = this.entries().get(0);
+    final byte[] data = Files.readAllBytes(entry);
+    for (final int length : new int[]{data.length / 2, 6, 0}) {
+      final byte[] truncated = new byte[length];
+      System.arraycopy(data, 0, truncated, 0, length);
+      Files.write(entry, truncated);
+
+      Assertions.assertEquals(first, this.parseSysEx(URI_A, FAIL));
+    }
+
+    Assertions.assertEquals(4, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+    Assertions.assertEquals(4L, this.cache.misses());
+
+    /*
+     * The entry is rewritten by the last miss.
+     */
+
+    Assertions.assertEquals(first, this.parseSysEx(URI_A, FAIL));
+    Assertions.assertEquals(1L, this.cache.hits());
+  }
+
+  @Test
+  public void testCorruptEntryIsMiss()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> first = this.parseSysEx(URI_A, FAIL);
+
+    final Path entry = this.entries().get(0);
+    final byte[] data = Files.readAllBytes(entry);
+    for (int index = 16; index < data.length; ++index) {
+      data[index] = (byte) 0xff;
+    }
+    Files.write(entry, data);
+
+    Assertions.assertEquals(first, this.parseSysEx(URI_A, FAIL));
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+  }
+
+  @Test
+  public void testUnrecognizedEntryIsMiss()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> first = this.parseSysEx(URI_A, FAIL);
+
+    final Path entry = this.entries().get(0);
+    Files.write(entry, "Not a cache entry".getBytes(StandardCharsets.UTF_8));
+
+    Assertions.assertEquals(first, this.parseSysEx(URI_A, FAIL));
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+  }
+
+  @Test
+  public void testFailedParseNotCached()
+    throws Exception
+  {
+    final IOException failure = new IOException("Failed");
+    final IOException raised = Assertions.assertThrows(
+      IOException.class,
+      () -> this.cache.parse(
+        Dx7Format.DX7_FORMAT_BINARY_SYSEX_32_VOICE,
+        true,
+        this.textures,
+        URI_A,
+        FAIL,
+        (stream, errors) -> {
+          this.parses.incrementAndGet();
+          throw failure;
+        }));
+
+    Assertions.assertSame(failure, raised);
+    Assertions.assertEquals(List.of(), this.entries());
+
+    final Vector<Dx7VoiceNamed> voices = this.parseSysEx(URI_A, FAIL);
+    Assertions.assertEquals(32, voices.size());
+    Assertions.assertEquals(2, this.parses.get());
+    Assertions.assertEquals(0L, this.cache.hits());
+    Assertions.assertEquals(2L, this.cache.misses());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+public final class Dx7ServeProtocolTest
+{
+  private static DataInputStream inputOf(
+    final ByteArrayOutputStream bytes)
+  {
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  public void testRequestRoundTrip()
+    throws Exception
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final String[] arguments = {"verify", "-file-input", "a b.syx", ""};
+    Dx7ServeProtocol.writeRequest(
+      new DataOutputStream(bytes), "token", arguments);
+
+    final DataInputStream input = inputOf(bytes);
+    Assertions.assertEquals("token", Dx7ServeProtocol.readRequestToken(input));
+    Assertions.assertArrayEquals(
+      arguments, Dx7ServeProtocol.readRequest(input));
+  }
+
+  @Test
+  public void testRequestTooManyArguments()
+  {
+    final String[] arguments =
+      new String[Dx7ServeProtocol.MAXIMUM_ARGUMENTS + 1];
+    Arrays.fill(arguments, "x");
+
+    Assertions.assertThrows(
+      IOException.class,
+      () -> Dx7ServeProtocol.writeRequest(
+        new DataOutputStream(new ByteArrayOutputStream()),
+        "token",
+        arguments));
+  }
+
+  @Test
+  public void testRequestBadArgumentCount()
+    throws Exception
+  {
+    final int[] counts = {-1, Dx7ServeProtocol.MAXIMUM_ARGUMENTS + 1};
+    for (final int count : counts) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream output = new DataOutputStream(bytes);
+      output.writeUTF("token");
+      output.writeInt(count);
+      output.flush();
+
+      final DataInputStream input = inputOf(bytes);
+      Dx7ServeProtocol.readRequestToken(input);
+      Assertions.assertThrows(
+        IOException.class, () -> Dx7ServeProtocol.readRequest(input));
+    }
+  }
+
+  @Test
+  public void testResponseRoundTrip()
+    throws Exception
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Dx7ServeProtocol.writeResponse(
+      new DataOutputStream(bytes), 1, "ERROR a.xml:1:2: Bad\n");
+
+    final DataInputStream input = inputOf(bytes);
+    Assertions.assertEquals(1, input.readInt());
+    Assertions.assertEquals("ERROR a.xml:1:2: Bad\n", input.readUTF());
+  }
+
+  @Test
+  public void testResponseTruncated()
+    throws Exception
+  {
+    final String message = "x".repeat(Dx7ServeProtocol.MAXIMUM_MESSAGE * 2);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Dx7ServeProtocol.writeResponse(new DataOutputStream(bytes), 0, message);
+
+    final DataInputStream input = inputOf(bytes);
+    Assertions.assertEquals(0, input.readInt());
+    Assertions.assertEquals(
+      message.substring(0, Dx7ServeProtocol.MAXIMUM_MESSAGE),
+      input.readUTF());
+  }
+
+  @Test
+  public void testToken()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-serve-");
+    final Path file = directory.resolve("sub").resolve("serve.token");
+
+    final String token0 = Dx7ServeProtocol.createToken(file);
+    Assertions.assertEquals(token0, Dx7ServeProtocol.readToken(file));
+    Assertions.assertTrue(Dx7ServeProtocol.tokenMatches(token0, token0));
+
+    final String token1 = Dx7ServeProtocol.createToken(file);
+    Assertions.assertNotEquals(token0, token1);
+    Assertions.assertEquals(token1, Dx7ServeProtocol.readToken(file));
+    Assertions.assertFalse(Dx7ServeProtocol.tokenMatches(token1, token0));
+    Assertions.assertFalse(Dx7ServeProtocol.tokenMatches(token1, ""));
+
+    if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      Assertions.assertEquals(
+        "rw-------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+  }
+}
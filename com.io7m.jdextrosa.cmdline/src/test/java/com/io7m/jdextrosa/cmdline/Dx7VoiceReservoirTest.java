@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.beust.jcommander.JCommander;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+public final class Dx7VoiceReservoirTest
+{
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private static byte[] textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7VoiceReservoirTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return stream.readAllBytes();
+    }
+  }
+
+  private static Vector<Dx7VoiceNamed> voices(
+    final String file)
+    throws IOException
+  {
+    return Dx7SysExIO.createReader(
+      FAIL, URI.create(file), new ByteArrayInputStream(textures()))
+      .parse();
+  }
+
+  private static void offerAll(
+    final Dx7VoiceReservoir reservoir,
+    final long seed,
+    final String file)
+    throws IOException
+  {
+    final Vector<Dx7VoiceNamed> voices = voices(file);
+    for (int index = 0; index < voices.size(); ++index) {
+      reservoir.offer(
+        Dx7VoiceReservoir.key(seed, file, index), voices.get(index));
+    }
+  }
+
+  @Test
+  public void testKeys()
+  {
+    for (int index = 0; index < 1000; ++index) {
+      final double key = Dx7VoiceReservoir.key(23L, "urn:a", index);
+      Assertions.assertTrue(key >= 0.0 && key < 1.0);
+      Assertions.assertEquals(
+        key, Dx7VoiceReservoir.key(23L, "urn:a", index));
+    }
+
+    Assertions.assertNotEquals(
+      Dx7VoiceReservoir.key(23L, "urn:a", 0),
+      Dx7VoiceReservoir.key(24L, "urn:a", 0));
+    Assertions.assertNotEquals(
+      Dx7VoiceReservoir.key(23L, "urn:a", 0),
+      Dx7VoiceReservoir.key(23L, "urn:b", 0));
+    Assertions.assertNotEquals(
+      Dx7VoiceReservoir.key(23L, "urn:a", 0),
+      Dx7VoiceReservoir.key(23L, "urn:a", 1));
+  }
+
+  @Test
+  public void testCapacity()
+    throws Exception
+  {
+    final Dx7VoiceReservoir reservoir = new Dx7VoiceReservoir(8);
+    offerAll(reservoir, 23L, "urn:a");
+    Assertions.assertEquals(8, reservoir.voices().size());
+    Assertions.assertEquals(32L, reservoir.offered());
+
+    final Dx7VoiceReservoir large = new Dx7VoiceReservoir(100);
+    offerAll(large, 23L, "urn:a");
+    Assertions.assertEquals(32, large.voices().size());
+  }
+
+  /**
+   * Merging reservoirs filled from separate inputs produces the same sample
+   * as a single reservoir filled from all of the inputs, whatever the order
+   * of the merges.
+   */
+
+  @Test
+  public void testMergeEqualsSingle()
+    throws Exception
+  {
+    final Dx7VoiceReservoir single = new Dx7VoiceReservoir(16);
+    offerAll(single, 23L, "urn:a");
+    offerAll(single, 23L, "urn:b");
+    offerAll(single, 23L, "urn:c");
+
+    final Dx7VoiceReservoir a = new Dx7VoiceReservoir(16);
+    final Dx7VoiceReservoir b = new Dx7VoiceReservoir(16);
+    final Dx7VoiceReservoir c = new Dx7VoiceReservoir(16);
+    offerAll(a, 23L, "urn:a");
+    offerAll(b, 23L, "urn:b");
+    offerAll(c, 23L, "urn:c");
+
+    final Dx7VoiceReservoir merged_abc = new Dx7VoiceReservoir(16);
+    merged_abc.merge(a);
+    merged_abc.merge(b);
+    merged_abc.merge(c);
+
+    final Dx7VoiceReservoir merged_bac = new Dx7VoiceReservoir(16);
+    a.merge(c);
+    merged_bac.merge(b);
+    merged_bac.merge(a);
+
+    Assertions.assertEquals(single.voices(), merged_abc.voices());
+    Assertions.assertEquals(single.voices(), merged_bac.voices());
+    Assertions.assertEquals(96L, merged_abc.offered());
+    Assertions.assertEquals(96L, merged_bac.offered());
+  }
+
+  private static Vector<Dx7VoiceNamed> pick(
+    final Path directory,
+    final Path output,
+    final long seed,
+    final int threads)
+    throws Exception
+  {
+    final Dx7CommandConvertBatch command = new Dx7CommandConvertBatch();
+    JCommander.newBuilder()
+      .addObject(command)
+      .build()
+      .parse(
+        "-input-dir", directory.toString(),
+        "-format-output", "dx7lib",
+        "-file-output", output.toString(),
+        "-pick-random-32",
+        "-seed", Long.toString(seed),
+        "-threads", Integer.toString(threads));
+    Assertions.assertEquals(Dx7CommandType.Status.SUCCESS, command.execute());
+
+    try (InputStream stream = Files.newInputStream(output)) {
+      return Dx7ArchiveIO.readAll(FAIL, output.toUri(), stream);
+    }
+  }
+
+  /**
+   * A given seed picks the same voices whatever the number of threads.
+   */
+
+  @Test
+  public void testSeedIndependentOfThreads()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-reservoir-");
+    final Path input = directory.resolve("input");
+    Files.createDirectories(input);
+    final byte[] data = textures();
+    for (int index = 0; index < 8; ++index) {
+      Files.write(input.resolve("bank" + index + ".syx"), data);
+    }
+
+    final Vector<Dx7VoiceNamed> picked_1 =
+      pick(input, directory.resolve("out1.dx7lib"), 23L, 1);
+    final Vector<Dx7VoiceNamed> picked_4 =
+      pick(input, directory.resolve("out4.dx7lib"), 23L, 4);
+    final Vector<Dx7VoiceNamed> picked_8 =
+      pick(input, directory.resolve("out8.dx7lib"), 23L, 8);
+    final Vector<Dx7VoiceNamed> picked_other =
+      pick(input, directory.resolve("other.dx7lib"), 24L, 4);
+
+    Assertions.assertEquals(32, picked_1.size());
+    Assertions.assertEquals(picked_1, picked_4);
+    Assertions.assertEquals(picked_1, picked_8);
+    Assertions.assertNotEquals(picked_1, picked_other);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.cmdline;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+public final class Dx7WatchStateTest
+{
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/cmdline/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7WatchStateTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(FAIL, URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  private static byte[] hash(
+    final int seed)
+  {
+    final byte[] hash = new byte[32];
+    for (int index = 0; index < hash.length; ++index) {
+      hash[index] = (byte) (index + seed);
+    }
+    return hash;
+  }
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices =
+      textures().zipWithIndex()
+        .map(pair -> Dx7VoiceNamed.of(
+          pair._1.name(),
+          Dx7SysExIO.withOperatorsEnabled(
+            pair._1.voice(), pair._2.intValue() % 64),
+          pair._1.metadata()));
+
+    final Path directory = Files.createTempDirectory("dx7-watch-state-");
+    final Path file_a = directory.resolve("a.syx");
+    final Path file_b = directory.resolve("b.syx");
+    final Path file_c = directory.resolve("c.syx");
+
+    final Dx7WatchState state = Dx7WatchState.create();
+    state.put(file_a, Dx7WatchState.Entry.of(4104L, 1000L, hash(1), voices));
+    state.put(
+      file_b,
+      Dx7WatchState.Entry.of(10L, 2000L, hash(2), Vector.empty()));
+    state.put(
+      file_c,
+      Dx7WatchState.Entry.of(4104L, 3000L, hash(3), voices.take(3)));
+
+    final Path state_file = directory.resolve("state");
+    state.save(state_file);
+    Assertions.assertFalse(Files.exists(directory.resolve("state.tmp")));
+
+    final Dx7WatchState loaded = Dx7WatchState.load(state_file);
+    Assertions.assertEquals(
+      List.of(file_a, file_b, file_c),
+      List.copyOf(loaded.files()));
+
+    final Dx7WatchState.Entry entry_a = loaded.get(file_a).get();
+    Assertions.assertTrue(entry_a.sameAttributes(4104L, 1000L));
+    Assertions.assertFalse(entry_a.sameAttributes(4104L, 1001L));
+    Assertions.assertTrue(entry_a.sameContent(hash(1)));
+    Assertions.assertFalse(entry_a.sameContent(hash(2)));
+    Assertions.assertTrue(entry_a.sameVoices(state.get(file_a).get()));
+    Assertions.assertEquals(32, entry_a.voiceCount());
+
+    final Vector<Dx7VoiceNamed> unpacked = entry_a.voices(FAIL, file_a);
+    Assertions.assertEquals(voices.size(), unpacked.size());
+    for (int index = 0; index < voices.size(); ++index) {
+      final Dx7VoiceNamed expected = voices.get(index);
+      final Dx7VoiceNamed received = unpacked.get(index);
+      Assertions.assertEquals(expected.name(), received.name());
+      Assertions.assertEquals(expected.voice(), received.voice());
+    }
+
+    Assertions.assertEquals(0, loaded.get(file_b).get().voiceCount());
+    Assertions.assertEquals(3, loaded.get(file_c).get().voiceCount());
+    Assertions.assertTrue(loaded.get(file_c).get().sameContent(hash(3)));
+  }
+
+  @Test
+  public void testMissing()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-watch-state-");
+    final Dx7WatchState state =
+      Dx7WatchState.load(directory.resolve("nonexistent"));
+    Assertions.assertTrue(state.files().isEmpty());
+  }
+
+  @Test
+  public void testNotStateFile()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-watch-state-");
+    final Path file = directory.resolve("state");
+    Files.write(file, "Not a state file".getBytes(StandardCharsets.UTF_8));
+    Assertions.assertThrows(IOException.class, () -> Dx7WatchState.load(file));
+  }
+
+  @Test
+  public void testWithAttributes()
+  {
+    final Dx7WatchState.Entry entry =
+      Dx7WatchState.Entry.of(10L, 20L, hash(1), Vector.empty());
+    final Dx7WatchState.Entry touched = entry.withAttributes(11L, 21L);
+    Assertions.assertTrue(touched.sameAttributes(11L, 21L));
+    Assertions.assertTrue(touched.sameContent(hash(1)));
+    Assertions.assertTrue(touched.sameVoices(entry));
+  }
+}
@@ -28,11 +28,178 @@ import java.util.Objects;
 
 public final class Dx7AlgorithmOperators
 {
+  /*
+   * The modulation edges of each algorithm, as pairs of (modulator, target)
+   * operator numbers, excluding feedback.
+   */
+
+  // CHECKSTYLE:OFF
+  private static final int[][] EDGES = {
+    /*  1 */ {2, 1, 4, 3, 5, 4, 6, 5},
+    /*  2 */ {2, 1, 4, 3, 5, 4, 6, 5},
+    /*  3 */ {2, 1, 3, 2, 5, 4, 6, 5},
+    /*  4 */ {2, 1, 3, 2, 5, 4, 6, 5},
+    /*  5 */ {2, 1, 4, 3, 6, 5},
+    /*  6 */ {2, 1, 4, 3, 6, 5},
+    /*  7 */ {2, 1, 4, 3, 5, 3, 6, 5},
+    /*  8 */ {2, 1, 4, 3, 5, 3, 6, 5},
+    /*  9 */ {2, 1, 4, 3, 5, 3, 6, 5},
+    /* 10 */ {2, 1, 3, 2, 5, 4, 6, 4},
+    /* 11 */ {2, 1, 3, 2, 5, 4, 6, 4},
+    /* 12 */ {2, 1, 4, 3, 5, 3, 6, 3},
+    /* 13 */ {2, 1, 4, 3, 5, 3, 6, 3},
+    /* 14 */ {2, 1, 4, 3, 5, 4, 6, 4},
+    /* 15 */ {2, 1, 4, 3, 5, 4, 6, 4},
+    /* 16 */ {2, 1, 3, 1, 4, 3, 5, 1, 6, 5},
+    /* 17 */ {2, 1, 3, 1, 4, 3, 5, 1, 6, 5},
+    /* 18 */ {2, 1, 3, 1, 4, 1, 5, 4, 6, 5},
+    /* 19 */ {2, 1, 3, 2, 6, 4, 6, 5},
+    /* 20 */ {3, 1, 3, 2, 5, 4, 6, 4},
+    /* 21 */ {3, 1, 3, 2, 6, 4, 6, 5},
+    /* 22 */ {2, 1, 6, 3, 6, 4, 6, 5},
+    /* 23 */ {3, 2, 6, 4, 6, 5},
+    /* 24 */ {6, 3, 6, 4, 6, 5},
+    /* 25 */ {6, 4, 6, 5},
+    /* 26 */ {3, 2, 5, 4, 6, 4},
+    /* 27 */ {3, 2, 5, 4, 6, 4},
+    /* 28 */ {2, 1, 4, 3, 5, 4},
+    /* 29 */ {4, 3, 6, 5},
+    /* 30 */ {4, 3, 5, 4},
+    /* 31 */ {6, 5},
+    /* 32 */ {},
+  };
+
+  /*
+   * The feedback edge of each algorithm, as a (source, target) pair. In
+   * most algorithms an operator feeds back into itself; algorithms 4 and 6
+   * feed the output of a lower operator in the stack back into operator 6.
+   */
+
+  private static final int[][] FEEDBACK = {
+    /*  1 */ {6, 6},
+    /*  2 */ {2, 2},
+    /*  3 */ {6, 6},
+    /*  4 */ {4, 6},
+    /*  5 */ {6, 6},
+    /*  6 */ {5, 6},
+    /*  7 */ {6, 6},
+    /*  8 */ {4, 4},
+    /*  9 */ {2, 2},
+    /* 10 */ {3, 3},
+    /* 11 */ {6, 6},
+    /* 12 */ {2, 2},
+    /* 13 */ {6, 6},
+    /* 14 */ {6, 6},
+    /* 15 */ {2, 2},
+    /* 16 */ {6, 6},
+    /* 17 */ {2, 2},
+    /* 18 */ {3, 3},
+    /* 19 */ {6, 6},
+    /* 20 */ {3, 3},
+    /* 21 */ {3, 3},
+    /* 22 */ {6, 6},
+    /* 23 */ {6, 6},
+    /* 24 */ {6, 6},
+    /* 25 */ {6, 6},
+    /* 26 */ {6, 6},
+    /* 27 */ {3, 3},
+    /* 28 */ {5, 5},
+    /* 29 */ {6, 6},
+    /* 30 */ {5, 5},
+    /* 31 */ {6, 6},
+    /* 32 */ {6, 6},
+  };
+  // CHECKSTYLE:ON
+
   private Dx7AlgorithmOperators()
   {
     throw new UnreachableCodeException();
   }
 
+  /**
+   * Return a mask of the operators that the given operator modulates in the
+   * given algorithm, excluding feedback. Bit 0 of the mask corresponds to
+   * operator 1. The mask is zero for carriers.
+   *
+   * @param algorithm The algorithm
+   * @param operator  The operator
+   *
+   * @return The mask of modulated operators
+   */
+
+  public static int targetMask(
+    final Dx7AlgorithmID algorithm,
+    final Dx7OperatorID operator)
+  {
+    Objects.requireNonNull(algorithm, "Algorithm");
+    Objects.requireNonNull(operator, "Operator");
+
+    final int[] edges = EDGES[algorithm.id() - 1];
+    int mask = 0;
+    for (int index = 0; index < edges.length; index += 2) {
+      if (edges[index] == operator.id()) {
+        mask |= 1 << (edges[index + 1] - 1);
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Return the set of operators that the given operator modulates in the
+   * given algorithm, excluding feedback.
+   *
+   * @param algorithm The algorithm
+   * @param operator  The operator
+   *
+   * @return The modulated operators (empty for carriers)
+   */
+
+  public static SortedSet<Dx7OperatorID> targets(
+    final Dx7AlgorithmID algorithm,
+    final Dx7OperatorID operator)
+  {
+    final int mask = targetMask(algorithm, operator);
+    SortedSet<Dx7OperatorID> result = TreeSet.empty();
+    for (int index = 0; index < 6; ++index) {
+      if ((mask & (1 << index)) != 0) {
+        result = result.add(Dx7OperatorID.of(index + 1));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the operator whose output is fed back in the given algorithm.
+   *
+   * @param algorithm The algorithm
+   *
+   * @return The source of the feedback
+   */
+
+  public static Dx7OperatorID feedbackSource(
+    final Dx7AlgorithmID algorithm)
+  {
+    Objects.requireNonNull(algorithm, "Algorithm");
+    return Dx7OperatorID.of(FEEDBACK[algorithm.id() - 1][0]);
+  }
+
+  /**
+   * Return the operator that receives feedback in the given algorithm. This
+   * is the same as the {@link #feedbackSource(Dx7AlgorithmID)} except in
+   * algorithms 4 and 6.
+   *
+   * @param algorithm The algorithm
+   *
+   * @return The target of the feedback
+   */
+
+  public static Dx7OperatorID feedbackTarget(
+    final Dx7AlgorithmID algorithm)
+  {
+    Objects.requireNonNull(algorithm, "Algorithm");
+    return Dx7OperatorID.of(FEEDBACK[algorithm.id() - 1][1]);
+  }
+
   /**
    * Return the set of operators that are carriers for the given algorithm.
    *
@@ -0,0 +1,346 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.core;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A compact table of voice provenance.
+ *
+ * <p>Most voices are given metadata by the file from which they were
+ * parsed: the source is the URI of the file, and the identifier is derived
+ * from the source and the name of the voice (see
+ * {@link #derivedId(URI, String)}). The table interns each source once, and
+ * holds a single {@code int} <i>reference</i> per voice. Identifiers are
+ * derived again when metadata is requested, so only voices with identifiers
+ * that do not follow the rule cost more than a reference.</p>
+ *
+ * <p>A reference of {@code 0} denotes a voice without metadata. A positive
+ * reference {@code r} denotes source {@code r - 1} with a derived
+ * identifier. A negative reference {@code r} denotes the explicit metadata
+ * {@code -r - 1}.</p>
+ *
+ * <p>Tables are not thread-safe, but may be read from multiple threads once
+ * they are no longer modified.</p>
+ */
+
+public final class Dx7VoiceSourceTable
+{
+  private final Map<URI, Integer> indices;
+  private final List<URI> sources;
+  private final List<Dx7VoiceMetadata> explicit;
+  private int[] references;
+  private int size;
+
+  private Dx7VoiceSourceTable(
+    final int expected)
+  {
+    this.indices = new HashMap<>();
+    this.sources = new ArrayList<>();
+    this.explicit = new ArrayList<>();
+    this.references = new int[Math.max(expected, 16)];
+  }
+
+  /**
+   * Create an empty table.
+   *
+   * @param expected The expected number of voices
+   *
+   * @return A table
+   */
+
+  public static Dx7VoiceSourceTable create(
+    final int expected)
+  {
+    if (expected < 0) {
+      throw new IllegalArgumentException(
+        "Expected size must be non-negative: " + expected);
+    }
+    return new Dx7VoiceSourceTable(expected);
+  }
+
+  /**
+   * Derive the identifier of a voice from the source and the name of the
+   * voice. The identifier is the source followed by a slash and the
+   * URL-encoded name.
+   *
+   * @param source The source
+   * @param name   The name of the voice
+   *
+   * @return The identifier
+   */
+
+  public static URI derivedId(
+    final URI source,
+    final String name)
+  {
+    return URI.create(derivedIdText(source, name));
+  }
+
+  /**
+   * @param source The source
+   * @param name   The name of the voice
+   *
+   * @return Metadata with the given source and a derived identifier
+   *
+   * @see #derivedId(URI, String)
+   */
+
+  public static Dx7VoiceMetadata derivedMetadata(
+    final URI source,
+    final String name)
+  {
+    return Dx7VoiceMetadata.of(source, derivedId(source, name));
+  }
+
+  /**
+   * @param metadata The metadata
+   * @param name     The name of the voice
+   *
+   * @return {@code true} if the identifier of the metadata is derived from
+   * the source and the given name
+   */
+
+  public static boolean isDerived(
+    final Dx7VoiceMetadata metadata,
+    final String name)
+  {
+    Objects.requireNonNull(metadata, "Metadata");
+    return metadata.id().toString()
+      .equals(derivedIdText(metadata.source(), name));
+  }
+
+  private static String derivedIdText(
+    final URI source,
+    final String name)
+  {
+    Objects.requireNonNull(source, "Source");
+    Objects.requireNonNull(name, "Name");
+    return source + "/" + URLEncoder.encode(name, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Intern a source.
+   *
+   * @param source The source
+   *
+   * @return The index of the source
+   */
+
+  public int addSource(
+    final URI source)
+  {
+    Objects.requireNonNull(source, "Source");
+    final Integer existing = this.indices.get(source);
+    if (existing != null) {
+      return existing.intValue();
+    }
+    final int index = this.sources.size();
+    this.indices.put(source, Integer.valueOf(index));
+    this.sources.add(source);
+    return index;
+  }
+
+  /**
+   * Add metadata that is held as given, whether or not the identifier is
+   * derived. The source is interned.
+   *
+   * @param metadata The metadata
+   *
+   * @return The index of the explicit metadata
+   */
+
+  public int addExplicit(
+    final Dx7VoiceMetadata metadata)
+  {
+    Objects.requireNonNull(metadata, "Metadata");
+    final URI source = this.sources.get(this.addSource(metadata.source()));
+    final int index = this.explicit.size();
+    this.explicit.add(Dx7VoiceMetadata.of(source, metadata.id()));
+    return index;
+  }
+
+  /**
+   * Add a voice with the given metadata.
+   *
+   * @param metadata The metadata of the voice
+   * @param name     The name of the voice
+   *
+   * @return The reference of the voice
+   */
+
+  public int add(
+    final Optional<Dx7VoiceMetadata> metadata,
+    final String name)
+  {
+    Objects.requireNonNull(metadata, "Metadata");
+    Objects.requireNonNull(name, "Name");
+
+    final int reference;
+    if (metadata.isPresent()) {
+      final Dx7VoiceMetadata meta = metadata.get();
+      if (isDerived(meta, name)) {
+        reference = this.addSource(meta.source()) + 1;
+      } else {
+        reference = -this.addExplicit(meta) - 1;
+      }
+    } else {
+      reference = 0;
+    }
+    this.addReference(reference);
+    return reference;
+  }
+
+  /**
+   * Add a voice with the given reference.
+   *
+   * @param reference The reference
+   *
+   * @throws IllegalArgumentException If the reference does not refer to a
+   *                                  source or explicit metadata in the
+   *                                  table
+   */
+
+  public void addReference(
+    final int reference)
+    throws IllegalArgumentException
+  {
+    if (reference > this.sources.size()
+      || reference < -this.explicit.size()) {
+      throw new IllegalArgumentException("Invalid reference: " + reference);
+    }
+    if (this.size == this.references.length) {
+      this.references =
+        Arrays.copyOf(this.references, this.references.length * 2);
+    }
+    this.references[this.size] = reference;
+    ++this.size;
+  }
+
+  /**
+   * @return The number of voices in the table
+   */
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @param index The index of the voice
+   *
+   * @return The reference of the voice
+   */
+
+  public int reference(
+    final int index)
+  {
+    Objects.checkIndex(index, this.size);
+    return this.references[index];
+  }
+
+  /**
+   * Retrieve the metadata of a voice, deriving the identifier if necessary.
+   *
+   * @param index The index of the voice
+   * @param name  The name of the voice
+   *
+   * @return The metadata of the voice, if any
+   */
+
+  public Optional<Dx7VoiceMetadata> metadata(
+    final int index,
+    final String name)
+  {
+    return this.resolve(this.reference(index), name);
+  }
+
+  /**
+   * Resolve a reference, deriving the identifier if necessary.
+   *
+   * @param reference The reference
+   * @param name      The name of the voice
+   *
+   * @return The metadata, if any
+   */
+
+  public Optional<Dx7VoiceMetadata> resolve(
+    final int reference,
+    final String name)
+  {
+    Objects.requireNonNull(name, "Name");
+    if (reference > 0) {
+      return Optional.of(
+        derivedMetadata(this.sources.get(reference - 1), name));
+    }
+    if (reference < 0) {
+      return Optional.of(this.explicit.get(-reference - 1));
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @return The number of interned sources
+   */
+
+  public int sourceCount()
+  {
+    return this.sources.size();
+  }
+
+  /**
+   * @param index The index of the source
+   *
+   * @return The source
+   */
+
+  public URI source(
+    final int index)
+  {
+    return this.sources.get(index);
+  }
+
+  /**
+   * @return The number of explicit metadata values
+   */
+
+  public int explicitCount()
+  {
+    return this.explicit.size();
+  }
+
+  /**
+   * @param index The index of the explicit metadata
+   *
+   * @return The explicit metadata
+   */
+
+  public Dx7VoiceMetadata explicit(
+    final int index)
+  {
+    return this.explicit.get(index);
+  }
+}
@@ -17,27 +17,61 @@
 package com.io7m.jdextrosa.io.xml.spi;
 
 import com.io7m.jlexing.core.LexicalPosition;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveI;
 import io.vavr.collection.Vector;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
- * An error log.
+ * An error log. The log holds at most a configurable number of entries;
+ * further entries are discarded and {@link #limitReached()} returns
+ * {@code true} so that parsers can abort early.
  */
 
 public final class Dx7XMLErrorLog
 {
+  /**
+   * The default maximum number of entries held by a log.
+   */
+
+  public static final int DEFAULT_MAXIMUM_ERRORS = 100;
+
+  private final int maximum;
+  private final Map<String, URI> files;
   private Vector<Dx7XMLParseError> errors;
 
   /**
-   * Construct an empty log.
+   * Construct an empty log that holds at most {@link #DEFAULT_MAXIMUM_ERRORS}
+   * entries.
    */
 
   public Dx7XMLErrorLog()
   {
+    this(DEFAULT_MAXIMUM_ERRORS);
+  }
+
+  /**
+   * Construct an empty log.
+   *
+   * @param in_maximum The maximum number of entries held by the log
+   */
+
+  public Dx7XMLErrorLog(
+    final int in_maximum)
+  {
+    this.maximum =
+      RangeCheck.checkIncludedInInteger(
+        in_maximum,
+        "Maximum errors",
+        RangeInclusiveI.of(1, Integer.MAX_VALUE),
+        "Valid maximum errors");
+    this.files = new HashMap<>(4);
     this.errors = Vector.empty();
   }
 
@@ -96,11 +130,48 @@ public final class Dx7XMLErrorLog
       .build();
   }
 
+  private URI file(
+    final String system_id)
+  {
+    return this.files.computeIfAbsent(system_id, URI::create);
+  }
+
+  private Dx7XMLParseError createError(
+    final SAXParseException e,
+    final Dx7XMLParseErrorType.Severity severity)
+  {
+    return Dx7XMLParseError.builder()
+      .setException(e)
+      .setLexical(
+        LexicalPosition.<URI>builder()
+          .setFile(this.file(e.getSystemId()))
+          .setColumn(e.getColumnNumber())
+          .setLine(e.getLineNumber())
+          .build())
+      .setSeverity(severity)
+      .setMessage(e.getMessage())
+      .build();
+  }
+
   private void logError(
     final Dx7XMLParseError e)
   {
-    this.errors = this.errors.append(
-      Objects.requireNonNull(e, "Error"));
+    Objects.requireNonNull(e, "Error");
+
+    if (this.limitReached()) {
+      return;
+    }
+
+    this.errors = this.errors.append(e);
+  }
+
+  /**
+   * @return {@code true} iff the log has reached its maximum size
+   */
+
+  public boolean limitReached()
+  {
+    return this.errors.size() >= this.maximum;
   }
 
   /**
@@ -133,18 +204,7 @@ public final class Dx7XMLErrorLog
   public void warning(
     final SAXParseException e)
   {
-    this.logError(
-      Dx7XMLParseError.builder()
-        .setException(e)
-        .setLexical(
-          LexicalPosition.<URI>builder()
-            .setFile(URI.create(e.getSystemId()))
-            .setColumn(e.getColumnNumber())
-            .setLine(e.getLineNumber())
-            .build())
-        .setSeverity(Dx7XMLParseErrorType.Severity.WARNING)
-        .setMessage(e.getMessage())
-        .build());
+    this.logError(this.createError(e, Dx7XMLParseErrorType.Severity.WARNING));
   }
 
   /**
@@ -156,7 +216,7 @@ public final class Dx7XMLErrorLog
   public void error(
     final SAXParseException e)
   {
-    this.errors = this.errors.append(createErrorFromParseException(e));
+    this.logError(this.createError(e, Dx7XMLParseErrorType.Severity.ERROR));
   }
 
   /**
@@ -168,6 +228,6 @@ public final class Dx7XMLErrorLog
   public void fatalError(
     final SAXParseException e)
   {
-    this.errors = this.errors.append(createErrorFromParseException(e));
+    this.logError(this.createError(e, Dx7XMLParseErrorType.Severity.ERROR));
   }
 }
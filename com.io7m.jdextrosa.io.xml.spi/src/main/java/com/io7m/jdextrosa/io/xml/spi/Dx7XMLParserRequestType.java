@@ -17,6 +17,8 @@
 package com.io7m.jdextrosa.io.xml.spi;
 
 import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveI;
 import org.immutables.value.Value;
 
 import java.io.InputStream;
@@ -56,4 +58,32 @@ public interface Dx7XMLParserRequestType
 
   @Value.Parameter
   InputStream stream();
+
+  /**
+   * The maximum number of errors and warnings that will be logged. Once
+   * this number is reached, parsing stops at the next element boundary or
+   * character data event, and further errors are discarded.
+   *
+   * @return The maximum number of errors
+   */
+
+  @Value.Default
+  default int maximumErrors()
+  {
+    return Dx7XMLErrorLog.DEFAULT_MAXIMUM_ERRORS;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    RangeCheck.checkIncludedInInteger(
+      this.maximumErrors(),
+      "Maximum errors",
+      RangeInclusiveI.of(1, Integer.MAX_VALUE),
+      "Valid maximum errors");
+  }
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An XML reader that runs an underlying (validating) reader on a separate
+ * thread and replays the resulting events on the calling thread. Events are
+ * recorded in batches and passed between the threads over a bounded queue,
+ * so tokenizing and validation overlap with the construction of voices.
+ * Character data is not replayed; none of the supported formats use it.
+ */
+
+final class Dx7XMLEventPipeline extends XMLFilterImpl
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7XMLEventPipeline.class);
+
+  private static final int BATCH_SIZE = 256;
+  private static final int QUEUE_BATCHES = 64;
+
+  private static final int START_DOCUMENT = 0;
+  private static final int END_DOCUMENT = 1;
+  private static final int START_PREFIX_MAPPING = 2;
+  private static final int END_PREFIX_MAPPING = 3;
+  private static final int START_ELEMENT = 4;
+  private static final int END_ELEMENT = 5;
+  private static final int WARNING = 6;
+  private static final int ERROR = 7;
+  private static final int FATAL_ERROR = 8;
+  private static final int FAILURE = 9;
+  private static final int END = 10;
+
+  private final XMLReader source_reader;
+  private final ExecutorService executor;
+
+  Dx7XMLEventPipeline(
+    final XMLReader in_source_reader,
+    final ExecutorService in_executor)
+  {
+    this.source_reader =
+      Objects.requireNonNull(in_source_reader, "Source reader");
+    this.executor =
+      Objects.requireNonNull(in_executor, "Executor");
+  }
+
+  @Override
+  public void parse(
+    final InputSource source)
+    throws IOException, SAXException
+  {
+    final ArrayBlockingQueue<List<Event>> queue =
+      new ArrayBlockingQueue<>(QUEUE_BATCHES);
+    final AtomicBoolean cancelled =
+      new AtomicBoolean(false);
+    final Recorder recorder =
+      new Recorder(queue, cancelled);
+
+    this.source_reader.setContentHandler(recorder);
+    this.source_reader.setErrorHandler(recorder);
+
+    final Future<?> producer =
+      this.executor.submit(() -> recorder.run(this.source_reader, source));
+
+    try {
+      final ReplayLocator locator = new ReplayLocator(source.getSystemId());
+      this.getContentHandler().setDocumentLocator(locator);
+      this.replay(queue, locator);
+    } finally {
+      cancelled.set(true);
+      queue.clear();
+      waitForProducer(producer);
+    }
+  }
+
+  private static void waitForProducer(
+    final Future<?> producer)
+    throws IOException
+  {
+    try {
+      producer.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // Switch based cyclomatic complexity.
+  // CHECKSTYLE:OFF
+  private void replay(
+    final ArrayBlockingQueue<List<Event>> queue,
+    final ReplayLocator locator)
+    throws IOException, SAXException
+  {
+    while (true) {
+      final List<Event> batch;
+      try {
+        batch = queue.take();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+
+      for (final Event event : batch) {
+        locator.line = event.line;
+        locator.column = event.column;
+
+        switch (event.kind) {
+          case START_DOCUMENT: {
+            this.getContentHandler().startDocument();
+            break;
+          }
+          case END_DOCUMENT: {
+            this.getContentHandler().endDocument();
+            break;
+          }
+          case START_PREFIX_MAPPING: {
+            this.getContentHandler().startPrefixMapping(
+              event.local_name, event.uri);
+            break;
+          }
+          case END_PREFIX_MAPPING: {
+            this.getContentHandler().endPrefixMapping(event.local_name);
+            break;
+          }
+          case START_ELEMENT: {
+            this.getContentHandler().startElement(
+              event.uri, event.local_name, event.qual_name, event.attributes);
+            break;
+          }
+          case END_ELEMENT: {
+            this.getContentHandler().endElement(
+              event.uri, event.local_name, event.qual_name);
+            break;
+          }
+          case WARNING: {
+            this.getErrorHandler().warning((SAXParseException) event.exception);
+            break;
+          }
+          case ERROR: {
+            this.getErrorHandler().error((SAXParseException) event.exception);
+            break;
+          }
+          case FATAL_ERROR: {
+            this.getErrorHandler().fatalError((SAXParseException) event.exception);
+            break;
+          }
+          case FAILURE: {
+            rethrow(event.exception);
+            break;
+          }
+          case END: {
+            return;
+          }
+          default: {
+            break;
+          }
+        }
+      }
+    }
+  }
+  // CHECKSTYLE:ON
+
+  private static void rethrow(
+    final Exception e)
+    throws IOException, SAXException
+  {
+    if (e instanceof SAXException) {
+      throw (SAXException) e;
+    }
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    }
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    throw new IOException(e);
+  }
+
+  private static final class Event
+  {
+    private final int kind;
+    private final int line;
+    private final int column;
+    private final String uri;
+    private final String local_name;
+    private final String qual_name;
+    private final Attributes attributes;
+    private final Exception exception;
+
+    Event(
+      final int in_kind,
+      final int in_line,
+      final int in_column,
+      final String in_uri,
+      final String in_local_name,
+      final String in_qual_name,
+      final Attributes in_attributes,
+      final Exception in_exception)
+    {
+      this.kind = in_kind;
+      this.line = in_line;
+      this.column = in_column;
+      this.uri = in_uri;
+      this.local_name = in_local_name;
+      this.qual_name = in_qual_name;
+      this.attributes = in_attributes;
+      this.exception = in_exception;
+    }
+  }
+
+  private static final class Cancelled extends SAXException
+  {
+    Cancelled()
+    {
+
+    }
+  }
+
+  private static final class ReplayLocator implements Locator2
+  {
+    private final String system_id;
+    private int line;
+    private int column;
+
+    ReplayLocator(
+      final String in_system_id)
+    {
+      this.system_id = in_system_id;
+      this.line = -1;
+      this.column = -1;
+    }
+
+    @Override
+    public String getXMLVersion()
+    {
+      return "1.0";
+    }
+
+    @Override
+    public String getEncoding()
+    {
+      return null;
+    }
+
+    @Override
+    public String getPublicId()
+    {
+      return null;
+    }
+
+    @Override
+    public String getSystemId()
+    {
+      return this.system_id;
+    }
+
+    @Override
+    public int getLineNumber()
+    {
+      return this.line;
+    }
+
+    @Override
+    public int getColumnNumber()
+    {
+      return this.column;
+    }
+  }
+
+  private static final class Recorder extends DefaultHandler
+  {
+    private final ArrayBlockingQueue<List<Event>> queue;
+    private final AtomicBoolean cancelled;
+    private ArrayList<Event> batch;
+    private Locator locator;
+
+    Recorder(
+      final ArrayBlockingQueue<List<Event>> in_queue,
+      final AtomicBoolean in_cancelled)
+    {
+      this.queue = Objects.requireNonNull(in_queue, "Queue");
+      this.cancelled = Objects.requireNonNull(in_cancelled, "Cancelled");
+      this.batch = new ArrayList<>(BATCH_SIZE);
+    }
+
+    Void run(
+      final XMLReader reader,
+      final InputSource source)
+    {
+      Exception failure = null;
+      try {
+        reader.parse(source);
+      } catch (final Cancelled e) {
+        LOG.trace("cancelled");
+        return null;
+      } catch (final SAXException | IOException | RuntimeException e) {
+        failure = e;
+      }
+
+      try {
+        if (failure != null) {
+          this.record(FAILURE, null, null, null, null, failure);
+        }
+        this.record(END, null, null, null, null, null);
+        this.flush();
+      } catch (final Cancelled e) {
+        LOG.trace("cancelled");
+      }
+      return null;
+    }
+
+    private void record(
+      final int kind,
+      final String uri,
+      final String local_name,
+      final String qual_name,
+      final Attributes attributes,
+      final Exception exception)
+      throws Cancelled
+    {
+      final int line;
+      final int column;
+      if (this.locator != null) {
+        line = this.locator.getLineNumber();
+        column = this.locator.getColumnNumber();
+      } else {
+        line = -1;
+        column = -1;
+      }
+
+      this.batch.add(new Event(
+        kind, line, column, uri, local_name, qual_name, attributes, exception));
+
+      if (this.batch.size() >= BATCH_SIZE) {
+        this.flush();
+      }
+    }
+
+    private void flush()
+      throws Cancelled
+    {
+      final ArrayList<Event> current = this.batch;
+      this.batch = new ArrayList<>(BATCH_SIZE);
+
+      try {
+        while (!this.queue.offer(current, 100L, TimeUnit.MILLISECONDS)) {
+          if (this.cancelled.get()) {
+            throw new Cancelled();
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new Cancelled();
+      }
+
+      if (this.cancelled.get()) {
+        throw new Cancelled();
+      }
+    }
+
+    @Override
+    public void setDocumentLocator(
+      final Locator in_locator)
+    {
+      this.locator = in_locator;
+    }
+
+    @Override
+    public void startDocument()
+      throws SAXException
+    {
+      this.record(START_DOCUMENT, null, null, null, null, null);
+    }
+
+    @Override
+    public void endDocument()
+      throws SAXException
+    {
+      this.record(END_DOCUMENT, null, null, null, null, null);
+    }
+
+    @Override
+    public void startPrefixMapping(
+      final String prefix,
+      final String uri)
+      throws SAXException
+    {
+      this.record(START_PREFIX_MAPPING, uri, prefix, null, null, null);
+    }
+
+    @Override
+    public void endPrefixMapping(
+      final String prefix)
+      throws SAXException
+    {
+      this.record(END_PREFIX_MAPPING, null, prefix, null, null, null);
+    }
+
+    @Override
+    public void startElement(
+      final String uri,
+      final String local_name,
+      final String qual_name,
+      final Attributes attributes)
+      throws SAXException
+    {
+      this.record(
+        START_ELEMENT,
+        uri,
+        local_name,
+        qual_name,
+        new AttributesImpl(attributes),
+        null);
+    }
+
+    @Override
+    public void endElement(
+      final String uri,
+      final String local_name,
+      final String qual_name)
+      throws SAXException
+    {
+      this.record(END_ELEMENT, uri, local_name, qual_name, null, null);
+    }
+
+    @Override
+    public void warning(
+      final SAXParseException e)
+      throws SAXException
+    {
+      this.record(WARNING, null, null, null, null, e);
+    }
+
+    @Override
+    public void error(
+      final SAXParseException e)
+      throws SAXException
+    {
+      this.record(ERROR, null, null, null, null, e);
+    }
+
+    @Override
+    public void fatalError(
+      final SAXParseException e)
+      throws SAXException
+    {
+      this.record(FATAL_ERROR, null, null, null, null, e);
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of the voices parsed from files included into documents with
+ * XInclude. Included files are identified by their path, modification time
+ * and size; files whose modification time or size have changed are hashed,
+ * and the parsed voices are shared between all files that have the same
+ * content. The voices of a file that itself includes other files also
+ * depend on those files: the path, modification time and size of every
+ * file that was included (directly or not) are recorded with the voices,
+ * and the voices are only reused if none of those files have changed and
+ * the file is in the same directory (so that relative inclusions refer to
+ * the same files). A cache may be shared between any number of parsers and
+ * threads.
+ *
+ * @see Dx7XMLParsers#Dx7XMLParsers(Dx7XMLIncludeCache)
+ */
+
+public final class Dx7XMLIncludeCache
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7XMLIncludeCache.class);
+
+  private final ConcurrentHashMap<Path, FileStamp> stamps;
+  private final ConcurrentHashMap<String, Fragment> fragments;
+
+  /**
+   * Construct an empty cache.
+   */
+
+  public Dx7XMLIncludeCache()
+  {
+    this.stamps = new ConcurrentHashMap<>(64);
+    this.fragments = new ConcurrentHashMap<>(64);
+  }
+
+  private static String hash(
+    final byte[] data)
+  {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      final byte[] result = digest.digest(data);
+      final StringBuilder sb = new StringBuilder(result.length * 2);
+      for (final byte x : result) {
+        sb.append(String.format("%02x", Integer.valueOf(x & 0xff)));
+      }
+      return sb.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The number of distinct fragments held in the cache
+   */
+
+  public int size()
+  {
+    return this.fragments.size();
+  }
+
+  /**
+   * Discard all cached fragments.
+   */
+
+  public void clear()
+  {
+    this.stamps.clear();
+    this.fragments.clear();
+  }
+
+  /**
+   * Retrieve the voices for the given file, parsing the file with
+   * {@code loader} if the file is not in the cache. Parse failures are not
+   * cached. The given file, and every file that it includes, is added to
+   * {@code dependencies}.
+   *
+   * @param file         The absolute, normalized path of the included file
+   * @param loader       A function that parses files
+   * @param dependencies The files on which the including document depends
+   *
+   * @return The voices parsed from the file, or the parse errors
+   *
+   * @throws IOException On I/O errors
+   */
+
+  Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> get(
+    final Path file,
+    final LoaderType loader,
+    final List<Dependency> dependencies)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    Objects.requireNonNull(loader, "Loader");
+    Objects.requireNonNull(dependencies, "Dependencies");
+
+    final Dependency self = Dependency.of(file);
+    final FileStamp stamp = this.stamps.get(file);
+    if (stamp != null && stamp.matches(self)) {
+      final Fragment cached = this.fragments.get(stamp.hash);
+      if (cached != null && cached.isValidFor(file)) {
+        LOG.trace("hit: {}", file);
+        return cached.use(self, dependencies);
+      }
+    }
+
+    final byte[] data = Files.readAllBytes(file);
+    final String hash = hash(data);
+    this.stamps.put(file, new FileStamp(self.time, self.size, hash));
+
+    final Fragment cached = this.fragments.get(hash);
+    if (cached != null && cached.isValidFor(file)) {
+      LOG.trace("hit (content): {}", file);
+      return cached.use(self, dependencies);
+    }
+
+    LOG.trace("miss: {}", file);
+    final List<Dependency> nested = new ArrayList<>();
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+      loader.load(file, data, nested);
+    if (result.isValid()) {
+      this.fragments.put(
+        hash, new Fragment(file.getParent(), result.get(), Vector.ofAll(nested)));
+    }
+    dependencies.add(self);
+    dependencies.addAll(nested);
+    return result;
+  }
+
+  /**
+   * A function that parses included files.
+   */
+
+  interface LoaderType
+  {
+    /**
+     * Parse the given file.
+     *
+     * @param file         The file
+     * @param data         The contents of the file
+     * @param dependencies The files included by the file
+     *
+     * @return The parsed voices, or the parse errors
+     *
+     * @throws IOException On I/O errors
+     */
+
+    Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> load(
+      Path file,
+      byte[] data,
+      List<Dependency> dependencies)
+      throws IOException;
+  }
+
+  /**
+   * The path, modification time and size of a file, as observed when the
+   * file was included.
+   */
+
+  static final class Dependency
+  {
+    private final Path path;
+    private final FileTime time;
+    private final long size;
+
+    private Dependency(
+      final Path in_path,
+      final FileTime in_time,
+      final long in_size)
+    {
+      this.path = Objects.requireNonNull(in_path, "Path");
+      this.time = Objects.requireNonNull(in_time, "Time");
+      this.size = in_size;
+    }
+
+    static Dependency of(
+      final Path path)
+      throws IOException
+    {
+      final BasicFileAttributes attributes =
+        Files.readAttributes(path, BasicFileAttributes.class);
+      return new Dependency(
+        path, attributes.lastModifiedTime(), attributes.size());
+    }
+
+    boolean isUnchanged()
+    {
+      try {
+        final BasicFileAttributes attributes =
+          Files.readAttributes(this.path, BasicFileAttributes.class);
+        return this.size == attributes.size()
+          && this.time.equals(attributes.lastModifiedTime());
+      } catch (final IOException e) {
+        return false;
+      }
+    }
+  }
+
+  private static final class Fragment
+  {
+    private final Path directory;
+    private final Vector<Dx7VoiceNamed> voices;
+    private final Vector<Dependency> dependencies;
+
+    Fragment(
+      final Path in_directory,
+      final Vector<Dx7VoiceNamed> in_voices,
+      final Vector<Dependency> in_dependencies)
+    {
+      this.directory = in_directory;
+      this.voices = Objects.requireNonNull(in_voices, "Voices");
+      this.dependencies =
+        Objects.requireNonNull(in_dependencies, "Dependencies");
+    }
+
+    /**
+     * A fragment without inclusions may be shared by any file with the same
+     * content. A fragment with inclusions is only valid for files in the
+     * same directory, and only while the included files are unchanged.
+     */
+
+    boolean isValidFor(
+      final Path file)
+    {
+      if (this.dependencies.isEmpty()) {
+        return true;
+      }
+      return Objects.equals(this.directory, file.getParent())
+        && this.dependencies.forAll(Dependency::isUnchanged);
+    }
+
+    Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> use(
+      final Dependency self,
+      final List<Dependency> in_dependencies)
+    {
+      in_dependencies.add(self);
+      in_dependencies.addAll(this.dependencies.asJava());
+      return Validation.valid(this.voices);
+    }
+  }
+
+  private static final class FileStamp
+  {
+    private final FileTime time;
+    private final long size;
+    private final String hash;
+
+    FileStamp(
+      final FileTime in_time,
+      final long in_size,
+      final String in_hash)
+    {
+      this.time = Objects.requireNonNull(in_time, "Time");
+      this.size = in_size;
+      this.hash = Objects.requireNonNull(in_hash, "Hash");
+    }
+
+    boolean matches(
+      final Dependency dependency)
+    {
+      return this.size == dependency.size && this.time.equals(dependency.time);
+    }
+  }
+}
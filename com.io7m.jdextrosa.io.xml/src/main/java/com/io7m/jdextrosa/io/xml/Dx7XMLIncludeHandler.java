@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLContentHandlerType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseErrorType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jlexing.core.LexicalPosition;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A content handler that resolves {@code xi:include} elements itself (via
+ * an include cache) and passes all other events to a format handler.
+ */
+
+final class Dx7XMLIncludeHandler extends XMLFilterImpl
+{
+  static final String XINCLUDE_NAMESPACE = "http://www.w3.org/2001/XInclude";
+
+  private final ResolverType resolver;
+  private final Dx7XMLContentHandlerType target;
+  private final Dx7XMLErrorLog errors;
+  private final Dx7XMLParserRequest request;
+  private final Locator2 locator;
+  private Vector<Tuple2<Integer, Vector<Dx7VoiceNamed>>> includes;
+  private int depth;
+
+  Dx7XMLIncludeHandler(
+    final ResolverType in_resolver,
+    final Dx7XMLContentHandlerType in_target,
+    final Dx7XMLErrorLog in_errors,
+    final Dx7XMLParserRequest in_request,
+    final Locator2 in_locator)
+  {
+    this.resolver = Objects.requireNonNull(in_resolver, "Resolver");
+    this.target = Objects.requireNonNull(in_target, "Target");
+    this.errors = Objects.requireNonNull(in_errors, "Errors");
+    this.request = Objects.requireNonNull(in_request, "Request");
+    this.locator = Objects.requireNonNull(in_locator, "Locator");
+    this.includes = Vector.empty();
+    this.depth = 0;
+    this.setContentHandler(this.target);
+  }
+
+  private void publishError(
+    final String message,
+    final Optional<Exception> exception)
+  {
+    this.errors.addError(
+      Dx7XMLParseError.builder()
+        .setLexical(
+          LexicalPosition.<URI>builder()
+            .setFile(this.request.file())
+            .setLine(this.locator.getLineNumber())
+            .setColumn(this.locator.getColumnNumber())
+            .build())
+        .setSeverity(Dx7XMLParseErrorType.Severity.ERROR)
+        .setMessage(message)
+        .setException(exception)
+        .build());
+  }
+
+  @Override
+  public void startElement(
+    final String uri,
+    final String local_name,
+    final String qual_name,
+    final Attributes attributes)
+    throws SAXException
+  {
+    if (Objects.equals(uri, XINCLUDE_NAMESPACE)) {
+      if (this.depth == 0 && Objects.equals(local_name, "include")) {
+        this.include(attributes);
+      }
+      ++this.depth;
+      return;
+    }
+
+    if (this.depth == 0) {
+      super.startElement(uri, local_name, qual_name, attributes);
+    }
+  }
+
+  @Override
+  public void endElement(
+    final String uri,
+    final String local_name,
+    final String qual_name)
+    throws SAXException
+  {
+    if (Objects.equals(uri, XINCLUDE_NAMESPACE)) {
+      --this.depth;
+      return;
+    }
+
+    if (this.depth == 0) {
+      super.endElement(uri, local_name, qual_name);
+    }
+  }
+
+  @Override
+  public void characters(
+    final char[] ch,
+    final int start,
+    final int length)
+    throws SAXException
+  {
+    if (this.depth == 0) {
+      super.characters(ch, start, length);
+    }
+  }
+
+  private void include(
+    final Attributes attributes)
+  {
+    final String href = attributes.getValue("", "href");
+    final String parse = attributes.getValue("", "parse");
+    final String xpointer = attributes.getValue("", "xpointer");
+
+    if (href == null || href.isEmpty()) {
+      this.publishError(
+        "Included documents must be specified with an href attribute.",
+        Optional.empty());
+      return;
+    }
+    if (parse != null && !Objects.equals(parse, "xml")) {
+      this.publishError(
+        "Only parse=\"xml\" inclusions are supported.", Optional.empty());
+      return;
+    }
+    if (xpointer != null) {
+      this.publishError(
+        "XPointer inclusions are not supported.", Optional.empty());
+      return;
+    }
+
+    try {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+        this.resolver.resolve(href);
+      if (result.isValid()) {
+        this.includes = this.includes.append(
+          Tuple.of(
+            Integer.valueOf(this.target.content().size()),
+            result.get()));
+      } else {
+        result.getError().forEach(this.errors::addError);
+      }
+    } catch (final IOException | SAXParseException e) {
+      this.publishError(e.getMessage(), Optional.of(e));
+    }
+  }
+
+  /**
+   * @return The voices produced by the format handler, with the voices of
+   * included documents inserted at the positions of their inclusions
+   *
+   * @throws SAXParseException On errors
+   */
+
+  Vector<Dx7VoiceNamed> content()
+    throws SAXParseException
+  {
+    final Vector<Dx7VoiceNamed> voices = this.target.content();
+    if (this.includes.isEmpty()) {
+      return voices;
+    }
+
+    Vector<Dx7VoiceNamed> result = Vector.empty();
+    int taken = 0;
+    for (final Tuple2<Integer, Vector<Dx7VoiceNamed>> include : this.includes) {
+      final int index = include._1.intValue();
+      result = result.appendAll(voices.slice(taken, index));
+      result = result.appendAll(include._2);
+      taken = index;
+    }
+    return result.appendAll(voices.drop(taken));
+  }
+
+  /**
+   * A function that resolves and parses included documents.
+   */
+
+  interface ResolverType
+  {
+    /**
+     * Resolve and parse the given included document.
+     *
+     * @param href The value of the {@code href} attribute
+     *
+     * @return The parsed voices, or the parse errors
+     *
+     * @throws IOException       On I/O errors
+     * @throws SAXParseException If the document cannot be included
+     */
+
+    Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> resolve(
+      String href)
+      throws IOException, SAXParseException;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import javax.xml.validation.ValidatorHandler;
+import java.util.Objects;
+
+/**
+ * A reader that validates the events produced by a non-validating reader
+ * against a schema, except for {@code xi:include} elements (and their
+ * contents), which are passed to the content handler directly. The
+ * inclusions are resolved by {@link Dx7XMLIncludeHandler}; keeping them away
+ * from the validator means that documents may use inclusions whatever their
+ * schema says about XInclude elements.
+ *
+ * <p>The content handler and error handler may be replaced during parsing,
+ * and the replacements are picked up by the validator.</p>
+ */
+
+final class Dx7XMLIncludeValidatingReader extends XMLFilterImpl
+{
+  private final ValidatorHandler validator;
+  private int depth;
+
+  Dx7XMLIncludeValidatingReader(
+    final XMLReader in_parent,
+    final ValidatorHandler in_validator)
+  {
+    super(Objects.requireNonNull(in_parent, "Parent"));
+    this.validator = Objects.requireNonNull(in_validator, "Validator");
+    this.depth = 0;
+  }
+
+  @Override
+  public void setContentHandler(
+    final ContentHandler handler)
+  {
+    super.setContentHandler(handler);
+    this.validator.setContentHandler(handler);
+  }
+
+  @Override
+  public void setErrorHandler(
+    final ErrorHandler handler)
+  {
+    super.setErrorHandler(handler);
+    this.validator.setErrorHandler(handler);
+  }
+
+  @Override
+  public void setDocumentLocator(
+    final Locator locator)
+  {
+    this.validator.setDocumentLocator(locator);
+
+    // The validator may wrap the locator; the content handlers require
+    // the original.
+    super.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void startDocument()
+    throws SAXException
+  {
+    this.depth = 0;
+    this.validator.startDocument();
+  }
+
+  @Override
+  public void endDocument()
+    throws SAXException
+  {
+    this.validator.endDocument();
+  }
+
+  @Override
+  public void startPrefixMapping(
+    final String prefix,
+    final String uri)
+    throws SAXException
+  {
+    this.validator.startPrefixMapping(prefix, uri);
+  }
+
+  @Override
+  public void endPrefixMapping(
+    final String prefix)
+    throws SAXException
+  {
+    this.validator.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void startElement(
+    final String uri,
+    final String local_name,
+    final String qual_name,
+    final Attributes attributes)
+    throws SAXException
+  {
+    if (this.depth > 0
+      || Objects.equals(uri, Dx7XMLIncludeHandler.XINCLUDE_NAMESPACE)) {
+      ++this.depth;
+      super.startElement(uri, local_name, qual_name, attributes);
+      return;
+    }
+    this.validator.startElement(uri, local_name, qual_name, attributes);
+  }
+
+  @Override
+  public void endElement(
+    final String uri,
+    final String local_name,
+    final String qual_name)
+    throws SAXException
+  {
+    if (this.depth > 0) {
+      --this.depth;
+      super.endElement(uri, local_name, qual_name);
+      return;
+    }
+    this.validator.endElement(uri, local_name, qual_name);
+  }
+
+  @Override
+  public void characters(
+    final char[] ch,
+    final int start,
+    final int length)
+    throws SAXException
+  {
+    if (this.depth > 0) {
+      super.characters(ch, start, length);
+      return;
+    }
+    this.validator.characters(ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(
+    final char[] ch,
+    final int start,
+    final int length)
+    throws SAXException
+  {
+    if (this.depth > 0) {
+      super.ignorableWhitespace(ch, start, length);
+      return;
+    }
+    this.validator.ignorableWhitespace(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(
+    final String target,
+    final String data)
+    throws SAXException
+  {
+    if (this.depth > 0) {
+      super.processingInstruction(target, data);
+      return;
+    }
+    this.validator.processingInstruction(target, data);
+  }
+
+  @Override
+  public void skippedEntity(
+    final String name)
+    throws SAXException
+  {
+    if (this.depth > 0) {
+      super.skippedEntity(name);
+      return;
+    }
+    this.validator.skippedEntity(name);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jlexing.core.LexicalPosition;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A parser that parses segments of a single document concurrently.
+ */
+
+final class Dx7XMLParallelParser implements Dx7XMLParserType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7XMLParallelParser.class);
+
+  private final Dx7XMLParsers parsers;
+  private final Dx7XMLParserRequest request;
+  private final Dx7XMLParallelParserConfiguration configuration;
+  private final ExecutorService executor;
+
+  Dx7XMLParallelParser(
+    final Dx7XMLParsers in_parsers,
+    final Dx7XMLParserRequest in_request,
+    final Dx7XMLParallelParserConfiguration in_configuration,
+    final ExecutorService in_executor)
+  {
+    this.parsers =
+      Objects.requireNonNull(in_parsers, "Parsers");
+    this.request =
+      Objects.requireNonNull(in_request, "Request");
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "Configuration");
+    this.executor =
+      Objects.requireNonNull(in_executor, "Executor");
+  }
+
+  private static Dx7XMLParseError relocate(
+    final Dx7XMLVoiceSegments segments,
+    final Dx7XMLVoiceSegments.Segment segment,
+    final Dx7XMLParseError error)
+  {
+    final LexicalPosition<URI> position = error.lexical();
+    if (position.line() <= segments.headerLines()) {
+      return error;
+    }
+
+    return error.withLexical(
+      LexicalPosition.<URI>builder()
+        .from(position)
+        .setLine(segment.line() + (position.line() - (segments.headerLines() + 1)))
+        .build());
+  }
+
+  @Override
+  public Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> parse()
+    throws IOException
+  {
+    final byte[] data = this.request.stream().readAllBytes();
+
+    final Optional<Dx7XMLVoiceSegments> segments_opt =
+      Dx7XMLVoiceSegments.scan(data, this.configuration.segmentVoices());
+
+    if (segments_opt.isEmpty() || segments_opt.get().segments().isEmpty()) {
+      LOG.debug("document cannot be segmented; parsing sequentially");
+      return this.parseDocument(data);
+    }
+
+    final Dx7XMLVoiceSegments segments = segments_opt.get();
+    if (segments.segments().size() == 1) {
+      LOG.debug("document has a single segment; parsing sequentially");
+      return this.parseSegment(segments, segments.segments().get(0));
+    }
+
+    LOG.debug(
+      "parsing {} segments concurrently",
+      Integer.valueOf(segments.segments().size()));
+
+    final Vector<Future<Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>>>> futures =
+      segments.segments().map(
+        segment -> this.executor.submit(() -> this.parseSegment(segments, segment)));
+
+    Vector<Dx7VoiceNamed> voices = Vector.empty();
+    Vector<Dx7XMLParseError> errors = Vector.empty();
+
+    try {
+      for (final Future<Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>>> future : futures) {
+        final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+          future.get();
+        if (result.isValid()) {
+          voices = voices.appendAll(result.get());
+        } else {
+          errors = errors.appendAll(result.getError());
+          if (errors.size() >= this.request.maximumErrors()) {
+            futures.forEach(f -> f.cancel(true));
+            errors = errors.take(this.request.maximumErrors());
+            break;
+          }
+        }
+      }
+    } catch (final InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      }
+      throw new IOException(cause);
+    }
+
+    if (errors.isEmpty()) {
+      return Validation.valid(voices);
+    }
+    return Validation.invalid(errors);
+  }
+
+  private Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> parseDocument(
+    final byte[] data)
+    throws IOException
+  {
+    try {
+      return this.parsers.createSegmentParser(
+        this.request.withStream(new ByteArrayInputStream(data)),
+        this.configuration.validation())
+        .parse();
+    } catch (final Dx7ParserConfigurationException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> parseSegment(
+    final Dx7XMLVoiceSegments segments,
+    final Dx7XMLVoiceSegments.Segment segment)
+    throws IOException
+  {
+    LOG.trace(
+      "segment: line {} ({} voices)",
+      Integer.valueOf(segment.line()),
+      Integer.valueOf(segment.voices()));
+
+    return this.parseDocument(segments.document(segment))
+      .mapError(errors -> errors.map(e -> relocate(segments, segment, e)));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveI;
+import org.immutables.value.Value;
+
+/**
+ * Configuration values for parsers that split a single document into
+ * segments and parse the segments concurrently.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7XMLParallelParserConfigurationType
+{
+  /**
+   * @return The maximum number of {@code dx7-voice} elements in each segment
+   */
+
+  @Value.Default
+  default int segmentVoices()
+  {
+    return 1024;
+  }
+
+  /**
+   * Specify whether or not segments are validated against the schema.
+   * Disabling validation is only appropriate for trusted files: Malformed
+   * input may then yield exceptions or nonsensical voices rather than parse
+   * errors. Note that identity constraints that span the whole document (such
+   * as the uniqueness of voice IDs) are never checked across segments.
+   *
+   * @return {@code true} iff segments should be validated
+   */
+
+  @Value.Default
+  default boolean validation()
+  {
+    return true;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    RangeCheck.checkIncludedInInteger(
+      this.segmentVoices(),
+      "Segment voices",
+      RangeInclusiveI.of(1, Integer.MAX_VALUE),
+      "Valid segment sizes");
+  }
+}
@@ -25,13 +25,17 @@ import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
 import com.io7m.jxe.core.JXEHardenedSAXParsers;
 import com.io7m.jxe.core.JXESchemaDefinition;
 import com.io7m.jxe.core.JXESchemaResolutionMappings;
+import io.vavr.collection.HashSet;
 import io.vavr.collection.Seq;
+import io.vavr.collection.Set;
 import io.vavr.collection.Stream;
 import io.vavr.collection.Vector;
 import io.vavr.control.Option;
 import io.vavr.control.Validation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
@@ -39,17 +43,34 @@ import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DefaultHandler2;
 import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
 
 import static com.io7m.jxe.core.JXEXInclude.XINCLUDE_ENABLED;
 
 /**
- * The main XML parser provider.
+ * The main XML parser provider. Parsers may be created concurrently from
+ * any number of threads.
  */
 
 public final class Dx7XMLParsers
@@ -68,9 +89,11 @@ public final class Dx7XMLParsers
         "/com/io7m/jdextrosa/io/xml/xml.xsd"))
       .build();
 
-  private final JXEHardenedSAXParsers parsers;
+  private final ThreadLocal<JXEHardenedSAXParsers> parsers;
   private final Vector<Dx7XMLFormatProviderType> providers;
   private final JXESchemaResolutionMappings schemas;
+  private final Optional<Dx7XMLIncludeCache> include_cache;
+  private final Optional<Schema> include_schema;
 
   /**
    * Instantiate a parser provider.
@@ -78,7 +101,39 @@ public final class Dx7XMLParsers
 
   public Dx7XMLParsers()
   {
-    this.parsers = new JXEHardenedSAXParsers();
+    this(Optional.empty());
+  }
+
+  /**
+   * Instantiate a parser provider that resolves XInclude inclusions through
+   * the given cache. Included files must be located inside the base
+   * directory of the parser request, must have a {@code dx7-voice} or
+   * {@code dx7-voices} root element, and are parsed and validated once for
+   * as long as their contents are unchanged. The {@code xpointer} and
+   * {@code parse="text"} forms of inclusion are not supported.
+   *
+   * <p>The {@code xi:include} elements are kept away from the schema
+   * validator, so documents in any format may use inclusions, whether or
+   * not the schema of the format mentions XInclude. Included files are
+   * validated on their own when they are parsed, and so constraints that
+   * span documents (such as the uniqueness of voice identifiers) are not
+   * checked across inclusions. Included files may be in any format.</p>
+   *
+   * @param in_include_cache The include cache
+   */
+
+  public Dx7XMLParsers(
+    final Dx7XMLIncludeCache in_include_cache)
+  {
+    this(Optional.of(
+      Objects.requireNonNull(in_include_cache, "Include cache")));
+  }
+
+  private Dx7XMLParsers(
+    final Optional<Dx7XMLIncludeCache> in_include_cache)
+  {
+    this.include_cache = in_include_cache;
+    this.parsers = ThreadLocal.withInitial(JXEHardenedSAXParsers::new);
     this.providers =
       Stream.ofAll(ServiceLoader.load(Dx7XMLFormatProviderType.class).stream())
         .map(ServiceLoader.Provider::get)
@@ -91,6 +146,50 @@ public final class Dx7XMLParsers
       format -> schemas_builder.putMappings(format.schema().namespace(), format.schema()));
 
     this.schemas = schemas_builder.build();
+    this.include_schema =
+      in_include_cache.map(cache -> this.compileSchemas());
+  }
+
+  /**
+   * Compile all of the known schemas into a single schema for the
+   * validators used when inclusions are resolved through the include cache.
+   * The schemas are read from the given streams rather than resolved, so
+   * compiling them requires no external access.
+   */
+
+  private Schema compileSchemas()
+  {
+    final List<JXESchemaDefinition> definitions = new ArrayList<>();
+    definitions.add(XML_SCHEMA);
+    this.providers.forEach(format -> definitions.add(format.schema()));
+
+    final List<InputStream> streams = new ArrayList<>();
+    try {
+      final List<Source> sources = new ArrayList<>();
+      for (final JXESchemaDefinition definition : definitions) {
+        final URL location = definition.location();
+        final InputStream stream = location.openStream();
+        streams.add(stream);
+        sources.add(new StreamSource(stream, location.toString()));
+      }
+
+      final SchemaFactory factory =
+        SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+      return factory.newSchema(sources.toArray(new Source[0]));
+    } catch (final IOException | SAXException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      for (final InputStream stream : streams) {
+        try {
+          stream.close();
+        } catch (final IOException e) {
+          LOG.error("close: ", e);
+        }
+      }
+    }
   }
 
   /**
@@ -108,20 +207,220 @@ public final class Dx7XMLParsers
     throws Dx7ParserConfigurationException
   {
     Objects.requireNonNull(r, "Request");
+    return this.createIncluded(
+      r, r.baseDirectory(), HashSet.empty(), new ArrayList<>());
+  }
+
+  /**
+   * Create a parser that runs XML tokenizing and schema validation on a
+   * thread supplied by the given executor, while voices are constructed on
+   * the thread that calls {@link Dx7XMLParserType#parse()}. The two stages
+   * are connected by a bounded queue, so memory use does not depend on the
+   * size of the document.
+   *
+   * @param r        The parser request
+   * @param executor An executor used to run the tokenizing stage
+   *
+   * @return A parser
+   *
+   * @throws Dx7ParserConfigurationException On parser configuration errors
+   */
+
+  public Dx7XMLParserType createPipelined(
+    final Dx7XMLParserRequest r,
+    final ExecutorService executor)
+    throws Dx7ParserConfigurationException
+  {
+    Objects.requireNonNull(r, "Request");
+    Objects.requireNonNull(executor, "Executor");
+
+    return this.createWithReader(
+      r,
+      new Dx7XMLEventPipeline(this.createValidatingReader(r), executor),
+      r.baseDirectory(),
+      HashSet.empty(),
+      new ArrayList<>());
+  }
 
+  private XMLReader createValidatingReader(
+    final Dx7XMLParserRequest r)
+    throws Dx7ParserConfigurationException
+  {
     try {
-      final XMLReader reader =
-        this.parsers.createXMLReader(r.baseDirectory(), XINCLUDE_ENABLED, this.schemas);
+      if (this.include_schema.isPresent()) {
+        final ValidatorHandler validator =
+          this.include_schema.get().newValidatorHandler();
+        validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return new Dx7XMLIncludeValidatingReader(
+          createNonValidatingReader(), validator);
+      }
 
-      final HandlerInitial handler =
-        new HandlerInitial(r, this.providers, reader);
-      reader.setContentHandler(handler);
-      return new Parser(r, reader, handler);
+      return this.parsers.get().createXMLReader(
+        r.baseDirectory(), XINCLUDE_ENABLED, this.schemas);
     } catch (final ParserConfigurationException | SAXException e) {
       throw new Dx7ParserConfigurationException(e.getMessage(), e);
     }
   }
 
+  private Dx7XMLParserType createIncluded(
+    final Dx7XMLParserRequest r,
+    final Optional<Path> root,
+    final Set<Path> ancestors,
+    final List<Dx7XMLIncludeCache.Dependency> dependencies)
+    throws Dx7ParserConfigurationException
+  {
+    return this.createWithReader(
+      r, this.createValidatingReader(r), root, ancestors, dependencies);
+  }
+
+  /**
+   * Resolve an inclusion. The {@code href} is resolved against the base
+   * directory of the including document (which, for nested inclusions, is
+   * the directory of the including file), but the included file must lie
+   * within {@code root}, the base directory of the outermost document.
+   * Every file included, directly or not, is added to
+   * {@code dependencies}.
+   */
+
+  private Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> resolveInclude(
+    final Dx7XMLIncludeCache cache,
+    final Dx7XMLParserRequest r,
+    final Optional<Path> root,
+    final Set<Path> ancestors,
+    final List<Dx7XMLIncludeCache.Dependency> dependencies,
+    final String href)
+    throws IOException, SAXParseException
+  {
+    if (r.baseDirectory().isEmpty() || root.isEmpty()) {
+      throw new SAXParseException(
+        "Inclusions require a base directory.", (Locator) null);
+    }
+
+    final Path root_base = root.get().toAbsolutePath().normalize();
+    final Path base = r.baseDirectory().get().toAbsolutePath().normalize();
+    final Path file = base.resolve(href).toAbsolutePath().normalize();
+    if (!file.startsWith(root_base)) {
+      throw new SAXParseException(
+        "Included file is outside of the base directory: " + file,
+        (Locator) null);
+    }
+    if (ancestors.contains(file)) {
+      throw new SAXParseException(
+        "Inclusion cycle: " + file, (Locator) null);
+    }
+
+    return cache.get(file, (path, data, nested) -> {
+      final Dx7XMLParserRequest include_request =
+        Dx7XMLParserRequest.builder()
+          .from(r)
+          .setBaseDirectory(path.getParent())
+          .setFile(path.toUri())
+          .setStream(new ByteArrayInputStream(data))
+          .build();
+      try {
+        return this.createIncluded(
+          include_request, root, ancestors.add(path), nested)
+          .parse();
+      } catch (final Dx7ParserConfigurationException e) {
+        throw new IOException(e);
+      }
+    }, dependencies);
+  }
+
+  /**
+   * Create a parser that splits the document into segments at the boundaries
+   * of {@code dx7-voice} elements and parses the segments concurrently using
+   * the given executor. The resulting voices are returned in document order,
+   * and the lexical positions of any errors refer to the original document.
+   * Documents that cannot be segmented (such as those that use XInclude) are
+   * parsed sequentially.
+   *
+   * @param r             The parser request
+   * @param configuration The parser configuration
+   * @param executor      An executor used to parse segments
+   *
+   * @return A parser
+   */
+
+  public Dx7XMLParserType createParallel(
+    final Dx7XMLParserRequest r,
+    final Dx7XMLParallelParserConfiguration configuration,
+    final ExecutorService executor)
+  {
+    Objects.requireNonNull(r, "Request");
+    Objects.requireNonNull(configuration, "Configuration");
+    Objects.requireNonNull(executor, "Executor");
+    return new Dx7XMLParallelParser(this, r, configuration, executor);
+  }
+
+  /**
+   * Create a parser for a single segment of a document.
+   *
+   * @param r          The parser request
+   * @param validation {@code true} iff the segment should be validated
+   *
+   * @return A parser
+   *
+   * @throws Dx7ParserConfigurationException On parser configuration errors
+   */
+
+  Dx7XMLParserType createSegmentParser(
+    final Dx7XMLParserRequest r,
+    final boolean validation)
+    throws Dx7ParserConfigurationException
+  {
+    if (validation) {
+      return this.create(r);
+    }
+
+    try {
+      return this.createWithReader(
+        r,
+        createNonValidatingReader(),
+        r.baseDirectory(),
+        HashSet.empty(),
+        new ArrayList<>());
+    } catch (final ParserConfigurationException | SAXException e) {
+      throw new Dx7ParserConfigurationException(e.getMessage(), e);
+    }
+  }
+
+  private static XMLReader createNonValidatingReader()
+    throws ParserConfigurationException, SAXException
+  {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setValidating(false);
+    factory.setXIncludeAware(false);
+    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    factory.setFeature(
+      "http://apache.org/xml/features/disallow-doctype-decl", true);
+    factory.setFeature(
+      "http://xml.org/sax/features/external-general-entities", false);
+    factory.setFeature(
+      "http://xml.org/sax/features/external-parameter-entities", false);
+    return factory.newSAXParser().getXMLReader();
+  }
+
+  private Dx7XMLParserType createWithReader(
+    final Dx7XMLParserRequest r,
+    final XMLReader reader,
+    final Optional<Path> root,
+    final Set<Path> ancestors,
+    final List<Dx7XMLIncludeCache.Dependency> dependencies)
+  {
+    final Optional<Dx7XMLIncludeHandler.ResolverType> resolver =
+      this.include_cache.<Dx7XMLIncludeHandler.ResolverType>map(
+        cache -> href -> this.resolveInclude(
+          cache, r, root, ancestors, dependencies, href));
+
+    final HandlerInitial handler =
+      new HandlerInitial(r, this.providers, reader, resolver);
+    reader.setContentHandler(handler);
+    return new Parser(r, reader, handler);
+  }
+
   private static final class StopSAXParsing extends SAXException
   {
     StopSAXParsing()
@@ -130,6 +429,68 @@ public final class Dx7XMLParsers
     }
   }
 
+  /**
+   * A filter that stops parsing once the error limit has been reached by
+   * errors that the format content handlers report directly (such as
+   * range errors and include failures), rather than through the SAX error
+   * handler.
+   */
+
+  private static final class LimitFilter extends XMLFilterImpl
+  {
+    private final Dx7XMLErrorLog errors;
+
+    LimitFilter(
+      final ContentHandler in_target,
+      final Dx7XMLErrorLog in_errors)
+    {
+      this.errors = Objects.requireNonNull(in_errors, "Errors");
+      this.setContentHandler(Objects.requireNonNull(in_target, "Target"));
+    }
+
+    private void checkLimit()
+      throws StopSAXParsing
+    {
+      if (this.errors.limitReached()) {
+        throw new StopSAXParsing();
+      }
+    }
+
+    @Override
+    public void startElement(
+      final String uri,
+      final String local_name,
+      final String qualified_name,
+      final Attributes attributes)
+      throws SAXException
+    {
+      super.startElement(uri, local_name, qualified_name, attributes);
+      this.checkLimit();
+    }
+
+    @Override
+    public void endElement(
+      final String uri,
+      final String local_name,
+      final String qualified_name)
+      throws SAXException
+    {
+      super.endElement(uri, local_name, qualified_name);
+      this.checkLimit();
+    }
+
+    @Override
+    public void characters(
+      final char[] ch,
+      final int start,
+      final int length)
+      throws SAXException
+    {
+      super.characters(ch, start, length);
+      this.checkLimit();
+    }
+  }
+
   private static final class Parser implements Dx7XMLParserType
   {
     private final XMLReader reader;
@@ -161,6 +522,10 @@ public final class Dx7XMLParsers
               .content());
         }
 
+      } catch (final StopSAXParsing e) {
+        LOG.debug(
+          "stopped parsing after {} errors",
+          Integer.valueOf(this.handler.errors.errors().size()));
       } catch (final SAXParseException e) {
         this.handler.errors.addError(
           Dx7XMLErrorLog.createErrorFromParseException(e));
@@ -180,20 +545,32 @@ public final class Dx7XMLParsers
     private final XMLReader reader;
     private final Dx7XMLErrorLog errors;
     private final Vector<Dx7XMLFormatProviderType> formats;
+    private final Optional<Dx7XMLIncludeHandler.ResolverType> resolver;
     private Dx7XMLContentHandlerType sub_handler;
+    private Dx7XMLIncludeHandler include_handler;
     private Locator2 locator;
 
     HandlerInitial(
       final Dx7XMLParserRequest in_request,
       final Vector<Dx7XMLFormatProviderType> in_formats,
-      final XMLReader in_reader)
+      final XMLReader in_reader,
+      final Optional<Dx7XMLIncludeHandler.ResolverType> in_resolver)
     {
       this.request = Objects.requireNonNull(in_request, "Request");
       this.formats = Objects.requireNonNull(in_formats, "Formats");
       this.reader = Objects.requireNonNull(in_reader, "Reader");
+      this.resolver = Objects.requireNonNull(in_resolver, "Resolver");
       this.reader.setErrorHandler(this);
       this.reader.setContentHandler(this);
-      this.errors = new Dx7XMLErrorLog();
+      this.errors = new Dx7XMLErrorLog(in_request.maximumErrors());
+    }
+
+    private void checkLimit()
+      throws StopSAXParsing
+    {
+      if (this.errors.limitReached()) {
+        throw new StopSAXParsing();
+      }
     }
 
     @Override
@@ -213,15 +590,19 @@ public final class Dx7XMLParsers
     @Override
     public void warning(
       final SAXParseException e)
+      throws SAXException
     {
       this.errors.warning(e);
+      this.checkLimit();
     }
 
     @Override
     public void error(
       final SAXParseException e)
+      throws SAXException
     {
       this.errors.error(e);
+      this.checkLimit();
     }
 
     @Override
@@ -253,6 +634,10 @@ public final class Dx7XMLParsers
     {
       LOG.debug("startPrefixMapping: {} {}", prefix, uri);
 
+      if (Objects.equals(uri, Dx7XMLIncludeHandler.XINCLUDE_NAMESPACE)) {
+        return;
+      }
+
       final URI uri_x = URI.create(uri);
 
       final Option<Dx7XMLFormatProviderType> format_opt =
@@ -266,8 +651,26 @@ public final class Dx7XMLParsers
             this.request,
             this.errors,
             this.locator);
-        this.reader.setContentHandler(this.sub_handler);
-        this.reader.setErrorHandler(this.sub_handler);
+
+        if (this.resolver.isPresent()) {
+          this.include_handler =
+            new Dx7XMLIncludeHandler(
+              this.resolver.get(),
+              this.sub_handler,
+              this.errors,
+              this.request,
+              this.locator);
+          this.reader.setContentHandler(
+            new LimitFilter(this.include_handler, this.errors));
+        } else {
+          this.reader.setContentHandler(
+            new LimitFilter(this.sub_handler, this.errors));
+        }
+
+        // The error handler is deliberately left in place so that the
+        // error limit is enforced in one place for every format. Errors
+        // reported by the format handlers themselves are checked by the
+        // limit filter.
         return;
       }
 
@@ -281,6 +684,9 @@ public final class Dx7XMLParsers
     public Vector<Dx7VoiceNamed> content()
       throws SAXParseException
     {
+      if (this.include_handler != null) {
+        return this.include_handler.content();
+      }
       return this.sub_handler.content();
     }
   }
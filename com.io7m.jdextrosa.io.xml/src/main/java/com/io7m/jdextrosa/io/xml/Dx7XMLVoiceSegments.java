@@ -0,0 +1,540 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml;
+
+import io.vavr.collection.Vector;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A fast, non-validating pre-scan of a document that locates the boundaries
+ * of the top-level {@code dx7-voice} elements. The scan only recognizes
+ * documents consisting of a root {@code dx7-voices} element containing
+ * nothing but {@code dx7-voice} elements, whitespace, comments, and
+ * processing instructions. Any other document (such as one that uses
+ * XInclude) is rejected, and callers are expected to fall back to parsing
+ * the document sequentially.
+ */
+
+final class Dx7XMLVoiceSegments
+{
+  private static final byte[] COMMENT_OPEN =
+    "<!--".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] COMMENT_CLOSE =
+    "-->".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PI_OPEN =
+    "<?".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PI_CLOSE =
+    "?>".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DECL_OPEN =
+    "<!".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CDATA_OPEN =
+    "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CDATA_CLOSE =
+    "]]>".getBytes(StandardCharsets.US_ASCII);
+
+  private final byte[] data;
+  private final int header_end;
+  private final int header_lines;
+  private final byte[] trailer;
+  private final Vector<Segment> segments;
+
+  private Dx7XMLVoiceSegments(
+    final byte[] in_data,
+    final int in_header_end,
+    final int in_header_lines,
+    final byte[] in_trailer,
+    final Vector<Segment> in_segments)
+  {
+    this.data = Objects.requireNonNull(in_data, "Data");
+    this.header_end = in_header_end;
+    this.header_lines = in_header_lines;
+    this.trailer = Objects.requireNonNull(in_trailer, "Trailer");
+    this.segments = Objects.requireNonNull(in_segments, "Segments");
+  }
+
+  /**
+   * Scan the given document.
+   *
+   * @param data           The document
+   * @param segment_voices The maximum number of voices per segment
+   *
+   * @return The segments of the document, or nothing if the document could
+   * not be segmented
+   */
+
+  static Optional<Dx7XMLVoiceSegments> scan(
+    final byte[] data,
+    final int segment_voices)
+  {
+    Objects.requireNonNull(data, "Data");
+    return new Scanner(data).scan(segment_voices);
+  }
+
+  /**
+   * @return The segments in document order
+   */
+
+  Vector<Segment> segments()
+  {
+    return this.segments;
+  }
+
+  /**
+   * The number of lines occupied by the synthetic header of each segment
+   * document. The content of a segment always begins on the line following
+   * the header.
+   *
+   * @return The number of header lines
+   */
+
+  int headerLines()
+  {
+    return this.header_lines;
+  }
+
+  /**
+   * Produce a standalone document containing the given segment. The document
+   * consists of the original prolog and root start tag, followed by the
+   * segment content padded such that the first voice begins on the same
+   * column as it did in the original document, followed by the root end tag.
+   *
+   * @param segment The segment
+   *
+   * @return A standalone document
+   */
+
+  byte[] document(
+    final Segment segment)
+  {
+    Objects.requireNonNull(segment, "Segment");
+
+    final int content_size = segment.end - segment.start;
+    final ByteArrayOutputStream out =
+      new ByteArrayOutputStream(
+        this.header_end + 1 + segment.column + content_size + this.trailer.length);
+
+    out.write(this.data, 0, this.header_end);
+    out.write('\n');
+    for (int index = 1; index < segment.column; ++index) {
+      out.write(' ');
+    }
+    out.write(this.data, segment.start, content_size);
+    out.write(this.trailer, 0, this.trailer.length);
+    return out.toByteArray();
+  }
+
+  /**
+   * A contiguous range of {@code dx7-voice} elements.
+   */
+
+  static final class Segment
+  {
+    private final int start;
+    private final int end;
+    private final int line;
+    private final int column;
+    private final int voices;
+
+    Segment(
+      final int in_start,
+      final int in_end,
+      final int in_line,
+      final int in_column,
+      final int in_voices)
+    {
+      this.start = in_start;
+      this.end = in_end;
+      this.line = in_line;
+      this.column = in_column;
+      this.voices = in_voices;
+    }
+
+    /**
+     * @return The line in the original document on which the segment begins
+     */
+
+    int line()
+    {
+      return this.line;
+    }
+
+    /**
+     * @return The column in the original document on which the segment begins
+     */
+
+    int column()
+    {
+      return this.column;
+    }
+
+    /**
+     * @return The number of voices in the segment
+     */
+
+    int voices()
+    {
+      return this.voices;
+    }
+  }
+
+  private static final class Scanner
+  {
+    private final byte[] data;
+    private int line;
+    private int line_start;
+    private int counted;
+
+    Scanner(
+      final byte[] in_data)
+    {
+      this.data = in_data;
+      this.line = 1;
+      this.line_start = 0;
+      this.counted = 0;
+    }
+
+    private static boolean isSpace(
+      final byte b)
+    {
+      return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private boolean startsWith(
+      final int position,
+      final byte[] prefix)
+    {
+      if (position < 0 || position + prefix.length > this.data.length) {
+        return false;
+      }
+      return Arrays.equals(
+        this.data, position, position + prefix.length,
+        prefix, 0, prefix.length);
+    }
+
+    private int indexOf(
+      final byte[] target,
+      final int from)
+    {
+      final int last = this.data.length - target.length;
+      for (int index = Math.max(0, from); index <= last; ++index) {
+        if (this.startsWith(index, target)) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    private int indexOf(
+      final byte target,
+      final int from)
+    {
+      for (int index = Math.max(0, from); index < this.data.length; ++index) {
+        if (this.data[index] == target) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return {@code true} if the element name {@code name} begins at
+     * {@code position} and is not merely a prefix of a longer name
+     */
+
+    private boolean isName(
+      final int position,
+      final byte[] name)
+    {
+      if (!this.startsWith(position, name)) {
+        return false;
+      }
+      final int after = position + name.length;
+      if (after >= this.data.length) {
+        return false;
+      }
+      final byte b = this.data[after];
+      return isSpace(b) || b == '>' || b == '/';
+    }
+
+    /**
+     * @return The index of the {@code >} that closes the tag that begins at
+     * {@code position}, taking quoted attribute values into account
+     */
+
+    private int tagEnd(
+      final int position)
+    {
+      byte quote = 0;
+      for (int index = position; index < this.data.length; ++index) {
+        final byte b = this.data[index];
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        } else if (b == '"' || b == '\'') {
+          quote = b;
+        } else if (b == '>') {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Skip a comment or processing instruction starting at {@code position}.
+     *
+     * @return The index following the construct, {@code position} if there
+     * was nothing to skip, or {@code -1} if the construct is unterminated
+     */
+
+    private int skipMarkup(
+      final int position)
+    {
+      if (this.startsWith(position, COMMENT_OPEN)) {
+        final int end = this.indexOf(COMMENT_CLOSE, position + 4);
+        return end == -1 ? -1 : end + COMMENT_CLOSE.length;
+      }
+      if (this.startsWith(position, PI_OPEN)) {
+        final int end = this.indexOf(PI_CLOSE, position + 2);
+        return end == -1 ? -1 : end + PI_CLOSE.length;
+      }
+      return position;
+    }
+
+    /**
+     * Find the end tag of the voice whose start tag ends at {@code open_end}.
+     * The body of the voice is scanned tag by tag, so that comments,
+     * processing instructions, CDATA sections, and attribute values that
+     * happen to contain the text of the end tag are not mistaken for it.
+     *
+     * @return The index of the end tag, or {@code -1} if the body contains
+     * anything that the scan does not handle (such as a nested voice)
+     */
+
+    private int voiceClose(
+      final int open_end,
+      final byte[] voice_open,
+      final byte[] voice_close)
+    {
+      int position = open_end + 1;
+      while (true) {
+        position = this.indexOf((byte) '<', position);
+        if (position == -1) {
+          return -1;
+        }
+
+        final int skipped = this.skipMarkup(position);
+        if (skipped == -1) {
+          return -1;
+        }
+        if (skipped != position) {
+          position = skipped;
+          continue;
+        }
+
+        if (this.startsWith(position, CDATA_OPEN)) {
+          final int end =
+            this.indexOf(CDATA_CLOSE, position + CDATA_OPEN.length);
+          if (end == -1) {
+            return -1;
+          }
+          position = end + CDATA_CLOSE.length;
+          continue;
+        }
+
+        if (this.startsWith(position, DECL_OPEN)
+          || this.isName(position, voice_open)) {
+          return -1;
+        }
+        if (this.isName(position, voice_close)) {
+          return position;
+        }
+
+        final int end = this.tagEnd(position);
+        if (end == -1) {
+          return -1;
+        }
+        position = end + 1;
+      }
+    }
+
+    private void countLinesTo(
+      final int position)
+    {
+      for (int index = this.counted; index < position; ++index) {
+        if (this.data[index] == '\n') {
+          this.line += 1;
+          this.line_start = index + 1;
+        }
+      }
+      this.counted = position;
+    }
+
+    Optional<Dx7XMLVoiceSegments> scan(
+      final int segment_voices)
+    {
+      /*
+       * Find the root element, skipping the XML declaration and any comments.
+       * Documents with a DOCTYPE are not handled here.
+       */
+
+      int position = 0;
+      while (true) {
+        position = this.indexOf((byte) '<', position);
+        if (position == -1) {
+          return Optional.empty();
+        }
+        final int skipped = this.skipMarkup(position);
+        if (skipped == -1) {
+          return Optional.empty();
+        }
+        if (skipped == position) {
+          break;
+        }
+        position = skipped;
+      }
+
+      if (this.startsWith(position, DECL_OPEN)) {
+        return Optional.empty();
+      }
+
+      int name_end = position + 1;
+      while (name_end < this.data.length) {
+        final byte b = this.data[name_end];
+        if (isSpace(b) || b == '>' || b == '/') {
+          break;
+        }
+        ++name_end;
+      }
+
+      final String root_name =
+        new String(
+          this.data,
+          position + 1,
+          name_end - (position + 1),
+          StandardCharsets.UTF_8);
+
+      final int colon = root_name.indexOf(':');
+      final String prefix = colon == -1 ? "" : root_name.substring(0, colon + 1);
+      if (!Objects.equals(root_name.substring(prefix.length()), "dx7-voices")) {
+        return Optional.empty();
+      }
+
+      final int root_end = this.tagEnd(name_end);
+      if (root_end == -1 || this.data[root_end - 1] == '/') {
+        return Optional.empty();
+      }
+
+      final byte[] root_close =
+        ("</" + root_name).getBytes(StandardCharsets.UTF_8);
+      final byte[] voice_open =
+        ("<" + prefix + "dx7-voice").getBytes(StandardCharsets.UTF_8);
+      final byte[] voice_close =
+        ("</" + prefix + "dx7-voice").getBytes(StandardCharsets.UTF_8);
+
+      /*
+       * Locate each voice.
+       */
+
+      Vector<Segment> voices = Vector.empty();
+      position = root_end + 1;
+      while (true) {
+        position = this.indexOf((byte) '<', position);
+        if (position == -1) {
+          return Optional.empty();
+        }
+
+        final int skipped = this.skipMarkup(position);
+        if (skipped == -1) {
+          return Optional.empty();
+        }
+        if (skipped != position) {
+          position = skipped;
+          continue;
+        }
+
+        if (this.isName(position, root_close)) {
+          break;
+        }
+
+        if (!this.isName(position, voice_open)) {
+          return Optional.empty();
+        }
+
+        final int open_end = this.tagEnd(position);
+        if (open_end == -1 || this.data[open_end - 1] == '/') {
+          return Optional.empty();
+        }
+
+        final int close = this.voiceClose(open_end, voice_open, voice_close);
+        if (close == -1) {
+          return Optional.empty();
+        }
+
+        final int close_end = this.tagEnd(close);
+        if (close_end == -1) {
+          return Optional.empty();
+        }
+
+        this.countLinesTo(position);
+        voices = voices.append(new Segment(
+          position,
+          close_end + 1,
+          this.line,
+          position - this.line_start + 1,
+          1));
+        position = close_end + 1;
+      }
+
+      /*
+       * Group the voices into segments.
+       */
+
+      Vector<Segment> segments = Vector.empty();
+      for (final Vector<Segment> group : voices.grouped(segment_voices)) {
+        final Segment first = group.head();
+        final Segment last = group.last();
+        segments = segments.append(new Segment(
+          first.start,
+          last.end,
+          first.line,
+          first.column,
+          group.size()));
+      }
+
+      int header_newlines = 0;
+      for (int index = 0; index <= root_end; ++index) {
+        if (this.data[index] == '\n') {
+          ++header_newlines;
+        }
+      }
+
+      return Optional.of(new Dx7XMLVoiceSegments(
+        this.data,
+        root_end + 1,
+        header_newlines + 1,
+        (new String(root_close, StandardCharsets.UTF_8) + ">")
+          .getBytes(StandardCharsets.UTF_8),
+        segments));
+    }
+  }
+}
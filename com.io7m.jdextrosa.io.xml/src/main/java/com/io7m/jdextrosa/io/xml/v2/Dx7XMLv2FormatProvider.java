@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml.v2;
+
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLContentHandlerType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLFormatProviderType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterType;
+import com.io7m.jxe.core.JXESchemaDefinition;
+import net.sf.saxon.Configuration;
+import org.xml.sax.ext.Locator2;
+
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * A 2.0 format provider. Each voice is stored as a single element holding
+ * the 128 octet packed form used by 32-voice SysEx messages, along with the
+ * voice name and optional metadata.
+ */
+
+public final class Dx7XMLv2FormatProvider implements Dx7XMLFormatProviderType
+{
+  static final String SCHEMA_NAMESPACE = "schema:com.io7m.jdextrosa:2.0";
+
+  static final URI SCHEMA_NAMESPACE_URI = URI.create(SCHEMA_NAMESPACE);
+
+  private static final JXESchemaDefinition SCHEMA =
+    JXESchemaDefinition.builder()
+      .setFileIdentifier("file::jdextrosa-2.0.xsd")
+      .setNamespace(SCHEMA_NAMESPACE_URI)
+      .setLocation(Dx7XMLv2FormatProvider.class.getResource(
+        "/com/io7m/jdextrosa/io/xml/jdextrosa-2.0.xsd"))
+      .build();
+
+  private final Configuration config;
+
+  /**
+   * Instantiate a format provider.
+   */
+
+  public Dx7XMLv2FormatProvider()
+  {
+    this.config = new Configuration();
+  }
+
+  @Override
+  public String toString()
+  {
+    final StringBuilder sb = new StringBuilder(128);
+    sb.append("[");
+    sb.append(Dx7XMLv2FormatProvider.class.getCanonicalName());
+    sb.append("]");
+    return sb.toString();
+  }
+
+  @Override
+  public JXESchemaDefinition schema()
+  {
+    return SCHEMA;
+  }
+
+  @Override
+  public Dx7XMLContentHandlerType createParserContentHandler(
+    final Dx7XMLParserRequest in_request,
+    final Dx7XMLErrorLog in_errors,
+    final Locator2 in_locator)
+  {
+    return new Dx7v2ParserHandler(in_request, in_errors, in_locator);
+  }
+
+  @Override
+  public Dx7XMLWriterType createWriter(
+    final URI file,
+    final OutputStream stream)
+    throws Exception
+  {
+    return new Dx7v2Writer(this.config, file, stream);
+  }
+}
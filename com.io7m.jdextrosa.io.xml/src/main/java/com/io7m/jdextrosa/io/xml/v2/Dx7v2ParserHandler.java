@@ -0,0 +1,356 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml.v2;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7ParseError;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLContentHandlerType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLErrorLog;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseErrorType;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jlexing.core.LexicalPosition;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.Locator2;
+
+import java.net.URI;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.lang.Integer.parseUnsignedInt;
+
+final class Dx7v2ParserHandler
+  extends DefaultHandler2 implements Dx7XMLContentHandlerType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7v2ParserHandler.class);
+
+  private final Dx7XMLParserRequest request;
+  private final Dx7XMLErrorLog errors;
+  private final Base64.Decoder decoder;
+  private Locator2 locator;
+  private Vector<Dx7VoiceNamed> voices;
+  private Optional<Dx7VoiceNamed> voice_named;
+  private Dx7VoiceMetadata.Builder voice_meta_builder;
+
+  /**
+   * Construct a handler.
+   *
+   * @param in_request The original request
+   * @param in_errors  The error log
+   * @param in_locator The current locator
+   */
+
+  Dx7v2ParserHandler(
+    final Dx7XMLParserRequest in_request,
+    final Dx7XMLErrorLog in_errors,
+    final Locator2 in_locator)
+  {
+    this.request = Objects.requireNonNull(in_request, "Request");
+    this.errors = Objects.requireNonNull(in_errors, "Errors");
+    this.locator = Objects.requireNonNull(in_locator, "Locator");
+    this.decoder = Base64.getDecoder();
+    this.voices = Vector.empty();
+    this.voice_named = Optional.empty();
+  }
+
+  /**
+   * Remove the whitespace permitted within {@code xs:base64Binary} values
+   * (such as the line breaks inserted by other tools and pretty-printers),
+   * as the strict decoder rejects it.
+   */
+
+  private static String stripWhitespace(
+    final String data)
+  {
+    final StringBuilder result = new StringBuilder(data.length());
+    for (int index = 0; index < data.length(); ++index) {
+      final char c = data.charAt(index);
+      switch (c) {
+        case ' ':
+        case '\t':
+        case '\r':
+        case '\n':
+          break;
+        default:
+          result.append(c);
+          break;
+      }
+    }
+    return result.toString();
+  }
+
+  private LexicalPosition<URI> position()
+  {
+    return LexicalPosition.<URI>builder()
+      .setFile(this.request.file())
+      .setLine(this.locator.getLineNumber())
+      .setColumn(this.locator.getColumnNumber())
+      .build();
+  }
+
+  private void publishError(
+    final String message,
+    final Optional<Exception> exception)
+  {
+    this.errors.addError(
+      Dx7XMLParseError.builder()
+        .setLexical(this.position())
+        .setSeverity(Dx7XMLParseErrorType.Severity.ERROR)
+        .setMessage(message)
+        .setException(exception)
+        .build());
+  }
+
+  private void publishPackedError(
+    final Dx7ParseError error)
+  {
+    final Dx7XMLParseErrorType.Severity severity;
+    switch (error.severity()) {
+      case WARNING: {
+        severity = Dx7XMLParseErrorType.Severity.WARNING;
+        break;
+      }
+      case ERROR: {
+        severity = Dx7XMLParseErrorType.Severity.ERROR;
+        break;
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+
+    this.errors.addError(
+      Dx7XMLParseError.builder()
+        .setLexical(this.position())
+        .setSeverity(severity)
+        .setMessage(error.message())
+        .setException(error.exception())
+        .build());
+  }
+
+  @Override
+  public void startElement(
+    final String uri,
+    final String local_name,
+    final String qual_name,
+    final Attributes attributes)
+  {
+    LOG.trace(
+      "startElement: {} {} {} {}",
+      uri,
+      local_name,
+      qual_name,
+      attributes);
+
+    if (!this.errors.errors().isEmpty()) {
+      return;
+    }
+
+    if (!Objects.equals(uri, Dx7XMLv2FormatProvider.SCHEMA_NAMESPACE)) {
+      return;
+    }
+
+    switch (local_name) {
+      case "dx7-voices": {
+        break;
+      }
+
+      case "dx7-voice": {
+        this.startVoice(attributes);
+        break;
+      }
+
+      case "dx7-voice-metadata": {
+        this.startVoiceMetadata(attributes);
+        break;
+      }
+
+      default: {
+        break;
+      }
+    }
+  }
+
+  private void startVoiceMetadata(
+    final Attributes attributes)
+  {
+    this.voice_meta_builder = Dx7VoiceMetadata.builder();
+
+    for (int index = 0; index < attributes.getLength(); ++index) {
+      final String value = attributes.getValue(index);
+      final String name = attributes.getLocalName(index);
+      switch (name) {
+        case "id": {
+          this.voice_meta_builder.setId(URI.create(value));
+          break;
+        }
+        case "source": {
+          this.voice_meta_builder.setSource(URI.create(value));
+          break;
+        }
+
+        default: {
+          throw new UnreachableCodeException(
+            new IllegalArgumentException(name));
+        }
+      }
+    }
+  }
+
+  private void startVoice(
+    final Attributes attributes)
+  {
+    this.voice_named = Optional.empty();
+
+    String name = null;
+    String data = null;
+    int enabled = 0b111111;
+
+    for (int index = 0; index < attributes.getLength(); ++index) {
+      final String value = attributes.getValue(index);
+      switch (attributes.getLocalName(index)) {
+        case "name": {
+          name = value;
+          break;
+        }
+        case "data": {
+          data = value;
+          break;
+        }
+        case "operatorsEnabled": {
+          enabled = parseUnsignedInt(value);
+          break;
+        }
+        default: {
+          throw new UnreachableCodeException();
+        }
+      }
+    }
+
+    Objects.requireNonNull(name, "Name");
+    Objects.requireNonNull(data, "Data");
+
+    final byte[] packed;
+    try {
+      packed = this.decoder.decode(stripWhitespace(data));
+    } catch (final IllegalArgumentException e) {
+      this.publishError(e.getMessage(), Optional.of(e));
+      return;
+    }
+
+    if (packed.length != Dx7SysExIO.PACKED_VOICE_SIZE) {
+      this.publishError(
+        new StringBuilder(128)
+          .append("Incorrect packed voice size.")
+          .append(System.lineSeparator())
+          .append("  Expected: ")
+          .append(Dx7SysExIO.PACKED_VOICE_SIZE)
+          .append(System.lineSeparator())
+          .append("  Received: ")
+          .append(packed.length)
+          .append(System.lineSeparator())
+          .toString(),
+        Optional.empty());
+      return;
+    }
+
+    final Optional<Dx7VoiceNamed> unpacked =
+      Dx7SysExIO.unpackVoice(
+        this::publishPackedError, this.request.file(), packed);
+
+    if (unpacked.isPresent()) {
+      final Dx7VoiceNamed voice = unpacked.get();
+      this.voice_named = Optional.of(
+        Dx7VoiceNamed.builder()
+          .from(voice)
+          .setName(name)
+          .setVoice(Dx7SysExIO.withOperatorsEnabled(voice.voice(), enabled))
+          .build());
+    }
+  }
+
+  @Override
+  public void endElement(
+    final String uri,
+    final String local_name,
+    final String qual_name)
+  {
+    LOG.trace("endElement: {} {} {}", uri, local_name, qual_name);
+
+    if (!this.errors.errors().isEmpty()) {
+      return;
+    }
+
+    if (!Objects.equals(uri, Dx7XMLv2FormatProvider.SCHEMA_NAMESPACE)) {
+      return;
+    }
+
+    switch (local_name) {
+      case "dx7-voices": {
+        break;
+      }
+
+      case "dx7-voice": {
+        this.finishVoice();
+        break;
+      }
+
+      case "dx7-voice-metadata": {
+        this.finishVoiceMetadata();
+        break;
+      }
+
+      default: {
+        break;
+      }
+    }
+  }
+
+  private void finishVoiceMetadata()
+  {
+    this.voice_named = this.voice_named.map(
+      voice -> voice.withMetadata(this.voice_meta_builder.build()));
+  }
+
+  private void finishVoice()
+  {
+    this.voice_named.ifPresent(
+      voice -> this.voices = this.voices.append(voice));
+    this.voice_named = Optional.empty();
+  }
+
+  @Override
+  public Dx7XMLErrorLog errorLog()
+  {
+    return this.errors;
+  }
+
+  @Override
+  public Vector<Dx7VoiceNamed> content()
+  {
+    return this.voices;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io.xml.v2;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLWriterType;
+import io.vavr.collection.Vector;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Base64;
+import java.util.Objects;
+
+import static com.io7m.jdextrosa.io.xml.v2.Dx7XMLv2FormatProvider.SCHEMA_NAMESPACE;
+
+final class Dx7v2Writer implements Dx7XMLWriterType
+{
+  private final URI file;
+  private final OutputStream stream;
+  private final Configuration config;
+  private final XMLStreamWriter writer;
+  private final byte[] buffer;
+  private final Base64.Encoder encoder;
+
+  Dx7v2Writer(
+    final Configuration in_config,
+    final URI in_file,
+    final OutputStream in_stream)
+    throws SaxonApiException
+  {
+    this.config = Objects.requireNonNull(in_config, "Configuration");
+    this.file = Objects.requireNonNull(in_file, "File");
+    this.stream = Objects.requireNonNull(in_stream, "Stream");
+    this.buffer = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    this.encoder = Base64.getEncoder();
+
+    final Processor processor = new Processor(this.config);
+    final Serializer serializer = processor.newSerializer();
+    serializer.setOutputProperty(Serializer.Property.METHOD, "xml");
+    serializer.setOutputProperty(Serializer.Property.INDENT, "yes");
+    serializer.setOutputStream(this.stream);
+    this.writer = serializer.getXMLStreamWriter();
+  }
+
+  @Override
+  public void start()
+    throws IOException
+  {
+    try {
+      this.writer.setPrefix("dx", SCHEMA_NAMESPACE);
+      this.writer.writeStartDocument("UTF-8", "1.0");
+      this.writer.writeStartElement("dx", "dx7-voices", SCHEMA_NAMESPACE);
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void write(
+    final Vector<Dx7VoiceNamed> voices)
+    throws IOException
+  {
+    try {
+      for (final Dx7VoiceNamed voice : voices) {
+        this.writeVoice(voice);
+      }
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void writeVoice(
+    final Dx7VoiceNamed voice_named)
+    throws XMLStreamException
+  {
+    Dx7SysExIO.packVoice(voice_named, this.buffer);
+
+    this.writer.writeStartElement(
+      "dx", "dx7-voice", SCHEMA_NAMESPACE);
+
+    this.writer.writeAttribute(
+      "name",
+      voice_named.name());
+
+    final int enabled = Dx7SysExIO.operatorsEnabled(voice_named.voice());
+    if (enabled != 0b111111) {
+      this.writer.writeAttribute(
+        "operatorsEnabled",
+        Integer.toUnsignedString(enabled));
+    }
+
+    this.writer.writeAttribute(
+      "data",
+      this.encoder.encodeToString(this.buffer));
+
+    if (voice_named.metadata().isPresent()) {
+      this.writeMetadata(voice_named.metadata().get());
+    }
+
+    this.writer.writeEndElement();
+  }
+
+  private void writeMetadata(
+    final Dx7VoiceMetadata meta)
+    throws XMLStreamException
+  {
+    this.writer.writeStartElement(
+      "dx", "dx7-voice-metadata", SCHEMA_NAMESPACE);
+    this.writer.writeAttribute("id", meta.id().toString());
+    this.writer.writeAttribute("source", meta.source().toString());
+    this.writer.writeEndElement();
+  }
+
+  @Override
+  public void finish()
+    throws IOException
+  {
+    try {
+      this.writer.writeEndElement();
+      this.writer.writeEndDocument();
+      this.writer.flush();
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      this.writer.close();
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+}
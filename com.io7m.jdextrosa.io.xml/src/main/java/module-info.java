@@ -20,8 +20,12 @@
 
 module com.io7m.jdextrosa.io.xml
 {
+  requires static org.immutables.value;
+  requires static com.io7m.immutables.style;
+
   requires java.xml;
 
+  requires com.io7m.jdextrosa.io;
   requires com.io7m.jdextrosa.io.xml.spi;
   requires com.io7m.jranges.core;
   requires com.io7m.junreachable.core;
@@ -35,9 +39,11 @@ module com.io7m.jdextrosa.io.xml
 
   exports com.io7m.jdextrosa.io.xml;
   exports com.io7m.jdextrosa.io.xml.v1;
+  exports com.io7m.jdextrosa.io.xml.v2;
 
   uses com.io7m.jdextrosa.io.xml.spi.Dx7XMLFormatProviderType;
 
   provides com.io7m.jdextrosa.io.xml.spi.Dx7XMLFormatProviderType
-    with com.io7m.jdextrosa.io.xml.v1.Dx7XMLv1FormatProvider;
+    with com.io7m.jdextrosa.io.xml.v1.Dx7XMLv1FormatProvider,
+      com.io7m.jdextrosa.io.xml.v2.Dx7XMLv2FormatProvider;
 }
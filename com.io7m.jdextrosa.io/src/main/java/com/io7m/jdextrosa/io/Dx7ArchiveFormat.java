@@ -0,0 +1,679 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@code .dx7lib} archive format.
+ *
+ * An archive is a header, a sequence of blocks, a block index, and a
+ * trailer that gives the position of the index:
+ *
+ * <pre>
+ * header  := MAGIC VERSION block_voices
+ * block   := BLOCK_TAG voices uncompressed_size compressed_size data
+ * index   := INDEX_TAG block_count voice_count (block_offset block_voices)*
+ * trailer := index_offset TRAILER_TAG
+ * </pre>
+ *
+ * Each block holds up to {@link #BLOCK_VOICES} voices, stored column-wise
+ * and then compressed with deflate. A voice is a row of {@link #COLUMNS}
+ * octets: the first 118 octets of the packed voice (the remainder being
+ * the padded name), the mask of enabled operators, the length of the name,
+ * and the ten octets of the name. Each column is stored as a constant, as
+ * dictionary indices, as deltas, or raw, whichever is expected to compress
+ * best. The source and identifier of each voice refer to a table of
+ * strings that is local to the block, so any block can be decoded alone.
+ * Identifiers that are derived from the source and the name of the voice
+ * (see {@link Dx7VoiceSourceTable#derivedId(URI, String)}) are not stored,
+ * so such a voice costs a single source reference.
+ *
+ * The sizes in a block header are checked against the limits implied by
+ * the number of voices in the block before anything is allocated, so a
+ * malformed archive cannot cause unbounded allocations. To make the limit
+ * finite, the strings of a block are at most {@link #STRING_MAXIMUM}
+ * octets long.
+ */
+
+final class Dx7ArchiveFormat
+{
+  static final int MAGIC = 0x4458374c;
+  static final int VERSION = 2;
+  static final int BLOCK_TAG = 0x424c4f4b;
+  static final int INDEX_TAG = 0x494e4458;
+  static final int TRAILER_TAG = 0x454e4421;
+  static final int TRAILER_SIZE = 12;
+  static final int HEADER_SIZE = 12;
+  static final int BLOCK_HEADER_SIZE = 16;
+
+  static final int BLOCK_VOICES = 4096;
+  static final int STRING_MAXIMUM = 4096;
+
+  static final int PACKED_COLUMNS = 118;
+  static final int COLUMN_OPERATORS = PACKED_COLUMNS;
+  static final int COLUMN_NAME_LENGTH = COLUMN_OPERATORS + 1;
+  static final int COLUMN_NAME = COLUMN_NAME_LENGTH + 1;
+  static final int NAME_SIZE = 10;
+  static final int COLUMNS = COLUMN_NAME + NAME_SIZE;
+
+  private static final int CODING_CONSTANT = 0;
+  private static final int CODING_DICTIONARY = 1;
+  private static final int CODING_DELTA = 2;
+  private static final int CODING_RAW = 3;
+  private static final int DICTIONARY_MAXIMUM = 16;
+
+  private Dx7ArchiveFormat()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Fill in a row for the given voice.
+   *
+   * @param voice  The voice
+   * @param packed A buffer for the packed voice
+   * @param rows   The rows
+   * @param row    The row index
+   */
+
+  static void toRow(
+    final Dx7VoiceNamed voice,
+    final byte[] packed,
+    final byte[] rows,
+    final int row)
+  {
+    final int base = row * COLUMNS;
+    Dx7Writer.packVoice(voice, packed);
+    System.arraycopy(packed, 0, rows, base, PACKED_COLUMNS);
+    rows[base + COLUMN_OPERATORS] =
+      (byte) Dx7SysExIO.operatorsEnabled(voice.voice());
+
+    final byte[] name = voice.name().getBytes(StandardCharsets.US_ASCII);
+    rows[base + COLUMN_NAME_LENGTH] = (byte) name.length;
+    for (int index = 0; index < NAME_SIZE; ++index) {
+      rows[base + COLUMN_NAME + index] = index < name.length ? name[index] : 0;
+    }
+  }
+
+  /**
+   * Encode a block of voices.
+   *
+   * @param voices   The voices of the block
+   * @param rows     The rows of the voices
+   * @param deflater A deflater
+   *
+   * @return The compressed block data and the uncompressed size
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Encoded encodeBlock(
+    final List<Dx7VoiceNamed> voices,
+    final byte[] rows,
+    final Deflater deflater)
+    throws IOException
+  {
+    final int count = voices.size();
+    final ByteArrayOutputStream bytes =
+      new ByteArrayOutputStream(count * COLUMNS);
+    final DataOutputStream output = new DataOutputStream(bytes);
+
+    final byte[] column = new byte[count];
+    for (int c = 0; c < COLUMNS; ++c) {
+      for (int row = 0; row < count; ++row) {
+        column[row] = rows[row * COLUMNS + c];
+      }
+      encodeColumn(column, count, output);
+    }
+
+    final Map<String, Integer> strings = new HashMap<>();
+    final List<String> string_list = new ArrayList<>();
+    final int[] references = new int[count * 2];
+    for (int index = 0; index < count; ++index) {
+      final Optional<Dx7VoiceMetadata> metadata_opt =
+        voices.get(index).metadata();
+      if (metadata_opt.isPresent()) {
+        final Dx7VoiceMetadata metadata = metadata_opt.get();
+        final int source =
+          intern(strings, string_list, metadata.source().toString()) + 1;
+        if (Dx7VoiceSourceTable.isDerived(metadata, voices.get(index).name())) {
+          references[index * 2] = source << 1;
+        } else {
+          references[index * 2] = (source << 1) | 1;
+          references[index * 2 + 1] =
+            intern(strings, string_list, metadata.id().toString());
+        }
+      }
+    }
+
+    output.writeInt(string_list.size());
+    for (final String text : string_list) {
+      final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+      if (data.length > STRING_MAXIMUM) {
+        throw new IOException(
+          "URI is too long to be stored in an archive: " + text);
+      }
+      writeVarInt(output, data.length);
+      output.write(data);
+    }
+    for (int index = 0; index < count; ++index) {
+      final int source = references[index * 2];
+      writeVarInt(output, source);
+      if ((source & 1) != 0) {
+        writeVarInt(output, references[index * 2 + 1]);
+      }
+    }
+    output.flush();
+
+    final byte[] data = bytes.toByteArray();
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+
+    final ByteArrayOutputStream compressed =
+      new ByteArrayOutputStream(data.length / 4);
+    final byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      final int size = deflater.deflate(buffer);
+      compressed.write(buffer, 0, size);
+    }
+    return new Encoded(compressed.toByteArray(), data.length);
+  }
+
+  private static int intern(
+    final Map<String, Integer> strings,
+    final List<String> string_list,
+    final String text)
+  {
+    final Integer existing = strings.get(text);
+    if (existing != null) {
+      return existing.intValue();
+    }
+    final int index = string_list.size();
+    strings.put(text, Integer.valueOf(index));
+    string_list.add(text);
+    return index;
+  }
+
+  private static void encodeColumn(
+    final byte[] column,
+    final int count,
+    final DataOutputStream output)
+    throws IOException
+  {
+    final boolean[] values = new boolean[256];
+    final boolean[] deltas = new boolean[256];
+    int distinct_values = 0;
+    int distinct_deltas = 0;
+    int previous = 0;
+    for (int row = 0; row < count; ++row) {
+      final int value = column[row] & 0xff;
+      final int delta = (value - previous) & 0xff;
+      if (!values[value]) {
+        values[value] = true;
+        ++distinct_values;
+      }
+      if (!deltas[delta]) {
+        deltas[delta] = true;
+        ++distinct_deltas;
+      }
+      previous = value;
+    }
+
+    if (distinct_values <= 1) {
+      output.writeByte(CODING_CONSTANT);
+      output.writeByte(count > 0 ? column[0] : 0);
+      return;
+    }
+
+    if (distinct_values <= DICTIONARY_MAXIMUM) {
+      output.writeByte(CODING_DICTIONARY);
+      output.writeByte(distinct_values);
+
+      final int[] codes = new int[256];
+      int code = 0;
+      for (int value = 0; value < 256; ++value) {
+        if (values[value]) {
+          output.writeByte(value);
+          codes[value] = code;
+          ++code;
+        }
+      }
+
+      final int bits = dictionaryBits(distinct_values);
+      int accumulator = 0;
+      int accumulated = 0;
+      for (int row = 0; row < count; ++row) {
+        accumulator |= codes[column[row] & 0xff] << accumulated;
+        accumulated += bits;
+        if (accumulated == 8) {
+          output.writeByte(accumulator);
+          accumulator = 0;
+          accumulated = 0;
+        }
+      }
+      if (accumulated > 0) {
+        output.writeByte(accumulator);
+      }
+      return;
+    }
+
+    if (distinct_deltas < distinct_values) {
+      output.writeByte(CODING_DELTA);
+      previous = 0;
+      for (int row = 0; row < count; ++row) {
+        final int value = column[row] & 0xff;
+        output.writeByte(value - previous);
+        previous = value;
+      }
+      return;
+    }
+
+    output.writeByte(CODING_RAW);
+    output.write(column, 0, count);
+  }
+
+  private static int dictionaryBits(
+    final int size)
+  {
+    if (size <= 2) {
+      return 1;
+    }
+    if (size <= 4) {
+      return 2;
+    }
+    return 4;
+  }
+
+  /**
+   * @param count The number of voices in a block
+   *
+   * @return The largest uncompressed size of a block of {@code count} voices
+   */
+
+  static long maximumBlockSize(
+    final int count)
+  {
+    final long voices = count;
+    final long columns = COLUMNS * (voices + 2L + DICTIONARY_MAXIMUM);
+    final long strings = 4L + voices * 2L * (5L + STRING_MAXIMUM);
+    final long references = voices * 10L;
+    return columns + strings + references;
+  }
+
+  /**
+   * @param count The number of voices in a block
+   *
+   * @return The largest compressed size of a block of {@code count} voices
+   */
+
+  static long maximumCompressedSize(
+    final int count)
+  {
+    final long size = maximumBlockSize(count);
+    return size + (size >>> 12) + (size >>> 14) + (size >>> 25) + 13L;
+  }
+
+  /**
+   * Check the sizes given in a block header.
+   *
+   * @param uri             The URI of the archive for diagnostic purposes
+   * @param block_voices    The maximum number of voices in a block
+   * @param count           The number of voices in the block
+   * @param size            The uncompressed size of the block
+   * @param compressed_size The compressed size of the block
+   *
+   * @throws IOException If any of the sizes are out of range
+   */
+
+  static void checkBlock(
+    final URI uri,
+    final int block_voices,
+    final int count,
+    final int size,
+    final int compressed_size)
+    throws IOException
+  {
+    if (count < 0
+      || count > block_voices
+      || size < 0
+      || (long) size > maximumBlockSize(count)
+      || compressed_size < 0
+      || (long) compressed_size > maximumCompressedSize(count)) {
+      throw new IOException("Malformed block in voice archive: " + uri);
+    }
+  }
+
+  /**
+   * Decode a block of voices.
+   *
+   * @param errors     An error receiver
+   * @param uri        The URI of the archive for diagnostic purposes
+   * @param compressed The compressed block data
+   * @param count      The number of voices in the block
+   * @param size       The uncompressed size of the block
+   * @param inflater   An inflater
+   *
+   * @return The voices that could be decoded
+   *
+   * @throws IOException If the block is malformed
+   */
+
+  static List<Dx7VoiceNamed> decodeBlock(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final byte[] compressed,
+    final int count,
+    final int size,
+    final Inflater inflater)
+    throws IOException
+  {
+    if (count < 0
+      || count > BLOCK_VOICES
+      || size < 0
+      || (long) size > maximumBlockSize(count)) {
+      throw new IOException("Malformed block in archive: " + uri);
+    }
+
+    final byte[] data = new byte[size];
+    inflater.reset();
+    inflater.setInput(compressed);
+    try {
+      int offset = 0;
+      while (offset < size) {
+        final int inflated = inflater.inflate(data, offset, size - offset);
+        if (inflated == 0 && !canInflate(inflater)) {
+          throw new IOException("Truncated block in archive: " + uri);
+        }
+        offset += inflated;
+      }
+    } catch (final DataFormatException e) {
+      throw new IOException("Corrupt block in archive: " + uri, e);
+    }
+
+    final DataInputStream input =
+      new DataInputStream(new ByteArrayInputStream(data));
+
+    final byte[] rows = new byte[count * COLUMNS];
+    final byte[] column = new byte[count];
+    for (int c = 0; c < COLUMNS; ++c) {
+      decodeColumn(input, column, count, uri);
+      for (int row = 0; row < count; ++row) {
+        rows[row * COLUMNS + c] = column[row];
+      }
+    }
+
+    final int string_count = input.readInt();
+    if (string_count < 0 || string_count > count * 2) {
+      throw new IOException("Malformed string table in archive: " + uri);
+    }
+    final URI[] strings = new URI[string_count];
+    for (int index = 0; index < string_count; ++index) {
+      final int length = readVarInt(input);
+      if (length > STRING_MAXIMUM) {
+        throw new IOException("Malformed string table in archive: " + uri);
+      }
+      final byte[] text = new byte[length];
+      input.readFully(text);
+      try {
+        // False positive: Instantiating a string from a byte array is fine
+        // CHECKSTYLE:OFF
+        strings[index] = new URI(new String(text, StandardCharsets.UTF_8));
+        // CHECKSTYLE:ON
+      } catch (final URISyntaxException e) {
+        throw new IOException("Malformed URI in archive: " + uri, e);
+      }
+    }
+
+    final List<Dx7VoiceNamed> voices = new ArrayList<>(count);
+    final byte[] packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    for (int row = 0; row < count; ++row) {
+      final int reference = readVarInt(input);
+      final int source = reference >>> 1;
+      if (source > string_count) {
+        throw new IOException("Malformed string reference in archive: " + uri);
+      }
+      final Optional<URI> id;
+      if ((reference & 1) != 0) {
+        final int id_index = readVarInt(input);
+        if (source == 0 || id_index >= string_count) {
+          throw new IOException("Malformed string reference in archive: " + uri);
+        }
+        id = Optional.of(strings[id_index]);
+      } else {
+        id = Optional.empty();
+      }
+
+      final Optional<URI> source_opt;
+      if (source != 0) {
+        source_opt = Optional.of(strings[source - 1]);
+      } else {
+        source_opt = Optional.empty();
+      }
+
+      final Optional<Dx7VoiceNamed> voice_opt =
+        fromRow(errors, uri, rows, row, packed, source_opt, id);
+      voice_opt.ifPresent(voices::add);
+    }
+    return voices;
+  }
+
+  private static boolean canInflate(
+    final Inflater inflater)
+  {
+    return !inflater.finished()
+      && !inflater.needsInput()
+      && !inflater.needsDictionary();
+  }
+
+  private static Optional<Dx7VoiceNamed> fromRow(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final byte[] rows,
+    final int row,
+    final byte[] packed,
+    final Optional<URI> source,
+    final Optional<URI> id)
+  {
+    final int base = row * COLUMNS;
+    final int name_length =
+      Math.min(rows[base + COLUMN_NAME_LENGTH] & 0xff, NAME_SIZE);
+
+    System.arraycopy(rows, base, packed, 0, PACKED_COLUMNS);
+    for (int index = 0; index < NAME_SIZE; ++index) {
+      packed[PACKED_COLUMNS + index] =
+        index < name_length ? rows[base + COLUMN_NAME + index] : (byte) ' ';
+    }
+
+    final Optional<Dx7VoiceNamed> voice_opt =
+      Dx7SysExIO.unpackVoice(errors, uri, packed);
+    if (!voice_opt.isPresent()) {
+      return Optional.empty();
+    }
+
+    // False positive: Instantiating a string from a byte array is fine
+    // CHECKSTYLE:OFF
+    final String name =
+      new String(rows, base + COLUMN_NAME, name_length, StandardCharsets.US_ASCII);
+    // CHECKSTYLE:ON
+
+    final Optional<Dx7VoiceMetadata> metadata;
+    if (source.isPresent() && id.isPresent()) {
+      metadata = Optional.of(Dx7VoiceMetadata.of(source.get(), id.get()));
+    } else if (source.isPresent()) {
+      metadata =
+        Optional.of(Dx7VoiceSourceTable.derivedMetadata(source.get(), name));
+    } else {
+      metadata = Optional.empty();
+    }
+
+    return Optional.of(Dx7VoiceNamed.of(
+      name,
+      Dx7SysExIO.withOperatorsEnabled(
+        voice_opt.get().voice(),
+        rows[base + COLUMN_OPERATORS] & 0xff),
+      metadata));
+  }
+
+  private static void decodeColumn(
+    final DataInputStream input,
+    final byte[] column,
+    final int count,
+    final URI uri)
+    throws IOException
+  {
+    final int coding = input.readUnsignedByte();
+    switch (coding) {
+      case CODING_CONSTANT: {
+        final byte value = input.readByte();
+        for (int row = 0; row < count; ++row) {
+          column[row] = value;
+        }
+        return;
+      }
+      case CODING_DICTIONARY: {
+        final int size = input.readUnsignedByte();
+        if (size < 2 || size > DICTIONARY_MAXIMUM) {
+          throw new IOException("Malformed dictionary in archive: " + uri);
+        }
+        final byte[] dictionary = new byte[16];
+        input.readFully(dictionary, 0, size);
+
+        final int bits = dictionaryBits(size);
+        final int mask = (1 << bits) - 1;
+        int accumulator = 0;
+        int available = 0;
+        for (int row = 0; row < count; ++row) {
+          if (available == 0) {
+            accumulator = input.readUnsignedByte();
+            available = 8;
+          }
+          column[row] = dictionary[accumulator & mask];
+          accumulator >>>= bits;
+          available -= bits;
+        }
+        return;
+      }
+      case CODING_DELTA: {
+        input.readFully(column, 0, count);
+        int previous = 0;
+        for (int row = 0; row < count; ++row) {
+          previous = (previous + column[row]) & 0xff;
+          column[row] = (byte) previous;
+        }
+        return;
+      }
+      case CODING_RAW: {
+        input.readFully(column, 0, count);
+        return;
+      }
+      default: {
+        throw new IOException(
+          "Unrecognized column coding " + coding + " in archive: " + uri);
+      }
+    }
+  }
+
+  private static void writeVarInt(
+    final DataOutputStream output,
+    final int value)
+    throws IOException
+  {
+    int remaining = value;
+    while ((remaining & ~0x7f) != 0) {
+      output.writeByte((remaining & 0x7f) | 0x80);
+      remaining >>>= 7;
+    }
+    output.writeByte(remaining);
+  }
+
+  private static int readVarInt(
+    final DataInputStream input)
+    throws IOException
+  {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int octet = input.readUnsignedByte();
+      value |= (octet & 0x7f) << shift;
+      if ((octet & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IOException("Malformed integer in archive");
+  }
+
+  /**
+   * A compressed block.
+   */
+
+  static final class Encoded
+  {
+    private final byte[] data;
+    private final int size;
+
+    Encoded(
+      final byte[] in_data,
+      final int in_size)
+    {
+      this.data = Objects.requireNonNull(in_data, "Data");
+      this.size = in_size;
+    }
+
+    /**
+     * @return The compressed data
+     */
+
+    byte[] data()
+    {
+      return this.data;
+    }
+
+    /**
+     * @return The uncompressed size
+     */
+
+    int size()
+    {
+      return this.size;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.Vector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+
+/**
+ * Functions that provide readers and writers for {@code .dx7lib} archives:
+ * compressed, column-wise voice libraries with a block index that allows
+ * ranges of voices to be read without decompressing the whole archive.
+ */
+
+public final class Dx7ArchiveIO
+{
+  private Dx7ArchiveIO()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param prefix The first octets of a file
+   * @param size   The number of octets of {@code prefix} that are valid
+   *
+   * @return {@code true} if the prefix is that of an archive
+   */
+
+  public static boolean isArchive(
+    final byte[] prefix,
+    final int size)
+  {
+    Objects.requireNonNull(prefix, "Prefix");
+    return size >= 4
+      && ByteBuffer.wrap(prefix, 0, 4).getInt() == Dx7ArchiveFormat.MAGIC;
+  }
+
+  /**
+   * Open an archive for random access. The header and block index are read
+   * immediately; blocks are read on demand. The reader repositions the
+   * channel, and must not be used by more than one thread at a time.
+   *
+   * @param errors  An error receiver
+   * @param uri     The URI of the channel for diagnostic purposes
+   * @param channel An input channel
+   *
+   * @return A reader
+   *
+   * @throws IOException On I/O errors, or if the channel does not contain
+   *                     an archive
+   */
+
+  public static Dx7ArchiveReaderType createReader(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final SeekableByteChannel channel)
+    throws IOException
+  {
+    Objects.requireNonNull(errors, "Errors");
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(channel, "Channel");
+    return Dx7ArchiveReader.open(errors, uri, channel);
+  }
+
+  /**
+   * Read every voice of an archive from a stream, in order.
+   *
+   * @param errors An error receiver
+   * @param uri    The URI of the stream for diagnostic purposes
+   * @param stream An input stream
+   *
+   * @return The voices
+   *
+   * @throws IOException On I/O errors, or if the stream does not contain
+   *                     an archive
+   */
+
+  public static Vector<Dx7VoiceNamed> readAll(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final InputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(errors, "Errors");
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(stream, "Stream");
+    return Dx7ArchiveReader.readStream(errors, uri, stream);
+  }
+
+  /**
+   * Create a writer for the given stream. The stream does not need to
+   * support repositioning.
+   *
+   * @param uri    The URI of the stream for diagnostic purposes
+   * @param stream An output stream
+   *
+   * @return A writer
+   */
+
+  public static Dx7ArchiveWriterType createWriter(
+    final URI uri,
+    final OutputStream stream)
+  {
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(stream, "Stream");
+    return new Dx7ArchiveWriter(uri, stream);
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Inflater;
+
+/**
+ * A {@code .dx7lib} archive reader.
+ */
+
+final class Dx7ArchiveReader implements Dx7ArchiveReaderType
+{
+  private final Dx7ParseErrorListenerType errors;
+  private final URI uri;
+  private final SeekableByteChannel channel;
+  private final long[] block_offsets;
+  private final int[] block_starts;
+  private final int block_voices;
+  private final int size;
+
+  private Dx7ArchiveReader(
+    final Dx7ParseErrorListenerType in_errors,
+    final URI in_uri,
+    final SeekableByteChannel in_channel,
+    final long[] in_block_offsets,
+    final int[] in_block_starts,
+    final int in_block_voices)
+  {
+    this.errors = Objects.requireNonNull(in_errors, "Errors");
+    this.uri = Objects.requireNonNull(in_uri, "URI");
+    this.channel = Objects.requireNonNull(in_channel, "Channel");
+    this.block_offsets = Objects.requireNonNull(in_block_offsets, "Offsets");
+    this.block_starts = Objects.requireNonNull(in_block_starts, "Starts");
+    this.block_voices = in_block_voices;
+    this.size = this.block_starts[this.block_starts.length - 1];
+  }
+
+  /**
+   * Open an archive, reading its header and block index.
+   *
+   * @param errors  An error receiver
+   * @param uri     The URI of the archive for diagnostic purposes
+   * @param channel The archive channel
+   *
+   * @return A reader
+   *
+   * @throws IOException On I/O errors, or if the archive is malformed
+   */
+
+  static Dx7ArchiveReader open(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final SeekableByteChannel channel)
+    throws IOException
+  {
+    final long file_size = channel.size();
+    if (file_size < Dx7ArchiveFormat.HEADER_SIZE + Dx7ArchiveFormat.TRAILER_SIZE) {
+      throw new IOException("Not a voice archive: " + uri);
+    }
+
+    final int block_voices =
+      checkHeader(uri, read(channel, 0L, Dx7ArchiveFormat.HEADER_SIZE));
+
+    final ByteBuffer trailer =
+      read(
+        channel,
+        file_size - Dx7ArchiveFormat.TRAILER_SIZE,
+        Dx7ArchiveFormat.TRAILER_SIZE);
+    final long index_position = trailer.getLong(0);
+    if (trailer.getInt(8) != Dx7ArchiveFormat.TRAILER_TAG
+      || index_position < Dx7ArchiveFormat.HEADER_SIZE
+      || index_position > file_size - Dx7ArchiveFormat.TRAILER_SIZE - 16L) {
+      throw new IOException("Truncated or malformed voice archive: " + uri);
+    }
+
+    final ByteBuffer index_header = read(channel, index_position, 16);
+    final int block_count = index_header.getInt(4);
+    final long voice_count = index_header.getLong(8);
+    final long index_size = (long) block_count * 12L;
+    if (index_header.getInt(0) != Dx7ArchiveFormat.INDEX_TAG
+      || block_count < 0
+      || voice_count < 0L
+      || voice_count > Integer.MAX_VALUE
+      || index_position + 16L + index_size
+      != file_size - Dx7ArchiveFormat.TRAILER_SIZE) {
+      throw new IOException("Malformed block index in voice archive: " + uri);
+    }
+
+    final ByteBuffer entries =
+      read(channel, index_position + 16L, (int) index_size);
+    final long[] offsets = new long[block_count];
+    final int[] starts = new int[block_count + 1];
+    long start = 0L;
+    for (int block = 0; block < block_count; ++block) {
+      offsets[block] = entries.getLong(block * 12);
+      final int voices = entries.getInt(block * 12 + 8);
+      if (offsets[block] < Dx7ArchiveFormat.HEADER_SIZE
+        || offsets[block] >= index_position
+        || voices < 0
+        || voices > block_voices) {
+        throw new IOException("Malformed block index in voice archive: " + uri);
+      }
+      starts[block] = (int) start;
+      start += voices;
+    }
+    if (start != voice_count) {
+      throw new IOException("Malformed block index in voice archive: " + uri);
+    }
+    starts[block_count] = (int) start;
+    return new Dx7ArchiveReader(
+      errors, uri, channel, offsets, starts, block_voices);
+  }
+
+  /**
+   * Read all voices from an archive sequentially, without using the block
+   * index.
+   *
+   * @param errors An error receiver
+   * @param uri    The URI of the archive for diagnostic purposes
+   * @param stream The archive stream
+   *
+   * @return The voices
+   *
+   * @throws IOException On I/O errors, or if the archive is malformed
+   */
+
+  static Vector<Dx7VoiceNamed> readStream(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final InputStream stream)
+    throws IOException
+  {
+    final DataInputStream input = new DataInputStream(stream);
+    final byte[] header = new byte[Dx7ArchiveFormat.HEADER_SIZE];
+    try {
+      input.readFully(header);
+    } catch (final EOFException e) {
+      throw new IOException("Not a voice archive: " + uri, e);
+    }
+    final int block_voices = checkHeader(uri, ByteBuffer.wrap(header));
+
+    final Inflater inflater = new Inflater();
+    try {
+      final List<Dx7VoiceNamed> voices = new ArrayList<>();
+      while (true) {
+        final int tag = input.readInt();
+        if (tag == Dx7ArchiveFormat.INDEX_TAG) {
+          return Vector.ofAll(voices);
+        }
+        if (tag != Dx7ArchiveFormat.BLOCK_TAG) {
+          throw new IOException("Malformed block in voice archive: " + uri);
+        }
+
+        final int count = input.readInt();
+        final int size = input.readInt();
+        final int compressed_size = input.readInt();
+        Dx7ArchiveFormat.checkBlock(
+          uri, block_voices, count, size, compressed_size);
+        final byte[] compressed = new byte[compressed_size];
+        input.readFully(compressed);
+        voices.addAll(
+          Dx7ArchiveFormat.decodeBlock(
+            errors, uri, compressed, count, size, inflater));
+      }
+    } catch (final EOFException e) {
+      throw new IOException("Truncated voice archive: " + uri, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Check the header of an archive.
+   *
+   * @return The maximum number of voices in a block
+   */
+
+  private static int checkHeader(
+    final URI uri,
+    final ByteBuffer header)
+    throws IOException
+  {
+    if (header.getInt(0) != Dx7ArchiveFormat.MAGIC) {
+      throw new IOException("Not a voice archive: " + uri);
+    }
+    final int version = header.getInt(4);
+    if (version != Dx7ArchiveFormat.VERSION) {
+      throw new IOException(
+        "Unsupported voice archive version " + version + ": " + uri);
+    }
+    final int block_voices = header.getInt(8);
+    if (block_voices <= 0 || block_voices > Dx7ArchiveFormat.BLOCK_VOICES) {
+      throw new IOException("Malformed voice archive header: " + uri);
+    }
+    return block_voices;
+  }
+
+  private static ByteBuffer read(
+    final SeekableByteChannel channel,
+    final long position,
+    final int size)
+    throws IOException
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    channel.position(position);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public int size()
+  {
+    return this.size;
+  }
+
+  @Override
+  public int blockCount()
+  {
+    return this.block_offsets.length;
+  }
+
+  @Override
+  public Vector<Dx7VoiceNamed> read(
+    final int from,
+    final int count)
+    throws IOException
+  {
+    Objects.checkFromToIndex(from, from, this.size);
+    if (count < 0) {
+      throw new IllegalArgumentException("Count must be non-negative");
+    }
+
+    final int until = (int) Math.min((long) from + (long) count, this.size);
+    final List<Dx7VoiceNamed> results = new ArrayList<>(until - from);
+    final Inflater inflater = new Inflater();
+    try {
+      int block = this.blockOf(from);
+      while (block < this.block_offsets.length
+        && this.block_starts[block] < until) {
+        final int start = this.block_starts[block];
+        final List<Dx7VoiceNamed> voices = this.readBlock(block, inflater);
+
+        /*
+         * Voices that failed validation are omitted, so the block may be
+         * shorter than the index says.
+         */
+
+        final int low = Math.max(0, from - start);
+        final int high = Math.min(voices.size(), until - start);
+        if (low < high) {
+          results.addAll(voices.subList(low, high));
+        }
+        ++block;
+      }
+    } catch (final EOFException e) {
+      throw new IOException("Truncated voice archive: " + this.uri, e);
+    } finally {
+      inflater.end();
+    }
+    return Vector.ofAll(results);
+  }
+
+  private int blockOf(
+    final int voice)
+  {
+    int low = 0;
+    int high = this.block_offsets.length - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (this.block_starts[middle] <= voice) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private List<Dx7VoiceNamed> readBlock(
+    final int block,
+    final Inflater inflater)
+    throws IOException
+  {
+    final long offset = this.block_offsets[block];
+    final ByteBuffer header =
+      read(this.channel, offset, Dx7ArchiveFormat.BLOCK_HEADER_SIZE);
+    final int count = header.getInt(4);
+    final int size = header.getInt(8);
+    final int compressed_size = header.getInt(12);
+    if (header.getInt(0) != Dx7ArchiveFormat.BLOCK_TAG
+      || count != this.block_starts[block + 1] - this.block_starts[block]) {
+      throw new IOException("Malformed block in voice archive: " + this.uri);
+    }
+    Dx7ArchiveFormat.checkBlock(
+      this.uri, this.block_voices, count, size, compressed_size);
+
+    final ByteBuffer compressed =
+      read(
+        this.channel,
+        offset + Dx7ArchiveFormat.BLOCK_HEADER_SIZE,
+        compressed_size);
+    return Dx7ArchiveFormat.decodeBlock(
+      this.errors, this.uri, compressed.array(), count, size, inflater);
+  }
+}
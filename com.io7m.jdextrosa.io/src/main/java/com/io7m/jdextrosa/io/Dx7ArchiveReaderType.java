@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+
+import java.io.IOException;
+
+/**
+ * A random-access reader for {@code .dx7lib} archives. Only the blocks
+ * that contain the requested voices are decompressed.
+ */
+
+public interface Dx7ArchiveReaderType
+{
+  /**
+   * @return The number of voices in the archive
+   */
+
+  int size();
+
+  /**
+   * @return The number of blocks in the archive
+   */
+
+  int blockCount();
+
+  /**
+   * Read a range of voices. Voices that fail validation are reported to
+   * the reader's error receiver and omitted from the result.
+   *
+   * @param from  The number of the first voice
+   * @param count The maximum number of voices
+   *
+   * @return The voices in {@code [from, min(from + count, size()))}
+   *
+   * @throws IOException On I/O errors, or if the archive is malformed
+   */
+
+  Vector<Dx7VoiceNamed> read(
+    int from,
+    int count)
+    throws IOException;
+
+  /**
+   * @return All voices in the archive
+   *
+   * @throws IOException On I/O errors, or if the archive is malformed
+   */
+
+  default Vector<Dx7VoiceNamed> readAll()
+    throws IOException
+  {
+    return this.read(0, this.size());
+  }
+}
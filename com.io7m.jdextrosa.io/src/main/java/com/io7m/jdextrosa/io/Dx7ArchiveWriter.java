@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * A {@code .dx7lib} archive writer.
+ */
+
+final class Dx7ArchiveWriter implements Dx7ArchiveWriterType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7ArchiveWriter.class);
+
+  private final URI uri;
+  private final OutputStream stream;
+  private final DataOutputStream output;
+  private final Deflater deflater;
+  private final byte[] rows;
+  private final byte[] packed;
+  private final List<Dx7VoiceNamed> block;
+  private final List<long[]> index;
+  private long position;
+  private long count;
+  private boolean started;
+  private boolean finished;
+
+  Dx7ArchiveWriter(
+    final URI in_uri,
+    final OutputStream in_stream)
+  {
+    this.uri = Objects.requireNonNull(in_uri, "URI");
+    this.stream = Objects.requireNonNull(in_stream, "Stream");
+    this.output = new DataOutputStream(new BufferedOutputStream(this.stream));
+    this.deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    this.rows =
+      new byte[Dx7ArchiveFormat.BLOCK_VOICES * Dx7ArchiveFormat.COLUMNS];
+    this.packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    this.block = new ArrayList<>(Dx7ArchiveFormat.BLOCK_VOICES);
+    this.index = new ArrayList<>();
+  }
+
+  private void start()
+    throws IOException
+  {
+    if (!this.started) {
+      this.output.writeInt(Dx7ArchiveFormat.MAGIC);
+      this.output.writeInt(Dx7ArchiveFormat.VERSION);
+      this.output.writeInt(Dx7ArchiveFormat.BLOCK_VOICES);
+      this.position = Dx7ArchiveFormat.HEADER_SIZE;
+      this.started = true;
+    }
+  }
+
+  @Override
+  public void write(
+    final Vector<Dx7VoiceNamed> voices)
+    throws IOException
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    if (this.finished) {
+      throw new IllegalStateException("Archive is already finished");
+    }
+
+    this.start();
+    for (final Dx7VoiceNamed voice : voices) {
+      Dx7ArchiveFormat.toRow(voice, this.packed, this.rows, this.block.size());
+      this.block.add(voice);
+      if (this.block.size() == Dx7ArchiveFormat.BLOCK_VOICES) {
+        this.flushBlock();
+      }
+    }
+  }
+
+  private void flushBlock()
+    throws IOException
+  {
+    if (this.block.isEmpty()) {
+      return;
+    }
+
+    final Dx7ArchiveFormat.Encoded encoded =
+      Dx7ArchiveFormat.encodeBlock(this.block, this.rows, this.deflater);
+    final int voices = this.block.size();
+    final byte[] data = encoded.data();
+
+    this.index.add(new long[]{this.position, voices});
+    this.output.writeInt(Dx7ArchiveFormat.BLOCK_TAG);
+    this.output.writeInt(voices);
+    this.output.writeInt(encoded.size());
+    this.output.writeInt(data.length);
+    this.output.write(data);
+
+    this.position += Dx7ArchiveFormat.BLOCK_HEADER_SIZE + data.length;
+    this.count += voices;
+    this.block.clear();
+  }
+
+  @Override
+  public void finish()
+    throws IOException
+  {
+    if (this.finished) {
+      return;
+    }
+
+    this.start();
+    this.flushBlock();
+
+    LOG.debug(
+      "writing {} voices in {} blocks to {}",
+      Long.valueOf(this.count),
+      Integer.valueOf(this.index.size()),
+      this.uri);
+
+    final long index_position = this.position;
+    this.output.writeInt(Dx7ArchiveFormat.INDEX_TAG);
+    this.output.writeInt(this.index.size());
+    this.output.writeLong(this.count);
+    for (final long[] entry : this.index) {
+      this.output.writeLong(entry[0]);
+      this.output.writeInt((int) entry[1]);
+    }
+    this.output.writeLong(index_position);
+    this.output.writeInt(Dx7ArchiveFormat.TRAILER_TAG);
+    this.output.flush();
+    this.finished = true;
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      this.deflater.end();
+    } finally {
+      this.output.close();
+    }
+  }
+}
@@ -182,6 +182,33 @@ final class Dx7Reader implements Dx7SysExReaderType
     return Vector.empty();
   }
 
+  /**
+   * Unpack a single voice from the 128 octet form used in 32-voice SysEx
+   * messages.
+   *
+   * @param in_errors An error receiver
+   * @param in_uri    The URI of the voice data for diagnostic purposes
+   * @param in_stream A stream positioned at the start of the voice data
+   *
+   * @return A voice, if no errors were encountered
+   *
+   * @throws IOException On I/O errors or premature EOF
+   */
+
+  static Optional<Dx7VoiceNamed> parseVoice(
+    final Dx7ParseErrorListenerType in_errors,
+    final URI in_uri,
+    final Dx7InputStream in_stream)
+    throws IOException
+  {
+    return new Voice128ByteParser(
+      in_uri,
+      in_stream,
+      new Dx7TrackingErrorListener(in_errors),
+      0)
+      .parse();
+  }
+
   private static final class Voice128ByteOperatorParser
   {
     private final Dx7TrackingErrorListener errors;
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+
+/**
+ * A SysEx writer that writes voices as they arrive and fills in the size
+ * of the message once the message is complete.
+ */
+
+final class Dx7StreamWriter implements Dx7SysExStreamWriterType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7StreamWriter.class);
+
+  private final URI uri;
+  private final SeekableByteChannel channel;
+  private final ByteBuffer output;
+  private final byte[] buffer;
+  private final long position_start;
+  private int checksum;
+  private int count;
+  private boolean finished;
+
+  Dx7StreamWriter(
+    final URI in_uri,
+    final SeekableByteChannel in_channel)
+    throws IOException
+  {
+    this.uri = Objects.requireNonNull(in_uri, "URI");
+    this.channel = Objects.requireNonNull(in_channel, "Channel");
+    this.output = ByteBuffer.allocate(32 * Dx7SysExIO.PACKED_VOICE_SIZE);
+    this.buffer = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    this.position_start = this.channel.position();
+
+    this.output.put((byte) 0xf0);
+    this.output.put((byte) 0x43);
+    this.output.put((byte) 0x00);
+    this.output.put((byte) 0x09);
+    this.output.put((byte) 0x00);
+    this.output.put((byte) 0x00);
+  }
+
+  private void flushOutput()
+    throws IOException
+  {
+    this.output.flip();
+    while (this.output.hasRemaining()) {
+      this.channel.write(this.output);
+    }
+    this.output.clear();
+  }
+
+  @Override
+  public void write(
+    final Vector<Dx7VoiceNamed> voices)
+    throws IOException
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    if (this.finished) {
+      throw new IllegalStateException("Message is already finished");
+    }
+
+    for (final Dx7VoiceNamed voice : voices) {
+      LOG.debug("write: voice {}", voice.name());
+      Dx7Writer.packVoice(voice, this.buffer);
+      this.checksum = Dx7Checksum.checksumAdd(this.checksum, this.buffer);
+      if (this.output.remaining() < this.buffer.length) {
+        this.flushOutput();
+      }
+      this.output.put(this.buffer);
+      ++this.count;
+    }
+  }
+
+  @Override
+  public void finish()
+    throws IOException
+  {
+    if (this.finished) {
+      return;
+    }
+
+    LOG.debug(
+      "writing {} voices to {}", Integer.valueOf(this.count), this.uri);
+
+    if (this.output.remaining() < 2) {
+      this.flushOutput();
+    }
+
+    this.output.put((byte) Dx7Checksum.checksumFinish(this.checksum));
+    this.output.put((byte) 0xf7);
+    this.flushOutput();
+
+    final long position_end = this.channel.position();
+    final int size = this.count * Dx7SysExIO.PACKED_VOICE_SIZE;
+    this.output.put((byte) ((size >> 7) & 0b0111_1111));
+    this.output.put((byte) (size & 0b0111_1111));
+    this.channel.position(this.position_start + 4L);
+    this.flushOutput();
+    this.channel.position(position_end);
+    this.finished = true;
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.channel.close();
+  }
+}
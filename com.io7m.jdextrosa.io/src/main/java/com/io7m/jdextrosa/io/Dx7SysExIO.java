@@ -16,12 +16,19 @@
 
 package com.io7m.jdextrosa.io;
 
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
 import com.io7m.junreachable.UnreachableCodeException;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Functions that provider readers and writers for binary SysEx messages.
@@ -29,6 +36,12 @@ import java.util.Objects;
 
 public final class Dx7SysExIO
 {
+  /**
+   * The size in octets of a single packed voice.
+   */
+
+  public static final int PACKED_VOICE_SIZE = 128;
+
   private Dx7SysExIO()
   {
     throw new UnreachableCodeException();
@@ -72,4 +85,152 @@ public final class Dx7SysExIO
     Objects.requireNonNull(stream, "Stream");
     return new Dx7Writer(uri, stream);
   }
+
+  /**
+   * Create a writer that writes a single message incrementally to the given
+   * channel. The channel must support repositioning, as the size of the
+   * message is written when the message is finished.
+   *
+   * @param uri     The URI of the channel for diagnostic purposes
+   * @param channel An output channel
+   *
+   * @return A writer
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static Dx7SysExStreamWriterType createStreamWriter(
+    final URI uri,
+    final SeekableByteChannel channel)
+    throws IOException
+  {
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(channel, "Channel");
+    return new Dx7StreamWriter(uri, channel);
+  }
+
+  /**
+   * The packed voice format does not record whether operators are enabled.
+   * This function returns a mask of the enabled operators of a voice, where
+   * bit 0 corresponds to operator 1.
+   *
+   * @param voice The voice
+   *
+   * @return A mask of enabled operators
+   */
+
+  public static int operatorsEnabled(
+    final Dx7Voice voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    int mask = 0;
+    mask |= voice.operator1().isEnabled() ? 0b000001 : 0;
+    mask |= voice.operator2().isEnabled() ? 0b000010 : 0;
+    mask |= voice.operator3().isEnabled() ? 0b000100 : 0;
+    mask |= voice.operator4().isEnabled() ? 0b001000 : 0;
+    mask |= voice.operator5().isEnabled() ? 0b010000 : 0;
+    mask |= voice.operator6().isEnabled() ? 0b100000 : 0;
+    return mask;
+  }
+
+  /**
+   * Enable or disable operators according to the given mask.
+   *
+   * @param voice The voice
+   * @param mask  A mask of enabled operators
+   *
+   * @return A voice with the given operators enabled
+   *
+   * @see #operatorsEnabled(Dx7Voice)
+   */
+
+  public static Dx7Voice withOperatorsEnabled(
+    final Dx7Voice voice,
+    final int mask)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    return Dx7Voice.builder()
+      .from(voice)
+      .setOperator1(withEnabled(voice.operator1(), mask, 0b000001))
+      .setOperator2(withEnabled(voice.operator2(), mask, 0b000010))
+      .setOperator3(withEnabled(voice.operator3(), mask, 0b000100))
+      .setOperator4(withEnabled(voice.operator4(), mask, 0b001000))
+      .setOperator5(withEnabled(voice.operator5(), mask, 0b010000))
+      .setOperator6(withEnabled(voice.operator6(), mask, 0b100000))
+      .build();
+  }
+
+  private static Dx7Operator withEnabled(
+    final Dx7Operator operator,
+    final int mask,
+    final int bit)
+  {
+    return operator.withEnabled((mask & bit) == bit);
+  }
+
+  /**
+   * Pack the given voice into the 128 octet form used in 32-voice SysEx
+   * messages.
+   *
+   * @param voice  The voice
+   * @param buffer The output buffer
+   *
+   * @return {@code buffer}
+   */
+
+  public static byte[] packVoice(
+    final Dx7VoiceNamed voice,
+    final byte[] buffer)
+  {
+    Objects.requireNonNull(voice, "Voice");
+    Objects.requireNonNull(buffer, "Buffer");
+
+    if (buffer.length < PACKED_VOICE_SIZE) {
+      throw new IllegalArgumentException(
+        "Buffer must be at least " + PACKED_VOICE_SIZE + " octets");
+    }
+
+    Dx7Writer.packVoice(voice, buffer);
+    return buffer;
+  }
+
+  /**
+   * Unpack a single voice from the 128 octet form used in 32-voice SysEx
+   * messages. The same range checks are applied as when reading SysEx
+   * messages, and errors are delivered to {@code errors} with offsets
+   * relative to the start of the voice data.
+   *
+   * @param errors An error receiver
+   * @param uri    The URI of the voice data for diagnostic purposes
+   * @param buffer The packed voice data
+   *
+   * @return A voice, if no errors were encountered
+   */
+
+  public static Optional<Dx7VoiceNamed> unpackVoice(
+    final Dx7ParseErrorListenerType errors,
+    final URI uri,
+    final byte[] buffer)
+  {
+    Objects.requireNonNull(errors, "Errors");
+    Objects.requireNonNull(uri, "URI");
+    Objects.requireNonNull(buffer, "Buffer");
+
+    final Dx7InputStream stream =
+      new Dx7InputStream(new ByteArrayInputStream(buffer));
+
+    try {
+      return Dx7Reader.parseVoice(errors, uri, stream);
+    } catch (final IOException e) {
+      errors.receiveError(Dx7ParseError.of(
+        uri,
+        stream.getByteCount(),
+        Dx7ParseErrorType.Severity.ERROR,
+        e.getMessage(),
+        Optional.of(e)));
+      return Optional.empty();
+    }
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A writer that produces a single 32-voice format SysEx message
+ * incrementally, without requiring all voices to be held in memory.
+ */
+
+public interface Dx7SysExStreamWriterType extends Closeable
+{
+  /**
+   * Append the given voices to the message.
+   *
+   * @param voices The voices
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void write(Vector<Dx7VoiceNamed> voices)
+    throws IOException;
+
+  /**
+   * Complete the message. No further voices may be written.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void finish()
+    throws IOException;
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>A sequential reader for tar archives, optionally GZIP compressed.</p>
+ *
+ * <p>The archive is read and decompressed on a separate thread, and each
+ * accepted regular file is delivered by {@link #next()} as a single in-memory
+ * member, so the consumer can decode one member while the next is being read.
+ * At most one member is held ahead of the consumer. Members that are not
+ * accepted by the filter are skipped without being buffered.</p>
+ *
+ * <p>POSIX ustar archives are supported, along with GNU long names and the
+ * {@code path} field of pax extended headers. Contiguous files (type
+ * {@code 7}) are read as regular files. Header checksums are verified.</p>
+ */
+
+public final class Dx7TarReader implements Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7TarReader.class);
+
+  private static final int BLOCK_SIZE = 512;
+  private static final int BUFFER_SIZE = 65536;
+  private static final long MAXIMUM_MEMBER_SIZE = 64L * 1024L * 1024L;
+
+  private static final int CHECKSUM_OFFSET = 148;
+  private static final int CHECKSUM_LENGTH = 8;
+
+  private final Path file;
+  private final InputStream stream;
+  private final Predicate<String> filter;
+  private final BlockingQueue<Item> queue;
+  private final Thread thread;
+  private final byte[] header;
+  private volatile boolean closed;
+  private Item last;
+
+  private Dx7TarReader(
+    final Path in_file,
+    final InputStream in_stream,
+    final Predicate<String> in_filter)
+  {
+    this.file = Objects.requireNonNull(in_file, "File");
+    this.stream = Objects.requireNonNull(in_stream, "Stream");
+    this.filter = Objects.requireNonNull(in_filter, "Filter");
+    this.queue = new ArrayBlockingQueue<>(1);
+    this.header = new byte[BLOCK_SIZE];
+    this.thread = new Thread(this::run);
+    this.thread.setName("com.io7m.jdextrosa.tar[" + in_file + "]");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Open a tar archive. The archive is GZIP decompressed if it begins with
+   * the GZIP magic number.
+   *
+   * @param file   The archive
+   * @param filter A filter for member names
+   *
+   * @return A reader
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static Dx7TarReader open(
+    final Path file,
+    final Predicate<String> filter)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "File");
+    Objects.requireNonNull(filter, "Filter");
+
+    final InputStream raw =
+      new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+
+    try {
+      raw.mark(2);
+      final int b0 = raw.read();
+      final int b1 = raw.read();
+      raw.reset();
+
+      final InputStream stream;
+      if (b0 == 0x1f && b1 == 0x8b) {
+        stream = new GZIPInputStream(raw, BUFFER_SIZE);
+      } else {
+        stream = raw;
+      }
+
+      final Dx7TarReader reader = new Dx7TarReader(file, stream, filter);
+      reader.thread.start();
+      return reader;
+    } catch (final IOException e) {
+      raw.close();
+      throw e;
+    }
+  }
+
+  private void run()
+  {
+    try {
+      String long_name = null;
+      while (!this.closed) {
+        if (!this.readHeader()) {
+          break;
+        }
+
+        final String name_header = parseName(this.header);
+        final long size = parseSize(this.header);
+        final int type = this.header[156] & 0xff;
+        final String name = long_name != null ? long_name : name_header;
+        long_name = null;
+
+        switch (type) {
+          case 'L': {
+            long_name = trimName(this.readContent(size));
+            break;
+          }
+          case 'x': {
+            long_name = this.parsePaxPath(this.readContent(size));
+            break;
+          }
+          case '0':
+          case '7':
+          case 0: {
+            this.regularFile(name, size);
+            break;
+          }
+          default: {
+            this.skipContent(size);
+            break;
+          }
+        }
+      }
+      this.put(Item.END);
+    } catch (final IOException e) {
+      this.put(new Item(null, e));
+    } finally {
+      try {
+        this.stream.close();
+      } catch (final IOException e) {
+        LOG.debug("close: {}: ", this.file, e);
+      }
+    }
+  }
+
+  private void regularFile(
+    final String name,
+    final long size)
+    throws IOException
+  {
+    if (!this.filter.test(name)) {
+      this.skipContent(size);
+      return;
+    }
+
+    if (size > MAXIMUM_MEMBER_SIZE) {
+      LOG.warn(
+        "{}: {}: member of size {} exceeds the maximum size {}; skipping",
+        this.file,
+        name,
+        Long.valueOf(size),
+        Long.valueOf(MAXIMUM_MEMBER_SIZE));
+      this.skipContent(size);
+      return;
+    }
+
+    this.put(new Item(new Member(name, this.readContent(size)), null));
+  }
+
+  private void put(
+    final Item item)
+  {
+    try {
+      while (!this.closed) {
+        if (this.queue.offer(item, 100L, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean readHeader()
+    throws IOException
+  {
+    final int count = this.stream.readNBytes(this.header, 0, BLOCK_SIZE);
+    if (count == 0) {
+      return false;
+    }
+    if (count < BLOCK_SIZE) {
+      throw new EOFException("Truncated tar header in " + this.file);
+    }
+
+    for (final byte b : this.header) {
+      if (b != 0) {
+        this.checkHeader();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Verify the header checksum: the sum of all header octets, with the
+   * checksum field itself taken to be spaces. Some historical
+   * implementations summed signed octets, so either sum is accepted.
+   */
+
+  private void checkHeader()
+    throws IOException
+  {
+    final String text =
+      field(this.header, CHECKSUM_OFFSET, CHECKSUM_LENGTH).trim();
+
+    final long expected;
+    try {
+      expected = Long.parseLong(text, 8);
+    } catch (final NumberFormatException e) {
+      throw new IOException(
+        "Unparseable tar header checksum in " + this.file + ": " + text, e);
+    }
+
+    long sum_unsigned = 0L;
+    long sum_signed = 0L;
+    for (int index = 0; index < BLOCK_SIZE; ++index) {
+      final byte b;
+      if (index >= CHECKSUM_OFFSET
+        && index < CHECKSUM_OFFSET + CHECKSUM_LENGTH) {
+        b = (byte) ' ';
+      } else {
+        b = this.header[index];
+      }
+      sum_unsigned += b & 0xff;
+      sum_signed += b;
+    }
+
+    if (expected != sum_unsigned && expected != sum_signed) {
+      throw new IOException(
+        new StringBuilder(64)
+          .append("Bad tar header checksum in ")
+          .append(this.file)
+          .append(": expected ")
+          .append(expected)
+          .append(", computed ")
+          .append(sum_unsigned)
+          .toString());
+    }
+  }
+
+  private byte[] readContent(
+    final long size)
+    throws IOException
+  {
+    if (size > MAXIMUM_MEMBER_SIZE) {
+      throw new IOException(
+        "Tar header of size " + size + " is too large in " + this.file);
+    }
+
+    final byte[] data = new byte[(int) size];
+    final int count = this.stream.readNBytes(data, 0, data.length);
+    if (count < data.length) {
+      throw new EOFException("Truncated tar member in " + this.file);
+    }
+    this.skipFully(padding(size));
+    return data;
+  }
+
+  private void skipContent(
+    final long size)
+    throws IOException
+  {
+    this.skipFully(size + padding(size));
+  }
+
+  private void skipFully(
+    final long size)
+    throws IOException
+  {
+    long remaining = size;
+    while (remaining > 0L) {
+      final long skipped = this.stream.skip(remaining);
+      if (skipped > 0L) {
+        remaining -= skipped;
+        continue;
+      }
+      if (this.stream.read() == -1) {
+        throw new EOFException("Truncated tar member in " + this.file);
+      }
+      --remaining;
+    }
+  }
+
+  private static long padding(
+    final long size)
+  {
+    final long remainder = size % BLOCK_SIZE;
+    return remainder == 0L ? 0L : BLOCK_SIZE - remainder;
+  }
+
+  private static String parseName(
+    final byte[] header)
+  {
+    final String name = field(header, 0, 100);
+    final boolean ustar =
+      header[257] == 'u'
+        && header[258] == 's'
+        && header[259] == 't'
+        && header[260] == 'a'
+        && header[261] == 'r';
+
+    if (ustar) {
+      final String prefix = field(header, 345, 155);
+      if (!prefix.isEmpty()) {
+        return prefix + "/" + name;
+      }
+    }
+    return name;
+  }
+
+  private static long parseSize(
+    final byte[] header)
+    throws IOException
+  {
+    /*
+     * Sizes that do not fit in the octal field are stored as big-endian
+     * binary numbers, marked by the high bit of the first octet.
+     */
+
+    if ((header[124] & 0x80) != 0) {
+      long size = header[124] & 0x7f;
+      for (int index = 125; index < 136; ++index) {
+        size = (size << 8) | (header[index] & 0xff);
+      }
+      return size;
+    }
+
+    final String text = field(header, 124, 12).trim();
+    if (text.isEmpty()) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(text, 8);
+    } catch (final NumberFormatException e) {
+      throw new IOException("Unparseable tar member size: " + text, e);
+    }
+  }
+
+  private static String field(
+    final byte[] header,
+    final int offset,
+    final int length)
+  {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      ++end;
+    }
+    return utf8(header, offset, end - offset);
+  }
+
+  private static String trimName(
+    final byte[] data)
+  {
+    int end = 0;
+    while (end < data.length && data[end] != 0) {
+      ++end;
+    }
+    return utf8(data, 0, end);
+  }
+
+  private static String utf8(
+    final byte[] data,
+    final int offset,
+    final int length)
+  {
+    // False positive: Instantiating a string from a byte array is fine
+    // CHECKSTYLE:OFF
+    return new String(data, offset, length, StandardCharsets.UTF_8);
+    // CHECKSTYLE:ON
+  }
+
+  /**
+   * Extract the {@code path} record, if any, from pax extended header
+   * records of the form {@code "length key=value\n"}. The length is the
+   * decimal length in octets of the entire record, including the length
+   * field itself and the trailing newline, and values may themselves
+   * contain newlines.
+   */
+
+  private String parsePaxPath(
+    final byte[] data)
+    throws IOException
+  {
+    String path = null;
+    int offset = 0;
+    while (offset < data.length) {
+      int space = offset;
+      long length = 0L;
+      while (space < data.length
+        && length <= data.length
+        && data[space] >= '0'
+        && data[space] <= '9') {
+        length = (length * 10L) + (long) (data[space] - '0');
+        ++space;
+      }
+
+      if (space == offset
+        || space >= data.length
+        || data[space] != ' '
+        || length > (long) (data.length - offset)
+        || offset + (int) length <= space + 1
+        || data[offset + (int) length - 1] != '\n') {
+        throw new IOException(
+          "Malformed pax extended header in " + this.file);
+      }
+
+      final int end = offset + (int) length;
+
+      int equals = space + 1;
+      while (equals < end - 1 && data[equals] != '=') {
+        ++equals;
+      }
+      if (equals >= end - 1) {
+        throw new IOException(
+          "Malformed pax extended header in " + this.file);
+      }
+
+      final String key = utf8(data, space + 1, equals - (space + 1));
+      if (Objects.equals(key, "path")) {
+        path = utf8(data, equals + 1, end - 1 - (equals + 1));
+      }
+      offset = end;
+    }
+    return path;
+  }
+
+  /**
+   * Retrieve the next accepted member of the archive, waiting for it to be
+   * read if necessary.
+   *
+   * @return The next member, or nothing if the end of the archive has been
+   * reached
+   *
+   * @throws IOException On I/O errors, or if the archive is malformed
+   */
+
+  public Optional<Member> next()
+    throws IOException
+  {
+    if (this.last == null) {
+      final Item item;
+      try {
+        item = this.queue.take();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+
+      if (item.member != null) {
+        return Optional.of(item.member);
+      }
+      this.last = item;
+    }
+
+    if (this.last.exception != null) {
+      throw new IOException(
+        this.last.exception.getMessage(), this.last.exception);
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.closed = true;
+    this.queue.clear();
+    try {
+      this.thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * A member of an archive.
+   */
+
+  public static final class Member
+  {
+    private final String name;
+    private final byte[] data;
+
+    Member(
+      final String in_name,
+      final byte[] in_data)
+    {
+      this.name = Objects.requireNonNull(in_name, "Name");
+      this.data = Objects.requireNonNull(in_data, "Data");
+    }
+
+    /**
+     * @return The name of the member within the archive
+     */
+
+    public String name()
+    {
+      return this.name;
+    }
+
+    /**
+     * @return The content of the member
+     */
+
+    public byte[] data()
+    {
+      return this.data;
+    }
+  }
+
+  private static final class Item
+  {
+    private static final Item END = new Item(null, null);
+
+    private final Member member;
+    private final IOException exception;
+
+    Item(
+      final Member in_member,
+      final IOException in_exception)
+    {
+      this.member = in_member;
+      this.exception = in_exception;
+    }
+  }
+}
@@ -75,7 +75,8 @@ final class Dx7Writer implements Dx7SysExWriterType
     int checksum = 0;
     final byte[] buffer = new byte[128];
     for (final Dx7VoiceNamed voice : voices) {
-      this.packVoice(voice, buffer);
+      LOG.debug("write: voice {}", voice.name());
+      packVoice(voice, buffer);
       checksum = Dx7Checksum.checksumAdd(checksum, buffer);
       this.stream.write(buffer);
     }
@@ -84,33 +85,39 @@ final class Dx7Writer implements Dx7SysExWriterType
     this.stream.write(0xf7);
   }
 
-  private void packVoice(
+  /**
+   * Pack the given voice into the 128 octet form used in 32-voice SysEx
+   * messages.
+   *
+   * @param voice_named The voice
+   * @param buffer      The output buffer (at least 128 octets)
+   */
+
+  static void packVoice(
     final Dx7VoiceNamed voice_named,
     final byte[] buffer)
   {
-    LOG.debug("write: voice {}", voice_named.name());
-
     int position = 0;
     final Dx7Voice voice = voice_named.voice();
     for (int op_index = 6; op_index >= 1; --op_index) {
       switch (op_index) {
         case 1:
-          this.packOp(voice.operator1(), position, buffer);
+          packOp(voice.operator1(), position, buffer);
           break;
         case 2:
-          this.packOp(voice.operator2(), position, buffer);
+          packOp(voice.operator2(), position, buffer);
           break;
         case 3:
-          this.packOp(voice.operator3(), position, buffer);
+          packOp(voice.operator3(), position, buffer);
           break;
         case 4:
-          this.packOp(voice.operator4(), position, buffer);
+          packOp(voice.operator4(), position, buffer);
           break;
         case 5:
-          this.packOp(voice.operator5(), position, buffer);
+          packOp(voice.operator5(), position, buffer);
           break;
         case 6:
-          this.packOp(voice.operator6(), position, buffer);
+          packOp(voice.operator6(), position, buffer);
           break;
         default:
           throw new UnreachableCodeException();
@@ -140,19 +147,19 @@ final class Dx7Writer implements Dx7SysExWriterType
     buffer[116] = (byte)
       (voice.lfoPitchModulationSensitivityPacked() | voice.lfoWave().packed() | (voice.lfoKeySync() ? 1 : 0));
     buffer[117] = (byte) voice.transposeExternal();
-    buffer[118] = (byte) voice_named.name().charAt(0);
-    buffer[119] = (byte) voice_named.name().charAt(1);
-    buffer[120] = (byte) voice_named.name().charAt(2);
-    buffer[121] = (byte) voice_named.name().charAt(3);
-    buffer[122] = (byte) voice_named.name().charAt(4);
-    buffer[123] = (byte) voice_named.name().charAt(5);
-    buffer[124] = (byte) voice_named.name().charAt(6);
-    buffer[125] = (byte) voice_named.name().charAt(7);
-    buffer[126] = (byte) voice_named.name().charAt(8);
-    buffer[127] = (byte) voice_named.name().charAt(9);
+
+    /*
+     * Names shorter than ten characters are padded with spaces.
+     */
+
+    final String name = voice_named.name();
+    for (int index = 0; index < 10; ++index) {
+      buffer[118 + index] =
+        (byte) (index < name.length() ? name.charAt(index) : ' ');
+    }
   }
 
-  private void packOp(
+  private static void packOp(
     final Dx7Operator op,
     final int position,
     final byte[] buffer)
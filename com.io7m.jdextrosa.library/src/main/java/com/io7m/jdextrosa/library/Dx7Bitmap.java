@@ -0,0 +1,612 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A compressed bitmap of non-negative integers.
+ *
+ * <p>The integers are divided into chunks of 65536 by their upper 16 bits,
+ * and only non-empty chunks are stored. A chunk holding at most
+ * {@value #ARRAY_MAXIMUM} integers is stored as a sorted array of their
+ * lower 16 bits; a denser chunk is stored as a 65536 bit bitmap. Bitmaps are
+ * built by appending integers in increasing order, after which the
+ * set operations produce new bitmaps and never modify their arguments.</p>
+ */
+
+public final class Dx7Bitmap
+{
+  /**
+   * The maximum number of integers in an array chunk.
+   */
+
+  public static final int ARRAY_MAXIMUM = 4096;
+
+  private static final int WORDS = 1024;
+
+  private char[] keys;
+  private Chunk[] chunks;
+  private int size;
+
+  private Dx7Bitmap(
+    final int capacity)
+  {
+    this.keys = new char[Math.max(1, capacity)];
+    this.chunks = new Chunk[Math.max(1, capacity)];
+    this.size = 0;
+  }
+
+  /**
+   * @return A new empty bitmap
+   */
+
+  public static Dx7Bitmap create()
+  {
+    return new Dx7Bitmap(4);
+  }
+
+  /**
+   * @param count The number of integers
+   *
+   * @return A bitmap containing the integers {@code [0, count)}
+   */
+
+  public static Dx7Bitmap range(
+    final int count)
+  {
+    if (count < 0) {
+      throw new IllegalArgumentException("Count must be non-negative");
+    }
+
+    final Dx7Bitmap result = new Dx7Bitmap((count >>> 16) + 1);
+    int remaining = count;
+    int key = 0;
+    while (remaining > 0) {
+      final int n = Math.min(remaining, 65536);
+      final long[] words = new long[WORDS];
+      for (int i = 0; i < n >>> 6; ++i) {
+        words[i] = -1L;
+      }
+      if ((n & 63) != 0) {
+        words[n >>> 6] = (1L << (n & 63)) - 1L;
+      }
+      result.push((char) key, Chunk.compact(words, n));
+      remaining -= n;
+      ++key;
+    }
+    return result;
+  }
+
+  private void push(
+    final char key,
+    final Chunk chunk)
+  {
+    if (this.size == this.keys.length) {
+      this.keys = Arrays.copyOf(this.keys, this.size * 2);
+      this.chunks = Arrays.copyOf(this.chunks, this.size * 2);
+    }
+    this.keys[this.size] = key;
+    this.chunks[this.size] = chunk;
+    ++this.size;
+  }
+
+  /**
+   * Append an integer. The integer must be greater than any integer
+   * already in the bitmap.
+   *
+   * @param value The integer
+   */
+
+  public void append(
+    final int value)
+  {
+    if (value < 0) {
+      throw new IllegalArgumentException("Value must be non-negative");
+    }
+
+    final char key = (char) (value >>> 16);
+    final char low = (char) value;
+    if (this.size == 0 || this.keys[this.size - 1] != key) {
+      if (this.size > 0 && this.keys[this.size - 1] > key) {
+        throw new IllegalArgumentException(
+          "Values must be appended in increasing order");
+      }
+      this.push(key, new Chunk(new char[8], 0));
+    }
+
+    final Chunk last = this.chunks[this.size - 1];
+    if (last.shared) {
+      this.chunks[this.size - 1] = last.copy();
+    }
+    this.chunks[this.size - 1].append(low);
+  }
+
+  /**
+   * @return The number of integers in the bitmap
+   */
+
+  public int cardinality()
+  {
+    int total = 0;
+    for (int i = 0; i < this.size; ++i) {
+      total += this.chunks[i].cardinality;
+    }
+    return total;
+  }
+
+  /**
+   * @param value The integer
+   *
+   * @return {@code true} if the bitmap contains the integer
+   */
+
+  public boolean contains(
+    final int value)
+  {
+    if (value < 0) {
+      return false;
+    }
+    final int position =
+      Arrays.binarySearch(this.keys, 0, this.size, (char) (value >>> 16));
+    return position >= 0 && this.chunks[position].contains((char) value);
+  }
+
+  /**
+   * Copy integers from the bitmap in increasing order.
+   *
+   * @param skip   The number of integers to skip
+   * @param output The output array
+   *
+   * @return The number of integers copied, at most the length of
+   * {@code output}
+   */
+
+  public int copy(
+    final int skip,
+    final int[] output)
+  {
+    Objects.requireNonNull(output, "Output");
+
+    int skipped = 0;
+    int copied = 0;
+    for (int i = 0; i < this.size && copied < output.length; ++i) {
+      final Chunk chunk = this.chunks[i];
+      if (skipped + chunk.cardinality <= skip) {
+        skipped += chunk.cardinality;
+        continue;
+      }
+      final int high = (int) this.keys[i] << 16;
+      if (chunk.array != null) {
+        for (int j = 0; j < chunk.cardinality && copied < output.length; ++j) {
+          if (skipped < skip) {
+            ++skipped;
+          } else {
+            output[copied++] = high | chunk.array[j];
+          }
+        }
+      } else {
+        for (int w = 0; w < WORDS && copied < output.length; ++w) {
+          long word = chunk.words[w];
+          while (word != 0L && copied < output.length) {
+            final int bit = Long.numberOfTrailingZeros(word);
+            word &= word - 1L;
+            if (skipped < skip) {
+              ++skipped;
+            } else {
+              output[copied++] = high | (w << 6) | bit;
+            }
+          }
+        }
+      }
+    }
+    return copied;
+  }
+
+  /**
+   * @param x A bitmap
+   * @param y A bitmap
+   *
+   * @return The intersection of {@code x} and {@code y}
+   */
+
+  public static Dx7Bitmap and(
+    final Dx7Bitmap x,
+    final Dx7Bitmap y)
+  {
+    final Dx7Bitmap result = new Dx7Bitmap(Math.min(x.size, y.size));
+    int i = 0;
+    int j = 0;
+    while (i < x.size && j < y.size) {
+      final char kx = x.keys[i];
+      final char ky = y.keys[j];
+      if (kx < ky) {
+        ++i;
+      } else if (ky < kx) {
+        ++j;
+      } else {
+        final Chunk chunk = Chunk.and(x.chunks[i], y.chunks[j]);
+        if (chunk.cardinality > 0) {
+          result.push(kx, chunk);
+        }
+        ++i;
+        ++j;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param x A bitmap
+   * @param y A bitmap
+   *
+   * @return The number of integers in the intersection of {@code x} and
+   * {@code y}
+   */
+
+  public static int andCardinality(
+    final Dx7Bitmap x,
+    final Dx7Bitmap y)
+  {
+    int total = 0;
+    int i = 0;
+    int j = 0;
+    while (i < x.size && j < y.size) {
+      final char kx = x.keys[i];
+      final char ky = y.keys[j];
+      if (kx < ky) {
+        ++i;
+      } else if (ky < kx) {
+        ++j;
+      } else {
+        total += Chunk.andCardinality(x.chunks[i], y.chunks[j]);
+        ++i;
+        ++j;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @param x A bitmap
+   * @param y A bitmap
+   *
+   * @return The union of {@code x} and {@code y}
+   */
+
+  public static Dx7Bitmap or(
+    final Dx7Bitmap x,
+    final Dx7Bitmap y)
+  {
+    final Dx7Bitmap result = new Dx7Bitmap(x.size + y.size);
+    int i = 0;
+    int j = 0;
+    while (i < x.size || j < y.size) {
+      if (j == y.size || (i < x.size && x.keys[i] < y.keys[j])) {
+        result.push(x.keys[i], x.chunks[i].share());
+        ++i;
+      } else if (i == x.size || y.keys[j] < x.keys[i]) {
+        result.push(y.keys[j], y.chunks[j].share());
+        ++j;
+      } else {
+        result.push(x.keys[i], Chunk.or(x.chunks[i], y.chunks[j]));
+        ++i;
+        ++j;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param x A bitmap
+   * @param y A bitmap
+   *
+   * @return The integers in {@code x} that are not in {@code y}
+   */
+
+  public static Dx7Bitmap andNot(
+    final Dx7Bitmap x,
+    final Dx7Bitmap y)
+  {
+    final Dx7Bitmap result = new Dx7Bitmap(x.size);
+    int j = 0;
+    for (int i = 0; i < x.size; ++i) {
+      final char key = x.keys[i];
+      while (j < y.size && y.keys[j] < key) {
+        ++j;
+      }
+      if (j < y.size && y.keys[j] == key) {
+        final Chunk chunk = Chunk.andNot(x.chunks[i], y.chunks[j]);
+        if (chunk.cardinality > 0) {
+          result.push(key, chunk);
+        }
+      } else {
+        result.push(key, x.chunks[i].share());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A chunk of 65536 integers. Set operations reuse the chunks of their
+   * arguments where possible, marking them as shared; a shared chunk is
+   * copied before it is appended to.
+   */
+
+  private static final class Chunk
+  {
+    private char[] array;
+    private long[] words;
+    private int cardinality;
+    private boolean shared;
+
+    Chunk(
+      final char[] in_array,
+      final int in_cardinality)
+    {
+      this.array = in_array;
+      this.cardinality = in_cardinality;
+    }
+
+    Chunk(
+      final long[] in_words,
+      final int in_cardinality)
+    {
+      this.words = in_words;
+      this.cardinality = in_cardinality;
+    }
+
+    static Chunk compact(
+      final long[] words,
+      final int cardinality)
+    {
+      if (cardinality > ARRAY_MAXIMUM) {
+        return new Chunk(words, cardinality);
+      }
+      final char[] array = new char[cardinality];
+      int o = 0;
+      for (int w = 0; w < WORDS; ++w) {
+        long word = words[w];
+        while (word != 0L) {
+          array[o++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+          word &= word - 1L;
+        }
+      }
+      return new Chunk(array, cardinality);
+    }
+
+    Chunk share()
+    {
+      this.shared = true;
+      return this;
+    }
+
+    Chunk copy()
+    {
+      if (this.words != null) {
+        return new Chunk(this.words.clone(), this.cardinality);
+      }
+      return new Chunk(this.array.clone(), this.cardinality);
+    }
+
+    long[] toWords()
+    {
+      if (this.words != null) {
+        return this.words.clone();
+      }
+      final long[] result = new long[WORDS];
+      for (int i = 0; i < this.cardinality; ++i) {
+        final char v = this.array[i];
+        result[v >>> 6] |= 1L << (v & 63);
+      }
+      return result;
+    }
+
+    void append(
+      final char value)
+    {
+      if (this.words != null) {
+        final long bit = 1L << (value & 63);
+        if ((this.words[value >>> 6] & bit) != 0L) {
+          throw new IllegalArgumentException(
+            "Values must be appended in increasing order");
+        }
+        this.words[value >>> 6] |= bit;
+        ++this.cardinality;
+        return;
+      }
+
+      if (this.cardinality > 0 && this.array[this.cardinality - 1] >= value) {
+        throw new IllegalArgumentException(
+          "Values must be appended in increasing order");
+      }
+      if (this.cardinality == ARRAY_MAXIMUM) {
+        this.words = this.toWords();
+        this.array = null;
+        this.append(value);
+        return;
+      }
+      if (this.cardinality == this.array.length) {
+        this.array = Arrays.copyOf(
+          this.array, Math.min(ARRAY_MAXIMUM, this.cardinality * 2));
+      }
+      this.array[this.cardinality++] = value;
+    }
+
+    boolean contains(
+      final char value)
+    {
+      if (this.words != null) {
+        return (this.words[value >>> 6] & (1L << (value & 63))) != 0L;
+      }
+      return Arrays.binarySearch(this.array, 0, this.cardinality, value) >= 0;
+    }
+
+    static Chunk and(
+      final Chunk x,
+      final Chunk y)
+    {
+      if (x.array != null && y.array != null) {
+        final char[] result = new char[Math.min(x.cardinality, y.cardinality)];
+        int i = 0;
+        int j = 0;
+        int o = 0;
+        while (i < x.cardinality && j < y.cardinality) {
+          final char a = x.array[i];
+          final char b = y.array[j];
+          if (a < b) {
+            ++i;
+          } else if (b < a) {
+            ++j;
+          } else {
+            result[o++] = a;
+            ++i;
+            ++j;
+          }
+        }
+        return new Chunk(result, o);
+      }
+
+      if (x.array != null || y.array != null) {
+        final Chunk sparse = x.array != null ? x : y;
+        final Chunk dense = x.array != null ? y : x;
+        final char[] result = new char[sparse.cardinality];
+        int o = 0;
+        for (int i = 0; i < sparse.cardinality; ++i) {
+          final char v = sparse.array[i];
+          if (dense.contains(v)) {
+            result[o++] = v;
+          }
+        }
+        return new Chunk(result, o);
+      }
+
+      final long[] words = new long[WORDS];
+      int cardinality = 0;
+      for (int w = 0; w < WORDS; ++w) {
+        words[w] = x.words[w] & y.words[w];
+        cardinality += Long.bitCount(words[w]);
+      }
+      return compact(words, cardinality);
+    }
+
+    static int andCardinality(
+      final Chunk x,
+      final Chunk y)
+    {
+      if (x.words != null && y.words != null) {
+        int cardinality = 0;
+        for (int w = 0; w < WORDS; ++w) {
+          cardinality += Long.bitCount(x.words[w] & y.words[w]);
+        }
+        return cardinality;
+      }
+      if (x.array != null && y.array != null) {
+        return and(x, y).cardinality;
+      }
+
+      final Chunk sparse = x.array != null ? x : y;
+      final Chunk dense = x.array != null ? y : x;
+      int cardinality = 0;
+      for (int i = 0; i < sparse.cardinality; ++i) {
+        if (dense.contains(sparse.array[i])) {
+          ++cardinality;
+        }
+      }
+      return cardinality;
+    }
+
+    static Chunk or(
+      final Chunk x,
+      final Chunk y)
+    {
+      if (x.array != null
+        && y.array != null
+        && x.cardinality + y.cardinality <= ARRAY_MAXIMUM) {
+        final char[] result = new char[x.cardinality + y.cardinality];
+        int i = 0;
+        int j = 0;
+        int o = 0;
+        while (i < x.cardinality || j < y.cardinality) {
+          if (j == y.cardinality
+            || (i < x.cardinality && x.array[i] < y.array[j])) {
+            result[o++] = x.array[i++];
+          } else if (i == x.cardinality || y.array[j] < x.array[i]) {
+            result[o++] = y.array[j++];
+          } else {
+            result[o++] = x.array[i];
+            ++i;
+            ++j;
+          }
+        }
+        return new Chunk(result, o);
+      }
+
+      final long[] words = x.toWords();
+      int cardinality = 0;
+      if (y.words != null) {
+        for (int w = 0; w < WORDS; ++w) {
+          words[w] |= y.words[w];
+        }
+      } else {
+        for (int i = 0; i < y.cardinality; ++i) {
+          final char v = y.array[i];
+          words[v >>> 6] |= 1L << (v & 63);
+        }
+      }
+      for (int w = 0; w < WORDS; ++w) {
+        cardinality += Long.bitCount(words[w]);
+      }
+      return compact(words, cardinality);
+    }
+
+    static Chunk andNot(
+      final Chunk x,
+      final Chunk y)
+    {
+      if (x.array != null) {
+        final char[] result = new char[x.cardinality];
+        int o = 0;
+        for (int i = 0; i < x.cardinality; ++i) {
+          final char v = x.array[i];
+          if (!y.contains(v)) {
+            result[o++] = v;
+          }
+        }
+        return new Chunk(result, o);
+      }
+
+      final long[] words = x.words.clone();
+      if (y.words != null) {
+        for (int w = 0; w < WORDS; ++w) {
+          words[w] &= ~y.words[w];
+        }
+      } else {
+        for (int i = 0; i < y.cardinality; ++i) {
+          final char v = y.array[i];
+          words[v >>> 6] &= ~(1L << (v & 63));
+        }
+      }
+      int cardinality = 0;
+      for (int w = 0; w < WORDS; ++w) {
+        cardinality += Long.bitCount(words[w]);
+      }
+      return compact(words, cardinality);
+    }
+  }
+}
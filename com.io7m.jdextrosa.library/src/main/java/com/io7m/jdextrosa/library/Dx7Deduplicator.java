@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import io.vavr.collection.Vector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An exact deduplicator. Voices are offered in order; the first occurrence
+ * of each distinct voice is accepted, and later occurrences are rejected and
+ * recorded against the first occurrence. Voices are compared by
+ * fingerprint (see {@link Dx7VoiceFingerprints}), optionally after
+ * mapping them to a canonical form (see {@link Dx7VoiceCanonicalizer}), so
+ * only the fingerprint, name, and metadata of each accepted voice are
+ * retained. Accepted voices are returned unchanged. The deduplicator
+ * is not thread-safe.
+ */
+
+public final class Dx7Deduplicator
+{
+  private final Dx7DeduplicatorConfiguration configuration;
+  private final Dx7FingerprintTable table;
+  private final List<Dx7VoiceFingerprint> fingerprints;
+  private final List<String> names;
+  private final Dx7VoiceSourceTable sources;
+  private final Map<Integer, Duplicates> duplicates;
+  private final byte[] buffer;
+  private final long[] hash;
+  private long duplicate_count;
+
+  private Dx7Deduplicator(
+    final Dx7DeduplicatorConfiguration in_configuration)
+  {
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "Configuration");
+
+    final int expected = in_configuration.expectedSize();
+    this.table = new Dx7FingerprintTable(expected);
+    this.fingerprints = new ArrayList<>(expected);
+    this.names = new ArrayList<>(expected);
+    this.sources = Dx7VoiceSourceTable.create(expected);
+    this.duplicates = new HashMap<>();
+    this.buffer = new byte[Dx7VoiceFingerprints.FINGERPRINT_DATA_SIZE];
+    this.hash = new long[2];
+  }
+
+  /**
+   * Create a deduplicator.
+   *
+   * @param configuration The configuration
+   *
+   * @return A deduplicator
+   */
+
+  public static Dx7Deduplicator create(
+    final Dx7DeduplicatorConfiguration configuration)
+  {
+    return new Dx7Deduplicator(configuration);
+  }
+
+  /**
+   * Deduplicate a sequence of voices.
+   *
+   * @param configuration The configuration
+   * @param voices        The voices
+   *
+   * @return The first occurrence of each distinct voice, in order
+   */
+
+  public static Vector<Dx7VoiceNamed> deduplicate(
+    final Dx7DeduplicatorConfiguration configuration,
+    final Iterable<Dx7VoiceNamed> voices)
+  {
+    Objects.requireNonNull(voices, "Voices");
+    return create(configuration).filter(voices);
+  }
+
+  /**
+   * Offer each of the given voices in order.
+   *
+   * @param voices The voices
+   *
+   * @return The voices that were accepted, in order
+   */
+
+  public Vector<Dx7VoiceNamed> filter(
+    final Iterable<Dx7VoiceNamed> voices)
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    Vector<Dx7VoiceNamed> accepted = Vector.empty();
+    for (final Dx7VoiceNamed voice : voices) {
+      if (this.offer(voice)) {
+        accepted = accepted.append(voice);
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * Offer a voice.
+   *
+   * @param voice The voice
+   *
+   * @return {@code true} if the voice is the first occurrence of a distinct
+   * voice, {@code false} if it duplicates a voice that was offered earlier
+   */
+
+  public boolean offer(
+    final Dx7VoiceNamed voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    final Dx7VoiceNamed compared;
+    if (this.configuration.canonicalize()) {
+      compared = Dx7VoiceCanonicalizer.canonicalize(voice);
+    } else {
+      compared = voice;
+    }
+
+    Dx7VoiceFingerprints.fingerprint(
+      compared, this.configuration.includeNames(), this.buffer, this.hash);
+
+    final long high = this.hash[0];
+    final long low = this.hash[1];
+    final int index = this.fingerprints.size();
+    final int existing = this.table.putIfAbsent(high, low, index);
+    if (existing < 0) {
+      this.fingerprints.add(Dx7VoiceFingerprint.of(high, low));
+      this.names.add(voice.name());
+      this.sources.add(voice.metadata(), voice.name());
+      return true;
+    }
+
+    ++this.duplicate_count;
+    this.duplicates
+      .computeIfAbsent(Integer.valueOf(existing), k -> new Duplicates())
+      .add(voice.metadata());
+    return false;
+  }
+
+  /**
+   * @return The number of distinct voices seen so far
+   */
+
+  public int distinctCount()
+  {
+    return this.fingerprints.size();
+  }
+
+  /**
+   * @return The number of voices rejected as duplicates so far
+   */
+
+  public long duplicateCount()
+  {
+    return this.duplicate_count;
+  }
+
+  /**
+   * @return Each voice that has been seen more than once, in the order that
+   * the first occurrences were seen
+   */
+
+  public Vector<Dx7DuplicateGroup> duplicateGroups()
+  {
+    Vector<Dx7DuplicateGroup> groups = Vector.empty();
+    for (int index = 0; index < this.fingerprints.size(); ++index) {
+      final Duplicates group = this.duplicates.get(Integer.valueOf(index));
+      if (group != null) {
+        groups = groups.append(Dx7DuplicateGroup.of(
+          this.fingerprints.get(index),
+          this.names.get(index),
+          this.sources.metadata(index, this.names.get(index)),
+          Vector.ofAll(group.metadata),
+          group.count));
+      }
+    }
+    return groups;
+  }
+
+  private static final class Duplicates
+  {
+    private final List<Dx7VoiceMetadata> metadata;
+    private int count;
+
+    Duplicates()
+    {
+      this.metadata = new ArrayList<>(1);
+    }
+
+    void add(
+      final Optional<Dx7VoiceMetadata> voice_metadata)
+    {
+      ++this.count;
+      voice_metadata.ifPresent(this.metadata::add);
+    }
+  }
+}
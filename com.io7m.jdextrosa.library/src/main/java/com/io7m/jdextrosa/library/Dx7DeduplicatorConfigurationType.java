@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+/**
+ * The configuration of a deduplicator.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7DeduplicatorConfigurationType
+{
+  /**
+   * @return {@code true} if voices with different names are considered to
+   * be distinct
+   */
+
+  @Value.Default
+  default boolean includeNames()
+  {
+    return false;
+  }
+
+  /**
+   * @return {@code true} if voices are compared in canonical form, so that
+   * voices that differ only in ways that cannot be heard are considered to
+   * be duplicates
+   *
+   * @see Dx7VoiceCanonicalizer
+   */
+
+  @Value.Default
+  default boolean canonicalize()
+  {
+    return false;
+  }
+
+  /**
+   * @return The expected number of distinct voices
+   */
+
+  @Value.Default
+  default int expectedSize()
+  {
+    return 1024;
+  }
+}
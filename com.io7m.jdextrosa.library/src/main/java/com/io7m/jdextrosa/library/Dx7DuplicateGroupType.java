@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import io.vavr.collection.Vector;
+import org.immutables.value.Value;
+
+import java.util.Optional;
+
+/**
+ * A voice that occurred more than once, along with the provenance of each
+ * of the duplicates.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7DuplicateGroupType
+{
+  /**
+   * @return The fingerprint shared by the voices
+   */
+
+  @Value.Parameter
+  Dx7VoiceFingerprint fingerprint();
+
+  /**
+   * @return The name of the first occurrence of the voice
+   */
+
+  @Value.Parameter
+  String name();
+
+  /**
+   * @return The metadata of the first occurrence of the voice, if any
+   */
+
+  @Value.Parameter
+  Optional<Dx7VoiceMetadata> first();
+
+  /**
+   * @return The metadata of each later occurrence of the voice that had
+   * metadata, in the order that the occurrences were seen
+   */
+
+  @Value.Parameter
+  Vector<Dx7VoiceMetadata> duplicates();
+
+  /**
+   * @return The number of later occurrences of the voice, including those
+   * without metadata
+   */
+
+  @Value.Parameter
+  int duplicateCount();
+}
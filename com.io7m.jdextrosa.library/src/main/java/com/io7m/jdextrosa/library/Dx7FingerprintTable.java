@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from 128-bit fingerprints to non-negative
+ * integers. Keys are held in flat {@code long} arrays and probed linearly,
+ * so no objects are allocated per entry; the table costs 20 octets per
+ * slot. The table is not thread-safe.
+ */
+
+public final class Dx7FingerprintTable
+{
+  private static final int EMPTY = -1;
+  private static final double LOAD_FACTOR = 0.5;
+
+  private long[] keys_high;
+  private long[] keys_low;
+  private int[] values;
+  private int size;
+  private int mask;
+
+  /**
+   * Create a table.
+   *
+   * @param expected The expected number of entries
+   */
+
+  public Dx7FingerprintTable(
+    final int expected)
+  {
+    if (expected < 0) {
+      throw new IllegalArgumentException("Expected size must be non-negative");
+    }
+
+    final int capacity =
+      Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+    this.allocate(capacity);
+  }
+
+  private void allocate(
+    final int capacity)
+  {
+    this.keys_high = new long[capacity];
+    this.keys_low = new long[capacity];
+    this.values = new int[capacity];
+    Arrays.fill(this.values, EMPTY);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * @return The number of entries in the table
+   */
+
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   * @param high The high 64 bits of the fingerprint
+   * @param low  The low 64 bits of the fingerprint
+   *
+   * @return The value associated with the fingerprint, or {@code -1} if
+   * there is none
+   */
+
+  public int get(
+    final long high,
+    final long low)
+  {
+    int slot = this.slotOf(high, low);
+    while (true) {
+      final int value = this.values[slot];
+      if (value == EMPTY) {
+        return EMPTY;
+      }
+      if (this.keys_high[slot] == high && this.keys_low[slot] == low) {
+        return value;
+      }
+      slot = (slot + 1) & this.mask;
+    }
+  }
+
+  /**
+   * Associate a value with a fingerprint if the fingerprint is not already
+   * present.
+   *
+   * @param high  The high 64 bits of the fingerprint
+   * @param low   The low 64 bits of the fingerprint
+   * @param value The value (must be non-negative)
+   *
+   * @return The existing value associated with the fingerprint, or
+   * {@code -1} if {@code value} was inserted
+   */
+
+  public int putIfAbsent(
+    final long high,
+    final long low,
+    final int value)
+  {
+    if (value < 0) {
+      throw new IllegalArgumentException("Value must be non-negative");
+    }
+
+    int slot = this.slotOf(high, low);
+    while (true) {
+      final int existing = this.values[slot];
+      if (existing == EMPTY) {
+        break;
+      }
+      if (this.keys_high[slot] == high && this.keys_low[slot] == low) {
+        return existing;
+      }
+      slot = (slot + 1) & this.mask;
+    }
+
+    this.keys_high[slot] = high;
+    this.keys_low[slot] = low;
+    this.values[slot] = value;
+    ++this.size;
+
+    if (this.size > (int) (this.values.length * LOAD_FACTOR)) {
+      this.grow();
+    }
+    return EMPTY;
+  }
+
+  private int slotOf(
+    final long high,
+    final long low)
+  {
+    /*
+     * Fingerprints are already well mixed, so the low bits of the low word
+     * are used directly.
+     */
+
+    return (int) (low ^ (high >>> 32)) & this.mask;
+  }
+
+  private void grow()
+  {
+    final long[] old_high = this.keys_high;
+    final long[] old_low = this.keys_low;
+    final int[] old_values = this.values;
+
+    this.allocate(old_values.length << 1);
+    for (int index = 0; index < old_values.length; ++index) {
+      final int value = old_values[index];
+      if (value != EMPTY) {
+        int slot = this.slotOf(old_high[index], old_low[index]);
+        while (this.values[slot] != EMPTY) {
+          slot = (slot + 1) & this.mask;
+        }
+        this.keys_high[slot] = old_high[index];
+        this.keys_low[slot] = old_low[index];
+        this.values[slot] = value;
+      }
+    }
+  }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import io.vavr.collection.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A trigram index over voice names, supporting prefix, substring, and
+ * fuzzy (edit distance) queries.
+ *
+ * <p>Names are compared case-insensitively (ASCII only). Each name is
+ * padded with a start and an end marker, and the index of the name is
+ * appended to a primitive posting list for each distinct trigram of the
+ * padded name. As names are added in index order, posting lists are always
+ * sorted, so queries intersect them without sorting. Candidates taken from
+ * the posting lists are always checked against the names themselves, so
+ * characters outside of printable ASCII (which share trigram codes) never
+ * produce false matches.</p>
+ *
+ * <p>Queries too short to contain a trigram fall back to a scan of the
+ * names, stopping as soon as enough matches are found. The index is built
+ * incrementally and is not thread-safe.</p>
+ */
+
+public final class Dx7NameIndex
+{
+  private static final int SYMBOLS = 66;
+  private static final int MARK_START = 64;
+  private static final int MARK_END = 65;
+
+  private final int[][] postings;
+  private final int[] posting_sizes;
+  private char[] characters;
+  private int[] offsets;
+  private int count;
+
+  private Dx7NameIndex()
+  {
+    this.postings = new int[SYMBOLS * SYMBOLS * SYMBOLS][];
+    this.posting_sizes = new int[this.postings.length];
+    this.characters = new char[1024];
+    this.offsets = new int[128];
+  }
+
+  /**
+   * @return A new empty index
+   */
+
+  public static Dx7NameIndex create()
+  {
+    return new Dx7NameIndex();
+  }
+
+  private static char fold(
+    final char c)
+  {
+    if (c >= 'a' && c <= 'z') {
+      return (char) (c - ('a' - 'A'));
+    }
+    return c;
+  }
+
+  private static int symbol(
+    final char c)
+  {
+    final char f = fold(c);
+    if (f >= 32 && f < 96) {
+      return f - 32;
+    }
+    return 63;
+  }
+
+  private static int trigram(
+    final int a,
+    final int b,
+    final int c)
+  {
+    return (((a * SYMBOLS) + b) * SYMBOLS) + c;
+  }
+
+  /**
+   * Add a name to the index.
+   *
+   * @param name The name
+   *
+   * @return The index of the name
+   */
+
+  public int add(
+    final String name)
+  {
+    Objects.requireNonNull(name, "Name");
+
+    final int index = this.count;
+    if (index + 2 > this.offsets.length) {
+      this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+    }
+
+    final int start = this.offsets[index];
+    final int end = start + name.length();
+    if (end > this.characters.length) {
+      this.characters = Arrays.copyOf(
+        this.characters, Math.max(end, this.characters.length * 2));
+    }
+    name.getChars(0, name.length(), this.characters, start);
+    this.offsets[index + 1] = end;
+    this.count = index + 1;
+
+    final int[] symbols = padded(name, true, true);
+    for (int i = 0; i + 2 < symbols.length; ++i) {
+      this.post(trigram(symbols[i], symbols[i + 1], symbols[i + 2]), index);
+    }
+    return index;
+  }
+
+  private void post(
+    final int key,
+    final int index)
+  {
+    int[] list = this.postings[key];
+    final int size = this.posting_sizes[key];
+    if (list == null) {
+      list = new int[4];
+      this.postings[key] = list;
+    } else if (list[size - 1] == index) {
+      return;
+    } else if (size == list.length) {
+      list = Arrays.copyOf(list, size * 2);
+      this.postings[key] = list;
+    }
+    list[size] = index;
+    this.posting_sizes[key] = size + 1;
+  }
+
+  private static int[] padded(
+    final String text,
+    final boolean start,
+    final boolean end)
+  {
+    final int length = text.length() + (start ? 1 : 0) + (end ? 1 : 0);
+    final int[] symbols = new int[length];
+    int o = 0;
+    if (start) {
+      symbols[o++] = MARK_START;
+    }
+    for (int i = 0; i < text.length(); ++i) {
+      symbols[o++] = symbol(text.charAt(i));
+    }
+    if (end) {
+      symbols[o] = MARK_END;
+    }
+    return symbols;
+  }
+
+  /**
+   * @return The number of names in the index
+   */
+
+  public int size()
+  {
+    return this.count;
+  }
+
+  /**
+   * @param index The index of a name
+   *
+   * @return The name
+   */
+
+  public String name(
+    final int index)
+  {
+    Objects.checkIndex(index, this.count);
+    final int start = this.offsets[index];
+    return new String(
+      this.characters, start, this.offsets[index + 1] - start);
+  }
+
+  /**
+   * Find names that start with the given prefix.
+   *
+   * @param prefix The prefix
+   * @param limit  The maximum number of results
+   *
+   * @return The indices of at most {@code limit} matching names, in
+   * ascending order
+   */
+
+  public Vector<Integer> prefix(
+    final String prefix,
+    final int limit)
+  {
+    Objects.requireNonNull(prefix, "Prefix");
+    return this.exact(prefix, limit, true);
+  }
+
+  /**
+   * Find names that contain the given text.
+   *
+   * @param text  The text
+   * @param limit The maximum number of results
+   *
+   * @return The indices of at most {@code limit} matching names, in
+   * ascending order
+   */
+
+  public Vector<Integer> substring(
+    final String text,
+    final int limit)
+  {
+    Objects.requireNonNull(text, "Text");
+    return this.exact(text, limit, false);
+  }
+
+  private Vector<Integer> exact(
+    final String text,
+    final int limit,
+    final boolean anchored)
+  {
+    checkLimit(limit);
+
+    final int[] symbols = padded(text, anchored, false);
+    if (symbols.length < 3) {
+      return this.scan(text, limit, anchored);
+    }
+
+    final int[] keys = distinctTrigrams(symbols);
+    for (final int key : keys) {
+      if (this.postings[key] == null) {
+        return Vector.empty();
+      }
+    }
+    this.sortBySize(keys);
+
+    final List<Integer> results = new ArrayList<>();
+    final int[] shortest = this.postings[keys[0]];
+    final int shortest_size = this.posting_sizes[keys[0]];
+    final int[] cursors = new int[keys.length];
+    for (int i = 0; i < shortest_size && results.size() < limit; ++i) {
+      final int candidate = shortest[i];
+      if (this.inAll(keys, cursors, candidate)
+        && this.matches(candidate, text, anchored)) {
+        results.add(Integer.valueOf(candidate));
+      }
+    }
+    return Vector.ofAll(results);
+  }
+
+  /**
+   * Determine if the candidate appears in every posting list after the
+   * first. Candidates are presented in ascending order, so each list is
+   * searched only from the position reached by the previous candidate.
+   */
+
+  private boolean inAll(
+    final int[] keys,
+    final int[] cursors,
+    final int candidate)
+  {
+    for (int k = 1; k < keys.length; ++k) {
+      final int[] list = this.postings[keys[k]];
+      final int size = this.posting_sizes[keys[k]];
+      final int found = Arrays.binarySearch(list, cursors[k], size, candidate);
+      if (found < 0) {
+        cursors[k] = -(found + 1);
+        return false;
+      }
+      cursors[k] = found + 1;
+    }
+    return true;
+  }
+
+  private static int[] distinctTrigrams(
+    final int[] symbols)
+  {
+    final int[] keys = new int[symbols.length - 2];
+    for (int i = 0; i < keys.length; ++i) {
+      keys[i] = trigram(symbols[i], symbols[i + 1], symbols[i + 2]);
+    }
+    return Arrays.stream(keys).distinct().toArray();
+  }
+
+  private void sortBySize(
+    final int[] keys)
+  {
+    for (int i = 1; i < keys.length; ++i) {
+      final int key = keys[i];
+      int j = i - 1;
+      while (j >= 0 && this.posting_sizes[keys[j]] > this.posting_sizes[key]) {
+        keys[j + 1] = keys[j];
+        --j;
+      }
+      keys[j + 1] = key;
+    }
+  }
+
+  private Vector<Integer> scan(
+    final String text,
+    final int limit,
+    final boolean anchored)
+  {
+    final List<Integer> results = new ArrayList<>();
+    for (int index = 0; index < this.count && results.size() < limit; ++index) {
+      if (this.matches(index, text, anchored)) {
+        results.add(Integer.valueOf(index));
+      }
+    }
+    return Vector.ofAll(results);
+  }
+
+  private boolean matches(
+    final int index,
+    final String text,
+    final boolean anchored)
+  {
+    final int start = this.offsets[index];
+    final int length = this.offsets[index + 1] - start;
+    final int last = anchored ? 0 : length - text.length();
+    for (int position = 0; position <= last; ++position) {
+      if (this.matchesAt(start + position, length - position, text)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matchesAt(
+    final int offset,
+    final int available,
+    final String text)
+  {
+    if (text.length() > available) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); ++i) {
+      if (fold(this.characters[offset + i]) != fold(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find names within the given number of edits (insertions, deletions, or
+   * substitutions of single characters) of the given text.
+   *
+   * <p>Each edit changes at most three trigrams of the padded name, so a
+   * name within {@code k} edits of a text with {@code t} distinct trigrams
+   * shares at least {@code t - 3k} of them. Names sharing fewer trigrams are
+   * never examined. If the bound is not positive, every name is
+   * examined.</p>
+   *
+   * @param text      The text
+   * @param max_edits The maximum number of edits
+   * @param limit     The maximum number of results
+   *
+   * @return The indices of at most {@code limit} matching names, nearest
+   * first and then in ascending order
+   */
+
+  public Vector<Integer> fuzzy(
+    final String text,
+    final int max_edits,
+    final int limit)
+  {
+    Objects.requireNonNull(text, "Text");
+    checkLimit(limit);
+    if (max_edits < 0) {
+      throw new IllegalArgumentException(
+        "Maximum edits must be non-negative: " + max_edits);
+    }
+
+    final int[] keys = distinctTrigrams(padded(text, true, true));
+    final int required = keys.length - (3 * max_edits);
+
+    final List<long[]> found = new ArrayList<>();
+    final int[] row0 = new int[text.length() + 1];
+    final int[] row1 = new int[text.length() + 1];
+
+    if (required <= 0) {
+      for (int index = 0; index < this.count; ++index) {
+        this.fuzzyCheck(index, text, max_edits, row0, row1, found);
+      }
+    } else {
+      int total = 0;
+      for (final int key : keys) {
+        total += this.posting_sizes[key];
+      }
+      final int[] all = new int[total];
+      int o = 0;
+      for (final int key : keys) {
+        final int size = this.posting_sizes[key];
+        if (size > 0) {
+          System.arraycopy(this.postings[key], 0, all, o, size);
+          o += size;
+        }
+      }
+      Arrays.sort(all);
+
+      int start = 0;
+      while (start < total) {
+        int end = start + 1;
+        while (end < total && all[end] == all[start]) {
+          ++end;
+        }
+        if (end - start >= required) {
+          this.fuzzyCheck(all[start], text, max_edits, row0, row1, found);
+        }
+        start = end;
+      }
+    }
+
+    found.sort((x, y) -> {
+      final int c = Long.compare(x[0], y[0]);
+      return c != 0 ? c : Long.compare(x[1], y[1]);
+    });
+
+    Vector<Integer> results = Vector.empty();
+    for (int i = 0; i < Math.min(limit, found.size()); ++i) {
+      results = results.append(Integer.valueOf((int) found.get(i)[1]));
+    }
+    return results;
+  }
+
+  private void fuzzyCheck(
+    final int index,
+    final String text,
+    final int max_edits,
+    final int[] row0,
+    final int[] row1,
+    final List<long[]> found)
+  {
+    final int edits = this.editDistance(index, text, max_edits, row0, row1);
+    if (edits <= max_edits) {
+      found.add(new long[]{edits, index});
+    }
+  }
+
+  /**
+   * Calculate the edit distance between a name and the given text, giving
+   * up (and returning a value greater than {@code max_edits}) as soon as
+   * the distance must exceed {@code max_edits}.
+   */
+
+  private int editDistance(
+    final int index,
+    final String text,
+    final int max_edits,
+    final int[] row0,
+    final int[] row1)
+  {
+    final int start = this.offsets[index];
+    final int length = this.offsets[index + 1] - start;
+    final int text_length = text.length();
+    if (Math.abs(length - text_length) > max_edits) {
+      return max_edits + 1;
+    }
+
+    int[] previous = row0;
+    int[] current = row1;
+    for (int j = 0; j <= text_length; ++j) {
+      previous[j] = j;
+    }
+
+    for (int i = 1; i <= length; ++i) {
+      current[0] = i;
+      int row_minimum = i;
+      final char c = fold(this.characters[start + i - 1]);
+      for (int j = 1; j <= text_length; ++j) {
+        final int cost = c == fold(text.charAt(j - 1)) ? 0 : 1;
+        final int value = Math.min(
+          Math.min(current[j - 1] + 1, previous[j] + 1),
+          previous[j - 1] + cost);
+        current[j] = value;
+        row_minimum = Math.min(row_minimum, value);
+      }
+      if (row_minimum > max_edits) {
+        return max_edits + 1;
+      }
+      final int[] t = previous;
+      previous = current;
+      current = t;
+    }
+    return previous[text_length];
+  }
+
+  private static void checkLimit(
+    final int limit)
+  {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Limit must be positive: " + limit);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import io.vavr.collection.Vector;
+import org.immutables.value.Value;
+
+/**
+ * A cluster of voices that are near-duplicates of each other. Clusters are
+ * formed transitively, so two voices in the same cluster may be further
+ * apart than the threshold if they are linked by intermediate voices.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7NearDuplicateClusterType
+{
+  /**
+   * @return The voices in the cluster, in the order that they were added;
+   * there are always at least two
+   */
+
+  @Value.Parameter
+  Vector<Dx7NearDuplicate> voices();
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveD;
+import com.io7m.jranges.RangeInclusiveI;
+import org.immutables.value.Value;
+
+/**
+ * The configuration of a near-duplicate detector.
+ *
+ * <p>Each voice is given a signature of {@code bands * rows} bits, and two
+ * voices become candidates for comparison if all of the bits in any one band
+ * agree. Increasing the number of rows makes candidates rarer; increasing
+ * the number of bands makes it less likely that a near-duplicate is
+ * missed.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7NearDuplicateConfigurationType
+{
+  /**
+   * @return The maximum distance (as given by
+   * {@link Dx7VoiceVectors#distance(byte[], int, byte[], int)}) between
+   * voices that are considered to be near-duplicates
+   */
+
+  @Value.Default
+  default double threshold()
+  {
+    return 0.05;
+  }
+
+  /**
+   * @return The number of signature bands
+   */
+
+  @Value.Default
+  default int bands()
+  {
+    return 16;
+  }
+
+  /**
+   * @return The number of signature bits in each band
+   */
+
+  @Value.Default
+  default int rows()
+  {
+    return 16;
+  }
+
+  /**
+   * @return The maximum number of earlier voices within the same band
+   * bucket that each voice is compared against
+   */
+
+  @Value.Default
+  default int window()
+  {
+    return 32;
+  }
+
+  /**
+   * @return The seed used to generate the signature hyperplanes
+   */
+
+  @Value.Default
+  default long seed()
+  {
+    return 0x4458374c5348L;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    RangeCheck.checkIncludedInDouble(
+      this.threshold(),
+      "Threshold",
+      RangeInclusiveD.of(0.0, 1.0),
+      "Valid thresholds");
+    RangeCheck.checkIncludedInInteger(
+      this.bands(),
+      "Bands",
+      RangeInclusiveI.of(1, 64),
+      "Valid band counts");
+    RangeCheck.checkIncludedInInteger(
+      this.rows(),
+      "Rows",
+      RangeInclusiveI.of(1, 24),
+      "Valid row counts");
+    RangeCheck.checkIncludedInInteger(
+      this.window(),
+      "Window",
+      RangeInclusiveI.of(1, Integer.MAX_VALUE),
+      "Valid windows");
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import io.vavr.collection.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static com.io7m.jdextrosa.library.Dx7VoiceVectors.PARAMETERS;
+
+/**
+ * A near-duplicate detector based on locality-sensitive hashing.
+ *
+ * <p>Each voice is flattened into a weighted parameter vector (see
+ * {@link Dx7VoiceVectors}) and given a SimHash signature: one bit for each
+ * of a set of random hyperplanes, indicating the side of the hyperplane on
+ * which the vector lies. Voices with a small angle between their vectors
+ * are likely to agree on every bit of at least one band of the signature.
+ * Clustering sorts the voices by algorithm and band value once for each
+ * band, compares each voice against a bounded window of the earlier voices
+ * that share its bucket, and joins those within the configured distance.
+ * The cost is therefore {@code O(n log n)} in the number of voices rather
+ * than the {@code O(n²)} of comparing every pair.</p>
+ *
+ * <p>Voices using different algorithms are never near-duplicates. Names
+ * are ignored. Only the parameters, name, and metadata of each voice are
+ * retained. The detector is not thread-safe.</p>
+ */
+
+public final class Dx7NearDuplicateDetector
+{
+  private final Dx7NearDuplicateConfiguration configuration;
+  private final double[][] hyperplanes;
+  private final int words;
+  private final double[] vector;
+  private final List<String> names;
+  private final Dx7VoiceSourceTable sources;
+  private byte[] parameters;
+  private byte[] algorithms;
+  private long[] signatures;
+  private int count;
+
+  private Dx7NearDuplicateDetector(
+    final Dx7NearDuplicateConfiguration in_configuration)
+  {
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "Configuration");
+
+    final int bits = in_configuration.bands() * in_configuration.rows();
+    final Random random = new Random(in_configuration.seed());
+    this.hyperplanes = new double[bits][PARAMETERS];
+    for (int bit = 0; bit < bits; ++bit) {
+      for (int index = 0; index < PARAMETERS; ++index) {
+        this.hyperplanes[bit][index] = random.nextGaussian();
+      }
+    }
+
+    this.words = (bits + 63) / 64;
+    this.vector = new double[PARAMETERS];
+    this.names = new ArrayList<>();
+    this.sources = Dx7VoiceSourceTable.create(64);
+    this.parameters = new byte[64 * PARAMETERS];
+    this.algorithms = new byte[64];
+    this.signatures = new long[64 * this.words];
+  }
+
+  /**
+   * Create a detector.
+   *
+   * @param configuration The configuration
+   *
+   * @return A detector
+   */
+
+  public static Dx7NearDuplicateDetector create(
+    final Dx7NearDuplicateConfiguration configuration)
+  {
+    return new Dx7NearDuplicateDetector(configuration);
+  }
+
+  /**
+   * Find the near-duplicate clusters in a sequence of voices.
+   *
+   * @param configuration The configuration
+   * @param voices        The voices
+   *
+   * @return The clusters
+   */
+
+  public static Vector<Dx7NearDuplicateCluster> clusters(
+    final Dx7NearDuplicateConfiguration configuration,
+    final Iterable<Dx7VoiceNamed> voices)
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    final Dx7NearDuplicateDetector detector = create(configuration);
+    for (final Dx7VoiceNamed voice : voices) {
+      detector.add(voice);
+    }
+    return detector.clusters();
+  }
+
+  /**
+   * Add a voice.
+   *
+   * @param voice The voice
+   *
+   * @return The index of the voice
+   */
+
+  public int add(
+    final Dx7VoiceNamed voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    final int index = this.count;
+    this.reserve(index + 1);
+
+    final int offset = index * PARAMETERS;
+    Dx7VoiceVectors.parameters(voice.voice(), this.parameters, offset);
+    Dx7VoiceVectors.centered(this.parameters, offset, this.vector);
+
+    final int sig_offset = index * this.words;
+    for (int bit = 0; bit < this.hyperplanes.length; ++bit) {
+      final double[] plane = this.hyperplanes[bit];
+      double dot = 0.0;
+      for (int p = 0; p < PARAMETERS; ++p) {
+        dot += plane[p] * this.vector[p];
+      }
+      if (dot >= 0.0) {
+        this.signatures[sig_offset + (bit >>> 6)] |= 1L << (bit & 63);
+      }
+    }
+
+    this.algorithms[index] = (byte) (voice.voice().algorithm().id() - 1);
+    this.names.add(voice.name());
+    this.sources.add(voice.metadata(), voice.name());
+    this.count = index + 1;
+    return index;
+  }
+
+  private void reserve(
+    final int required)
+  {
+    if (required <= this.algorithms.length) {
+      return;
+    }
+
+    final int capacity = Math.max(required, this.algorithms.length * 2);
+    this.parameters = Arrays.copyOf(
+      this.parameters, Math.multiplyExact(capacity, PARAMETERS));
+    this.algorithms = Arrays.copyOf(this.algorithms, capacity);
+    this.signatures = Arrays.copyOf(
+      this.signatures, Math.multiplyExact(capacity, this.words));
+  }
+
+  /**
+   * @return The number of voices added
+   */
+
+  public int size()
+  {
+    return this.count;
+  }
+
+  /**
+   * Calculate the near-duplicate clusters of the voices added so far.
+   *
+   * @return The clusters, in the order that their first voices were added
+   */
+
+  public Vector<Dx7NearDuplicateCluster> clusters()
+  {
+    final int n = this.count;
+    final int[] parent = new int[n];
+    for (int index = 0; index < n; ++index) {
+      parent[index] = index;
+    }
+
+    final int rows = this.configuration.rows();
+    final int window = this.configuration.window();
+    final double threshold = this.configuration.threshold();
+    final long[] keys = new long[n];
+
+    for (int band = 0; band < this.configuration.bands(); ++band) {
+      for (int index = 0; index < n; ++index) {
+        final long bucket =
+          ((long) this.algorithms[index] << rows) | this.band(index, band);
+        keys[index] = (bucket << 32) | (long) index;
+      }
+      Arrays.sort(keys);
+
+      int start = 0;
+      while (start < n) {
+        final long bucket = keys[start] >>> 32;
+        int end = start + 1;
+        while (end < n && (keys[end] >>> 32) == bucket) {
+          ++end;
+        }
+
+        for (int p = start + 1; p < end; ++p) {
+          final int x = (int) keys[p];
+          for (int q = Math.max(start, p - window); q < p; ++q) {
+            final int y = (int) keys[q];
+            if (find(parent, x) != find(parent, y)
+              && this.near(x, y, threshold)) {
+              union(parent, x, y);
+            }
+          }
+        }
+        start = end;
+      }
+    }
+
+    return this.collect(parent);
+  }
+
+  private boolean near(
+    final int x,
+    final int y,
+    final double threshold)
+  {
+    return Dx7VoiceVectors.distance(
+      this.parameters,
+      x * PARAMETERS,
+      this.parameters,
+      y * PARAMETERS) <= threshold;
+  }
+
+  private long band(
+    final int index,
+    final int band)
+  {
+    final int rows = this.configuration.rows();
+    final int base = index * this.words;
+    long value = 0L;
+    for (int row = 0; row < rows; ++row) {
+      final int bit = (band * rows) + row;
+      final long word = this.signatures[base + (bit >>> 6)];
+      value |= ((word >>> (bit & 63)) & 1L) << row;
+    }
+    return value;
+  }
+
+  private Vector<Dx7NearDuplicateCluster> collect(
+    final int[] parent)
+  {
+    final int n = this.count;
+    final int[] sizes = new int[n];
+    for (int index = 0; index < n; ++index) {
+      ++sizes[find(parent, index)];
+    }
+
+    /*
+     * The root of each set is its smallest index, so a cluster begins at
+     * its root and the clusters are naturally ordered by first voice.
+     */
+
+    final List<List<Dx7NearDuplicate>> members = new ArrayList<>();
+    final int[] cluster_of = new int[n];
+    for (int index = 0; index < n; ++index) {
+      final int root = find(parent, index);
+      if (sizes[root] < 2) {
+        continue;
+      }
+      if (root == index) {
+        cluster_of[root] = members.size();
+        members.add(new ArrayList<>(sizes[root]));
+      }
+
+      final double distance =
+        Dx7VoiceVectors.distance(
+          this.parameters,
+          root * PARAMETERS,
+          this.parameters,
+          index * PARAMETERS);
+
+      members.get(cluster_of[root]).add(Dx7NearDuplicate.of(
+        index,
+        this.names.get(index),
+        this.sources.metadata(index, this.names.get(index)),
+        distance));
+    }
+
+    Vector<Dx7NearDuplicateCluster> clusters = Vector.empty();
+    for (final List<Dx7NearDuplicate> cluster : members) {
+      clusters = clusters.append(
+        Dx7NearDuplicateCluster.of(Vector.ofAll(cluster)));
+    }
+    return clusters;
+  }
+
+  private static int find(
+    final int[] parent,
+    final int index)
+  {
+    int current = index;
+    while (parent[current] != current) {
+      parent[current] = parent[parent[current]];
+      current = parent[current];
+    }
+    return current;
+  }
+
+  private static void union(
+    final int[] parent,
+    final int x,
+    final int y)
+  {
+    final int root_x = find(parent, x);
+    final int root_y = find(parent, y);
+    if (root_x < root_y) {
+      parent[root_y] = root_x;
+    } else if (root_y < root_x) {
+      parent[root_x] = root_y;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import io.vavr.collection.Vector;
+
+import java.util.Objects;
+
+/**
+ * A query over the fields of voices, evaluated against a
+ * {@link Dx7QueryIndex}. Queries are immutable and may be reused.
+ */
+
+public abstract class Dx7Query
+{
+  private Dx7Query()
+  {
+
+  }
+
+  /**
+   * @return A query matching every voice
+   */
+
+  public static Dx7Query all()
+  {
+    return All.INSTANCE;
+  }
+
+  /**
+   * @param field The field
+   * @param value The value
+   *
+   * @return A query matching voices where {@code field == value}
+   */
+
+  public static Dx7Query equalTo(
+    final Dx7QueryField field,
+    final int value)
+  {
+    return between(field, value, value);
+  }
+
+  /**
+   * @param field The field
+   * @param value The value
+   *
+   * @return A query matching voices where {@code field >= value}
+   */
+
+  public static Dx7Query atLeast(
+    final Dx7QueryField field,
+    final int value)
+  {
+    return between(field, value, field.maximum());
+  }
+
+  /**
+   * @param field The field
+   * @param value The value
+   *
+   * @return A query matching voices where {@code field <= value}
+   */
+
+  public static Dx7Query atMost(
+    final Dx7QueryField field,
+    final int value)
+  {
+    return between(field, field.minimum(), value);
+  }
+
+  /**
+   * @param field The field
+   * @param lower The inclusive lower bound
+   * @param upper The inclusive upper bound
+   *
+   * @return A query matching voices where
+   * {@code lower <= field && field <= upper}
+   */
+
+  public static Dx7Query between(
+    final Dx7QueryField field,
+    final int lower,
+    final int upper)
+  {
+    return new Between(Objects.requireNonNull(field, "Field"), lower, upper);
+  }
+
+  /**
+   * @param queries The queries
+   *
+   * @return A query matching voices that match all of the given queries
+   */
+
+  public static Dx7Query and(
+    final Dx7Query... queries)
+  {
+    return new And(Vector.of(queries));
+  }
+
+  /**
+   * @param queries The queries
+   *
+   * @return A query matching voices that match any of the given queries
+   */
+
+  public static Dx7Query or(
+    final Dx7Query... queries)
+  {
+    return new Or(Vector.of(queries));
+  }
+
+  /**
+   * @param query The query
+   *
+   * @return A query matching voices that do not match the given query
+   */
+
+  public static Dx7Query not(
+    final Dx7Query query)
+  {
+    return new Not(Objects.requireNonNull(query, "Query"));
+  }
+
+  abstract Dx7Bitmap evaluate(Dx7QueryIndex index);
+
+  private static final class All extends Dx7Query
+  {
+    private static final All INSTANCE = new All();
+
+    @Override
+    Dx7Bitmap evaluate(
+      final Dx7QueryIndex index)
+    {
+      return index.all();
+    }
+
+    @Override
+    public String toString()
+    {
+      return "all";
+    }
+  }
+
+  private static final class Between extends Dx7Query
+  {
+    private final Dx7QueryField field;
+    private final int lower;
+    private final int upper;
+
+    Between(
+      final Dx7QueryField in_field,
+      final int in_lower,
+      final int in_upper)
+    {
+      this.field = in_field;
+      this.lower = Math.max(in_lower, in_field.minimum());
+      this.upper = Math.min(in_upper, in_field.maximum());
+    }
+
+    @Override
+    Dx7Bitmap evaluate(
+      final Dx7QueryIndex index)
+    {
+      if (this.lower > this.upper) {
+        return Dx7Bitmap.create();
+      }
+      if (this.lower == this.field.minimum()
+        && this.upper == this.field.maximum()) {
+        return index.all();
+      }
+
+      Dx7Bitmap result = index.bitmap(this.field, this.lower);
+      for (int value = this.lower + 1; value <= this.upper; ++value) {
+        result = Dx7Bitmap.or(result, index.bitmap(this.field, value));
+      }
+      return result;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format(
+        "%d <= %s <= %d",
+        Integer.valueOf(this.lower),
+        this.field,
+        Integer.valueOf(this.upper));
+    }
+  }
+
+  private static final class And extends Dx7Query
+  {
+    private final Vector<Dx7Query> queries;
+
+    And(
+      final Vector<Dx7Query> in_queries)
+    {
+      this.queries = in_queries;
+    }
+
+    @Override
+    Dx7Bitmap evaluate(
+      final Dx7QueryIndex index)
+    {
+      if (this.queries.isEmpty()) {
+        return index.all();
+      }
+
+      Dx7Bitmap result = this.queries.get(0).evaluate(index);
+      for (int i = 1; i < this.queries.size(); ++i) {
+        if (result.cardinality() == 0) {
+          break;
+        }
+        result = Dx7Bitmap.and(result, this.queries.get(i).evaluate(index));
+      }
+      return result;
+    }
+
+    @Override
+    public String toString()
+    {
+      return this.queries.mkString("(", " and ", ")");
+    }
+  }
+
+  private static final class Or extends Dx7Query
+  {
+    private final Vector<Dx7Query> queries;
+
+    Or(
+      final Vector<Dx7Query> in_queries)
+    {
+      this.queries = in_queries;
+    }
+
+    @Override
+    Dx7Bitmap evaluate(
+      final Dx7QueryIndex index)
+    {
+      Dx7Bitmap result = Dx7Bitmap.create();
+      for (final Dx7Query query : this.queries) {
+        result = Dx7Bitmap.or(result, query.evaluate(index));
+      }
+      return result;
+    }
+
+    @Override
+    public String toString()
+    {
+      return this.queries.mkString("(", " or ", ")");
+    }
+  }
+
+  private static final class Not extends Dx7Query
+  {
+    private final Dx7Query query;
+
+    Not(
+      final Dx7Query in_query)
+    {
+      this.query = in_query;
+    }
+
+    @Override
+    Dx7Bitmap evaluate(
+      final Dx7QueryIndex index)
+    {
+      return Dx7Bitmap.andNot(index.all(), this.query.evaluate(index));
+    }
+
+    @Override
+    public String toString()
+    {
+      return "not " + this.query;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7OperatorType;
+import com.io7m.jdextrosa.core.Dx7Voice;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * The fields of a voice that can be queried.
+ *
+ * @see Dx7QueryIndex
+ */
+
+public enum Dx7QueryField
+{
+  /**
+   * The algorithm number, {@code [1, 32]}.
+   */
+
+  ALGORITHM(1, 32, v -> v.algorithm().id()),
+
+  /**
+   * The feedback level, {@code [0, 7]}.
+   */
+
+  FEEDBACK(0, 7, Dx7Voice::feedback),
+
+  /**
+   * The transposition in semitones, {@code [-24, 24]}.
+   */
+
+  TRANSPOSE(-24, 24, Dx7Voice::transpose),
+
+  /**
+   * The LFO waveform (see {@link Dx7Voice#lfoWave()}), {@code [0, 5]}.
+   */
+
+  LFO_WAVE(0, 5, v -> v.lfoWave().external()),
+
+  /**
+   * {@code 1} if LFO key sync is enabled, {@code 0} otherwise.
+   */
+
+  LFO_KEY_SYNC(0, 1, v -> v.lfoKeySync() ? 1 : 0),
+
+  /**
+   * {@code 1} if oscillator key sync is enabled, {@code 0} otherwise.
+   */
+
+  OSCILLATOR_KEY_SYNC(0, 1, v -> v.oscillatorKeySync() ? 1 : 0),
+
+  /**
+   * The number of operators in fixed frequency mode, {@code [0, 6]}.
+   */
+
+  FIXED_OPERATORS(0, 6, Dx7QueryField::fixedOperators);
+
+  private final int minimum;
+  private final int maximum;
+  private final ToIntFunction<Dx7Voice> extractor;
+
+  Dx7QueryField(
+    final int in_minimum,
+    final int in_maximum,
+    final ToIntFunction<Dx7Voice> in_extractor)
+  {
+    this.minimum = in_minimum;
+    this.maximum = in_maximum;
+    this.extractor = in_extractor;
+  }
+
+  private static int fixed(
+    final Dx7Operator op)
+  {
+    return op.oscillatorMode() == Dx7OperatorType.OscillatorMode.FIXED ? 1 : 0;
+  }
+
+  private static int fixedOperators(
+    final Dx7Voice voice)
+  {
+    return fixed(voice.operator1())
+      + fixed(voice.operator2())
+      + fixed(voice.operator3())
+      + fixed(voice.operator4())
+      + fixed(voice.operator5())
+      + fixed(voice.operator6());
+  }
+
+  /**
+   * @return The smallest value of the field
+   */
+
+  public int minimum()
+  {
+    return this.minimum;
+  }
+
+  /**
+   * @return The largest value of the field
+   */
+
+  public int maximum()
+  {
+    return this.maximum;
+  }
+
+  /**
+   * @param voice A voice
+   *
+   * @return The value of the field for the given voice
+   */
+
+  public int value(
+    final Dx7Voice voice)
+  {
+    return this.extractor.applyAsInt(voice);
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7Voice;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import io.vavr.collection.Vector;
+
+import java.util.Objects;
+
+/**
+ * A bitmap index over the fields of voices (see {@link Dx7QueryField}).
+ *
+ * <p>For each value of each field, the index holds a compressed bitmap
+ * (see {@link Dx7Bitmap}) of the voices that have that value. Queries (see
+ * {@link Dx7Query}) are evaluated by combining bitmaps, and facet counts are
+ * the sizes of the intersections of a query result with the bitmaps of
+ * each value of a field; individual voices are never examined. The index
+ * is built incrementally. Queries may be evaluated concurrently with each
+ * other, but not with {@link #add(Dx7Voice)}.</p>
+ */
+
+public final class Dx7QueryIndex
+{
+  private static final Dx7QueryField[] FIELDS = Dx7QueryField.values();
+
+  private final Dx7Bitmap[][] bitmaps;
+  private int count;
+
+  private Dx7QueryIndex()
+  {
+    this.bitmaps = new Dx7Bitmap[FIELDS.length][];
+    for (final Dx7QueryField field : FIELDS) {
+      final Dx7Bitmap[] values =
+        new Dx7Bitmap[(field.maximum() - field.minimum()) + 1];
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = Dx7Bitmap.create();
+      }
+      this.bitmaps[field.ordinal()] = values;
+    }
+  }
+
+  /**
+   * @return A new empty index
+   */
+
+  public static Dx7QueryIndex create()
+  {
+    return new Dx7QueryIndex();
+  }
+
+  /**
+   * Create an index of the given voices.
+   *
+   * @param voices The voices
+   *
+   * @return An index
+   */
+
+  public static Dx7QueryIndex of(
+    final Iterable<Dx7Voice> voices)
+  {
+    Objects.requireNonNull(voices, "Voices");
+
+    final Dx7QueryIndex index = create();
+    for (final Dx7Voice voice : voices) {
+      index.add(voice);
+    }
+    return index;
+  }
+
+  /**
+   * Add a voice to the index.
+   *
+   * @param voice The voice
+   *
+   * @return The index of the voice
+   */
+
+  public int add(
+    final Dx7Voice voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    final int index = this.count;
+    for (final Dx7QueryField field : FIELDS) {
+      this.bitmaps[field.ordinal()][field.value(voice) - field.minimum()]
+        .append(index);
+    }
+    this.count = index + 1;
+    return index;
+  }
+
+  /**
+   * @return The number of voices in the index
+   */
+
+  public int size()
+  {
+    return this.count;
+  }
+
+  Dx7Bitmap all()
+  {
+    return Dx7Bitmap.range(this.count);
+  }
+
+  Dx7Bitmap bitmap(
+    final Dx7QueryField field,
+    final int value)
+  {
+    return this.bitmaps[field.ordinal()][value - field.minimum()];
+  }
+
+  /**
+   * Evaluate a query.
+   *
+   * @param query The query
+   *
+   * @return The indices of the matching voices
+   */
+
+  public Dx7Bitmap evaluate(
+    final Dx7Query query)
+  {
+    Objects.requireNonNull(query, "Query");
+    return query.evaluate(this);
+  }
+
+  /**
+   * Evaluate a query and return the indices of some of the matching voices.
+   *
+   * @param query The query
+   * @param skip  The number of matching voices to skip
+   * @param limit The maximum number of voices to return
+   *
+   * @return The indices of at most {@code limit} matching voices, in
+   * ascending order
+   */
+
+  public Vector<Integer> matches(
+    final Dx7Query query,
+    final int skip,
+    final int limit)
+  {
+    if (limit < 0 || skip < 0) {
+      throw new IllegalArgumentException(
+        "Skip and limit must be non-negative");
+    }
+
+    final Dx7Bitmap bitmap = this.evaluate(query);
+    final int available = Math.max(0, bitmap.cardinality() - skip);
+    final int[] output = new int[Math.min(limit, available)];
+    final int copied = bitmap.copy(skip, output);
+    return Vector.ofAll(output).take(copied);
+  }
+
+  /**
+   * Count the voices matching a query.
+   *
+   * @param query The query
+   *
+   * @return The number of matching voices
+   */
+
+  public int count(
+    final Dx7Query query)
+  {
+    return this.evaluate(query).cardinality();
+  }
+
+  /**
+   * Calculate the facet counts for a field over the given matches.
+   *
+   * @param matches The result of evaluating a query
+   * @param field   The field
+   *
+   * @return The number of matching voices having each value of the field,
+   * omitting values with no matching voices
+   */
+
+  public SortedMap<Integer, Integer> facets(
+    final Dx7Bitmap matches,
+    final Dx7QueryField field)
+  {
+    Objects.requireNonNull(matches, "Matches");
+    Objects.requireNonNull(field, "Field");
+
+    SortedMap<Integer, Integer> result = TreeMap.empty();
+    for (int value = field.minimum(); value <= field.maximum(); ++value) {
+      final int n = Dx7Bitmap.andCardinality(matches, this.bitmap(field, value));
+      if (n > 0) {
+        result = result.put(Integer.valueOf(value), Integer.valueOf(n));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Calculate the facet counts for a field over the voices matching a query.
+   *
+   * @param query The query
+   * @param field The field
+   *
+   * @return The number of matching voices having each value of the field,
+   * omitting values with no matching voices
+   */
+
+  public SortedMap<Integer, Integer> facets(
+    final Dx7Query query,
+    final Dx7QueryField field)
+  {
+    return this.facets(this.evaluate(query), field);
+  }
+}
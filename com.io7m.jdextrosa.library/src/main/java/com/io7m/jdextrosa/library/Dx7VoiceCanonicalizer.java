@@ -0,0 +1,403 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7AlgorithmID;
+import com.io7m.jdextrosa.core.Dx7AlgorithmOperators;
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7OperatorID;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Functions to map voices to a canonical form, such that voices that
+ * differ only in ways that cannot be heard have the same canonical form.
+ *
+ * <ul>
+ * <li>An operator is silent if it is disabled, if its output level is
+ * zero, or if it is a modulator and every operator that it modulates is
+ * silent. Silent operators are replaced with a disabled operator with
+ * default parameters and an output level of zero.</li>
+ * <li>If the feedback source or target is silent, the feedback level is
+ * irrelevant and is set to zero.</li>
+ * <li>Operators that occupy interchangeable positions in the algorithm
+ * (such as any two operators of algorithm 32, or the two stacks of
+ * algorithm 5) are permuted into a canonical order. The permutations
+ * considered are the automorphisms of the modulation graph of the
+ * algorithm, which are computed once from the tables in
+ * {@link Dx7AlgorithmOperators}.</li>
+ * </ul>
+ *
+ * Voices using different algorithms are never considered equivalent.
+ */
+
+public final class Dx7VoiceCanonicalizer
+{
+  private static final int OPERATORS = 6;
+  private static final int PACKED_OPERATOR_SIZE = 17;
+
+  /*
+   * The automorphisms of each algorithm, indexed by algorithm number - 1,
+   * with the feedback edge included (index 0) and excluded (index 1).
+   */
+
+  private static final int[][][][] AUTOMORPHISMS = automorphismsAll();
+
+  private Dx7VoiceCanonicalizer()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Canonicalize a named voice. The name and metadata are unchanged.
+   *
+   * @param voice The voice
+   *
+   * @return The voice in canonical form
+   */
+
+  public static Dx7VoiceNamed canonicalize(
+    final Dx7VoiceNamed voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+    return Dx7VoiceNamed.of(
+      voice.name(), canonicalize(voice.voice()), voice.metadata());
+  }
+
+  /**
+   * Canonicalize a voice.
+   *
+   * @param voice The voice
+   *
+   * @return The voice in canonical form
+   */
+
+  public static Dx7Voice canonicalize(
+    final Dx7Voice voice)
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    final Dx7AlgorithmID algorithm = voice.algorithm();
+    final int[] targets = new int[OPERATORS];
+    final Dx7Operator[] operators = new Dx7Operator[OPERATORS];
+    for (int index = 0; index < OPERATORS; ++index) {
+      final Dx7OperatorID id = Dx7OperatorID.of(index + 1);
+      targets[index] = Dx7AlgorithmOperators.targetMask(algorithm, id);
+      operators[index] = operator(voice, index + 1);
+    }
+
+    final int audible = audibleMask(operators, targets);
+    for (int index = 0; index < OPERATORS; ++index) {
+      if ((audible & (1 << index)) == 0) {
+        operators[index] = silent(index + 1);
+      }
+    }
+
+    final int feedback_source =
+      Dx7AlgorithmOperators.feedbackSource(algorithm).id() - 1;
+    final int feedback_target =
+      Dx7AlgorithmOperators.feedbackTarget(algorithm).id() - 1;
+    final boolean feedback_audible =
+      (audible & (1 << feedback_source)) != 0
+        && (audible & (1 << feedback_target)) != 0;
+    final int feedback = feedback_audible ? voice.feedback() : 0;
+
+    final Dx7Voice muted =
+      Dx7Voice.builder()
+        .from(voice)
+        .setFeedback(feedback)
+        .setOperator1(operators[0])
+        .setOperator2(operators[1])
+        .setOperator3(operators[2])
+        .setOperator4(operators[3])
+        .setOperator5(operators[4])
+        .setOperator6(operators[5])
+        .build();
+
+    final int[][] permutations =
+      AUTOMORPHISMS[algorithm.id() - 1][feedback == 0 ? 1 : 0];
+    if (permutations.length == 1) {
+      return muted;
+    }
+    return permute(muted, operators, permutations);
+  }
+
+  /**
+   * Choose the automorphism that yields the smallest sequence of packed
+   * operators, comparing operator 1 first.
+   */
+
+  private static Dx7Voice permute(
+    final Dx7Voice voice,
+    final Dx7Operator[] operators,
+    final int[][] permutations)
+  {
+    final byte[] packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    Dx7SysExIO.packVoice(
+      Dx7VoiceNamed.of("", voice, Optional.empty()), packed);
+
+    int[] best = permutations[0];
+    for (int index = 1; index < permutations.length; ++index) {
+      final int[] candidate = permutations[index];
+      if (compare(packed, candidate, best) < 0) {
+        best = candidate;
+      }
+    }
+
+    /*
+     * The automorphisms of an algorithm form a group, so the inverse of each
+     * permutation is also in the set. Each permutation is therefore read as
+     * giving, for each position, the operator that moves to that position;
+     * that operator must take the ID of the position.
+     */
+
+    final Dx7Operator[] result = new Dx7Operator[OPERATORS];
+    for (int position = 0; position < OPERATORS; ++position) {
+      result[position] =
+        Dx7Operator.builder()
+          .from(operators[best[position]])
+          .setId(Dx7OperatorID.of(position + 1))
+          .build();
+    }
+
+    return Dx7Voice.builder()
+      .from(voice)
+      .setOperator1(result[0])
+      .setOperator2(result[1])
+      .setOperator3(result[2])
+      .setOperator4(result[3])
+      .setOperator5(result[4])
+      .setOperator6(result[5])
+      .build();
+  }
+
+  /**
+   * Compare the operator sequences produced by two permutations, where
+   * position {@code p} of the result of permutation {@code x} holds operator
+   * {@code x[p]}.
+   */
+
+  private static int compare(
+    final byte[] packed,
+    final int[] x,
+    final int[] y)
+  {
+    for (int position = 0; position < OPERATORS; ++position) {
+      final int x_op = x[position];
+      final int y_op = y[position];
+      if (x_op == y_op) {
+        continue;
+      }
+
+      /*
+       * Operators are packed in the order 6, 5, ..., 1.
+       */
+
+      final int x_offset = (OPERATORS - 1 - x_op) * PACKED_OPERATOR_SIZE;
+      final int y_offset = (OPERATORS - 1 - y_op) * PACKED_OPERATOR_SIZE;
+      for (int octet = 0; octet < PACKED_OPERATOR_SIZE; ++octet) {
+        final int c = Integer.compare(
+          packed[x_offset + octet] & 0xff,
+          packed[y_offset + octet] & 0xff);
+        if (c != 0) {
+          return c;
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Determine the operators that can be heard. Carriers are audible if they
+   * are enabled with a non-zero output level; modulators are audible if
+   * they are enabled with a non-zero output level and modulate at least
+   * one audible operator.
+   */
+
+  private static int audibleMask(
+    final Dx7Operator[] operators,
+    final int[] targets)
+  {
+    int sounding = 0;
+    for (int index = 0; index < OPERATORS; ++index) {
+      final Dx7Operator op = operators[index];
+      if (op.isEnabled() && op.outputLevel() > 0) {
+        sounding |= 1 << index;
+      }
+    }
+
+    /*
+     * Modulation chains are at most six operators long, so iterating to a
+     * fixed point takes at most six passes.
+     */
+
+    int audible = 0;
+    for (int index = 0; index < OPERATORS; ++index) {
+      if (targets[index] == 0 && (sounding & (1 << index)) != 0) {
+        audible |= 1 << index;
+      }
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int index = 0; index < OPERATORS; ++index) {
+        final int bit = 1 << index;
+        if ((audible & bit) == 0
+          && (sounding & bit) != 0
+          && (targets[index] & audible) != 0) {
+          audible |= bit;
+          changed = true;
+        }
+      }
+    }
+    return audible;
+  }
+
+  private static Dx7Operator silent(
+    final int id)
+  {
+    return Dx7Operator.builder()
+      .setId(Dx7OperatorID.of(id))
+      .setEnabled(false)
+      .setOutputLevel(0)
+      .build();
+  }
+
+  private static Dx7Operator operator(
+    final Dx7Voice voice,
+    final int id)
+  {
+    switch (id) {
+      case 1:
+        return voice.operator1();
+      case 2:
+        return voice.operator2();
+      case 3:
+        return voice.operator3();
+      case 4:
+        return voice.operator4();
+      case 5:
+        return voice.operator5();
+      case 6:
+        return voice.operator6();
+      default:
+        throw new UnreachableCodeException();
+    }
+  }
+
+  private static int[][][][] automorphismsAll()
+  {
+    final int[][][][] result = new int[32][2][][];
+    for (int algorithm = 1; algorithm <= 32; ++algorithm) {
+      final Dx7AlgorithmID id = Dx7AlgorithmID.of(algorithm);
+      result[algorithm - 1][0] = automorphisms(id, true);
+      result[algorithm - 1][1] = automorphisms(id, false);
+    }
+    return result;
+  }
+
+  /**
+   * Find every permutation of the operators that preserves the modulation
+   * edges of the algorithm (and, optionally, the feedback edge). The
+   * identity is always first.
+   */
+
+  private static int[][] automorphisms(
+    final Dx7AlgorithmID algorithm,
+    final boolean feedback)
+  {
+    final boolean[][] edges = new boolean[OPERATORS][OPERATORS];
+    for (int source = 0; source < OPERATORS; ++source) {
+      final int mask = Dx7AlgorithmOperators.targetMask(
+        algorithm, Dx7OperatorID.of(source + 1));
+      for (int target = 0; target < OPERATORS; ++target) {
+        edges[source][target] = (mask & (1 << target)) != 0;
+      }
+    }
+
+    /*
+     * The feedback edge is kept separate from the modulation edges so that
+     * a permutation cannot exchange one for the other.
+     */
+
+    final boolean[][] feedback_edges = new boolean[OPERATORS][OPERATORS];
+    if (feedback) {
+      final int source =
+        Dx7AlgorithmOperators.feedbackSource(algorithm).id() - 1;
+      final int target =
+        Dx7AlgorithmOperators.feedbackTarget(algorithm).id() - 1;
+      feedback_edges[source][target] = true;
+    }
+
+    final List<int[]> found = new ArrayList<>();
+    permutations(new int[OPERATORS], 0, 0, edges, feedback_edges, found);
+    return found.toArray(new int[0][]);
+  }
+
+  private static void permutations(
+    final int[] permutation,
+    final int position,
+    final int used,
+    final boolean[][] edges,
+    final boolean[][] feedback_edges,
+    final List<int[]> found)
+  {
+    if (position == OPERATORS) {
+      if (preserves(permutation, edges)
+        && preserves(permutation, feedback_edges)) {
+        found.add(permutation.clone());
+      }
+      return;
+    }
+
+    for (int candidate = 0; candidate < OPERATORS; ++candidate) {
+      if ((used & (1 << candidate)) == 0) {
+        permutation[position] = candidate;
+        permutations(
+          permutation,
+          position + 1,
+          used | (1 << candidate),
+          edges,
+          feedback_edges,
+          found);
+      }
+    }
+  }
+
+  private static boolean preserves(
+    final int[] permutation,
+    final boolean[][] edges)
+  {
+    for (int source = 0; source < OPERATORS; ++source) {
+      for (int target = 0; target < OPERATORS; ++target) {
+        if (edges[source][target]
+          != edges[permutation[source]][permutation[target]]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.RangeInclusiveD;
+import io.vavr.collection.Vector;
+import org.immutables.value.Value;
+
+/**
+ * An algorithm-aware distance between voices.
+ *
+ * <p>Each voice is flattened into parameters (see {@link Dx7VoiceVectors})
+ * and each normalized parameter is multiplied by its weight. Parameters of
+ * an operator are additionally multiplied by the carrier weight or the
+ * modulator weight according to the role that the operator plays in the
+ * algorithm of the voice. The distance is the Euclidean distance between
+ * the resulting vectors, combined with a fixed penalty if the voices use
+ * different algorithms. The distance is a metric.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7VoiceDistanceType
+{
+  /**
+   * @return The weight of each of the {@link Dx7VoiceVectors#PARAMETERS}
+   * parameters
+   */
+
+  @Value.Default
+  default Vector<Double> parameterWeights()
+  {
+    return Vector.range(0, Dx7VoiceVectors.PARAMETERS)
+      .map(i -> Double.valueOf(Dx7VoiceVectors.weight(i.intValue())));
+  }
+
+  /**
+   * @return The factor applied to the parameters of carrier operators
+   */
+
+  @Value.Default
+  default double carrierWeight()
+  {
+    return 1.5;
+  }
+
+  /**
+   * @return The factor applied to the parameters of modulator operators
+   */
+
+  @Value.Default
+  default double modulatorWeight()
+  {
+    return 1.0;
+  }
+
+  /**
+   * @return The distance added (in quadrature) between voices that use
+   * different algorithms
+   */
+
+  @Value.Default
+  default double algorithmPenalty()
+  {
+    return 4.0;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final RangeInclusiveD non_negative =
+      RangeInclusiveD.of(0.0, Double.MAX_VALUE);
+
+    if (this.parameterWeights().size() != Dx7VoiceVectors.PARAMETERS) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Expected %d parameter weights, but received %d",
+          Integer.valueOf(Dx7VoiceVectors.PARAMETERS),
+          Integer.valueOf(this.parameterWeights().size())));
+    }
+    for (final Double weight : this.parameterWeights()) {
+      RangeCheck.checkIncludedInDouble(
+        weight.doubleValue(), "Parameter weight", non_negative, "Valid weights");
+    }
+    RangeCheck.checkIncludedInDouble(
+      this.carrierWeight(), "Carrier weight", non_negative, "Valid weights");
+    RangeCheck.checkIncludedInDouble(
+      this.modulatorWeight(), "Modulator weight", non_negative, "Valid weights");
+    RangeCheck.checkIncludedInDouble(
+      this.algorithmPenalty(), "Algorithm penalty", non_negative, "Valid penalties");
+  }
+}
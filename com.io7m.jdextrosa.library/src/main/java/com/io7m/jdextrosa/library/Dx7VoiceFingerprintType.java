@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+/**
+ * A 128-bit fingerprint of the parameters of a voice.
+ *
+ * @see Dx7VoiceFingerprints
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7VoiceFingerprintType
+{
+  /**
+   * @return The high 64 bits of the fingerprint
+   */
+
+  @Value.Parameter
+  long high();
+
+  /**
+   * @return The low 64 bits of the fingerprint
+   */
+
+  @Value.Parameter
+  long low();
+
+  /**
+   * @return The fingerprint as a 32 digit hexadecimal string
+   */
+
+  default String show()
+  {
+    return String.format("%016x%016x", Long.valueOf(this.high()), Long.valueOf(this.low()));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Objects;
+
+/**
+ * Functions to fingerprint voices. A fingerprint is the 128-bit MurmurHash3
+ * (x64 variant) of the 128 octet packed form of the voice followed by the
+ * mask of enabled operators. The name of the voice is optionally excluded
+ * by hashing spaces in place of it. Voice metadata is never included.
+ */
+
+public final class Dx7VoiceFingerprints
+{
+  /**
+   * The offset of the name in the packed form of a voice.
+   */
+
+  public static final int PACKED_NAME_OFFSET = 118;
+
+  /**
+   * The size of the data that is hashed to produce a fingerprint.
+   */
+
+  public static final int FINGERPRINT_DATA_SIZE =
+    Dx7SysExIO.PACKED_VOICE_SIZE + 1;
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private Dx7VoiceFingerprints()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Fingerprint a voice.
+   *
+   * @param voice        The voice
+   * @param include_name {@code true} if the name of the voice should
+   *                     contribute to the fingerprint
+   *
+   * @return A fingerprint
+   */
+
+  public static Dx7VoiceFingerprint fingerprint(
+    final Dx7VoiceNamed voice,
+    final boolean include_name)
+  {
+    final long[] hash = new long[2];
+    fingerprint(voice, include_name, new byte[FINGERPRINT_DATA_SIZE], hash);
+    return Dx7VoiceFingerprint.of(hash[0], hash[1]);
+  }
+
+  /**
+   * Fingerprint a voice without allocating.
+   *
+   * @param voice        The voice
+   * @param include_name {@code true} if the name of the voice should
+   *                     contribute to the fingerprint
+   * @param buffer       A buffer of at least {@link #FINGERPRINT_DATA_SIZE}
+   *                     octets
+   * @param output       An array of at least two elements that will receive
+   *                     the high and low 64 bits of the fingerprint
+   */
+
+  public static void fingerprint(
+    final Dx7VoiceNamed voice,
+    final boolean include_name,
+    final byte[] buffer,
+    final long[] output)
+  {
+    Objects.requireNonNull(voice, "Voice");
+    Objects.requireNonNull(buffer, "Buffer");
+    Objects.requireNonNull(output, "Output");
+
+    if (buffer.length < FINGERPRINT_DATA_SIZE) {
+      throw new IllegalArgumentException(
+        "Buffer must be at least " + FINGERPRINT_DATA_SIZE + " octets");
+    }
+
+    Dx7SysExIO.packVoice(voice, buffer);
+    if (!include_name) {
+      for (int index = PACKED_NAME_OFFSET;
+           index < Dx7SysExIO.PACKED_VOICE_SIZE;
+           ++index) {
+        buffer[index] = (byte) ' ';
+      }
+    }
+    buffer[Dx7SysExIO.PACKED_VOICE_SIZE] =
+      (byte) Dx7SysExIO.operatorsEnabled(voice.voice());
+
+    murmur3x64x128(buffer, FINGERPRINT_DATA_SIZE, output);
+  }
+
+  /**
+   * Compute the 128-bit MurmurHash3 (x64 variant, seed 0) of the first
+   * {@code length} octets of {@code data}.
+   *
+   * @param data   The data
+   * @param length The number of octets to hash
+   * @param output An array of at least two elements that will receive the
+   *               high and low 64 bits of the hash
+   */
+
+  public static void murmur3x64x128(
+    final byte[] data,
+    final int length,
+    final long[] output)
+  {
+    long h1 = 0L;
+    long h2 = 0L;
+
+    final int blocks = length / 16;
+    for (int block = 0; block < blocks; ++block) {
+      long k1 = getLong(data, block * 16);
+      long k2 = getLong(data, block * 16 + 8);
+
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5L + 0x52dce729L;
+
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5L + 0x38495ab5L;
+    }
+
+    final int tail = blocks * 16;
+    long k1 = 0L;
+    long k2 = 0L;
+    for (int index = length - 1; index >= tail; --index) {
+      final long octet = data[index] & 0xffL;
+      final int shift = ((index - tail) & 7) * 8;
+      if (index - tail >= 8) {
+        k2 ^= octet << shift;
+      } else {
+        k1 ^= octet << shift;
+      }
+    }
+
+    if (length - tail > 8) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+    }
+    if (length - tail > 0) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+
+    output[0] = h1;
+    output[1] = h2;
+  }
+
+  private static long getLong(
+    final byte[] data,
+    final int offset)
+  {
+    long value = 0L;
+    for (int index = 7; index >= 0; --index) {
+      value = (value << 8) | (data[offset + index] & 0xffL);
+    }
+    return value;
+  }
+
+  private static long fmix64(
+    final long value)
+  {
+    long k = value;
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
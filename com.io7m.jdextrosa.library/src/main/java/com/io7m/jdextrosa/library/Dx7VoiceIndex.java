@@ -0,0 +1,805 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7AlgorithmID;
+import com.io7m.jdextrosa.core.Dx7AlgorithmOperators;
+import com.io7m.jdextrosa.core.Dx7OperatorID;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import io.vavr.collection.Vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.io7m.jdextrosa.library.Dx7VoiceVectors.OPERATOR_PARAMETERS;
+import static com.io7m.jdextrosa.library.Dx7VoiceVectors.PARAMETERS;
+
+/**
+ * A similarity index over voices, answering "which voices are most similar
+ * to this one" queries.
+ *
+ * <p>The index is a vantage-point tree under an algorithm-aware metric
+ * (see {@link Dx7VoiceDistanceType}). The tree is implicit: voices are
+ * permuted so that each subtree occupies a contiguous range, with the
+ * vantage point at the start of the range, the voices within the median
+ * distance of the vantage point in the first half of the remainder, and the
+ * other voices in the second half. Only the permutation and one radius per
+ * range are stored, so the index is compact, can be built in parallel on
+ * disjoint ranges, and can be written to and read from a stream directly.
+ * Queries are exact.</p>
+ *
+ * <p>Only the parameters, name, and metadata of each voice are retained.
+ * Metadata is held in a {@link Dx7VoiceSourceTable}, at the cost of one
+ * {@code int} per voice when identifiers are derived from sources. Indexes
+ * are immutable and may be queried from multiple threads.</p>
+ */
+
+public final class Dx7VoiceIndex
+{
+  private static final int MAGIC = 0x44583749;
+  private static final int VERSION = 2;
+  private static final int LEAF_SIZE = 8;
+  private static final int PARALLEL_THRESHOLD = 8192;
+
+  private final Dx7VoiceDistance distance;
+  private final double[][] coefficients;
+  private final double penalty_squared;
+  private final byte[] parameters;
+  private final byte[] algorithms;
+  private final int[] order;
+  private final double[] radii;
+  private final String[] names;
+  private final Dx7VoiceSourceTable sources;
+
+  private Dx7VoiceIndex(
+    final Dx7VoiceDistance in_distance,
+    final byte[] in_parameters,
+    final byte[] in_algorithms,
+    final int[] in_order,
+    final double[] in_radii,
+    final String[] in_names,
+    final Dx7VoiceSourceTable in_sources)
+  {
+    this.distance =
+      Objects.requireNonNull(in_distance, "Distance");
+    this.parameters =
+      Objects.requireNonNull(in_parameters, "Parameters");
+    this.algorithms =
+      Objects.requireNonNull(in_algorithms, "Algorithms");
+    this.order =
+      Objects.requireNonNull(in_order, "Order");
+    this.radii =
+      Objects.requireNonNull(in_radii, "Radii");
+    this.names =
+      Objects.requireNonNull(in_names, "Names");
+    this.sources =
+      Objects.requireNonNull(in_sources, "Sources");
+
+    this.coefficients = coefficients(in_distance);
+    this.penalty_squared =
+      in_distance.algorithmPenalty() * in_distance.algorithmPenalty();
+  }
+
+  /**
+   * Build an index using the common fork/join pool.
+   *
+   * @param distance The distance
+   * @param voices   The voices
+   *
+   * @return An index
+   */
+
+  public static Dx7VoiceIndex build(
+    final Dx7VoiceDistance distance,
+    final Iterable<Dx7VoiceNamed> voices)
+  {
+    return build(distance, voices, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Build an index.
+   *
+   * @param distance The distance
+   * @param voices   The voices
+   * @param pool     The pool on which subtrees are built in parallel
+   *
+   * @return An index
+   */
+
+  public static Dx7VoiceIndex build(
+    final Dx7VoiceDistance distance,
+    final Iterable<Dx7VoiceNamed> voices,
+    final ForkJoinPool pool)
+  {
+    Objects.requireNonNull(distance, "Distance");
+    Objects.requireNonNull(voices, "Voices");
+    Objects.requireNonNull(pool, "Pool");
+
+    final List<Dx7VoiceNamed> voice_list = new ArrayList<>();
+    voices.forEach(voice_list::add);
+
+    final int count = voice_list.size();
+    final byte[] parameters =
+      new byte[Math.multiplyExact(count, PARAMETERS)];
+    final byte[] algorithms = new byte[count];
+    final int[] order = new int[count];
+    final String[] names = new String[count];
+    final Dx7VoiceSourceTable sources = Dx7VoiceSourceTable.create(count);
+
+    for (int index = 0; index < count; ++index) {
+      final Dx7VoiceNamed voice = voice_list.get(index);
+      Dx7VoiceVectors.parameters(
+        voice.voice(), parameters, index * PARAMETERS);
+      algorithms[index] = (byte) (voice.voice().algorithm().id() - 1);
+      order[index] = index;
+      names[index] = voice.name();
+      sources.add(voice.metadata(), voice.name());
+    }
+
+    final Dx7VoiceIndex index =
+      new Dx7VoiceIndex(
+        distance,
+        parameters,
+        algorithms,
+        order,
+        new double[count],
+        names,
+        sources);
+
+    pool.invoke(new Build(index, new double[count], 0, count));
+    return index;
+  }
+
+  /**
+   * Read an index written by {@link #write(OutputStream)}. The stream is
+   * not closed.
+   *
+   * @param stream The input stream
+   *
+   * @return An index
+   *
+   * @throws IOException On I/O errors, or if the stream does not contain an
+   *                     index
+   */
+
+  public static Dx7VoiceIndex read(
+    final InputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "Stream");
+
+    final DataInputStream input =
+      new DataInputStream(new BufferedInputStream(stream));
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not a voice index");
+    }
+    final int version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported voice index version " + version);
+    }
+
+    final Dx7VoiceDistance.Builder distance_builder =
+      Dx7VoiceDistance.builder();
+    final List<Double> weights = new ArrayList<>(PARAMETERS);
+    for (int index = 0; index < PARAMETERS; ++index) {
+      weights.add(Double.valueOf(input.readDouble()));
+    }
+    distance_builder.setParameterWeights(Vector.ofAll(weights));
+    distance_builder.setCarrierWeight(input.readDouble());
+    distance_builder.setModulatorWeight(input.readDouble());
+    distance_builder.setAlgorithmPenalty(input.readDouble());
+
+    final Dx7VoiceDistance distance;
+    try {
+      distance = distance_builder.build();
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("Invalid voice index distance", e);
+    }
+
+    final int count = input.readInt();
+    if (count < 0) {
+      throw new IOException("Invalid voice count " + count);
+    }
+
+    final byte[] parameters = new byte[Math.multiplyExact(count, PARAMETERS)];
+    input.readFully(parameters);
+    final byte[] algorithms = new byte[count];
+    input.readFully(algorithms);
+
+    final boolean[] seen = new boolean[count];
+    final int[] order = new int[count];
+    for (int index = 0; index < count; ++index) {
+      final int item = input.readInt();
+      if (item < 0 || item >= count || seen[item]) {
+        throw new IOException("Invalid voice index order");
+      }
+      seen[item] = true;
+      order[index] = item;
+    }
+
+    final double[] radii = new double[count];
+    for (int index = 0; index < count; ++index) {
+      radii[index] = input.readDouble();
+    }
+
+    final String[] names = new String[count];
+    for (int index = 0; index < count; ++index) {
+      names[index] = input.readUTF();
+    }
+
+    final Dx7VoiceSourceTable sources = Dx7VoiceSourceTable.create(count);
+    try {
+      final int source_count = input.readInt();
+      for (int index = 0; index < source_count; ++index) {
+        sources.addSource(new URI(input.readUTF()));
+      }
+      if (sources.sourceCount() != source_count) {
+        throw new IOException("Invalid voice index sources");
+      }
+      final int explicit_count = input.readInt();
+      for (int index = 0; index < explicit_count; ++index) {
+        sources.addExplicit(Dx7VoiceMetadata.of(
+          new URI(input.readUTF()), new URI(input.readUTF())));
+      }
+      for (int index = 0; index < count; ++index) {
+        sources.addReference(input.readInt());
+      }
+    } catch (final URISyntaxException | IllegalArgumentException e) {
+      throw new IOException("Invalid voice index metadata", e);
+    }
+
+    for (int index = 0; index < count; ++index) {
+      final int algorithm = algorithms[index];
+      if (algorithm < 0 || algorithm >= 32) {
+        throw new IOException("Invalid algorithm " + (algorithm + 1));
+      }
+    }
+
+    return new Dx7VoiceIndex(
+      distance, parameters, algorithms, order, radii, names, sources);
+  }
+
+  /**
+   * Write the index to the given stream. The stream is flushed but not
+   * closed.
+   *
+   * @param stream The output stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void write(
+    final OutputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "Stream");
+
+    final DataOutputStream output =
+      new DataOutputStream(new BufferedOutputStream(stream));
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    for (final Double weight : this.distance.parameterWeights()) {
+      output.writeDouble(weight.doubleValue());
+    }
+    output.writeDouble(this.distance.carrierWeight());
+    output.writeDouble(this.distance.modulatorWeight());
+    output.writeDouble(this.distance.algorithmPenalty());
+
+    final int count = this.size();
+    output.writeInt(count);
+    output.write(this.parameters);
+    output.write(this.algorithms);
+    for (int index = 0; index < count; ++index) {
+      output.writeInt(this.order[index]);
+    }
+    for (int index = 0; index < count; ++index) {
+      output.writeDouble(this.radii[index]);
+    }
+    for (int index = 0; index < count; ++index) {
+      output.writeUTF(this.names[index]);
+    }
+    output.writeInt(this.sources.sourceCount());
+    for (int index = 0; index < this.sources.sourceCount(); ++index) {
+      output.writeUTF(this.sources.source(index).toString());
+    }
+    output.writeInt(this.sources.explicitCount());
+    for (int index = 0; index < this.sources.explicitCount(); ++index) {
+      final Dx7VoiceMetadata meta = this.sources.explicit(index);
+      output.writeUTF(meta.source().toString());
+      output.writeUTF(meta.id().toString());
+    }
+    for (int index = 0; index < count; ++index) {
+      output.writeInt(this.sources.reference(index));
+    }
+    output.flush();
+  }
+
+  /**
+   * @return The distance used by the index
+   */
+
+  public Dx7VoiceDistance distance()
+  {
+    return this.distance;
+  }
+
+  /**
+   * @return The number of voices in the index
+   */
+
+  public int size()
+  {
+    return this.order.length;
+  }
+
+  /**
+   * Find the first voice in the index with the given name.
+   *
+   * @param name The name
+   *
+   * @return The index of the voice, if any
+   */
+
+  public OptionalInt indexOfName(
+    final String name)
+  {
+    Objects.requireNonNull(name, "Name");
+    for (int index = 0; index < this.names.length; ++index) {
+      if (this.names[index].equals(name)) {
+        return OptionalInt.of(index);
+      }
+    }
+    return OptionalInt.empty();
+  }
+
+  /**
+   * Find the voices most similar to the given voice.
+   *
+   * @param query The voice
+   * @param count The maximum number of voices to return
+   *
+   * @return At most {@code count} voices, nearest first
+   */
+
+  public Vector<Dx7VoiceIndexResult> nearest(
+    final Dx7Voice query,
+    final int count)
+  {
+    Objects.requireNonNull(query, "Query");
+
+    final byte[] query_parameters = new byte[PARAMETERS];
+    Dx7VoiceVectors.parameters(query, query_parameters, 0);
+    return this.nearestTo(
+      query_parameters, 0, query.algorithm().id() - 1, count);
+  }
+
+  /**
+   * Find the voices most similar to the voice with the given index. The
+   * voice itself is included in the results.
+   *
+   * @param index The index of the voice
+   * @param count The maximum number of voices to return
+   *
+   * @return At most {@code count} voices, nearest first
+   */
+
+  public Vector<Dx7VoiceIndexResult> nearest(
+    final int index,
+    final int count)
+  {
+    Objects.checkIndex(index, this.size());
+    return this.nearestTo(
+      this.parameters, index * PARAMETERS, this.algorithms[index], count);
+  }
+
+  private Vector<Dx7VoiceIndexResult> nearestTo(
+    final byte[] query_parameters,
+    final int offset,
+    final int query_algorithm,
+    final int count)
+  {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        "Result count must be positive: " + count);
+    }
+
+    final int k = Math.min(count, this.size());
+    if (k == 0) {
+      return Vector.empty();
+    }
+
+    final double[] embedded =
+      this.embed(query_parameters, offset, query_algorithm);
+    final Neighbours neighbours = new Neighbours(k);
+    this.search(embedded, query_algorithm, 0, this.size(), neighbours);
+    return neighbours.results(this);
+  }
+
+  private void search(
+    final double[] embedded,
+    final int algorithm,
+    final int lo,
+    final int hi,
+    final Neighbours neighbours)
+  {
+    if (hi - lo <= LEAF_SIZE) {
+      for (int position = lo; position < hi; ++position) {
+        final int item = this.order[position];
+        neighbours.offer(item, this.distanceTo(embedded, algorithm, item));
+      }
+      return;
+    }
+
+    final int vantage = this.order[lo];
+    final double d = this.distanceTo(embedded, algorithm, vantage);
+    neighbours.offer(vantage, d);
+
+    final int mid = (lo + 1 + hi) >>> 1;
+    final double radius = this.radii[lo];
+    if (d < radius) {
+      if (d - neighbours.bound() <= radius) {
+        this.search(embedded, algorithm, lo + 1, mid, neighbours);
+      }
+      if (d + neighbours.bound() >= radius) {
+        this.search(embedded, algorithm, mid, hi, neighbours);
+      }
+    } else {
+      if (d + neighbours.bound() >= radius) {
+        this.search(embedded, algorithm, mid, hi, neighbours);
+      }
+      if (d - neighbours.bound() <= radius) {
+        this.search(embedded, algorithm, lo + 1, mid, neighbours);
+      }
+    }
+  }
+
+  private static double[][] coefficients(
+    final Dx7VoiceDistance distance)
+  {
+    final Vector<Double> weights = distance.parameterWeights();
+    final double[][] result = new double[32][PARAMETERS];
+    for (int algorithm = 0; algorithm < 32; ++algorithm) {
+      final SortedSet<Dx7OperatorID> carriers =
+        Dx7AlgorithmOperators.carriers(Dx7AlgorithmID.of(algorithm + 1));
+
+      for (int index = 0; index < PARAMETERS; ++index) {
+        double c = weights.get(index).doubleValue()
+          * Dx7VoiceVectors.scale(index);
+
+        final int operator = index / OPERATOR_PARAMETERS;
+        if (operator < 6) {
+          if (carriers.contains(Dx7OperatorID.of(operator + 1))) {
+            c *= distance.carrierWeight();
+          } else {
+            c *= distance.modulatorWeight();
+          }
+        }
+        result[algorithm][index] = c;
+      }
+    }
+    return result;
+  }
+
+  private double[] embed(
+    final byte[] source,
+    final int offset,
+    final int algorithm)
+  {
+    final double[] c = this.coefficients[algorithm];
+    final double[] result = new double[PARAMETERS];
+    for (int index = 0; index < PARAMETERS; ++index) {
+      result[index] = c[index] * (double) (source[offset + index] & 0xff);
+    }
+    return result;
+  }
+
+  private double distanceTo(
+    final double[] embedded,
+    final int algorithm,
+    final int item)
+  {
+    final int item_algorithm = this.algorithms[item];
+    final double[] c = this.coefficients[item_algorithm];
+    final int offset = item * PARAMETERS;
+
+    double sum = item_algorithm == algorithm ? 0.0 : this.penalty_squared;
+    for (int index = 0; index < PARAMETERS; ++index) {
+      final double d =
+        (c[index] * (double) (this.parameters[offset + index] & 0xff))
+          - embedded[index];
+      sum += d * d;
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Choose a vantage point in the range {@code [lo, hi)}, move it to
+   * {@code lo}, and partition the rest of the range around the median
+   * distance from it.
+   *
+   * @return The start of the second half of the partitioned range
+   */
+
+  private int partition(
+    final double[] scratch,
+    final int lo,
+    final int hi)
+  {
+    final int chosen = lo + (int) Long.remainderUnsigned(mix(lo), hi - lo);
+    swap(this.order, lo, chosen);
+
+    final int vantage = this.order[lo];
+    final int algorithm = this.algorithms[vantage];
+    final double[] embedded =
+      this.embed(this.parameters, vantage * PARAMETERS, algorithm);
+
+    for (int position = lo + 1; position < hi; ++position) {
+      scratch[position] =
+        this.distanceTo(embedded, algorithm, this.order[position]);
+    }
+
+    final int mid = (lo + 1 + hi) >>> 1;
+    this.select(scratch, lo + 1, hi, mid);
+    this.radii[lo] = scratch[mid];
+    return mid;
+  }
+
+  /**
+   * Reorder {@code [lo, hi)} such that the element at {@code k} is the
+   * element that would be there if the range were sorted, and no element
+   * before it is greater than it.
+   */
+
+  private void select(
+    final double[] keys,
+    final int lo,
+    final int hi,
+    final int k)
+  {
+    int left = lo;
+    int right = hi - 1;
+    while (right > left) {
+      final double pivot = keys[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          ++i;
+        }
+        while (keys[j] > pivot) {
+          --j;
+        }
+        if (i <= j) {
+          final double t = keys[i];
+          keys[i] = keys[j];
+          keys[j] = t;
+          swap(this.order, i, j);
+          ++i;
+          --j;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void buildSequential(
+    final double[] scratch,
+    final int lo,
+    final int hi)
+  {
+    if (hi - lo <= LEAF_SIZE) {
+      return;
+    }
+    final int mid = this.partition(scratch, lo, hi);
+    this.buildSequential(scratch, lo + 1, mid);
+    this.buildSequential(scratch, mid, hi);
+  }
+
+  private static void swap(
+    final int[] array,
+    final int x,
+    final int y)
+  {
+    final int t = array[x];
+    array[x] = array[y];
+    array[y] = t;
+  }
+
+  private static long mix(
+    final long x)
+  {
+    long k = x + 0x9e3779b97f4a7c15L;
+    k = (k ^ (k >>> 33)) * 0xff51afd7ed558ccdL;
+    k = (k ^ (k >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return k ^ (k >>> 33);
+  }
+
+  private static final class Build extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Dx7VoiceIndex index;
+    private final transient double[] scratch;
+    private final int lo;
+    private final int hi;
+
+    Build(
+      final Dx7VoiceIndex in_index,
+      final double[] in_scratch,
+      final int in_lo,
+      final int in_hi)
+    {
+      this.index = in_index;
+      this.scratch = in_scratch;
+      this.lo = in_lo;
+      this.hi = in_hi;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (this.hi - this.lo <= PARALLEL_THRESHOLD) {
+        this.index.buildSequential(this.scratch, this.lo, this.hi);
+        return;
+      }
+
+      final int mid = this.index.partition(this.scratch, this.lo, this.hi);
+      invokeAll(
+        new Build(this.index, this.scratch, this.lo + 1, mid),
+        new Build(this.index, this.scratch, mid, this.hi));
+    }
+  }
+
+  /**
+   * A bounded max-heap of the nearest voices found so far, ordered by
+   * distance and then by index.
+   */
+
+  private static final class Neighbours
+  {
+    private final int[] items;
+    private final double[] distances;
+    private int size;
+
+    Neighbours(
+      final int capacity)
+    {
+      this.items = new int[capacity];
+      this.distances = new double[capacity];
+    }
+
+    double bound()
+    {
+      if (this.size < this.items.length) {
+        return Double.POSITIVE_INFINITY;
+      }
+      return this.distances[0];
+    }
+
+    private boolean greater(
+      final int x,
+      final int y)
+    {
+      final int c = Double.compare(this.distances[x], this.distances[y]);
+      return c > 0 || (c == 0 && this.items[x] > this.items[y]);
+    }
+
+    private void swapEntries(
+      final int x,
+      final int y)
+    {
+      final double d = this.distances[x];
+      this.distances[x] = this.distances[y];
+      this.distances[y] = d;
+      swap(this.items, x, y);
+    }
+
+    void offer(
+      final int item,
+      final double distance)
+    {
+      if (this.size < this.items.length) {
+        int position = this.size++;
+        this.items[position] = item;
+        this.distances[position] = distance;
+        while (position > 0) {
+          final int parent = (position - 1) >>> 1;
+          if (!this.greater(position, parent)) {
+            break;
+          }
+          this.swapEntries(position, parent);
+          position = parent;
+        }
+        return;
+      }
+
+      final int c = Double.compare(distance, this.distances[0]);
+      if (c > 0 || (c == 0 && item > this.items[0])) {
+        return;
+      }
+
+      this.items[0] = item;
+      this.distances[0] = distance;
+      this.siftDown();
+    }
+
+    Vector<Dx7VoiceIndexResult> results(
+      final Dx7VoiceIndex index)
+    {
+      final Dx7VoiceIndexResult[] sorted = new Dx7VoiceIndexResult[this.size];
+      while (this.size > 0) {
+        final int item = this.items[0];
+        final double distance = this.distances[0];
+        sorted[this.size - 1] = Dx7VoiceIndexResult.of(
+          item,
+          index.names[item],
+          index.sources.metadata(item, index.names[item]),
+          distance);
+
+        --this.size;
+        this.items[0] = this.items[this.size];
+        this.distances[0] = this.distances[this.size];
+        this.siftDown();
+      }
+      return Vector.of(sorted);
+    }
+
+    private void siftDown()
+    {
+      int position = 0;
+      while (true) {
+        final int left = (position * 2) + 1;
+        final int right = left + 1;
+        int largest = position;
+        if (left < this.size && this.greater(left, largest)) {
+          largest = left;
+        }
+        if (right < this.size && this.greater(right, largest)) {
+          largest = right;
+        }
+        if (largest == position) {
+          break;
+        }
+        this.swapEntries(position, largest);
+        position = largest;
+      }
+    }
+  }
+}
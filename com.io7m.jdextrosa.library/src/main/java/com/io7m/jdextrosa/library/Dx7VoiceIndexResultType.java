@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import org.immutables.value.Value;
+
+import java.util.Optional;
+
+/**
+ * A voice returned from a similarity query.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface Dx7VoiceIndexResultType
+{
+  /**
+   * @return The index of the voice in the sequence from which the index was
+   * built
+   */
+
+  @Value.Parameter
+  int index();
+
+  /**
+   * @return The name of the voice
+   */
+
+  @Value.Parameter
+  String name();
+
+  /**
+   * @return The metadata of the voice, if any
+   */
+
+  @Value.Parameter
+  Optional<Dx7VoiceMetadata> metadata();
+
+  /**
+   * @return The distance between the voice and the query
+   */
+
+  @Value.Parameter
+  double distance();
+}
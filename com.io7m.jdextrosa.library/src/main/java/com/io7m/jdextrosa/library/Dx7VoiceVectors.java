@@ -0,0 +1,303 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.library;
+
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Objects;
+
+/**
+ * Functions to flatten voices into vectors of parameters for similarity
+ * comparisons.
+ *
+ * <p>A voice is flattened into {@link #PARAMETERS} non-negative integer
+ * parameters, each of which fits into an octet: 21 parameters for each of
+ * the six operators (in the order 1 to 6), followed by 18 voice parameters.
+ * The algorithm is not included, as it is categorical rather than ordinal,
+ * and the name is not included, as it does not affect the sound. The
+ * output level of a disabled operator is treated as zero.</p>
+ *
+ * <p>Each parameter is normalized to the range {@code [0, 1]} and given a
+ * weight reflecting how strongly it affects the sound: output levels and
+ * coarse frequencies dominate, whereas curves and synchronization flags
+ * matter comparatively little.</p>
+ */
+
+public final class Dx7VoiceVectors
+{
+  /**
+   * The number of parameters for each operator.
+   */
+
+  public static final int OPERATOR_PARAMETERS = 21;
+
+  /**
+   * The number of parameters for the voice as a whole.
+   */
+
+  public static final int VOICE_PARAMETERS = 18;
+
+  /**
+   * The total number of parameters.
+   */
+
+  public static final int PARAMETERS =
+    (6 * OPERATOR_PARAMETERS) + VOICE_PARAMETERS;
+
+  /**
+   * The offset of the output level within the parameters of an operator.
+   */
+
+  public static final int OPERATOR_OUTPUT_LEVEL = 16;
+
+  private static final int[] OPERATOR_MAXIMUMS = {
+    99, 99, 99, 99,
+    99, 99, 99, 99,
+    99, 99, 99, 3, 3,
+    7, 3, 7,
+    99, 1, 31, 99, 14,
+  };
+
+  private static final double[] OPERATOR_WEIGHTS = {
+    1.0, 1.0, 1.0, 1.0,
+    1.0, 1.0, 1.0, 1.0,
+    0.5, 0.5, 0.5, 0.25, 0.25,
+    0.5, 0.5, 0.5,
+    3.0, 2.0, 3.0, 1.5, 0.5,
+  };
+
+  private static final int[] VOICE_MAXIMUMS = {
+    99, 99, 99, 99,
+    99, 99, 99, 99,
+    7, 1,
+    99, 99, 99, 99, 1, 5, 7,
+    48,
+  };
+
+  private static final double[] VOICE_WEIGHTS = {
+    0.5, 0.5, 0.5, 0.5,
+    0.5, 0.5, 0.5, 0.5,
+    1.5, 0.25,
+    0.5, 0.25, 0.5, 0.5, 0.25, 0.5, 0.5,
+    1.0,
+  };
+
+  private static final double[] SCALES = scales();
+  private static final double[] WEIGHTS = weights();
+  private static final double WEIGHT_NORMALIZER = weightNormalizer();
+
+  private Dx7VoiceVectors()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static double[] weights()
+  {
+    final double[] result = new double[PARAMETERS];
+    for (int op = 0; op < 6; ++op) {
+      System.arraycopy(
+        OPERATOR_WEIGHTS,
+        0,
+        result,
+        op * OPERATOR_PARAMETERS,
+        OPERATOR_PARAMETERS);
+    }
+    System.arraycopy(
+      VOICE_WEIGHTS, 0, result, 6 * OPERATOR_PARAMETERS, VOICE_PARAMETERS);
+    return result;
+  }
+
+  private static double[] scales()
+  {
+    final double[] result = new double[PARAMETERS];
+    for (int op = 0; op < 6; ++op) {
+      for (int index = 0; index < OPERATOR_PARAMETERS; ++index) {
+        result[(op * OPERATOR_PARAMETERS) + index] =
+          1.0 / (double) OPERATOR_MAXIMUMS[index];
+      }
+    }
+    for (int index = 0; index < VOICE_PARAMETERS; ++index) {
+      result[(6 * OPERATOR_PARAMETERS) + index] =
+        1.0 / (double) VOICE_MAXIMUMS[index];
+    }
+    return result;
+  }
+
+  private static double weightNormalizer()
+  {
+    double sum = 0.0;
+    for (final double weight : WEIGHTS) {
+      sum += weight * weight;
+    }
+    return 1.0 / sum;
+  }
+
+  /**
+   * @param parameter The parameter index
+   *
+   * @return The weight of the given parameter
+   */
+
+  public static double weight(
+    final int parameter)
+  {
+    return WEIGHTS[parameter];
+  }
+
+  /**
+   * @param parameter The parameter index
+   *
+   * @return The value by which the given parameter is multiplied to
+   * normalize it to the range {@code [0, 1]}
+   */
+
+  public static double scale(
+    final int parameter)
+  {
+    return SCALES[parameter];
+  }
+
+  /**
+   * Flatten the given voice into parameters.
+   *
+   * @param voice  The voice
+   * @param output The output array
+   * @param offset The offset within the output array at which to write
+   *               {@link #PARAMETERS} octets
+   */
+
+  public static void parameters(
+    final Dx7Voice voice,
+    final byte[] output,
+    final int offset)
+  {
+    Objects.requireNonNull(voice, "Voice");
+    Objects.requireNonNull(output, "Output");
+
+    operator(voice.operator1(), output, offset);
+    operator(voice.operator2(), output, offset + OPERATOR_PARAMETERS);
+    operator(voice.operator3(), output, offset + (2 * OPERATOR_PARAMETERS));
+    operator(voice.operator4(), output, offset + (3 * OPERATOR_PARAMETERS));
+    operator(voice.operator5(), output, offset + (4 * OPERATOR_PARAMETERS));
+    operator(voice.operator6(), output, offset + (5 * OPERATOR_PARAMETERS));
+
+    int o = offset + (6 * OPERATOR_PARAMETERS);
+    output[o++] = (byte) voice.pitchEnvelopeR1Rate();
+    output[o++] = (byte) voice.pitchEnvelopeR2Rate();
+    output[o++] = (byte) voice.pitchEnvelopeR3Rate();
+    output[o++] = (byte) voice.pitchEnvelopeR4Rate();
+    output[o++] = (byte) voice.pitchEnvelopeR1Level();
+    output[o++] = (byte) voice.pitchEnvelopeR2Level();
+    output[o++] = (byte) voice.pitchEnvelopeR3Level();
+    output[o++] = (byte) voice.pitchEnvelopeR4Level();
+    output[o++] = (byte) voice.feedback();
+    output[o++] = (byte) (voice.oscillatorKeySync() ? 1 : 0);
+    output[o++] = (byte) voice.lfoSpeed();
+    output[o++] = (byte) voice.lfoDelay();
+    output[o++] = (byte) voice.lfoPitchModulationDepth();
+    output[o++] = (byte) voice.lfoAmplitudeModulationDepth();
+    output[o++] = (byte) (voice.lfoKeySync() ? 1 : 0);
+    output[o++] = (byte) voice.lfoWave().external();
+    output[o++] = (byte) voice.lfoPitchModulationSensitivity();
+    output[o] = (byte) (voice.transpose() + 24);
+  }
+
+  private static void operator(
+    final Dx7Operator op,
+    final byte[] output,
+    final int offset)
+  {
+    int o = offset;
+    output[o++] = (byte) op.envelopeR1Rate();
+    output[o++] = (byte) op.envelopeR2Rate();
+    output[o++] = (byte) op.envelopeR3Rate();
+    output[o++] = (byte) op.envelopeR4Rate();
+    output[o++] = (byte) op.envelopeR1Level();
+    output[o++] = (byte) op.envelopeR2Level();
+    output[o++] = (byte) op.envelopeR3Level();
+    output[o++] = (byte) op.envelopeR4Level();
+    output[o++] = (byte) op.levelScalingBreakpoint();
+    output[o++] = (byte) op.levelScalingLeftDepth();
+    output[o++] = (byte) op.levelScalingRightDepth();
+    output[o++] = (byte) op.levelScalingLeftCurve().external();
+    output[o++] = (byte) op.levelScalingRightCurve().external();
+    output[o++] = (byte) op.rateScaling();
+    output[o++] = (byte) op.lfoAmplitudeModulationSensitivity();
+    output[o++] = (byte) op.velocitySensitivity();
+    output[o++] = (byte) (op.isEnabled() ? op.outputLevel() : 0);
+    output[o++] = (byte) op.oscillatorMode().external();
+    output[o++] = (byte) op.oscillatorFrequencyCoarse();
+    output[o++] = (byte) op.oscillatorFrequencyFine();
+    output[o] = (byte) (op.oscillatorFrequencyDetune() + 7);
+  }
+
+  /**
+   * Write the centered, weighted vector for the given parameters. Each
+   * element is the weight of the parameter multiplied by the normalized
+   * parameter value minus one half, so that vectors are distributed around
+   * the origin.
+   *
+   * @param parameters The parameters
+   * @param offset     The offset of the parameters
+   * @param output     The output vector of at least {@link #PARAMETERS}
+   *                   elements
+   */
+
+  public static void centered(
+    final byte[] parameters,
+    final int offset,
+    final double[] output)
+  {
+    for (int index = 0; index < PARAMETERS; ++index) {
+      final double x = (double) (parameters[offset + index] & 0xff);
+      output[index] = WEIGHTS[index] * ((x * SCALES[index]) - 0.5);
+    }
+  }
+
+  /**
+   * Calculate the weighted distance between two sets of parameters. The
+   * distance is the weighted root-mean-square difference of the normalized
+   * parameters, and is therefore in the range {@code [0, 1]}: {@code 0} for
+   * identical parameters, and {@code 1} only if every parameter is at the
+   * opposite extreme of its range.
+   *
+   * @param x        The first parameters
+   * @param x_offset The offset of the first parameters
+   * @param y        The second parameters
+   * @param y_offset The offset of the second parameters
+   *
+   * @return The distance
+   */
+
+  public static double distance(
+    final byte[] x,
+    final int x_offset,
+    final byte[] y,
+    final int y_offset)
+  {
+    double sum = 0.0;
+    for (int index = 0; index < PARAMETERS; ++index) {
+      final int delta =
+        (x[x_offset + index] & 0xff) - (y[y_offset + index] & 0xff);
+      final double d = WEIGHTS[index] * SCALES[index] * (double) delta;
+      sum += d * d;
+    }
+    return Math.sqrt(sum * WEIGHT_NORMALIZER);
+  }
+}
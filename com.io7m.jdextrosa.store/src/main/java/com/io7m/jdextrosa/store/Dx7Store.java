@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.store;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7ParseError;
+import com.io7m.jdextrosa.io.Dx7ParseErrorType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A reader of a voice store. Opening a store maps its header and nothing
+ * else; each voice is read directly from its fixed position in the mapped
+ * record file, so any voice can be read in constant time regardless of the
+ * size of the store.
+ *
+ * A reader may be used concurrently by any number of threads, and sees
+ * voices appended by a {@link Dx7StoreWriter} as soon as they are
+ * committed.
+ */
+
+public final class Dx7Store implements Closeable
+{
+  private final Path directory;
+  private final URI voices_uri;
+  private final FileChannel voices;
+  private final FileChannel strings_index;
+  private final FileChannel strings_log;
+  private final MappedByteBuffer header;
+  private final Dx7StoreSegments segments;
+  private final ConcurrentHashMap<Integer, URI> strings;
+
+  private Dx7Store(
+    final Path in_directory,
+    final FileChannel in_voices,
+    final FileChannel in_strings_index,
+    final FileChannel in_strings_log,
+    final MappedByteBuffer in_header)
+  {
+    this.directory =
+      Objects.requireNonNull(in_directory, "Directory");
+    this.voices =
+      Objects.requireNonNull(in_voices, "Voices");
+    this.strings_index =
+      Objects.requireNonNull(in_strings_index, "String index");
+    this.strings_log =
+      Objects.requireNonNull(in_strings_log, "String log");
+    this.header =
+      Objects.requireNonNull(in_header, "Header");
+
+    this.voices_uri =
+      this.directory.resolve(Dx7StoreFiles.FILE_VOICES).toUri();
+    this.segments =
+      new Dx7StoreSegments(this.voices, FileChannel.MapMode.READ_ONLY);
+    this.strings = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param directory A directory
+   *
+   * @return {@code true} if the directory appears to contain a store
+   */
+
+  public static boolean exists(
+    final Path directory)
+  {
+    Objects.requireNonNull(directory, "Directory");
+    return Files.isRegularFile(directory.resolve(Dx7StoreFiles.FILE_VOICES));
+  }
+
+  /**
+   * Open an existing store for reading.
+   *
+   * @param directory The store directory
+   *
+   * @return A store reader
+   *
+   * @throws IOException On I/O errors, or if the directory does not contain
+   *                     a store
+   */
+
+  public static Dx7Store open(
+    final Path directory)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "Directory");
+
+    final Path voices_file = directory.resolve(Dx7StoreFiles.FILE_VOICES);
+    final FileChannel voices = FileChannel.open(voices_file, READ);
+    try {
+      if (voices.size() < Dx7StoreFiles.HEADER_SIZE) {
+        throw new IOException("Not a voice store: " + directory);
+      }
+
+      final MappedByteBuffer header =
+        voices.map(
+          FileChannel.MapMode.READ_ONLY, 0L, Dx7StoreFiles.HEADER_SIZE);
+      Dx7StoreFiles.checkHeader(voices_file, header);
+
+      final FileChannel strings_index =
+        FileChannel.open(
+          directory.resolve(Dx7StoreFiles.FILE_STRINGS_INDEX), READ);
+      try {
+        final FileChannel strings_log =
+          FileChannel.open(
+            directory.resolve(Dx7StoreFiles.FILE_STRINGS_LOG), READ);
+        return new Dx7Store(
+          directory, voices, strings_index, strings_log, header);
+      } catch (final IOException e) {
+        strings_index.close();
+        throw e;
+      }
+    } catch (final IOException e) {
+      voices.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The number of committed voices in the store
+   */
+
+  public int size()
+  {
+    return (int) Dx7StoreFiles.countAcquire(
+      this.header, Dx7StoreFiles.HEADER_VOICE_COUNT);
+  }
+
+  /**
+   * Read a single voice.
+   *
+   * @param number The voice number, in {@code [0, size())}
+   *
+   * @return The voice
+   *
+   * @throws IOException On I/O errors, or if the voice record is corrupt
+   */
+
+  public Dx7VoiceNamed voice(
+    final int number)
+    throws IOException
+  {
+    Objects.checkIndex(number, this.size());
+    return this.read(number, new byte[Dx7StoreFiles.RECORD_SIZE]);
+  }
+
+  /**
+   * Read a range of voices.
+   *
+   * @param from  The number of the first voice
+   * @param count The maximum number of voices
+   *
+   * @return The voices in {@code [from, min(from + count, size()))}
+   *
+   * @throws IOException On I/O errors, or if a voice record is corrupt
+   */
+
+  public Vector<Dx7VoiceNamed> voices(
+    final int from,
+    final int count)
+    throws IOException
+  {
+    final int size = this.size();
+    Objects.checkFromToIndex(from, from, size);
+    if (count < 0) {
+      throw new IllegalArgumentException("Count must be non-negative");
+    }
+
+    final int until = (int) Math.min((long) from + (long) count, size);
+    final byte[] record = new byte[Dx7StoreFiles.RECORD_SIZE];
+    final List<Dx7VoiceNamed> results = new ArrayList<>(until - from);
+    for (int number = from; number < until; ++number) {
+      results.add(this.read(number, record));
+    }
+    return Vector.ofAll(results);
+  }
+
+  /**
+   * @return All committed voices in the store
+   *
+   * @throws IOException On I/O errors, or if a voice record is corrupt
+   */
+
+  public Vector<Dx7VoiceNamed> voices()
+    throws IOException
+  {
+    return this.voices(0, Integer.MAX_VALUE);
+  }
+
+  private Dx7VoiceNamed read(
+    final int number,
+    final byte[] record)
+    throws IOException
+  {
+    final ByteBuffer segment =
+      this.segments.segment(number / Dx7StoreFiles.SEGMENT_RECORDS)
+        .duplicate();
+    segment.position(
+      (number % Dx7StoreFiles.SEGMENT_RECORDS) * Dx7StoreFiles.RECORD_SIZE);
+    segment.get(record);
+
+    final ByteBuffer buffer = ByteBuffer.wrap(record);
+    final byte[] packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+    System.arraycopy(
+      record, Dx7StoreFiles.RECORD_PACKED, packed, 0, packed.length);
+
+    final List<Dx7ParseError> errors = new ArrayList<>(1);
+    final Optional<Dx7VoiceNamed> unpacked_opt =
+      Dx7SysExIO.unpackVoice(errors::add, this.voices_uri, packed);
+
+    if (!unpacked_opt.isPresent()) {
+      final String message =
+        errors.stream()
+          .filter(e -> e.severity() == Dx7ParseErrorType.Severity.ERROR)
+          .findFirst()
+          .map(Dx7ParseError::show)
+          .orElse("Unreadable voice");
+      throw new IOException(
+        "Corrupt voice record " + number + " in " + this.directory + ": " + message);
+    }
+
+    final int name_length =
+      Math.min(
+        buffer.get(Dx7StoreFiles.RECORD_NAME_LENGTH) & 0xff,
+        Dx7StoreFiles.RECORD_NAME_SIZE);
+
+    // False positive: Instantiating a string from a byte array is fine
+    // CHECKSTYLE:OFF
+    final String name =
+      new String(
+        record,
+        Dx7StoreFiles.RECORD_NAME,
+        name_length,
+        StandardCharsets.US_ASCII);
+    // CHECKSTYLE:ON
+
+    final Optional<Dx7VoiceMetadata> metadata;
+    final int flags = buffer.get(Dx7StoreFiles.RECORD_FLAGS) & 0xff;
+    if ((flags & Dx7StoreFiles.FLAG_DERIVED_ID) != 0) {
+      metadata = Optional.of(
+        Dx7VoiceSourceTable.derivedMetadata(
+          this.string(buffer.getInt(Dx7StoreFiles.RECORD_SOURCE)),
+          name));
+    } else if ((flags & Dx7StoreFiles.FLAG_METADATA) != 0) {
+      metadata = Optional.of(
+        Dx7VoiceMetadata.of(
+          this.string(buffer.getInt(Dx7StoreFiles.RECORD_SOURCE)),
+          this.string(buffer.getInt(Dx7StoreFiles.RECORD_ID))));
+    } else {
+      metadata = Optional.empty();
+    }
+
+    return Dx7VoiceNamed.of(
+      name,
+      Dx7SysExIO.withOperatorsEnabled(
+        unpacked_opt.get().voice(),
+        buffer.get(Dx7StoreFiles.RECORD_OPERATORS) & 0xff),
+      metadata);
+  }
+
+  private URI string(
+    final int string)
+    throws IOException
+  {
+    final Integer key = Integer.valueOf(string);
+    final URI existing = this.strings.get(key);
+    if (existing != null) {
+      return existing;
+    }
+
+    final long count =
+      Dx7StoreFiles.countAcquire(
+        this.header, Dx7StoreFiles.HEADER_STRING_COUNT);
+    if (string < 0 || string >= count) {
+      throw new IOException(
+        "Corrupt string reference " + string + " in " + this.directory);
+    }
+
+    final URI uri;
+    try {
+      uri = new URI(
+        Dx7StoreFiles.readString(this.strings_index, this.strings_log, string));
+    } catch (final URISyntaxException e) {
+      throw new IOException(
+        "Corrupt string " + string + " in " + this.directory, e);
+    }
+
+    final URI previous = this.strings.putIfAbsent(key, uri);
+    return previous != null ? previous : uri;
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      this.strings_log.close();
+      this.strings_index.close();
+    } finally {
+      this.voices.close();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.store;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * The layout of a voice store.
+ *
+ * A store is a directory containing three files:
+ *
+ * <ul>
+ * <li>{@code voices.dx7s}: A 64 octet header followed by fixed-size voice
+ * records. Voice {@code n} lives at a fixed offset, so any voice can be
+ * read without reading any other. The header holds the number of committed
+ * voices and strings; readers never look past these counts.</li>
+ * <li>{@code strings.log}: The UTF-8 encoded strings (voice sources and
+ * identifiers) referenced by voice records, appended in order.</li>
+ * <li>{@code strings.idx}: A 16 octet (offset, length) record per string
+ * in {@code strings.log}.</li>
+ * </ul>
+ *
+ * A writer holds an exclusive lock on {@code writer.lock}. It writes the
+ * strings for a voice, publishes the new string count, writes the voice
+ * record, and only then publishes the new voice count. A reader that
+ * observes a count therefore observes everything that the count covers.
+ */
+
+final class Dx7StoreFiles
+{
+  static final String FILE_VOICES = "voices.dx7s";
+  static final String FILE_STRINGS_INDEX = "strings.idx";
+  static final String FILE_STRINGS_LOG = "strings.log";
+  static final String FILE_LOCK = "writer.lock";
+
+  static final int MAGIC = 0x44583753;
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 64;
+  static final int HEADER_MAGIC = 0;
+  static final int HEADER_VERSION = 4;
+  static final int HEADER_VOICE_COUNT = 8;
+  static final int HEADER_STRING_COUNT = 16;
+  static final int HEADER_RECORD_SIZE = 24;
+  static final int HEADER_SEGMENT_RECORDS = 28;
+
+  /**
+   * A voice record: the 128 octet packed voice, the mask of enabled
+   * operators, flags, the exact name (the packed name is padded with
+   * spaces), and the indices of the source and identifier strings. If
+   * {@link #FLAG_DERIVED_ID} is set, the identifier is derived from the
+   * source and the name, and no identifier string is stored.
+   */
+
+  static final int RECORD_SIZE = 160;
+  static final int RECORD_PACKED = 0;
+  static final int RECORD_OPERATORS = 128;
+  static final int RECORD_FLAGS = 129;
+  static final int RECORD_NAME_LENGTH = 130;
+  static final int RECORD_NAME = 132;
+  static final int RECORD_NAME_SIZE = 10;
+  static final int RECORD_SOURCE = 144;
+  static final int RECORD_ID = 148;
+
+  static final int FLAG_METADATA = 0b1;
+  static final int FLAG_DERIVED_ID = 0b10;
+
+  /**
+   * Voice records are mapped in segments of this many records.
+   */
+
+  static final int SEGMENT_RECORDS = 65536;
+  static final long SEGMENT_SIZE = (long) SEGMENT_RECORDS * RECORD_SIZE;
+
+  static final int STRING_INDEX_SIZE = 16;
+
+  private static final VarHandle LONGS =
+    MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private Dx7StoreFiles()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  static long countAcquire(
+    final ByteBuffer header,
+    final int offset)
+  {
+    return (long) LONGS.getAcquire(header, offset);
+  }
+
+  static void countRelease(
+    final ByteBuffer header,
+    final int offset,
+    final long value)
+  {
+    LONGS.setRelease(header, offset, value);
+  }
+
+  static long segmentPosition(
+    final int segment)
+  {
+    return HEADER_SIZE + (long) segment * SEGMENT_SIZE;
+  }
+
+  static void initializeHeader(
+    final ByteBuffer header)
+  {
+    header.putInt(HEADER_MAGIC, MAGIC);
+    header.putInt(HEADER_VERSION, VERSION);
+    header.putLong(HEADER_VOICE_COUNT, 0L);
+    header.putLong(HEADER_STRING_COUNT, 0L);
+    header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+    header.putInt(HEADER_SEGMENT_RECORDS, SEGMENT_RECORDS);
+  }
+
+  static void checkHeader(
+    final Path file,
+    final ByteBuffer header)
+    throws IOException
+  {
+    if (header.getInt(HEADER_MAGIC) != MAGIC) {
+      throw new IOException("Not a voice store: " + file);
+    }
+    final int version = header.getInt(HEADER_VERSION);
+    if (version != VERSION) {
+      throw new IOException(
+        "Unsupported voice store version " + version + ": " + file);
+    }
+    if (header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE
+      || header.getInt(HEADER_SEGMENT_RECORDS) != SEGMENT_RECORDS) {
+      throw new IOException("Unsupported voice store layout: " + file);
+    }
+  }
+
+  static void readFully(
+    final FileChannel channel,
+    final ByteBuffer buffer,
+    final long position)
+    throws IOException
+  {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      final int count = channel.read(buffer, offset);
+      if (count < 0) {
+        throw new IOException("Unexpected end of voice store");
+      }
+      offset += count;
+    }
+  }
+
+  static void writeFully(
+    final FileChannel channel,
+    final ByteBuffer buffer,
+    final long position)
+    throws IOException
+  {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset);
+    }
+  }
+
+  static String readString(
+    final FileChannel index,
+    final FileChannel log,
+    final int string)
+    throws IOException
+  {
+    final ByteBuffer entry = ByteBuffer.allocate(STRING_INDEX_SIZE);
+    readFully(index, entry, (long) string * STRING_INDEX_SIZE);
+    final long offset = entry.getLong(0);
+    final int length = entry.getInt(8);
+
+    final ByteBuffer data = ByteBuffer.allocate(length);
+    readFully(log, data, offset);
+
+    // False positive: Instantiating a string from a byte array is fine
+    // CHECKSTYLE:OFF
+    return new String(data.array(), StandardCharsets.UTF_8);
+    // CHECKSTYLE:ON
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The lazily mapped segments of a voice record file. Segments are mapped
+ * in full: mapping a segment for writing extends the file to cover it, so
+ * a reader can always map a segment that contains a committed record.
+ */
+
+final class Dx7StoreSegments
+{
+  private final FileChannel channel;
+  private final FileChannel.MapMode mode;
+  private volatile MappedByteBuffer[] segments;
+
+  Dx7StoreSegments(
+    final FileChannel in_channel,
+    final FileChannel.MapMode in_mode)
+  {
+    this.channel = Objects.requireNonNull(in_channel, "Channel");
+    this.mode = Objects.requireNonNull(in_mode, "Mode");
+    this.segments = new MappedByteBuffer[0];
+  }
+
+  /**
+   * @param segment The segment number
+   *
+   * @return The mapped segment
+   *
+   * @throws IOException On I/O errors
+   */
+
+  MappedByteBuffer segment(
+    final int segment)
+    throws IOException
+  {
+    final MappedByteBuffer[] current = this.segments;
+    if (segment < current.length) {
+      final MappedByteBuffer buffer = current[segment];
+      if (buffer != null) {
+        return buffer;
+      }
+    }
+    return this.map(segment);
+  }
+
+  private synchronized MappedByteBuffer map(
+    final int segment)
+    throws IOException
+  {
+    MappedByteBuffer[] current = this.segments;
+    if (segment < current.length && current[segment] != null) {
+      return current[segment];
+    }
+
+    final MappedByteBuffer buffer =
+      this.channel.map(
+        this.mode,
+        Dx7StoreFiles.segmentPosition(segment),
+        Dx7StoreFiles.SEGMENT_SIZE);
+
+    if (segment >= current.length) {
+      current = Arrays.copyOf(current, segment + 1);
+    } else {
+      current = current.clone();
+    }
+    current[segment] = buffer;
+    this.segments = current;
+    return buffer;
+  }
+
+  /**
+   * Force all mapped segments to storage.
+   */
+
+  void force()
+  {
+    for (final MappedByteBuffer buffer : this.segments) {
+      if (buffer != null) {
+        buffer.force();
+      }
+    }
+  }
+}
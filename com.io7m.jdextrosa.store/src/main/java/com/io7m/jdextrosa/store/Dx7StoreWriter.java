@@ -0,0 +1,406 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.store;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The single writer of a voice store. Voices are only ever appended; a
+ * voice keeps the number assigned to it by {@link #append(Dx7VoiceNamed)}
+ * for the life of the store. Any number of {@link Dx7Store} readers, in
+ * this or other processes, may read the store while it is being written.
+ *
+ * Appended voices are visible to readers immediately, but are only
+ * guaranteed to survive a system crash after {@link #sync()} or
+ * {@link #close()}.
+ */
+
+public final class Dx7StoreWriter implements Closeable
+{
+  private final Path directory;
+  private final FileChannel lock_channel;
+  private final FileLock lock;
+  private final FileChannel voices;
+  private final FileChannel strings_index;
+  private final FileChannel strings_log;
+  private final MappedByteBuffer header;
+  private final Dx7StoreSegments segments;
+  private final Map<String, Integer> strings;
+  private final byte[] record;
+  private final byte[] packed;
+  private long voice_count;
+  private long string_count;
+  private long strings_size;
+
+  private Dx7StoreWriter(
+    final Path in_directory,
+    final FileChannel in_lock_channel,
+    final FileLock in_lock,
+    final FileChannel in_voices,
+    final FileChannel in_strings_index,
+    final FileChannel in_strings_log,
+    final MappedByteBuffer in_header)
+  {
+    this.directory =
+      Objects.requireNonNull(in_directory, "Directory");
+    this.lock_channel =
+      Objects.requireNonNull(in_lock_channel, "Lock channel");
+    this.lock =
+      Objects.requireNonNull(in_lock, "Lock");
+    this.voices =
+      Objects.requireNonNull(in_voices, "Voices");
+    this.strings_index =
+      Objects.requireNonNull(in_strings_index, "String index");
+    this.strings_log =
+      Objects.requireNonNull(in_strings_log, "String log");
+    this.header =
+      Objects.requireNonNull(in_header, "Header");
+
+    this.segments =
+      new Dx7StoreSegments(this.voices, FileChannel.MapMode.READ_WRITE);
+    this.strings = new HashMap<>();
+    this.record = new byte[Dx7StoreFiles.RECORD_SIZE];
+    this.packed = new byte[Dx7SysExIO.PACKED_VOICE_SIZE];
+  }
+
+  /**
+   * Open a store for writing, creating it if it does not exist.
+   *
+   * @param directory The store directory
+   *
+   * @return A store writer
+   *
+   * @throws IOException On I/O errors, if the directory does not contain a
+   *                     store, or if the store already has a writer
+   */
+
+  public static Dx7StoreWriter open(
+    final Path directory)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "Directory");
+
+    Files.createDirectories(directory);
+
+    final FileChannel lock_channel =
+      FileChannel.open(
+        directory.resolve(Dx7StoreFiles.FILE_LOCK), CREATE, WRITE);
+
+    try {
+      final FileLock lock;
+      try {
+        lock = lock_channel.tryLock();
+      } catch (final OverlappingFileLockException e) {
+        throw new IOException(
+          "Voice store is already open for writing: " + directory, e);
+      }
+      if (lock == null) {
+        throw new IOException(
+          "Voice store is already open for writing: " + directory);
+      }
+
+      final Path voices_file = directory.resolve(Dx7StoreFiles.FILE_VOICES);
+      final FileChannel voices = FileChannel.open(voices_file, CREATE, READ, WRITE);
+      final FileChannel strings_index =
+        FileChannel.open(
+          directory.resolve(Dx7StoreFiles.FILE_STRINGS_INDEX),
+          CREATE,
+          READ,
+          WRITE);
+      final FileChannel strings_log =
+        FileChannel.open(
+          directory.resolve(Dx7StoreFiles.FILE_STRINGS_LOG),
+          CREATE,
+          READ,
+          WRITE);
+
+      try {
+        final boolean created = voices.size() == 0L;
+        final MappedByteBuffer header =
+          voices.map(
+            FileChannel.MapMode.READ_WRITE, 0L, Dx7StoreFiles.HEADER_SIZE);
+
+        if (created) {
+          Dx7StoreFiles.initializeHeader(header);
+          header.force();
+        } else {
+          Dx7StoreFiles.checkHeader(voices_file, header);
+        }
+
+        final Dx7StoreWriter writer =
+          new Dx7StoreWriter(
+            directory,
+            lock_channel,
+            lock,
+            voices,
+            strings_index,
+            strings_log,
+            header);
+        writer.load();
+        return writer;
+      } catch (final IOException e) {
+        strings_log.close();
+        strings_index.close();
+        voices.close();
+        throw e;
+      }
+    } catch (final IOException e) {
+      lock_channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Load the committed strings so that they can be shared by new voices.
+   * Anything written after the committed counts by a writer that did not
+   * finish is overwritten.
+   */
+
+  private void load()
+    throws IOException
+  {
+    this.voice_count =
+      Dx7StoreFiles.countAcquire(
+        this.header, Dx7StoreFiles.HEADER_VOICE_COUNT);
+    this.string_count =
+      Dx7StoreFiles.countAcquire(
+        this.header, Dx7StoreFiles.HEADER_STRING_COUNT);
+
+    this.strings_index.position(0L);
+    this.strings_log.position(0L);
+
+    final DataInputStream index =
+      new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(this.strings_index)));
+    final DataInputStream log =
+      new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(this.strings_log)));
+
+    long size = 0L;
+    for (int string = 0; string < this.string_count; ++string) {
+      final long offset = index.readLong();
+      final int length = index.readInt();
+      index.readInt();
+
+      if (offset != size) {
+        throw new IOException(
+          "Corrupt string index in voice store: " + this.directory);
+      }
+
+      final byte[] data = new byte[length];
+      log.readFully(data);
+
+      // False positive: Instantiating a string from a byte array is fine
+      // CHECKSTYLE:OFF
+      this.strings.put(
+        new String(data, StandardCharsets.UTF_8), Integer.valueOf(string));
+      // CHECKSTYLE:ON
+      size += length;
+    }
+    this.strings_size = size;
+  }
+
+  /**
+   * @return The number of voices in the store
+   */
+
+  public int size()
+  {
+    return Math.toIntExact(this.voice_count);
+  }
+
+  /**
+   * Append a voice to the store.
+   *
+   * @param voice The voice
+   *
+   * @return The number of the voice in the store
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public int append(
+    final Dx7VoiceNamed voice)
+    throws IOException
+  {
+    Objects.requireNonNull(voice, "Voice");
+
+    if (this.voice_count >= Integer.MAX_VALUE) {
+      throw new IOException("Voice store is full: " + this.directory);
+    }
+
+    final ByteBuffer buffer = ByteBuffer.wrap(this.record);
+    Dx7SysExIO.packVoice(voice, this.packed);
+    System.arraycopy(
+      this.packed,
+      0,
+      this.record,
+      Dx7StoreFiles.RECORD_PACKED,
+      this.packed.length);
+    buffer.put(
+      Dx7StoreFiles.RECORD_OPERATORS,
+      (byte) Dx7SysExIO.operatorsEnabled(voice.voice()));
+
+    final byte[] name = voice.name().getBytes(StandardCharsets.US_ASCII);
+    buffer.put(Dx7StoreFiles.RECORD_NAME_LENGTH, (byte) name.length);
+    for (int index = 0; index < Dx7StoreFiles.RECORD_NAME_SIZE; ++index) {
+      buffer.put(
+        Dx7StoreFiles.RECORD_NAME + index,
+        index < name.length ? name[index] : 0);
+    }
+
+    final Optional<Dx7VoiceMetadata> metadata_opt = voice.metadata();
+    if (metadata_opt.isPresent()) {
+      final Dx7VoiceMetadata metadata = metadata_opt.get();
+      final long strings_before = this.string_count;
+      final int source = this.intern(metadata.source().toString());
+      final boolean derived =
+        Dx7VoiceSourceTable.isDerived(metadata, voice.name());
+      final int id;
+      final int flags;
+      if (derived) {
+        id = -1;
+        flags = Dx7StoreFiles.FLAG_METADATA | Dx7StoreFiles.FLAG_DERIVED_ID;
+      } else {
+        id = this.intern(metadata.id().toString());
+        flags = Dx7StoreFiles.FLAG_METADATA;
+      }
+      if (this.string_count != strings_before) {
+        Dx7StoreFiles.countRelease(
+          this.header, Dx7StoreFiles.HEADER_STRING_COUNT, this.string_count);
+      }
+      buffer.put(Dx7StoreFiles.RECORD_FLAGS, (byte) flags);
+      buffer.putInt(Dx7StoreFiles.RECORD_SOURCE, source);
+      buffer.putInt(Dx7StoreFiles.RECORD_ID, id);
+    } else {
+      buffer.put(Dx7StoreFiles.RECORD_FLAGS, (byte) 0);
+      buffer.putInt(Dx7StoreFiles.RECORD_SOURCE, -1);
+      buffer.putInt(Dx7StoreFiles.RECORD_ID, -1);
+    }
+
+    final int number = (int) this.voice_count;
+    final ByteBuffer segment =
+      this.segments.segment(number / Dx7StoreFiles.SEGMENT_RECORDS)
+        .duplicate();
+    segment.position(
+      (number % Dx7StoreFiles.SEGMENT_RECORDS) * Dx7StoreFiles.RECORD_SIZE);
+    segment.put(this.record);
+
+    ++this.voice_count;
+    Dx7StoreFiles.countRelease(
+      this.header, Dx7StoreFiles.HEADER_VOICE_COUNT, this.voice_count);
+    return number;
+  }
+
+  private int intern(
+    final String text)
+    throws IOException
+  {
+    final Integer existing = this.strings.get(text);
+    if (existing != null) {
+      return existing.intValue();
+    }
+
+    if (this.string_count >= Integer.MAX_VALUE) {
+      throw new IOException(
+        "Voice store string table is full: " + this.directory);
+    }
+
+    final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+    Dx7StoreFiles.writeFully(
+      this.strings_log, ByteBuffer.wrap(data), this.strings_size);
+
+    final ByteBuffer entry =
+      ByteBuffer.allocate(Dx7StoreFiles.STRING_INDEX_SIZE);
+    entry.putLong(0, this.strings_size);
+    entry.putInt(8, data.length);
+    Dx7StoreFiles.writeFully(
+      this.strings_index,
+      entry,
+      this.string_count * Dx7StoreFiles.STRING_INDEX_SIZE);
+
+    final int string = (int) this.string_count;
+    this.strings.put(text, Integer.valueOf(string));
+    this.strings_size += data.length;
+    ++this.string_count;
+    return string;
+  }
+
+  /**
+   * Force all appended voices to storage.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void sync()
+    throws IOException
+  {
+    this.strings_log.force(false);
+    this.strings_index.force(false);
+    this.segments.force();
+    this.header.force();
+  }
+
+  /**
+   * Force all appended voices to storage and release the store.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      this.sync();
+    } finally {
+      try {
+        this.strings_log.close();
+        this.strings_index.close();
+        this.voices.close();
+        this.lock.release();
+      } finally {
+        this.lock_channel.close();
+      }
+    }
+  }
+}
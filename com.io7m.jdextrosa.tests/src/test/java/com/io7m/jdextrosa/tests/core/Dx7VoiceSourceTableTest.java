@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.core;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Optional;
+
+public final class Dx7VoiceSourceTableTest
+{
+  private static final URI SOURCE = URI.create("file:///voices/rom%201.syx");
+
+  @Test
+  public void testDerivedId()
+  {
+    Assertions.assertEquals(
+      URI.create("file:///voices/rom%201.syx/E.PIANO%2F1"),
+      Dx7VoiceSourceTable.derivedId(SOURCE, "E.PIANO/1"));
+    Assertions.assertEquals(
+      URI.create("file:///voices/rom%201.syx/BRASS+1"),
+      Dx7VoiceSourceTable.derivedId(SOURCE, "BRASS 1"));
+
+    final Dx7VoiceMetadata metadata =
+      Dx7VoiceSourceTable.derivedMetadata(SOURCE, "BRASS 1");
+    Assertions.assertTrue(Dx7VoiceSourceTable.isDerived(metadata, "BRASS 1"));
+    Assertions.assertFalse(Dx7VoiceSourceTable.isDerived(metadata, "BRASS 2"));
+  }
+
+  @Test
+  public void testDerivedSharesSource()
+  {
+    final Dx7VoiceSourceTable table = Dx7VoiceSourceTable.create(0);
+    for (int index = 0; index < 100; ++index) {
+      final String name = "V" + index;
+      Assertions.assertEquals(
+        1,
+        table.add(
+          Optional.of(Dx7VoiceSourceTable.derivedMetadata(SOURCE, name)),
+          name));
+    }
+
+    Assertions.assertEquals(100, table.size());
+    Assertions.assertEquals(1, table.sourceCount());
+    Assertions.assertEquals(0, table.explicitCount());
+    Assertions.assertEquals(
+      Optional.of(Dx7VoiceSourceTable.derivedMetadata(SOURCE, "V42")),
+      table.metadata(42, "V42"));
+  }
+
+  @Test
+  public void testExplicitAndAbsent()
+  {
+    final Dx7VoiceSourceTable table = Dx7VoiceSourceTable.create(0);
+    final Dx7VoiceMetadata explicit =
+      Dx7VoiceMetadata.of(SOURCE, URI.create("urn:voice:1"));
+
+    Assertions.assertEquals(-1, table.add(Optional.of(explicit), "V1"));
+    Assertions.assertEquals(0, table.add(Optional.empty(), "V2"));
+    Assertions.assertEquals(
+      1,
+      table.add(
+        Optional.of(Dx7VoiceSourceTable.derivedMetadata(SOURCE, "V3")),
+        "V3"));
+
+    Assertions.assertEquals(1, table.sourceCount());
+    Assertions.assertEquals(1, table.explicitCount());
+    Assertions.assertEquals(Optional.of(explicit), table.metadata(0, "V1"));
+    Assertions.assertEquals(Optional.empty(), table.metadata(1, "V2"));
+  }
+
+  @Test
+  public void testInvalidReference()
+  {
+    final Dx7VoiceSourceTable table = Dx7VoiceSourceTable.create(0);
+    table.addSource(SOURCE);
+
+    table.addReference(1);
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> table.addReference(2));
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> table.addReference(-1));
+    Assertions.assertThrows(
+      IndexOutOfBoundsException.class, () -> table.metadata(1, "V"));
+  }
+}
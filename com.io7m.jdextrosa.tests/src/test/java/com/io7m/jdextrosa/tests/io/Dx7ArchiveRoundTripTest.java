@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.io;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7ArchiveIO;
+import com.io7m.jdextrosa.io.Dx7ArchiveReaderType;
+import com.io7m.jdextrosa.io.Dx7ArchiveWriterType;
+import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+public final class Dx7ArchiveRoundTripTest
+{
+  private static final URI ARCHIVE = URI.create("urn:archive");
+
+  private static final Dx7ParseErrorListenerType FAIL =
+    e -> Assertions.fail(e.show());
+
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7ArchiveRoundTripTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(FAIL, URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  /**
+   * Enough voices to fill several blocks, with a mix of explicit and
+   * derived metadata, short names, and disabled operators.
+   */
+
+  private static Vector<Dx7VoiceNamed> library()
+    throws IOException
+  {
+    final Vector<Dx7VoiceNamed> voices = textures();
+    return Vector.range(0, 10000).map(index -> {
+      final int i = index.intValue();
+      final Dx7VoiceNamed voice = voices.get(i % voices.size());
+      final String name = i % 2 == 0 ? voice.name() : "V" + i;
+      final URI source = URI.create("urn:source:" + (i / 32));
+      final Optional<Dx7VoiceMetadata> metadata;
+      switch (i % 3) {
+        case 0:
+          metadata = Optional.empty();
+          break;
+        case 1:
+          metadata = Optional.of(
+            Dx7VoiceMetadata.of(source, URI.create(source + "/" + i)));
+          break;
+        default:
+          metadata = Optional.of(
+            Dx7VoiceSourceTable.derivedMetadata(source, name));
+          break;
+      }
+      return Dx7VoiceNamed.of(
+        name,
+        Dx7SysExIO.withOperatorsEnabled(voice.voice(), i % 64),
+        metadata);
+    });
+  }
+
+  private static byte[] write(
+    final Vector<Dx7VoiceNamed> voices)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Dx7ArchiveWriterType writer =
+           Dx7ArchiveIO.createWriter(ARCHIVE, bytes)) {
+      for (int index = 0; index < voices.size(); index += 1000) {
+        writer.write(voices.slice(index, index + 1000));
+      }
+      writer.finish();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Replace the integer at the given offset, and check that the result is
+   * rejected with an I/O error (rather than an allocation failure) both
+   * when read sequentially and when read with the block index.
+   */
+
+  private static void checkMalformed(
+    final byte[] data,
+    final int offset,
+    final int value)
+    throws IOException
+  {
+    final byte[] corrupt = data.clone();
+    ByteBuffer.wrap(corrupt).putInt(offset, value);
+
+    Assertions.assertThrows(
+      IOException.class,
+      () -> Dx7ArchiveIO.readAll(
+        FAIL, ARCHIVE, new ByteArrayInputStream(corrupt)));
+
+    final Path file = Files.createTempFile("dx7-archive-", ".dx7lib");
+    Files.write(file, corrupt);
+    try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+      Assertions.assertThrows(
+        IOException.class,
+        () -> Dx7ArchiveIO.createReader(FAIL, file.toUri(), channel)
+          .readAll());
+    }
+  }
+
+  @Test
+  public void testRoundTripStream()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = library();
+    final byte[] data = write(voices);
+
+    Assertions.assertTrue(Dx7ArchiveIO.isArchive(data, data.length));
+    Assertions.assertTrue(
+      data.length < voices.size() * Dx7SysExIO.PACKED_VOICE_SIZE);
+    Assertions.assertEquals(
+      voices,
+      Dx7ArchiveIO.readAll(FAIL, ARCHIVE, new ByteArrayInputStream(data)));
+  }
+
+  @Test
+  public void testRoundTripRandomAccess()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = library();
+    final Path file = Files.createTempFile("dx7-archive-", ".dx7lib");
+    Files.write(file, write(voices));
+
+    try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+      final Dx7ArchiveReaderType reader =
+        Dx7ArchiveIO.createReader(FAIL, file.toUri(), channel);
+
+      Assertions.assertEquals(voices.size(), reader.size());
+      Assertions.assertTrue(reader.blockCount() > 1);
+      Assertions.assertEquals(voices, reader.readAll());
+      Assertions.assertEquals(voices.slice(4000, 4200), reader.read(4000, 200));
+      Assertions.assertEquals(voices.slice(9990, 10000), reader.read(9990, 100));
+      Assertions.assertEquals(Vector.empty(), reader.read(10000, 10));
+      Assertions.assertThrows(
+        IndexOutOfBoundsException.class, () -> reader.read(10001, 1));
+    }
+  }
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    final byte[] data = write(Vector.empty());
+    Assertions.assertEquals(
+      Vector.empty(),
+      Dx7ArchiveIO.readAll(FAIL, ARCHIVE, new ByteArrayInputStream(data)));
+  }
+
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    final byte[] data = write(library());
+    final byte[] truncated = new byte[data.length / 2];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+    Assertions.assertThrows(
+      IOException.class,
+      () -> Dx7ArchiveIO.readAll(
+        FAIL, ARCHIVE, new ByteArrayInputStream(truncated)));
+  }
+
+  @Test
+  public void testMalformedBlockVoices()
+    throws Exception
+  {
+    final byte[] data = write(library());
+    checkMalformed(data, 8, 0);
+    checkMalformed(data, 8, -1);
+    checkMalformed(data, 8, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testMalformedBlockCount()
+    throws Exception
+  {
+    final byte[] data = write(library());
+    checkMalformed(data, 16, -1);
+    checkMalformed(data, 16, 4097);
+    checkMalformed(data, 16, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testMalformedBlockSize()
+    throws Exception
+  {
+    final byte[] data = write(library());
+    checkMalformed(data, 20, -1);
+    checkMalformed(data, 20, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testMalformedBlockCompressedSize()
+    throws Exception
+  {
+    final byte[] data = write(library());
+    checkMalformed(data, 24, -1);
+    checkMalformed(data, 24, Integer.MAX_VALUE);
+  }
+}
@@ -20,6 +20,7 @@ import com.io7m.jdextrosa.core.Dx7VoiceNamed;
 import com.io7m.jdextrosa.io.Dx7ParseErrorListenerType;
 import com.io7m.jdextrosa.io.Dx7SysExIO;
 import com.io7m.jdextrosa.io.Dx7SysExReaderType;
+import com.io7m.jdextrosa.io.Dx7SysExStreamWriterType;
 import com.io7m.jdextrosa.io.Dx7SysExWriterType;
 import com.io7m.jdextrosa.io.xml.Dx7ParserConfigurationException;
 import com.io7m.jdextrosa.io.xml.Dx7WriterConfigurationException;
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -44,6 +46,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
 @ExtendWith(TestMemoryFilesystemExtension.class)
 public final class Dx7SysExRoundTripTest
 {
@@ -110,6 +116,43 @@ public final class Dx7SysExRoundTripTest
     }
   }
 
+  @Test
+  public void testStreamWriterIdentical(
+    final FileSystem fs)
+    throws Exception
+  {
+    copyResourceToMemoryFS(fs, "TEXTURES.SYX");
+
+    final Path path0 = fs.getPath("/TEXTURES.SYX");
+
+    final Dx7ParseErrorListenerType errors =
+      error -> LOG.error("error: {}", error);
+
+    final Vector<Dx7VoiceNamed> result0 = this.parse(errors, path0);
+
+    final Path path1 =
+      Files.createTempFile("dx7-sysex-", ".sysx");
+    final Path path2 =
+      Files.createTempFile("dx7-sysex-stream-", ".sysx");
+
+    this.write(result0, path1);
+
+    try (FileChannel channel =
+           FileChannel.open(path2, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      try (Dx7SysExStreamWriterType p =
+             Dx7SysExIO.createStreamWriter(path2.toUri(), channel)) {
+        for (final Dx7VoiceNamed voice : result0) {
+          p.write(Vector.of(voice));
+        }
+        p.finish();
+      }
+    }
+
+    Assertions.assertArrayEquals(
+      Files.readAllBytes(path1),
+      Files.readAllBytes(path2));
+  }
+
   private static Vector<Dx7VoiceNamed> stripMetadata(
     final Vector<Dx7VoiceNamed> voices)
   {
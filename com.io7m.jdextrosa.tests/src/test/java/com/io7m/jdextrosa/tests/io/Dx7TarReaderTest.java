@@ -0,0 +1,351 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.io;
+
+import com.io7m.jdextrosa.io.Dx7TarReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+public final class Dx7TarReaderTest
+{
+  private static final int BLOCK_SIZE = 512;
+
+  private static byte[] data(
+    final int size,
+    final int seed)
+  {
+    final byte[] data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) (index * 31 + seed);
+    }
+    return data;
+  }
+
+  private static void put(
+    final byte[] header,
+    final int offset,
+    final String text)
+  {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(bytes, 0, header, offset, bytes.length);
+  }
+
+  private static byte[] header(
+    final String name,
+    final String prefix,
+    final long size,
+    final char type,
+    final boolean gnu)
+  {
+    final byte[] header = new byte[BLOCK_SIZE];
+    put(header, 0, name);
+    put(header, 100, "0000644\0");
+    put(header, 108, "0000000\0");
+    put(header, 116, "0000000\0");
+    put(header, 124, String.format("%011o\0", Long.valueOf(size)));
+    put(header, 136, "00000000000\0");
+    header[156] = (byte) type;
+    if (gnu) {
+      put(header, 257, "ustar  \0");
+    } else {
+      put(header, 257, "ustar\0");
+      put(header, 263, "00");
+      put(header, 345, prefix);
+    }
+
+    put(header, 148, "        ");
+    int sum = 0;
+    for (final byte b : header) {
+      sum += b & 0xff;
+    }
+    put(header, 148, String.format("%06o\0 ", Integer.valueOf(sum)));
+    return header;
+  }
+
+  private static void entry(
+    final ByteArrayOutputStream output,
+    final byte[] header,
+    final byte[] content)
+  {
+    output.writeBytes(header);
+    output.writeBytes(content);
+    final int remainder = content.length % BLOCK_SIZE;
+    if (remainder != 0) {
+      output.writeBytes(new byte[BLOCK_SIZE - remainder]);
+    }
+  }
+
+  private static void file(
+    final ByteArrayOutputStream output,
+    final String name,
+    final byte[] content)
+  {
+    entry(output, header(name, "", content.length, '0', false), content);
+  }
+
+  private static void end(
+    final ByteArrayOutputStream output)
+  {
+    output.writeBytes(new byte[BLOCK_SIZE * 2]);
+  }
+
+  private static byte[] paxRecord(
+    final String key,
+    final String value)
+  {
+    final int base =
+      (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+
+    int length = base + 1;
+    while (base + Integer.toString(length).length() != length) {
+      ++length;
+    }
+    return (length + " " + key + "=" + value + "\n")
+      .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Path write(
+    final byte[] data)
+    throws IOException
+  {
+    final Path file = Files.createTempFile("dx7-tar-", ".tar");
+    Files.write(file, data);
+    return file;
+  }
+
+  private static List<Dx7TarReader.Member> readAll(
+    final Path file)
+    throws IOException
+  {
+    final List<Dx7TarReader.Member> members = new ArrayList<>();
+    try (Dx7TarReader reader =
+           Dx7TarReader.open(file, name -> name.endsWith(".syx"))) {
+      while (true) {
+        final Optional<Dx7TarReader.Member> member = reader.next();
+        if (!member.isPresent()) {
+          Assertions.assertEquals(Optional.empty(), reader.next());
+          break;
+        }
+        members.add(member.get());
+      }
+    }
+    return members;
+  }
+
+  private static byte[] ustar()
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    file(output, "a.syx", data(600, 1));
+    file(output, "dir/b.txt", data(100, 2));
+    entry(output, header("dir/", "", 0L, '5', false), new byte[0]);
+    entry(
+      output,
+      header("c.syx", "some/prefix", 4104L, '0', false),
+      data(4104, 3));
+    file(output, "empty.syx", new byte[0]);
+    end(output);
+    return output.toByteArray();
+  }
+
+  private static void checkUstar(
+    final List<Dx7TarReader.Member> members)
+  {
+    Assertions.assertEquals(3, members.size());
+    Assertions.assertEquals("a.syx", members.get(0).name());
+    Assertions.assertArrayEquals(data(600, 1), members.get(0).data());
+    Assertions.assertEquals("some/prefix/c.syx", members.get(1).name());
+    Assertions.assertArrayEquals(data(4104, 3), members.get(1).data());
+    Assertions.assertEquals("empty.syx", members.get(2).name());
+    Assertions.assertArrayEquals(new byte[0], members.get(2).data());
+  }
+
+  @Test
+  public void testUstar()
+    throws Exception
+  {
+    checkUstar(readAll(write(ustar())));
+  }
+
+  @Test
+  public void testUstarGZIP()
+    throws Exception
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(bytes)) {
+      output.write(ustar());
+    }
+    checkUstar(readAll(write(bytes.toByteArray())));
+  }
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    Assertions.assertEquals(List.of(), readAll(write(new byte[0])));
+  }
+
+  @Test
+  public void testContiguous()
+    throws Exception
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    entry(output, header("a.syx", "", 10L, '7', false), data(10, 6));
+    file(output, "b.syx", data(10, 7));
+    end(output);
+
+    final List<Dx7TarReader.Member> members =
+      readAll(write(output.toByteArray()));
+
+    Assertions.assertEquals(2, members.size());
+    Assertions.assertEquals("a.syx", members.get(0).name());
+    Assertions.assertArrayEquals(data(10, 6), members.get(0).data());
+    Assertions.assertEquals("b.syx", members.get(1).name());
+    Assertions.assertArrayEquals(data(10, 7), members.get(1).data());
+  }
+
+  @Test
+  public void testGNULongName()
+    throws Exception
+  {
+    final String name = "x".repeat(150) + "/long.syx";
+    final byte[] name_bytes = (name + "\0").getBytes(StandardCharsets.UTF_8);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    entry(
+      output,
+      header("././@LongLink", "", name_bytes.length, 'L', true),
+      name_bytes);
+    entry(
+      output,
+      header(name.substring(0, 100), "", 10L, '0', true),
+      data(10, 4));
+    entry(output, header("short.syx", "", 10L, '0', true), data(10, 5));
+    end(output);
+
+    final List<Dx7TarReader.Member> members =
+      readAll(write(output.toByteArray()));
+
+    Assertions.assertEquals(2, members.size());
+    Assertions.assertEquals(name, members.get(0).name());
+    Assertions.assertArrayEquals(data(10, 4), members.get(0).data());
+    Assertions.assertEquals("short.syx", members.get(1).name());
+    Assertions.assertArrayEquals(data(10, 5), members.get(1).data());
+  }
+
+  @Test
+  public void testPax()
+    throws Exception
+  {
+    final String name = "\u00fc".repeat(120) + "/pax.syx";
+
+    /*
+     * The comment value contains a newline followed by something that
+     * looks like a record, so records must be delimited by their lengths.
+     */
+
+    final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    records.writeBytes(paxRecord("comment", "x\n13 path=bogus"));
+    records.writeBytes(paxRecord("path", name));
+    records.writeBytes(paxRecord("mtime", "1600000000.5"));
+    final byte[] pax = records.toByteArray();
+
+    final byte[] global = paxRecord("comment", "global");
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    entry(
+      output,
+      header("pax_global_header", "", global.length, 'g', false),
+      global);
+    entry(output, header("PaxHeaders/x", "", pax.length, 'x', false), pax);
+    entry(output, header("truncated.syx", "", 10L, '0', false), data(10, 6));
+    file(output, "plain.syx", data(10, 7));
+    end(output);
+
+    final List<Dx7TarReader.Member> members =
+      readAll(write(output.toByteArray()));
+
+    Assertions.assertEquals(2, members.size());
+    Assertions.assertEquals(name, members.get(0).name());
+    Assertions.assertArrayEquals(data(10, 6), members.get(0).data());
+    Assertions.assertEquals("plain.syx", members.get(1).name());
+    Assertions.assertArrayEquals(data(10, 7), members.get(1).data());
+  }
+
+  @Test
+  public void testPaxMalformed()
+    throws Exception
+  {
+    final byte[] pax = "99 path=x.syx\n".getBytes(StandardCharsets.UTF_8);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    entry(output, header("PaxHeaders/x", "", pax.length, 'x', false), pax);
+    file(output, "x.syx", data(10, 8));
+    end(output);
+
+    final Path file = write(output.toByteArray());
+    Assertions.assertThrows(IOException.class, () -> readAll(file));
+  }
+
+  @Test
+  public void testBadChecksum()
+    throws Exception
+  {
+    final byte[] data = ustar();
+    data[0] = (byte) 'b';
+
+    final Path file = write(data);
+    Assertions.assertThrows(IOException.class, () -> readAll(file));
+  }
+
+  @Test
+  public void testBadChecksumLater()
+    throws Exception
+  {
+    final byte[] data = ustar();
+    final int offset = BLOCK_SIZE * 3;
+    Assertions.assertEquals('d', data[offset]);
+    data[offset + 1] = (byte) 'x';
+
+    final Path file = write(data);
+    try (Dx7TarReader reader =
+           Dx7TarReader.open(file, name -> name.endsWith(".syx"))) {
+      Assertions.assertEquals("a.syx", reader.next().get().name());
+      Assertions.assertThrows(IOException.class, reader::next);
+      Assertions.assertThrows(IOException.class, reader::next);
+    }
+  }
+
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    final byte[] data = ustar();
+    final Path file = write(Arrays.copyOf(data, BLOCK_SIZE + 300));
+    Assertions.assertThrows(IOException.class, () -> readAll(file));
+  }
+}
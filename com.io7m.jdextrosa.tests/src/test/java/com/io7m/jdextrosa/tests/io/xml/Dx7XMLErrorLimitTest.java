@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+public final class Dx7XMLErrorLimitTest
+{
+  private static final int VOICES = 5000;
+
+  /**
+   * A document that is valid according to the schema, but where every voice
+   * contains parameters that are out of range. The errors are reported by
+   * the format content handler rather than by the validator.
+   */
+
+  private static byte[] invalidVoices()
+  {
+    final byte[] packed = new byte[128];
+    Arrays.fill(packed, (byte) 0x7f);
+    final String data = Base64.getEncoder().encodeToString(packed);
+
+    final StringBuilder text = new StringBuilder(VOICES * 220);
+    text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    text.append("<dx7-voices xmlns=\"schema:com.io7m.jdextrosa:2.0\">\n");
+    for (int index = 0; index < VOICES; ++index) {
+      text.append("  <dx7-voice name=\"INVALID   \" data=\"");
+      text.append(data);
+      text.append("\"/>\n");
+    }
+    text.append("</dx7-voices>\n");
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testHandlerErrorsStopParsing()
+    throws Exception
+  {
+    final byte[] document = invalidVoices();
+    final CountingInputStream stream =
+      new CountingInputStream(new ByteArrayInputStream(document));
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers();
+    final Dx7XMLParserRequest request =
+      Dx7XMLParserRequest.builder()
+        .setFile(URI.create("urn:invalid"))
+        .setStream(stream)
+        .setMaximumErrors(10)
+        .build();
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result =
+      parsers.create(request).parse();
+
+    Assertions.assertTrue(result.isInvalid());
+    Assertions.assertEquals(10, result.getError().size());
+    Assertions.assertTrue(
+      result.getError().exists(e -> e.message().contains("out of range")));
+    Assertions.assertTrue(
+      stream.count < document.length / 2L,
+      "Parsing stopped early (" + stream.count + " of " + document.length + ")");
+  }
+
+  private static final class CountingInputStream extends FilterInputStream
+  {
+    private long count;
+
+    CountingInputStream(
+      final InputStream in_stream)
+    {
+      super(in_stream);
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r >= 0) {
+        ++this.count;
+      }
+      return r;
+    }
+
+    @Override
+    public int read(
+      final byte[] buffer,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      final int r = super.read(buffer, offset, length);
+      if (r > 0) {
+        this.count += r;
+      }
+      return r;
+    }
+  }
+}
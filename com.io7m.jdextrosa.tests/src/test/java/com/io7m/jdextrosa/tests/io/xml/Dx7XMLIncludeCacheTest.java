@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.Dx7XMLIncludeCache;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import com.io7m.jdextrosa.tests.TestMemoryFilesystemExtension;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+@ExtendWith(TestMemoryFilesystemExtension.class)
+public final class Dx7XMLIncludeCacheTest
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(Dx7XMLIncludeCacheTest.class);
+
+  private static final String MASTER =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<dx:dx7-voices xmlns:dx=\"schema:com.io7m.jdextrosa:2.0\"\n"
+      + "  xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n"
+      + "  <xi:include href=\"textures.xml\"/>\n"
+      + "  <xi:include href=\"textures.xml\"/>\n"
+      + "</dx:dx7-voices>\n";
+
+  private static final String MASTER_V1 =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<dx:dx7-voices xmlns:dx=\"schema:com.io7m.jdextrosa:1.0\"\n"
+      + "  xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n"
+      + "  <xi:include href=\"textures.xml\"/>\n"
+      + "  <xi:include href=\"textures.xml\"/>\n"
+      + "</dx:dx7-voices>\n";
+
+  private static String includes(
+    final String... hrefs)
+  {
+    final StringBuilder text = new StringBuilder(256);
+    text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    text.append("<dx:dx7-voices xmlns:dx=\"schema:com.io7m.jdextrosa:2.0\"\n");
+    text.append("  xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n");
+    for (final String href : hrefs) {
+      text.append("  <xi:include href=\"").append(href).append("\"/>\n");
+    }
+    text.append("</dx:dx7-voices>\n");
+    return text.toString();
+  }
+
+  private static void copyResource(
+    final Path root,
+    final String file)
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/" + file;
+    try (InputStream stream =
+           Dx7XMLIncludeCacheTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      try (OutputStream output = Files.newOutputStream(root.resolve(file))) {
+        stream.transferTo(output);
+      }
+    }
+  }
+
+  private static Vector<Dx7VoiceNamed> parse(
+    final Dx7XMLParsers parsers,
+    final Path root,
+    final Path file)
+    throws Exception
+  {
+    try (InputStream stream = Files.newInputStream(file)) {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r =
+        parsers.create(
+          Dx7XMLParserRequest.of(Optional.of(root), file.toUri(), stream))
+          .parse();
+
+      if (!r.isValid()) {
+        r.getError().forEach(e -> LOG.error("{}", e.show()));
+      }
+      Assertions.assertTrue(r.isValid());
+      return r.get();
+    }
+  }
+
+  @Test
+  public void testIncludesShared(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    copyResource(root, "textures.xml");
+
+    final Path master0 = root.resolve("master0.xml");
+    final Path master1 = root.resolve("master1.xml");
+    Files.write(master0, MASTER.getBytes(StandardCharsets.UTF_8));
+    Files.write(master1, MASTER.getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLIncludeCache cache = new Dx7XMLIncludeCache();
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(cache);
+
+    final Vector<Dx7VoiceNamed> textures =
+      parse(parsers, root, root.resolve("textures.xml"));
+    final Vector<Dx7VoiceNamed> result0 = parse(parsers, root, master0);
+    final Vector<Dx7VoiceNamed> result1 = parse(parsers, root, master1);
+
+    Assertions.assertEquals(textures.appendAll(textures), result0);
+    Assertions.assertEquals(result0, result1);
+    Assertions.assertEquals(1, cache.size());
+  }
+
+  /**
+   * The 1.0 schema does not admit {@code xi:include} elements, but the
+   * elements never reach the validator, so 1.0 documents may use the cache.
+   */
+
+  @Test
+  public void testIncludesVersion1(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    copyResource(root, "textures.xml");
+
+    final Path master = root.resolve("master.xml");
+    Files.write(master, MASTER_V1.getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLIncludeCache cache = new Dx7XMLIncludeCache();
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(cache);
+
+    final Vector<Dx7VoiceNamed> textures =
+      parse(parsers, root, root.resolve("textures.xml"));
+    Assertions.assertEquals(
+      textures.appendAll(textures), parse(parsers, root, master));
+    Assertions.assertEquals(1, cache.size());
+  }
+
+  /**
+   * An inclusion inside an included file is resolved against the directory
+   * of the included file, not the directory of the outermost document.
+   */
+
+  @Test
+  public void testNestedIncludeRelative(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    final Path lib = root.resolve("lib");
+    Files.createDirectories(lib);
+    copyResource(lib, "textures.xml");
+
+    Files.write(
+      lib.resolve("nested.xml"),
+      includes("textures.xml").getBytes(StandardCharsets.UTF_8));
+    final Path master = root.resolve("master.xml");
+    Files.write(
+      master,
+      includes("lib/nested.xml").getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(new Dx7XMLIncludeCache());
+    final Vector<Dx7VoiceNamed> textures =
+      parse(parsers, lib, lib.resolve("textures.xml"));
+    Assertions.assertEquals(textures, parse(parsers, root, master));
+  }
+
+  /**
+   * A nested inclusion may not escape the base directory of the outermost
+   * document, even if it stays within the directory of the including file.
+   */
+
+  @Test
+  public void testNestedIncludeOutsideBase(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    final Path base = root.resolve("base");
+    final Path lib = base.resolve("lib");
+    Files.createDirectories(lib);
+    copyResource(root, "textures.xml");
+
+    Files.write(
+      lib.resolve("nested.xml"),
+      includes("../../textures.xml").getBytes(StandardCharsets.UTF_8));
+    final Path master = base.resolve("master.xml");
+    Files.write(
+      master,
+      includes("lib/nested.xml").getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(new Dx7XMLIncludeCache());
+    try (InputStream stream = Files.newInputStream(master)) {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r =
+        parsers.create(
+          Dx7XMLParserRequest.of(Optional.of(base), master.toUri(), stream))
+          .parse();
+      Assertions.assertFalse(r.isValid());
+    }
+  }
+
+  /**
+   * A cached fragment is not reused if a file that it includes has changed.
+   */
+
+  @Test
+  public void testNestedIncludeChanged(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    final Path lib = root.resolve("lib");
+    Files.createDirectories(lib);
+    copyResource(lib, "textures.xml");
+
+    Files.write(
+      lib.resolve("nested.xml"),
+      includes("textures.xml").getBytes(StandardCharsets.UTF_8));
+    final Path master = root.resolve("master.xml");
+    Files.write(
+      master,
+      includes("lib/nested.xml").getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLIncludeCache cache = new Dx7XMLIncludeCache();
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(cache);
+    final Vector<Dx7VoiceNamed> textures =
+      parse(parsers, lib, lib.resolve("textures.xml"));
+    Assertions.assertEquals(textures, parse(parsers, root, master));
+
+    Files.write(
+      lib.resolve("textures.xml"),
+      includes().getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals(Vector.empty(), parse(parsers, root, master));
+  }
+
+  @Test
+  public void testIncludeOutsideBase(
+    final FileSystem fs)
+    throws Exception
+  {
+    final Path root = fs.getRootDirectories().iterator().next();
+    final Path base = root.resolve("base");
+    Files.createDirectories(base);
+    copyResource(root, "textures.xml");
+
+    final Path master = base.resolve("master.xml");
+    Files.write(
+      master,
+      MASTER.replace("textures.xml", "../textures.xml")
+        .getBytes(StandardCharsets.UTF_8));
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers(new Dx7XMLIncludeCache());
+    try (InputStream stream = Files.newInputStream(master)) {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r =
+        parsers.create(
+          Dx7XMLParserRequest.of(Optional.of(base), master.toUri(), stream))
+          .parse();
+      Assertions.assertFalse(r.isValid());
+    }
+  }
+}
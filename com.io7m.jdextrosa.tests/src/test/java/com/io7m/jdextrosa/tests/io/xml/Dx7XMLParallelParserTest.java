@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.io.xml;
+
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParallelParserConfiguration;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParserType;
+import com.io7m.jdextrosa.io.xml.Dx7XMLParsers;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParseError;
+import com.io7m.jdextrosa.io.xml.spi.Dx7XMLParserRequest;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Validation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class Dx7XMLParallelParserTest
+{
+  private ExecutorService executor;
+  private Dx7XMLParsers parsers;
+
+  private static byte[] resource(
+    final String file)
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/" + file;
+    try (InputStream stream =
+           Dx7XMLParallelParserTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return stream.readAllBytes();
+    }
+  }
+
+  private static Dx7XMLParserRequest request(
+    final byte[] data)
+  {
+    return Dx7XMLParserRequest.of(
+      Optional.empty(),
+      URI.create("urn:test"),
+      new ByteArrayInputStream(data));
+  }
+
+  @BeforeEach
+  public void setup()
+  {
+    this.executor = Executors.newFixedThreadPool(4);
+    this.parsers = new Dx7XMLParsers();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.executor.shutdown();
+  }
+
+  @Test
+  public void testSegmentedEqualsSequential()
+    throws Exception
+  {
+    final byte[] data = resource("textures.xml");
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r0 =
+      this.parsers.create(request(data)).parse();
+
+    for (final boolean validation : new boolean[]{true, false}) {
+      final Dx7XMLParserType parser =
+        this.parsers.createParallel(
+          request(data),
+          Dx7XMLParallelParserConfiguration.builder()
+            .setSegmentVoices(3)
+            .setValidation(validation)
+            .build(),
+          this.executor);
+
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r1 =
+        parser.parse();
+
+      Assertions.assertTrue(r0.isValid());
+      Assertions.assertTrue(r1.isValid());
+      Assertions.assertEquals(r0.get(), r1.get());
+    }
+  }
+
+  @Test
+  public void testSegmentedErrorPositions()
+    throws Exception
+  {
+    final String text =
+      new String(resource("textures.xml"), StandardCharsets.UTF_8);
+
+    /*
+     * Break the last voice and check that the error refers to the original
+     * line number.
+     */
+
+    final int index = text.lastIndexOf("algorithm=\"");
+    final String broken =
+      text.substring(0, index)
+        + "algorithm=\"99"
+        + text.substring(text.indexOf('"', index + 11));
+
+    final long line =
+      broken.substring(0, index).chars().filter(c -> c == '\n').count() + 1L;
+
+    final byte[] data = broken.getBytes(StandardCharsets.UTF_8);
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r0 =
+      this.parsers.create(request(data)).parse();
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r1 =
+      this.parsers.createParallel(
+        request(data),
+        Dx7XMLParallelParserConfiguration.builder()
+          .setSegmentVoices(3)
+          .build(),
+        this.executor).parse();
+
+    Assertions.assertTrue(r0.isInvalid());
+    Assertions.assertTrue(r1.isInvalid());
+    Assertions.assertEquals(
+      r0.getError().map(e -> Integer.valueOf(e.lexical().line())),
+      r1.getError().map(e -> Integer.valueOf(e.lexical().line())));
+    Assertions.assertTrue(
+      r1.getError().exists(e -> e.lexical().line() >= line));
+  }
+
+  /**
+   * Comments and processing instructions inside a voice that contain the
+   * end tag of the voice do not end the voice.
+   */
+
+  @Test
+  public void testSegmentedMarkupInVoice()
+    throws Exception
+  {
+    final String text =
+      new String(resource("textures.xml"), StandardCharsets.UTF_8);
+    final int tag_end = text.indexOf('>', text.indexOf("<dx:dx7-voice "));
+    final String marked =
+      text.substring(0, tag_end + 1)
+        + "<!-- </dx:dx7-voice> --><?x </dx:dx7-voice> ?>"
+        + text.substring(tag_end + 1);
+    final byte[] data = marked.getBytes(StandardCharsets.UTF_8);
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r0 =
+      this.parsers.create(request(data)).parse();
+
+    for (final boolean validation : new boolean[]{true, false}) {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r1 =
+        this.parsers.createParallel(
+          request(data),
+          Dx7XMLParallelParserConfiguration.builder()
+            .setSegmentVoices(1)
+            .setValidation(validation)
+            .build(),
+          this.executor).parse();
+
+      Assertions.assertTrue(r0.isValid());
+      Assertions.assertTrue(r1.isValid());
+      Assertions.assertEquals(r0.get(), r1.get());
+    }
+  }
+
+  private static Seq<String> positions(
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> result)
+  {
+    return result.getError().map(
+      e -> e.lexical().line() + ":" + e.lexical().column());
+  }
+
+  /**
+   * Break the last voice, placing its start tag on a single line after the
+   * given separator, and check that the errors of the segmented parse have
+   * the same lines and columns as those of the sequential parse.
+   */
+
+  private void checkErrorColumns(
+    final String separator)
+    throws Exception
+  {
+    final String text =
+      new String(resource("textures.xml"), StandardCharsets.UTF_8);
+
+    final String voice_close = "</dx:dx7-voice>";
+    final int start = text.lastIndexOf("<dx:dx7-voice ");
+    final int tag_end = text.indexOf('>', start);
+    final int previous_end =
+      text.lastIndexOf(voice_close, start) + voice_close.length();
+    final String tag =
+      text.substring(start, tag_end + 1)
+        .replaceAll("\\n\\s*", " ")
+        .replaceAll("algorithm=\"[0-9]+\"", "algorithm=\"99\"");
+
+    final String prefix = text.substring(0, previous_end) + separator;
+    final String broken = prefix + tag + text.substring(tag_end + 1);
+
+    final int line =
+      (int) prefix.chars().filter(c -> c == '\n').count() + 1;
+    final int column = prefix.length() - prefix.lastIndexOf('\n');
+
+    final byte[] data = broken.getBytes(StandardCharsets.UTF_8);
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r0 =
+      this.parsers.create(request(data)).parse();
+
+    for (final boolean validation : new boolean[]{true, false}) {
+      final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r1 =
+        this.parsers.createParallel(
+          request(data),
+          Dx7XMLParallelParserConfiguration.builder()
+            .setSegmentVoices(1)
+            .setValidation(validation)
+            .build(),
+          this.executor).parse();
+
+      Assertions.assertTrue(r0.isInvalid());
+      Assertions.assertTrue(r1.isInvalid());
+      if (validation) {
+        Assertions.assertEquals(positions(r0), positions(r1));
+      }
+
+      final Seq<Dx7XMLParseError> on_line =
+        r1.getError().filter(e -> e.lexical().line() == line);
+      Assertions.assertFalse(on_line.isEmpty());
+      for (final Dx7XMLParseError error : on_line) {
+        Assertions.assertTrue(error.lexical().column() > column);
+        Assertions.assertTrue(
+          positions(r0).contains(
+            error.lexical().line() + ":" + error.lexical().column()),
+          () -> positions(r1).mkString(" "));
+      }
+    }
+  }
+
+  @Test
+  public void testSegmentedErrorColumnFirst()
+    throws Exception
+  {
+    this.checkErrorColumns("\n");
+  }
+
+  @Test
+  public void testSegmentedErrorColumnIndented()
+    throws Exception
+  {
+    this.checkErrorColumns("\n      ");
+  }
+
+  @Test
+  public void testSegmentedErrorColumnSameLine()
+    throws Exception
+  {
+    this.checkErrorColumns("  ");
+  }
+
+  @Test
+  public void testPipelinedEqualsSequential()
+    throws Exception
+  {
+    final byte[] data = resource("textures.xml");
+
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r0 =
+      this.parsers.create(request(data)).parse();
+    final Validation<Seq<Dx7XMLParseError>, Vector<Dx7VoiceNamed>> r1 =
+      this.parsers.createPipelined(request(data), this.executor).parse();
+
+    Assertions.assertTrue(r0.isValid());
+    Assertions.assertTrue(r1.isValid());
+    Assertions.assertEquals(r0.get(), r1.get());
+  }
+}
@@ -40,12 +40,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @ExtendWith(TestMemoryFilesystemExtension.class)
 public final class Dx7XMLProviderRoundTripTest
@@ -100,12 +103,87 @@ public final class Dx7XMLProviderRoundTripTest
 
     final Path path1 = Files.createTempFile("dx7-sysex-", ".xml");
     LOG.debug("path: {}", path1);
-    this.write(writers, result0, path1);
+    this.write(writers, "schema:com.io7m.jdextrosa:1.0", result0, path1);
 
     final Vector<Dx7VoiceNamed> result1 = this.parse(parsers, root, path1);
     Assertions.assertEquals(stripMetadata(result0), stripMetadata(result1));
   }
 
+  @Test
+  public void testRoundTripPacked(
+    final FileSystem fs)
+    throws Exception
+  {
+    copyResourceToMemoryFS(fs, "textures.xml");
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers();
+    final Dx7XMLWriters writers = new Dx7XMLWriters();
+
+    final Path root = fs.getPath("/");
+    final Path path0 = fs.getPath("/textures.xml");
+
+    final Vector<Dx7VoiceNamed> result0 =
+      this.parse(parsers, root, path0);
+
+    final Path path1 = Files.createTempFile("dx7-sysex-", ".xml");
+    LOG.debug("path: {}", path1);
+    this.write(writers, "schema:com.io7m.jdextrosa:2.0", result0, path1);
+
+    final Vector<Dx7VoiceNamed> result1 = this.parse(parsers, root, path1);
+    Assertions.assertEquals(result0, result1);
+  }
+
+  /**
+   * Packed voice data may be wrapped over several lines, as
+   * {@code xs:base64Binary} permits whitespace.
+   */
+
+  @Test
+  public void testPackedLineWrapped(
+    final FileSystem fs)
+    throws Exception
+  {
+    copyResourceToMemoryFS(fs, "textures.xml");
+
+    final Dx7XMLParsers parsers = new Dx7XMLParsers();
+    final Dx7XMLWriters writers = new Dx7XMLWriters();
+
+    final Path root = fs.getPath("/");
+    final Path path0 = fs.getPath("/textures.xml");
+
+    final Vector<Dx7VoiceNamed> result0 =
+      this.parse(parsers, root, path0);
+
+    final Path path1 = Files.createTempFile("dx7-sysex-", ".xml");
+    this.write(writers, "schema:com.io7m.jdextrosa:2.0", result0, path1);
+
+    final String text = Files.readString(path1, StandardCharsets.UTF_8);
+    final Matcher matcher = Pattern.compile("\\bdata=\"([^\"]*)\"").matcher(text);
+    final StringBuilder wrapped = new StringBuilder(text.length() * 2);
+    int count = 0;
+    while (matcher.find()) {
+      final String data = matcher.group(1);
+      final StringBuilder lines = new StringBuilder(data.length() * 2);
+      for (int index = 0; index < data.length(); index += 16) {
+        lines.append("\n        ");
+        lines.append(data, index, Math.min(data.length(), index + 16));
+      }
+      lines.append("\n      ");
+      matcher.appendReplacement(
+        wrapped, Matcher.quoteReplacement("data=\"" + lines + "\""));
+      ++count;
+    }
+    matcher.appendTail(wrapped);
+    Assertions.assertEquals(result0.size(), count);
+
+    final Path path2 = Files.createTempFile("dx7-sysex-", ".xml");
+    LOG.debug("path: {}", path2);
+    Files.writeString(path2, wrapped, StandardCharsets.UTF_8);
+
+    final Vector<Dx7VoiceNamed> result2 = this.parse(parsers, root, path2);
+    Assertions.assertEquals(result0, result2);
+  }
+
   private static Vector<Dx7VoiceNamed> stripMetadata(
     final Vector<Dx7VoiceNamed> voices)
   {
@@ -115,6 +193,7 @@ public final class Dx7XMLProviderRoundTripTest
 
   private void write(
     final Dx7XMLWriters writers,
+    final String schema,
     final Vector<Dx7VoiceNamed> result0,
     final Path path1)
     throws IOException, Dx7WriterConfigurationException
@@ -122,7 +201,7 @@ public final class Dx7XMLProviderRoundTripTest
     try (OutputStream stream = Files.newOutputStream(path1)) {
       try (Dx7XMLWriterType p = writers.createWriter(
         Dx7XMLWriterRequest.of(
-          URI.create("schema:com.io7m.jdextrosa:1.0"),
+          URI.create(schema),
           path1.toUri(),
           stream))) {
         p.start();
@@ -0,0 +1,146 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.library.Dx7Deduplicator;
+import com.io7m.jdextrosa.library.Dx7DeduplicatorConfiguration;
+import com.io7m.jdextrosa.library.Dx7DuplicateGroup;
+import com.io7m.jdextrosa.library.Dx7FingerprintTable;
+import com.io7m.jdextrosa.library.Dx7VoiceFingerprints;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Optional;
+
+public final class Dx7DeduplicatorTest
+{
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7DeduplicatorTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(
+        e -> Assertions.fail(e.show()), URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  private static Dx7VoiceNamed withSource(
+    final Dx7VoiceNamed voice,
+    final String source)
+  {
+    final URI uri = URI.create("urn:" + source);
+    return Dx7VoiceNamed.of(
+      voice.name(),
+      voice.voice(),
+      Optional.of(Dx7VoiceMetadata.of(uri, uri)));
+  }
+
+  @Test
+  public void testDuplicatesRemoved()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = textures();
+    final Vector<Dx7VoiceNamed> input =
+      voices.map(v -> withSource(v, "a"))
+        .appendAll(voices.map(v -> withSource(v, "b")));
+
+    final Dx7Deduplicator deduplicator =
+      Dx7Deduplicator.create(Dx7DeduplicatorConfiguration.builder().build());
+    final Vector<Dx7VoiceNamed> distinct = deduplicator.filter(input);
+
+    Assertions.assertEquals(voices.size(), distinct.size());
+    Assertions.assertEquals(voices.size(), deduplicator.distinctCount());
+    Assertions.assertEquals(voices.size(), deduplicator.duplicateCount());
+
+    final Vector<Dx7DuplicateGroup> groups = deduplicator.duplicateGroups();
+    Assertions.assertEquals(voices.size(), groups.size());
+    for (final Dx7DuplicateGroup group : groups) {
+      Assertions.assertEquals(1, group.duplicateCount());
+      Assertions.assertEquals(
+        URI.create("urn:a"), group.first().get().source());
+      Assertions.assertEquals(
+        URI.create("urn:b"), group.duplicates().get(0).source());
+    }
+  }
+
+  @Test
+  public void testNamesOptional()
+    throws Exception
+  {
+    final Dx7VoiceNamed voice = textures().get(0);
+    final Dx7VoiceNamed renamed =
+      Dx7VoiceNamed.of("RENAMED", voice.voice(), voice.metadata());
+    final Vector<Dx7VoiceNamed> input = Vector.of(voice, renamed);
+
+    Assertions.assertEquals(
+      1,
+      Dx7Deduplicator.deduplicate(
+        Dx7DeduplicatorConfiguration.builder()
+          .build(), input).size());
+
+    Assertions.assertEquals(
+      2,
+      Dx7Deduplicator.deduplicate(
+        Dx7DeduplicatorConfiguration.builder()
+          .setIncludeNames(true)
+          .build(), input).size());
+  }
+
+  @Test
+  public void testMurmur3KnownValue()
+  {
+    final byte[] data =
+      "The quick brown fox jumps over the lazy dog"
+        .getBytes(StandardCharsets.US_ASCII);
+    final long[] hash = new long[2];
+    Dx7VoiceFingerprints.murmur3x64x128(data, data.length, hash);
+
+    Assertions.assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+    Assertions.assertEquals(0x7a433ca9c49a9347L, hash[1]);
+  }
+
+  @Test
+  public void testTableGrows()
+  {
+    final Dx7FingerprintTable table = new Dx7FingerprintTable(0);
+    for (int index = 0; index < 10_000; ++index) {
+      Assertions.assertEquals(
+        -1, table.putIfAbsent(index * 31L, ~index, index));
+    }
+    Assertions.assertEquals(10_000, table.size());
+    for (int index = 0; index < 10_000; ++index) {
+      Assertions.assertEquals(index, table.get(index * 31L, ~index));
+      Assertions.assertEquals(
+        index, table.putIfAbsent(index * 31L, ~index, 0));
+    }
+    Assertions.assertEquals(-1, table.get(1L, 1L));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.library.Dx7NameIndex;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public final class Dx7NameIndexTest
+{
+  private static Dx7NameIndex index()
+  {
+    final Dx7NameIndex index = Dx7NameIndex.create();
+    index.add("E.PIANO 1");
+    index.add("BRASS   1");
+    index.add("E.ORGAN 1");
+    index.add("PIANO   2");
+    index.add("E.PIANO 2");
+    index.add("Strings");
+    index.add("A");
+    return index;
+  }
+
+  private static Vector<Integer> indices(
+    final int... values)
+  {
+    return Vector.ofAll(values);
+  }
+
+  @Test
+  public void testPrefix()
+  {
+    final Dx7NameIndex index = index();
+    Assertions.assertEquals(indices(0, 2, 4), index.prefix("E.", 10));
+    Assertions.assertEquals(indices(0, 4), index.prefix("e.pia", 10));
+    Assertions.assertEquals(indices(0), index.prefix("E.", 1));
+    Assertions.assertEquals(indices(6), index.prefix("A", 10));
+    Assertions.assertEquals(indices(), index.prefix("PIANO 2", 10));
+    Assertions.assertEquals(7, index.prefix("", 10).size());
+  }
+
+  @Test
+  public void testSubstring()
+  {
+    final Dx7NameIndex index = index();
+    Assertions.assertEquals(indices(0, 3, 4), index.substring("PIANO", 10));
+    Assertions.assertEquals(indices(5), index.substring("RING", 10));
+    Assertions.assertEquals(indices(1, 5), index.substring("S", 10));
+    Assertions.assertEquals(indices(), index.substring("VIOLIN", 10));
+  }
+
+  @Test
+  public void testFuzzy()
+  {
+    final Dx7NameIndex index = index();
+    Assertions.assertEquals(indices(0, 4), index.fuzzy("E.PIANO 1", 1, 10));
+    Assertions.assertEquals(indices(0), index.fuzzy("E.PIANO 1", 0, 10));
+    Assertions.assertEquals(indices(5), index.fuzzy("STRIGNS", 2, 10));
+    Assertions.assertEquals(indices(), index.fuzzy("STRIGNS", 1, 10));
+  }
+
+  @Test
+  public void testNames()
+  {
+    final Dx7NameIndex index = index();
+    Assertions.assertEquals(7, index.size());
+    Assertions.assertEquals("Strings", index.name(5));
+  }
+
+  @Test
+  public void testManyNames()
+  {
+    final Dx7NameIndex index = Dx7NameIndex.create();
+    for (int i = 0; i < 100_000; ++i) {
+      index.add(String.format("VOICE%05d", Integer.valueOf(i)));
+    }
+    Assertions.assertEquals(indices(12345), index.substring("12345", 10));
+    Assertions.assertEquals(
+      indices(12340, 12341, 12342), index.prefix("VOICE1234", 3));
+    Assertions.assertEquals(
+      indices(12345, 2345, 10345, 11345),
+      index.fuzzy("VOICE12345", 1, 4));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.library.Dx7NearDuplicate;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateCluster;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateConfiguration;
+import com.io7m.jdextrosa.library.Dx7NearDuplicateDetector;
+import com.io7m.jdextrosa.library.Dx7VoiceVectors;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+
+public final class Dx7NearDuplicateDetectorTest
+{
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7NearDuplicateDetectorTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(
+        e -> Assertions.fail(e.show()), URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  private static int nudge(
+    final int x)
+  {
+    return x < 50 ? x + 2 : x - 2;
+  }
+
+  private static Dx7VoiceNamed tweaked(
+    final Dx7VoiceNamed voice)
+  {
+    final Dx7Voice v = voice.voice();
+    final Dx7Operator op1 = v.operator1();
+    return Dx7VoiceNamed.of(
+      "TWEAKED",
+      Dx7Voice.builder()
+        .from(v)
+        .setOperator1(
+          Dx7Operator.builder()
+            .from(op1)
+            .setEnvelopeR1Rate(nudge(op1.envelopeR1Rate()))
+            .setEnvelopeR2Level(nudge(op1.envelopeR2Level()))
+            .build())
+        .setLfoSpeed(nudge(v.lfoSpeed()))
+        .build(),
+      voice.metadata());
+  }
+
+  private static boolean together(
+    final Vector<Dx7NearDuplicateCluster> clusters,
+    final int x,
+    final int y)
+  {
+    return clusters.exists(c -> {
+      final Vector<Integer> indices = c.voices().map(Dx7NearDuplicate::index);
+      return indices.contains(Integer.valueOf(x))
+        && indices.contains(Integer.valueOf(y));
+    });
+  }
+
+  @Test
+  public void testTweakedCopiesClustered()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = textures();
+    final Vector<Dx7VoiceNamed> input =
+      voices.appendAll(voices.map(Dx7NearDuplicateDetectorTest::tweaked));
+
+    final Vector<Dx7NearDuplicateCluster> clusters =
+      Dx7NearDuplicateDetector.clusters(
+        Dx7NearDuplicateConfiguration.builder().build(), input);
+
+    for (int index = 0; index < voices.size(); ++index) {
+      Assertions.assertTrue(
+        together(clusters, index, index + voices.size()),
+        "Voice " + index + " is clustered with its copy");
+    }
+
+    for (final Dx7NearDuplicateCluster cluster : clusters) {
+      Assertions.assertTrue(cluster.voices().size() >= 2);
+      Assertions.assertEquals(0.0, cluster.voices().get(0).distance());
+    }
+  }
+
+  @Test
+  public void testZeroThresholdExactOnly()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = textures();
+    final Vector<Dx7VoiceNamed> input =
+      voices.appendAll(voices.map(Dx7NearDuplicateDetectorTest::tweaked));
+
+    final Vector<Dx7NearDuplicateCluster> clusters =
+      Dx7NearDuplicateDetector.clusters(
+        Dx7NearDuplicateConfiguration.builder()
+          .setThreshold(0.0)
+          .build(), input);
+
+    for (final Dx7NearDuplicateCluster cluster : clusters) {
+      for (final Dx7NearDuplicate voice : cluster.voices()) {
+        Assertions.assertEquals(0.0, voice.distance());
+      }
+    }
+  }
+
+  @Test
+  public void testDistance()
+    throws Exception
+  {
+    final Dx7VoiceNamed voice = textures().get(0);
+    final byte[] x = new byte[Dx7VoiceVectors.PARAMETERS];
+    final byte[] y = new byte[Dx7VoiceVectors.PARAMETERS];
+    Dx7VoiceVectors.parameters(voice.voice(), x, 0);
+    Dx7VoiceVectors.parameters(tweaked(voice).voice(), y, 0);
+
+    Assertions.assertEquals(0.0, Dx7VoiceVectors.distance(x, 0, x, 0));
+
+    final double d = Dx7VoiceVectors.distance(x, 0, y, 0);
+    Assertions.assertTrue(d > 0.0);
+    Assertions.assertTrue(d < 0.05);
+    Assertions.assertEquals(d, Dx7VoiceVectors.distance(y, 0, x, 0));
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.library.Dx7Bitmap;
+import com.io7m.jdextrosa.library.Dx7Query;
+import com.io7m.jdextrosa.library.Dx7QueryField;
+import com.io7m.jdextrosa.library.Dx7QueryIndex;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.function.Predicate;
+
+public final class Dx7QueryIndexTest
+{
+  private static Vector<Dx7Voice> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7QueryIndexTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(
+        e -> Assertions.fail(e.show()), URI.create("urn:textures"), stream)
+        .parse()
+        .map(Dx7VoiceNamed::voice);
+    }
+  }
+
+  private static void checkQuery(
+    final Vector<Dx7Voice> voices,
+    final Dx7QueryIndex index,
+    final Dx7Query query,
+    final Predicate<Dx7Voice> predicate)
+  {
+    final Vector<Integer> expected =
+      Vector.range(0, voices.size())
+        .filter(i -> predicate.test(voices.get(i.intValue())));
+
+    Assertions.assertEquals(expected.size(), index.count(query), query.toString());
+    Assertions.assertEquals(
+      expected, index.matches(query, 0, voices.size()), query.toString());
+  }
+
+  @Test
+  public void testQueries()
+    throws Exception
+  {
+    final Vector<Dx7Voice> voices = textures();
+    final Dx7QueryIndex index = Dx7QueryIndex.of(voices);
+    Assertions.assertEquals(voices.size(), index.size());
+
+    checkQuery(voices, index, Dx7Query.all(), v -> true);
+    checkQuery(
+      voices,
+      index,
+      Dx7Query.atLeast(Dx7QueryField.FEEDBACK, 4),
+      v -> v.feedback() >= 4);
+    checkQuery(
+      voices,
+      index,
+      Dx7Query.between(Dx7QueryField.TRANSPOSE, -12, 0),
+      v -> v.transpose() >= -12 && v.transpose() <= 0);
+    checkQuery(
+      voices,
+      index,
+      Dx7Query.and(
+        Dx7Query.not(Dx7Query.equalTo(Dx7QueryField.ALGORITHM, 1)),
+        Dx7Query.atLeast(Dx7QueryField.FIXED_OPERATORS, 1)),
+      v -> v.algorithm().id() != 1
+        && Dx7QueryField.FIXED_OPERATORS.value(v) >= 1);
+    checkQuery(
+      voices,
+      index,
+      Dx7Query.or(
+        Dx7Query.equalTo(Dx7QueryField.LFO_WAVE, 0),
+        Dx7Query.equalTo(Dx7QueryField.LFO_KEY_SYNC, 1)),
+      v -> v.lfoWave().external() == 0 || v.lfoKeySync());
+  }
+
+  @Test
+  public void testMatchesPaging()
+    throws Exception
+  {
+    final Vector<Dx7Voice> voices = textures();
+    final Dx7QueryIndex index = Dx7QueryIndex.of(voices);
+    final Dx7Query query = Dx7Query.all();
+    final Vector<Integer> all = Vector.range(0, voices.size());
+
+    Assertions.assertEquals(
+      all, index.matches(query, 0, Integer.MAX_VALUE));
+    Assertions.assertEquals(
+      all.drop(5), index.matches(query, 5, Integer.MAX_VALUE));
+    Assertions.assertEquals(
+      all.drop(5).take(3), index.matches(query, 5, 3));
+    Assertions.assertEquals(
+      Vector.empty(), index.matches(query, 0, 0));
+    Assertions.assertEquals(
+      Vector.empty(), index.matches(query, voices.size(), Integer.MAX_VALUE));
+    Assertions.assertEquals(
+      Vector.empty(), index.matches(query, Integer.MAX_VALUE, 10));
+
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> index.matches(query, -1, 1));
+    Assertions.assertThrows(
+      IllegalArgumentException.class, () -> index.matches(query, 0, -1));
+  }
+
+  @Test
+  public void testFacets()
+    throws Exception
+  {
+    final Vector<Dx7Voice> voices = textures();
+    final Dx7QueryIndex index = Dx7QueryIndex.of(voices);
+    final Dx7Query query = Dx7Query.atMost(Dx7QueryField.FEEDBACK, 5);
+
+    final SortedMap<Integer, Integer> facets =
+      index.facets(query, Dx7QueryField.ALGORITHM);
+
+    final SortedMap<Integer, Integer> expected =
+      voices.filter(v -> v.feedback() <= 5)
+        .groupBy(v -> Integer.valueOf(v.algorithm().id()))
+        .mapValues(Vector::size)
+        .foldLeft(
+          TreeMap.<Integer, Integer>empty(),
+          (m, p) -> m.put(p._1, p._2));
+
+    Assertions.assertEquals(expected, facets);
+  }
+
+  @Test
+  public void testBitmapOperations()
+  {
+    final Random random = new Random(0x44583751L);
+    for (int trial = 0; trial < 50; ++trial) {
+      final int n = random.nextInt(300_000) + 1;
+      final BitSet x = randomSet(random, n);
+      final BitSet y = randomSet(random, n);
+      final Dx7Bitmap bx = bitmapOf(x);
+      final Dx7Bitmap by = bitmapOf(y);
+
+      final BitSet and = (BitSet) x.clone();
+      and.and(y);
+      final BitSet or = (BitSet) x.clone();
+      or.or(y);
+      final BitSet and_not = (BitSet) x.clone();
+      and_not.andNot(y);
+
+      checkBitmap(x, bx);
+      checkBitmap(and, Dx7Bitmap.and(bx, by));
+      checkBitmap(or, Dx7Bitmap.or(bx, by));
+      checkBitmap(and_not, Dx7Bitmap.andNot(bx, by));
+      Assertions.assertEquals(
+        and.cardinality(), Dx7Bitmap.andCardinality(bx, by));
+    }
+  }
+
+  private static BitSet randomSet(
+    final Random random,
+    final int n)
+  {
+    final double[] densities = {0.001, 0.03, 0.2, 0.9};
+    final double density = densities[random.nextInt(densities.length)];
+    final BitSet set = new BitSet(n);
+    for (int i = 0; i < n; ++i) {
+      if (random.nextDouble() < density) {
+        set.set(i);
+      }
+    }
+    return set;
+  }
+
+  private static Dx7Bitmap bitmapOf(
+    final BitSet set)
+  {
+    final Dx7Bitmap bitmap = Dx7Bitmap.create();
+    set.stream().forEach(bitmap::append);
+    return bitmap;
+  }
+
+  private static void checkBitmap(
+    final BitSet expected,
+    final Dx7Bitmap bitmap)
+  {
+    Assertions.assertEquals(expected.cardinality(), bitmap.cardinality());
+    final int[] values = new int[expected.cardinality()];
+    Assertions.assertEquals(values.length, bitmap.copy(0, values));
+    Assertions.assertArrayEquals(expected.stream().toArray(), values);
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.core.Dx7AlgorithmID;
+import com.io7m.jdextrosa.core.Dx7Operator;
+import com.io7m.jdextrosa.core.Dx7OperatorID;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.library.Dx7Deduplicator;
+import com.io7m.jdextrosa.library.Dx7DeduplicatorConfiguration;
+import com.io7m.jdextrosa.library.Dx7VoiceCanonicalizer;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+public final class Dx7VoiceCanonicalizerTest
+{
+  private static Dx7Operator operator(
+    final int id,
+    final int coarse,
+    final int level)
+  {
+    return Dx7Operator.builder()
+      .setId(Dx7OperatorID.of(id))
+      .setOscillatorFrequencyCoarse(coarse)
+      .setOutputLevel(level)
+      .build();
+  }
+
+  private static Dx7Voice voice(
+    final int algorithm,
+    final int feedback,
+    final Dx7Operator... operators)
+  {
+    return Dx7Voice.builder()
+      .setAlgorithm(Dx7AlgorithmID.of(algorithm))
+      .setFeedback(feedback)
+      .setOperator1(operators[0])
+      .setOperator2(operators[1])
+      .setOperator3(operators[2])
+      .setOperator4(operators[3])
+      .setOperator5(operators[4])
+      .setOperator6(operators[5])
+      .build();
+  }
+
+  @Test
+  public void testAlgorithm32Permuted()
+  {
+    final Dx7Voice v0 = voice(
+      32, 0,
+      operator(1, 1, 99),
+      operator(2, 2, 90),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+    final Dx7Voice v1 = voice(
+      32, 0,
+      operator(1, 6, 50),
+      operator(2, 4, 70),
+      operator(3, 2, 90),
+      operator(4, 5, 60),
+      operator(5, 1, 99),
+      operator(6, 3, 80));
+
+    Assertions.assertNotEquals(v0, v1);
+    Assertions.assertEquals(
+      Dx7VoiceCanonicalizer.canonicalize(v0),
+      Dx7VoiceCanonicalizer.canonicalize(v1));
+  }
+
+  @Test
+  public void testAlgorithm32FeedbackFixesOperator6()
+  {
+    final Dx7Voice v0 = voice(
+      32, 7,
+      operator(1, 1, 99),
+      operator(2, 2, 90),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+    final Dx7Voice v1 = voice(
+      32, 7,
+      operator(1, 5, 60),
+      operator(2, 2, 90),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 1, 99),
+      operator(6, 6, 50));
+    final Dx7Voice v2 = voice(
+      32, 7,
+      operator(1, 6, 50),
+      operator(2, 2, 90),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 1, 99));
+
+    Assertions.assertEquals(
+      Dx7VoiceCanonicalizer.canonicalize(v0),
+      Dx7VoiceCanonicalizer.canonicalize(v1));
+    Assertions.assertNotEquals(
+      Dx7VoiceCanonicalizer.canonicalize(v0),
+      Dx7VoiceCanonicalizer.canonicalize(v2));
+  }
+
+  @Test
+  public void testSilentModulatorIgnored()
+  {
+    /*
+     * In algorithm 1, operator 2 modulates operator 1. If operator 2 has
+     * an output level of zero, its other parameters cannot be heard.
+     */
+
+    final Dx7Voice v0 = voice(
+      1, 0,
+      operator(1, 1, 99),
+      operator(2, 2, 0),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+    final Dx7Voice v1 = voice(
+      1, 0,
+      operator(1, 1, 99),
+      operator(2, 9, 0),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+
+    Assertions.assertEquals(
+      Dx7VoiceCanonicalizer.canonicalize(v0),
+      Dx7VoiceCanonicalizer.canonicalize(v1));
+  }
+
+  @Test
+  public void testDisabledCarrierSilencesStack()
+  {
+    /*
+     * In algorithm 1, operators 4, 5, and 6 form a stack onto carrier 3.
+     * If carrier 3 is disabled, the whole stack (and the feedback on
+     * operator 6) is inaudible.
+     */
+
+    final Dx7Operator off =
+      Dx7Operator.builder()
+        .from(operator(3, 3, 80))
+        .setEnabled(false)
+        .build();
+
+    final Dx7Voice v0 = voice(
+      1, 7,
+      operator(1, 1, 99),
+      operator(2, 2, 90),
+      off,
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+    final Dx7Voice v1 = voice(
+      1, 0,
+      operator(1, 1, 99),
+      operator(2, 2, 90),
+      off,
+      operator(4, 7, 10),
+      operator(5, 8, 20),
+      operator(6, 9, 30));
+
+    final Dx7Voice c0 = Dx7VoiceCanonicalizer.canonicalize(v0);
+    Assertions.assertEquals(c0, Dx7VoiceCanonicalizer.canonicalize(v1));
+    Assertions.assertEquals(0, c0.feedback());
+    Assertions.assertFalse(c0.operator4().isEnabled());
+  }
+
+  @Test
+  public void testDeduplicatorCanonical()
+  {
+    final Dx7Voice v0 = voice(
+      32, 0,
+      operator(1, 1, 99),
+      operator(2, 2, 90),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+    final Dx7Voice v1 = voice(
+      32, 0,
+      operator(1, 2, 90),
+      operator(2, 1, 99),
+      operator(3, 3, 80),
+      operator(4, 4, 70),
+      operator(5, 5, 60),
+      operator(6, 6, 50));
+
+    final Vector<Dx7VoiceNamed> input =
+      Vector.of(
+        Dx7VoiceNamed.of("V0", v0, Optional.empty()),
+        Dx7VoiceNamed.of("V1", v1, Optional.empty()));
+
+    Assertions.assertEquals(
+      2,
+      Dx7Deduplicator.deduplicate(
+        Dx7DeduplicatorConfiguration.builder()
+          .build(), input).size());
+
+    final Vector<Dx7VoiceNamed> distinct =
+      Dx7Deduplicator.deduplicate(
+        Dx7DeduplicatorConfiguration.builder()
+          .setCanonicalize(true)
+          .build(), input);
+
+    Assertions.assertEquals(1, distinct.size());
+    Assertions.assertEquals(v0, distinct.get(0).voice());
+  }
+}
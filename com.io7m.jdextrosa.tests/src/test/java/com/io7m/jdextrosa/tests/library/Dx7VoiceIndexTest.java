@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.library;
+
+import com.io7m.jdextrosa.core.Dx7AlgorithmID;
+import com.io7m.jdextrosa.core.Dx7Voice;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.library.Dx7VoiceDistance;
+import com.io7m.jdextrosa.library.Dx7VoiceIndex;
+import com.io7m.jdextrosa.library.Dx7VoiceIndexResult;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+
+public final class Dx7VoiceIndexTest
+{
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7VoiceIndexTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(
+        e -> Assertions.fail(e.show()), URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  private static Vector<Dx7VoiceNamed> library()
+    throws IOException
+  {
+    final Vector<Dx7VoiceNamed> voices = textures();
+    return voices.appendAll(voices.map(voice -> {
+      final Dx7Voice v = voice.voice();
+      return Dx7VoiceNamed.of(
+        voice.name(),
+        Dx7Voice.builder()
+          .from(v)
+          .setLfoSpeed(v.lfoSpeed() < 50 ? v.lfoSpeed() + 10 : v.lfoSpeed() - 10)
+          .build(),
+        voice.metadata());
+    }));
+  }
+
+  private static void checkAgainstAll(
+    final Dx7VoiceIndex index,
+    final Dx7Voice query,
+    final int count)
+  {
+    final Vector<Dx7VoiceIndexResult> all = index.nearest(query, index.size());
+    final Vector<Dx7VoiceIndexResult> some = index.nearest(query, count);
+
+    Assertions.assertEquals(index.size(), all.size());
+    Assertions.assertEquals(count, some.size());
+    for (int i = 1; i < all.size(); ++i) {
+      Assertions.assertTrue(all.get(i - 1).distance() <= all.get(i).distance());
+    }
+    Assertions.assertEquals(all.take(count), some);
+  }
+
+  @Test
+  public void testNearestExact()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = library();
+    final Dx7VoiceIndex index =
+      Dx7VoiceIndex.build(Dx7VoiceDistance.builder().build(), voices);
+
+    Assertions.assertEquals(voices.size(), index.size());
+    for (final Dx7VoiceNamed voice : voices) {
+      checkAgainstAll(index, voice.voice(), 5);
+      Assertions.assertEquals(
+        0.0, index.nearest(voice.voice(), 1).get(0).distance());
+    }
+  }
+
+  @Test
+  public void testNearestByIndex()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = library();
+    final Dx7VoiceIndex index =
+      Dx7VoiceIndex.build(Dx7VoiceDistance.builder().build(), voices);
+
+    for (int i = 0; i < voices.size(); ++i) {
+      Assertions.assertEquals(
+        index.nearest(voices.get(i).voice(), 3),
+        index.nearest(i, 3));
+    }
+  }
+
+  @Test
+  public void testAlgorithmPenalty()
+    throws Exception
+  {
+    final Dx7VoiceNamed voice = textures().get(0);
+    final int algorithm = voice.voice().algorithm().id();
+    final Dx7Voice other =
+      Dx7Voice.builder()
+        .from(voice.voice())
+        .setAlgorithm(
+          Dx7AlgorithmID.of(algorithm == 32 ? 1 : 32))
+        .build();
+
+    final Dx7VoiceIndex index =
+      Dx7VoiceIndex.build(
+        Dx7VoiceDistance.builder()
+          .setCarrierWeight(1.0)
+          .setModulatorWeight(1.0)
+          .setAlgorithmPenalty(3.0)
+          .build(),
+        Vector.of(voice));
+
+    Assertions.assertEquals(
+      3.0, index.nearest(other, 1).get(0).distance(), 0.000001);
+  }
+
+  @Test
+  public void testSerialization()
+    throws Exception
+  {
+    final Vector<Dx7VoiceNamed> voices = library();
+    final Dx7VoiceIndex index =
+      Dx7VoiceIndex.build(Dx7VoiceDistance.builder().build(), voices);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    index.write(output);
+    final Dx7VoiceIndex read =
+      Dx7VoiceIndex.read(new ByteArrayInputStream(output.toByteArray()));
+
+    Assertions.assertEquals(index.distance(), read.distance());
+    Assertions.assertEquals(index.size(), read.size());
+    for (final Dx7VoiceNamed voice : voices) {
+      Assertions.assertEquals(
+        index.nearest(voice.voice(), 10),
+        read.nearest(voice.voice(), 10));
+    }
+  }
+
+  @Test
+  public void testSerializationInvalid()
+  {
+    Assertions.assertThrows(
+      IOException.class,
+      () -> Dx7VoiceIndex.read(new ByteArrayInputStream(new byte[8])));
+  }
+
+  @Test
+  public void testDistanceWeightCount()
+  {
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> Dx7VoiceDistance.builder()
+        .setParameterWeights(Vector.of(Double.valueOf(1.0)))
+        .build());
+  }
+}
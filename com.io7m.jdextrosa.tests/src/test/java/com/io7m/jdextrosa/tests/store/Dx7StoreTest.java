@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jdextrosa.tests.store;
+
+import com.io7m.jdextrosa.core.Dx7VoiceMetadata;
+import com.io7m.jdextrosa.core.Dx7VoiceNamed;
+import com.io7m.jdextrosa.core.Dx7VoiceSourceTable;
+import com.io7m.jdextrosa.io.Dx7SysExIO;
+import com.io7m.jdextrosa.store.Dx7Store;
+import com.io7m.jdextrosa.store.Dx7StoreWriter;
+import io.vavr.collection.Vector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+public final class Dx7StoreTest
+{
+  private static Vector<Dx7VoiceNamed> textures()
+    throws IOException
+  {
+    final String path = "/com/io7m/jdextrosa/tests/TEXTURES.SYX";
+    try (InputStream stream =
+           Dx7StoreTest.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new NoSuchFileException(path);
+      }
+      return Dx7SysExIO.createReader(
+        e -> Assertions.fail(e.show()), URI.create("urn:textures"), stream)
+        .parse();
+    }
+  }
+
+  /**
+   * Give the voices a mix of metadata, short names, and disabled operators.
+   */
+
+  private static Vector<Dx7VoiceNamed> varied(
+    final Vector<Dx7VoiceNamed> voices)
+  {
+    return voices.zipWithIndex().map(pair -> {
+      final Dx7VoiceNamed voice = pair._1;
+      final int index = pair._2.intValue();
+      final URI source = URI.create("urn:source:" + (index / 8));
+      final URI id = URI.create("urn:source:" + (index / 8) + "/" + index);
+      final String name = index % 2 == 0 ? voice.name() : "V" + index;
+      final Optional<Dx7VoiceMetadata> metadata;
+      if (index % 3 == 0) {
+        metadata = Optional.empty();
+      } else if (index % 3 == 1) {
+        metadata = Optional.of(Dx7VoiceMetadata.of(source, id));
+      } else {
+        metadata = Optional.of(
+          Dx7VoiceSourceTable.derivedMetadata(source, name));
+      }
+      return Dx7VoiceNamed.of(
+        name,
+        Dx7SysExIO.withOperatorsEnabled(voice.voice(), index % 64),
+        metadata);
+    });
+  }
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-store-");
+    final Vector<Dx7VoiceNamed> voices = varied(textures());
+
+    try (Dx7StoreWriter writer = Dx7StoreWriter.open(directory)) {
+      for (int index = 0; index < voices.size(); ++index) {
+        Assertions.assertEquals(index, writer.append(voices.get(index)));
+      }
+      Assertions.assertEquals(voices.size(), writer.size());
+    }
+
+    Assertions.assertTrue(Dx7Store.exists(directory));
+    try (Dx7Store store = Dx7Store.open(directory)) {
+      Assertions.assertEquals(voices.size(), store.size());
+      Assertions.assertEquals(voices, store.voices());
+      Assertions.assertEquals(voices.get(5), store.voice(5));
+      Assertions.assertEquals(voices.slice(3, 7), store.voices(3, 4));
+      Assertions.assertEquals(
+        voices.takeRight(2), store.voices(voices.size() - 2, 10));
+      Assertions.assertThrows(
+        IndexOutOfBoundsException.class,
+        () -> store.voice(voices.size()));
+    }
+  }
+
+  @Test
+  public void testReopenAppends()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-store-");
+    final Vector<Dx7VoiceNamed> voices = varied(textures());
+
+    try (Dx7StoreWriter writer = Dx7StoreWriter.open(directory)) {
+      for (final Dx7VoiceNamed voice : voices) {
+        writer.append(voice);
+      }
+    }
+    try (Dx7StoreWriter writer = Dx7StoreWriter.open(directory)) {
+      Assertions.assertEquals(voices.size(), writer.size());
+      for (final Dx7VoiceNamed voice : voices) {
+        writer.append(voice);
+      }
+    }
+
+    try (Dx7Store store = Dx7Store.open(directory)) {
+      Assertions.assertEquals(voices.appendAll(voices), store.voices());
+    }
+  }
+
+  @Test
+  public void testReaderSeesAppends()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-store-");
+    final Vector<Dx7VoiceNamed> voices = varied(textures());
+
+    try (Dx7StoreWriter writer = Dx7StoreWriter.open(directory)) {
+      writer.append(voices.get(0));
+
+      try (Dx7Store store = Dx7Store.open(directory)) {
+        Assertions.assertEquals(1, store.size());
+        writer.append(voices.get(1));
+        Assertions.assertEquals(2, store.size());
+        Assertions.assertEquals(voices.get(1), store.voice(1));
+      }
+    }
+  }
+
+  @Test
+  public void testSingleWriter()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-store-");
+    try (Dx7StoreWriter writer = Dx7StoreWriter.open(directory)) {
+      Assertions.assertThrows(
+        IOException.class, () -> Dx7StoreWriter.open(directory));
+    }
+    Dx7StoreWriter.open(directory).close();
+  }
+
+  @Test
+  public void testNotAStore()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("dx7-store-");
+    Files.write(
+      directory.resolve("voices.dx7s"), new byte[Dx7SysExIO.PACKED_VOICE_SIZE]);
+
+    Assertions.assertThrows(IOException.class, () -> Dx7Store.open(directory));
+    Assertions.assertThrows(
+      IOException.class, () -> Dx7StoreWriter.open(directory));
+  }
+}